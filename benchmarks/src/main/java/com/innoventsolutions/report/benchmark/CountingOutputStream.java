@@ -0,0 +1,24 @@
+package com.innoventsolutions.report.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * Discards the output of an emitter and counts the bytes.
+ */
+public class CountingOutputStream extends OutputStream {
+	private long count = 0;
+
+	@Override
+	public void write(final int b) {
+		count++;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) {
+		count += len;
+	}
+
+	public long getCount() {
+		return count;
+	}
+}
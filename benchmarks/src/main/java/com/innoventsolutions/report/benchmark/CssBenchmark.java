@@ -0,0 +1,83 @@
+package com.innoventsolutions.report.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.innoventsolutions.report.css.CSS;
+import com.innoventsolutions.report.css.CSS.StyleMapHolder;
+import com.innoventsolutions.report.css.StyleResolver;
+import com.innoventsolutions.report.css.StyleVector;
+import com.innoventsolutions.util.DesignUtil;
+
+/**
+ * Style parsing and resolution: DesignUtil.parseStyles on the design side, the
+ * CSS cascade from scratch and the cached cascade the PDF emitter runs for
+ * every cell. The chain depth is the number of nested style maps (table,
+ * column, row, cell, component).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CssBenchmark {
+	@Param({ "1", "5" })
+	public int chainDepth;
+	private String styleString;
+	private List<Map<String, String>> styleMaps;
+	private StyleResolver styleResolver;
+
+	@Setup
+	public void setup() {
+		final StringBuilder sb = new StringBuilder();
+		for (final String style : SyntheticReport.STYLES) {
+			sb.append(style);
+			sb.append("; ");
+		}
+		styleString = sb.toString();
+		styleMaps = new ArrayList<>();
+		for (int i = 0; i < chainDepth; i++) {
+			styleMaps.add(DesignUtil.parseStyles(
+				SyntheticReport.STYLES[i % SyntheticReport.STYLES.length]));
+		}
+		styleResolver = new StyleResolver();
+	}
+
+	@Benchmark
+	public Map<String, String> parseStyles() {
+		return DesignUtil.parseStyles(styleString);
+	}
+
+	@Benchmark
+	public StyleVector cascade() {
+		StyleMapHolder holder = null;
+		for (final Map<String, String> styleMap : styleMaps) {
+			holder = new CSS.StyleMapHolder(styleMap, holder);
+		}
+		return holder.getStyleVector();
+	}
+
+	@Benchmark
+	public StyleVector resolve() {
+		StyleVector styles = StyleVector.DEFAULTS;
+		for (final Map<String, String> styleMap : styleMaps) {
+			styles = styleResolver.resolve(styleMap, styles);
+		}
+		return styles;
+	}
+}
@@ -0,0 +1,85 @@
+package com.innoventsolutions.report.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.innoventsolutions.report.Emitter;
+import com.innoventsolutions.report.ExcelEmitter;
+import com.innoventsolutions.report.HtmlEmitter;
+import com.innoventsolutions.report.PdfEmitter;
+import com.innoventsolutions.report.XlsxEmitter;
+import com.innoventsolutions.report.output.Compression;
+import com.innoventsolutions.report.output.OutputSink;
+
+/**
+ * A complete report run per operation: grouping plus one emitter writing into
+ * a sink that counts and discards the bytes. The compression parameter shows
+ * what the OutputSink adds on top of the emitter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EmitterBenchmark {
+	@Param({ "html", "html-classes", "xlsx", "xlsx-direct", "pdf" })
+	public String format;
+	@Param({ "NONE", "GZIP" })
+	public String compression;
+	@Param({ "10000" })
+	public int rowCount;
+	@Param({ "2" })
+	public int groupDepth;
+	@Param({ "8" })
+	public int columnCount;
+	@Param({ "0.5" })
+	public double styleDensity;
+	private SyntheticReport report;
+
+	@Setup
+	public void setup() {
+		report = new SyntheticReport(rowCount, groupDepth, columnCount, styleDensity);
+	}
+
+	private Emitter newEmitter(final OutputSink sink) {
+		switch (format) {
+		case "html":
+			return new HtmlEmitter(sink);
+		case "html-classes":
+			return new HtmlEmitter(sink, true);
+		case "xlsx":
+			return new ExcelEmitter(sink);
+		case "xlsx-direct":
+			return new XlsxEmitter(sink);
+		case "pdf":
+			return new PdfEmitter(sink);
+		default:
+			throw new IllegalArgumentException("Unknown format " + format);
+		}
+	}
+
+	@Benchmark
+	public long emit(final RowCounters counters) throws IOException {
+		final CountingOutputStream outputStream = new CountingOutputStream();
+		final OutputSink sink = new OutputSink(outputStream, Compression.valueOf(compression));
+		final Emitter emitter = newEmitter(sink);
+		emitter.emit(report.newBuilder().build(report.getRows().stream()), report.getTable());
+		sink.close();
+		counters.rows += rowCount;
+		counters.bytes += outputStream.getCount();
+		return outputStream.getCount();
+	}
+}
@@ -0,0 +1,59 @@
+package com.innoventsolutions.report.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.innoventsolutions.report.GroupedDataStreamBuilder;
+import com.innoventsolutions.report.benchmark.SyntheticReport.DataRow;
+
+/**
+ * GroupedDataStreamBuilder.build with and without the sort.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupingBenchmark {
+	@Param({ "100000" })
+	public int rowCount;
+	@Param({ "1", "3" })
+	public int groupDepth;
+	@Param({ "8" })
+	public int columnCount;
+	private SyntheticReport report;
+	private List<DataRow> shuffledRows;
+
+	@Setup
+	public void setup() {
+		report = new SyntheticReport(rowCount, groupDepth, columnCount, 0.0);
+		shuffledRows = report.getShuffledRows();
+	}
+
+	@Benchmark
+	public void build(final RowCounters counters, final Blackhole blackhole) {
+		report.newBuilder().build(report.getRows().stream()).forEach(blackhole::consume);
+		counters.rows += rowCount;
+	}
+
+	@Benchmark
+	public void sortAndBuild(final RowCounters counters, final Blackhole blackhole) {
+		final GroupedDataStreamBuilder<DataRow> builder = report.newBuilder();
+		builder.build(builder.sort(shuffledRows.stream())).forEach(blackhole::consume);
+		counters.rows += rowCount;
+	}
+}
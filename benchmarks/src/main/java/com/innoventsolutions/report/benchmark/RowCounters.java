@@ -0,0 +1,24 @@
+package com.innoventsolutions.report.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary results reported next to the operation rate. In throughput mode
+ * JMH reports them per second, i.e. rows/s and bytes/s.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class RowCounters {
+	public long rows;
+	public long bytes;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		rows = 0;
+		bytes = 0;
+	}
+}
@@ -0,0 +1,387 @@
+package com.innoventsolutions.report.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.innoventsolutions.data.model.AggregateDataRow;
+import com.innoventsolutions.data.model.BaseAggregateDataRowImpl;
+import com.innoventsolutions.report.GroupedDataStreamBuilder;
+import com.innoventsolutions.report.design.Cell;
+import com.innoventsolutions.report.design.Column;
+import com.innoventsolutions.report.design.DateData;
+import com.innoventsolutions.report.design.FloatData;
+import com.innoventsolutions.report.design.Group;
+import com.innoventsolutions.report.design.IntegerData;
+import com.innoventsolutions.report.design.Row;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.design.TextData;
+import com.innoventsolutions.report.design.impl.CellImpl;
+import com.innoventsolutions.report.design.impl.ColumnImpl;
+import com.innoventsolutions.report.design.impl.LabelImpl;
+import com.innoventsolutions.report.design.impl.RowImpl;
+import com.innoventsolutions.util.DesignUtil;
+
+/**
+ * Generates rows and a matching design for the benchmarks. The columns cycle
+ * through text, integer, float and date data; every level of grouping has a
+ * header and a footer row; the style density is the fraction of design
+ * components that carry an inline style. Rows are generated in group order
+ * and the same seed always produces the same report.
+ */
+public class SyntheticReport {
+	static final String[] STYLES = { "font-weight: bold; color: #333333",
+			"text-align: right; padding: 2pt",
+			"border-width: 1pt; border-color: #cccccc; background-color: #eeeeee",
+			"font-size: 10pt; font-style: italic", "padding: 1pt 4pt; border-bottom-width: 1pt" };
+	private static final int FANOUT = 10;
+
+	public static class DataRow {
+		final long[] keys;
+		final long[] longs;
+		final double[] doubles;
+		final String[] strings;
+
+		DataRow(final int groupDepth, final int columnCount) {
+			keys = new long[groupDepth];
+			longs = new long[columnCount];
+			doubles = new double[columnCount];
+			strings = new String[columnCount];
+		}
+	}
+
+	public static class LevelRow extends BaseAggregateDataRowImpl<DataRow> {
+		long count;
+		long sum;
+		double total;
+		boolean finished;
+
+		@Override
+		public void accumulate(final DataRow dataRow) {
+			count++;
+			sum += dataRow.longs[1 % dataRow.longs.length];
+			total += dataRow.doubles[2 % dataRow.doubles.length];
+		}
+
+		@Override
+		public void finish() {
+			finished = true;
+		}
+
+		@Override
+		public boolean isFinished() {
+			return finished;
+		}
+
+		@Override
+		public void clear() {
+			count = 0;
+			sum = 0;
+			total = 0;
+			finished = false;
+		}
+	}
+
+	private final int groupDepth;
+	private final int columnCount;
+	private final double styleDensity;
+	private final Random random;
+	private final List<DataRow> rows;
+	private final Table table;
+
+	public SyntheticReport(final int rowCount, final int groupDepth, final int columnCount,
+			final double styleDensity) {
+		this.groupDepth = groupDepth;
+		this.columnCount = columnCount;
+		this.styleDensity = styleDensity;
+		this.random = new Random(42);
+		this.rows = createRows(rowCount);
+		this.table = createTable();
+	}
+
+	public List<DataRow> getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the rows in random order, for benchmarks that include the sort
+	 */
+	public List<DataRow> getShuffledRows() {
+		final List<DataRow> shuffled = new ArrayList<>(rows);
+		Collections.shuffle(shuffled, new Random(7));
+		return shuffled;
+	}
+
+	public Table getTable() {
+		return table;
+	}
+
+	public GroupedDataStreamBuilder<DataRow> newBuilder() {
+		return new GroupedDataStreamBuilder<DataRow>() {
+			@Override
+			protected int getLevelCount() {
+				return groupDepth;
+			}
+
+			@Override
+			protected AggregateDataRow<DataRow> newLevelRow(final int level) {
+				return new LevelRow();
+			}
+
+			@Override
+			protected int compareLevel(final DataRow prevRow, final DataRow thisRow,
+					final int level) {
+				return Long.compare(prevRow.keys[level - 1], thisRow.keys[level - 1]);
+			}
+		};
+	}
+
+	private List<DataRow> createRows(final int rowCount) {
+		final List<DataRow> rows = new ArrayList<>(rowCount);
+		final long baseTime = 1500000000000L;
+		for (int i = 0; i < rowCount; i++) {
+			final DataRow dataRow = new DataRow(groupDepth, columnCount);
+			long divisor = FANOUT;
+			for (int level = 1; level <= groupDepth; level++) {
+				dataRow.keys[level - 1] = i / divisor;
+				divisor *= FANOUT;
+			}
+			for (int column = 0; column < columnCount; column++) {
+				switch (column % 4) {
+				case 0:
+					dataRow.strings[column] = "Item " + i + " / " + column;
+					break;
+				case 1:
+					dataRow.longs[column] = random.nextInt(1000000);
+					break;
+				case 2:
+					dataRow.doubles[column] = random.nextDouble() * 10000.0;
+					break;
+				default:
+					dataRow.longs[column] = baseTime + random.nextInt(1000000000);
+				}
+			}
+			rows.add(dataRow);
+		}
+		return rows;
+	}
+
+	private String nextStyle() {
+		if (random.nextDouble() >= styleDensity) {
+			return "";
+		}
+		return STYLES[random.nextInt(STYLES.length)];
+	}
+
+	private static class StyledComponent {
+		final Map<String, String> styles;
+
+		StyledComponent(final String styles) {
+			this.styles = DesignUtil.parseStyles(styles);
+		}
+
+		public Map<String, String> getStyles() {
+			return styles;
+		}
+	}
+
+	private Cell createDataCell(final int column) {
+		final String styles = nextStyle();
+		switch (column % 4) {
+		case 0:
+			return new CellImpl(new StyledText(styles, column));
+		case 1:
+			return new CellImpl(new StyledInteger(styles, column));
+		case 2:
+			return new CellImpl(new StyledFloat(styles, column));
+		default:
+			return new CellImpl(new StyledDate(styles, column));
+		}
+	}
+
+	private static class StyledText extends StyledComponent implements TextData {
+		private final int column;
+
+		StyledText(final String styles, final int column) {
+			super(styles);
+			this.column = column;
+		}
+
+		@Override
+		public String getValue(final Object dataRow) {
+			return ((DataRow) dataRow).strings[column];
+		}
+	}
+
+	private static class StyledInteger extends StyledComponent implements IntegerData {
+		private final int column;
+
+		StyledInteger(final String styles, final int column) {
+			super(styles);
+			this.column = column;
+		}
+
+		@Override
+		public long getValue(final Object dataRow) {
+			return ((DataRow) dataRow).longs[column];
+		}
+
+		@Override
+		public String getFormat() {
+			return "#,##0";
+		}
+	}
+
+	private static class StyledFloat extends StyledComponent implements FloatData {
+		private final int column;
+
+		StyledFloat(final String styles, final int column) {
+			super(styles);
+			this.column = column;
+		}
+
+		@Override
+		public double getValue(final Object dataRow) {
+			return ((DataRow) dataRow).doubles[column];
+		}
+
+		@Override
+		public String getFormat() {
+			return "#,##0.00";
+		}
+	}
+
+	private static class StyledDate extends StyledComponent implements DateData {
+		private final int column;
+
+		StyledDate(final String styles, final int column) {
+			super(styles);
+			this.column = column;
+		}
+
+		@Override
+		public Date getValue(final Object dataRow) {
+			return new Date(((DataRow) dataRow).longs[column]);
+		}
+
+		@Override
+		public String getFormat() {
+			return "yyyy-MM-dd";
+		}
+	}
+
+	private static class Count extends StyledComponent implements IntegerData {
+		Count(final String styles) {
+			super(styles);
+		}
+
+		@Override
+		public long getValue(final Object dataRow) {
+			return ((LevelRow) dataRow).count;
+		}
+
+		@Override
+		public String getFormat() {
+			return null;
+		}
+	}
+
+	private static class Total extends StyledComponent implements FloatData {
+		Total(final String styles) {
+			super(styles);
+		}
+
+		@Override
+		public double getValue(final Object dataRow) {
+			return ((LevelRow) dataRow).total;
+		}
+
+		@Override
+		public String getFormat() {
+			return "#,##0.00";
+		}
+	}
+
+	private Row createSummaryRow(final String label) {
+		return new RowImpl(new LabelImpl(label, nextStyle()), new Count(nextStyle()),
+				new Total(nextStyle())) {
+			private final Map<String, String> styles = DesignUtil.parseStyles(nextStyle());
+
+			@Override
+			public Map<String, String> getStyles() {
+				return styles;
+			}
+		};
+	}
+
+	private Table createTable() {
+		final List<Column> columns = new ArrayList<>();
+		final List<Cell> headerCells = new ArrayList<>();
+		final List<Cell> detailCells = new ArrayList<>();
+		for (int column = 0; column < columnCount; column++) {
+			columns.add(new ColumnImpl(nextStyle()));
+			headerCells.add(new CellImpl(new LabelImpl("Column " + column, nextStyle())));
+			detailCells.add(createDataCell(column));
+		}
+		final List<Row> headerRows = Collections.singletonList(
+			new RowImpl(headerCells.toArray(new Cell[0])));
+		final List<Row> detailRows = Collections.singletonList(
+			new RowImpl(detailCells.toArray(new Cell[0])));
+		final List<Row> footerRows = Collections.singletonList(createSummaryRow("Grand total"));
+		final List<Group> groups = new ArrayList<>();
+		for (int level = 1; level <= groupDepth; level++) {
+			final List<Row> groupHeaderRows = Collections.singletonList(
+				new RowImpl(new LabelImpl("Group level " + level, nextStyle())));
+			final List<Row> groupFooterRows = Collections.singletonList(
+				createSummaryRow("Total level " + level));
+			groups.add(new Group() {
+				@Override
+				public List<Row> getHeaderRows() {
+					return groupHeaderRows;
+				}
+
+				@Override
+				public List<Row> getFooterRows() {
+					return groupFooterRows;
+				}
+			});
+		}
+		final Map<String, String> tableStyles = new HashMap<>(
+				DesignUtil.parseStyles("border-width: 1pt"));
+		return new Table() {
+			@Override
+			public List<Row> getRows() {
+				return detailRows;
+			}
+
+			@Override
+			public List<Column> getColumns() {
+				return columns;
+			}
+
+			@Override
+			public List<Group> getGroups() {
+				return groups;
+			}
+
+			@Override
+			public List<Row> getHeaderRows() {
+				return headerRows;
+			}
+
+			@Override
+			public List<Row> getFooterRows() {
+				return footerRows;
+			}
+
+			@Override
+			public Map<String, String> getStyles() {
+				return tableStyles;
+			}
+		};
+	}
+}
@@ -0,0 +1,8 @@
+package com.innoventsolutions.report;
+
+/**
+ * A stage of a report run that stops when its token is cancelled.
+ */
+public interface Cancellable {
+	void setCancellationToken(CancellationToken cancellationToken);
+}
@@ -0,0 +1,62 @@
+package com.innoventsolutions.report;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Signals that a report run has been abandoned. The query, the builder and
+ * the emitters check the token between rows and stop with a
+ * {@link ReportCancelledException}; listeners release anything that is
+ * blocked outside the stream, e.g. a statement waiting on the database.
+ */
+public class CancellationToken {
+	private volatile boolean cancelled = false;
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	public void cancel() {
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			cancelled = true;
+		}
+		for (final Runnable listener : listeners) {
+			try {
+				listener.run();
+			}
+			catch (final RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void throwIfCancelled() {
+		if (cancelled) {
+			throw new ReportCancelledException();
+		}
+	}
+
+	/**
+	 * Add a listener that is run when the token is cancelled. If the token is
+	 * already cancelled the listener is run immediately.
+	 *
+	 * @param listener
+	 */
+	public void addListener(final Runnable listener) {
+		synchronized (this) {
+			if (!cancelled) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	public void removeListener(final Runnable listener) {
+		listeners.remove(listener);
+	}
+}
@@ -0,0 +1,243 @@
+package com.innoventsolutions.report;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.innoventsolutions.report.css.CSS;
+import com.innoventsolutions.report.css.CssProperty;
+import com.innoventsolutions.report.css.CssValue;
+import com.innoventsolutions.report.css.StyleResolver;
+import com.innoventsolutions.report.css.StyleVector;
+
+/**
+ * Estimates the width of each visible column from a sample of its values
+ * rather than from all of them: the first values of a column are measured as
+ * they come, and a fixed size reservoir keeps an even sample of the rest,
+ * measured only when the widths are asked for. A column is as wide as its
+ * widest sampled value, within {@link #setMinWidth(float)} and
+ * {@link #setMaxWidth(float)}.
+ * <p>
+ * Values are measured with the Helvetica widths of the standard PDF fonts,
+ * which are close enough for Arial and Calibri too, or as monospaced when the
+ * font family is courier. The font of each distinct style is looked up once.
+ * <p>
+ * To avoid formatting values that are not sampled, ask {@link #sample(int)}
+ * first and {@link #add(int, String, StyleVector)} the value only if it
+ * returns true. Not thread safe; the sample is repeatable from run to run.
+ */
+final class ColumnWidthEstimator {
+	static final int DEFAULT_HEAD_SIZE = 100;
+	static final int DEFAULT_RESERVOIR_SIZE = 100;
+	private static final float DIGIT_WIDTH = 0.556F;
+	private static final float COURIER_WIDTH = 0.6F;
+	private static final float OTHER_WIDTH = 0.556F;
+	// Helvetica and Helvetica-Bold in thousandths of an em, from ' ' to '~'
+	private static final short[] HELVETICA = { 278, 278, 355, 556, 556, 889, 667, 191, 333, 333,
+			389, 584, 278, 333, 278, 278, 556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 278, 278,
+			584, 584, 584, 556, 1015, 667, 667, 722, 722, 667, 611, 778, 722, 278, 500, 667, 556,
+			833, 722, 778, 667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 278, 278, 278, 469,
+			556, 333, 556, 556, 500, 556, 556, 278, 556, 556, 222, 222, 500, 222, 833, 556, 556, 556,
+			556, 333, 500, 278, 556, 500, 722, 500, 500, 500, 334, 260, 334, 584 };
+	private static final short[] HELVETICA_BOLD = { 278, 333, 474, 556, 556, 889, 722, 238, 333,
+			333, 389, 584, 278, 333, 278, 278, 556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 333,
+			333, 584, 584, 584, 611, 975, 722, 722, 722, 722, 667, 611, 778, 722, 278, 556, 722, 611,
+			833, 722, 778, 667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 333, 278, 333, 584,
+			556, 333, 556, 611, 556, 611, 556, 333, 611, 611, 278, 278, 556, 278, 889, 611, 611, 611,
+			611, 389, 556, 333, 611, 556, 778, 556, 556, 500, 389, 280, 389, 584 };
+	private final int headSize;
+	private final int reservoirSize;
+	private final long[] counts;
+	private final float[] headWidths;
+	private final String[][] reservoirTexts;
+	private final Metrics[][] reservoirMetrics;
+	// the reservoir slot of a value that sample() accepted, -1 for the head
+	private final int[] pendingSlots;
+	private final boolean[] pendingAdded;
+	private final Random random = new Random(1);
+	private final Map<StyleVector, Metrics> metrics = new IdentityHashMap<>();
+	private float minWidth = 24.0F;
+	private float maxWidth = 288.0F;
+
+	/**
+	 * The font of a style
+	 */
+	private static final class Metrics {
+		final short[] widths; // null when monospaced
+		final float size;
+		final float padding;
+
+		Metrics(final short[] widths, final float size, final float padding) {
+			this.widths = widths;
+			this.size = size;
+			this.padding = padding;
+		}
+
+		float measure(final String text) {
+			float width = 0F;
+			if (widths == null) {
+				width = text.length() * COURIER_WIDTH;
+			}
+			else {
+				for (int i = 0; i < text.length(); i++) {
+					final char c = text.charAt(i);
+					if (c >= ' ' && c <= '~') {
+						width += widths[c - ' '] / 1000.0F;
+					}
+					else if (!Character.isLowSurrogate(c)) {
+						width += OTHER_WIDTH;
+					}
+				}
+			}
+			return width * size + padding;
+		}
+	}
+
+	/**
+	 * @param columnCount the number of visible columns
+	 * @param headSize the first values of a column that are all measured
+	 * @param reservoirSize the values sampled from the rest, 0 to measure
+	 *            only the first ones
+	 */
+	ColumnWidthEstimator(final int columnCount, final int headSize, final int reservoirSize) {
+		if (headSize < 0 || reservoirSize < 0) {
+			throw new IllegalArgumentException("Sample sizes must not be negative");
+		}
+		this.headSize = headSize;
+		this.reservoirSize = reservoirSize;
+		counts = new long[columnCount];
+		headWidths = new float[columnCount];
+		reservoirTexts = new String[columnCount][reservoirSize];
+		reservoirMetrics = new Metrics[columnCount][reservoirSize];
+		pendingSlots = new int[columnCount];
+		pendingAdded = new boolean[columnCount];
+	}
+
+	/**
+	 * @param minWidth the narrowest column in points, 24 by default
+	 */
+	void setMinWidth(final float minWidth) {
+		this.minWidth = minWidth;
+	}
+
+	/**
+	 * @param maxWidth the widest column in points, 288 (4 inches) by default
+	 */
+	void setMaxWidth(final float maxWidth) {
+		this.maxWidth = maxWidth;
+	}
+
+	/**
+	 * Count a value of a column and decide whether it is sampled.
+	 *
+	 * @param column the index among the visible columns
+	 * @return true if the value should be passed to
+	 *         {@link #add(int, String, StyleVector)}
+	 */
+	boolean sample(final int column) {
+		final long count = counts[column]++;
+		pendingAdded[column] = false;
+		if (count < headSize) {
+			pendingSlots[column] = -1;
+			return true;
+		}
+		final long seen = count - headSize;
+		if (seen < reservoirSize) {
+			pendingSlots[column] = (int) seen;
+			return true;
+		}
+		final long slot = (long) (random.nextDouble() * (seen + 1));
+		if (slot < reservoirSize) {
+			pendingSlots[column] = (int) slot;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Add the value that {@link #sample(int)} last accepted for the column. A
+	 * value shown as several lines may be added a line at a time, the widest
+	 * one counts.
+	 *
+	 * @param text the value as it is shown, null for nothing
+	 * @param styles the value's style, null for the defaults
+	 */
+	void add(final int column, final String text, final StyleVector styles) {
+		if (text == null) {
+			return;
+		}
+		final Metrics metrics = getMetrics(styles == null ? StyleVector.DEFAULTS : styles);
+		final int slot = pendingSlots[column];
+		if (slot < 0) {
+			headWidths[column] = Math.max(headWidths[column], metrics.measure(text));
+		}
+		else if (!pendingAdded[column]
+			|| metrics.measure(text) > reservoirMetrics[column][slot].measure(
+				reservoirTexts[column][slot])) {
+			reservoirTexts[column][slot] = text;
+			reservoirMetrics[column][slot] = metrics;
+		}
+		pendingAdded[column] = true;
+	}
+
+	/**
+	 * @return the width of each visible column in points
+	 */
+	float[] getWidths() {
+		final float[] widths = new float[counts.length];
+		for (int column = 0; column < widths.length; column++) {
+			float width = headWidths[column];
+			for (int slot = 0; slot < reservoirSize; slot++) {
+				final String text = reservoirTexts[column][slot];
+				if (text != null) {
+					width = Math.max(width,
+						reservoirMetrics[column][slot].measure(text));
+				}
+			}
+			widths[column] = Math.min(maxWidth, Math.max(minWidth, width));
+		}
+		return widths;
+	}
+
+	/**
+	 * @param points a width from {@link #getWidths()}
+	 * @param fontSize the size of the workbook's default font
+	 * @return the width in the 1/256ths of a character that Excel uses,
+	 *         with a character of padding
+	 */
+	static int toExcelWidth(final float points, final float fontSize) {
+		final float characters = points / (DIGIT_WIDTH * fontSize) + 1.0F;
+		return Math.min(255 * 256, Math.round(characters * 256.0F));
+	}
+
+	private Metrics getMetrics(final StyleVector styles) {
+		Metrics result = metrics.get(styles);
+		if (result == null) {
+			final CssValue family = styles.get(CssProperty.FONT_FAMILY);
+			final CssValue weight = styles.get(CssProperty.FONT_WEIGHT);
+			final short[] widths;
+			if (family != null && family.getValues()[0].isIdent("courier")) {
+				widths = null;
+			}
+			else if (weight != null && weight.isIdent("bold")) {
+				widths = HELVETICA_BOLD;
+			}
+			else {
+				widths = HELVETICA;
+			}
+			final float size = CSS.getFontSize(styles.get(CssProperty.FONT_SIZE));
+			final float padding = getPadding(styles.get(CssProperty.PADDING_LEFT), size)
+				+ getPadding(styles.get(CssProperty.PADDING_RIGHT), size);
+			result = new Metrics(widths, size, padding);
+			if (metrics.size() >= StyleResolver.MAX_STYLE_MAPS) {
+				metrics.clear();
+			}
+			metrics.put(styles, result);
+		}
+		return result;
+	}
+
+	private static float getPadding(final CssValue cssValue, final float fontSize) {
+		return cssValue != null && cssValue.isLength() ? cssValue.toPoints(fontSize) : 0F;
+	}
+}
@@ -0,0 +1,319 @@
+package com.innoventsolutions.report;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import com.innoventsolutions.report.design.Cell;
+import com.innoventsolutions.report.design.Column;
+import com.innoventsolutions.report.design.ComponentKind;
+import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.design.DateData;
+import com.innoventsolutions.report.design.FloatData;
+import com.innoventsolutions.report.design.IntegerData;
+import com.innoventsolutions.report.design.Label;
+import com.innoventsolutions.report.design.ReportComponent;
+import com.innoventsolutions.report.design.Row;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.design.TextData;
+import com.innoventsolutions.report.file.ColumnType;
+import com.innoventsolutions.report.file.ColumnarQuery;
+import com.innoventsolutions.report.file.ColumnarWriter;
+import com.innoventsolutions.report.metrics.MeteredOutputStream;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+import com.innoventsolutions.report.metrics.StageClock;
+import com.innoventsolutions.report.output.OutputSink;
+
+/**
+ * Writes the detail rows of the report as a columnar file that
+ * {@link ColumnarQuery} reads back, for analytics jobs that would otherwise
+ * parse CSV. Each data component of the detail rows, in the order of the
+ * rows, the visible columns and the cells, is a file column: text as STRING,
+ * integers as LONG, floats as DOUBLE and dates as DATE. Labels, group and
+ * table headers and footers, formats and styles are left out. A component
+ * that is hidden, or in a row that is hidden, is null.
+ * <p>
+ * A file column is named after the labels in the same design column of the
+ * first table header row, or "column" and the design column number if there
+ * are none, with a suffix where that name is already taken.
+ * <p>
+ * The detail rows of the design must have the same components on every
+ * call of {@link Table#getRows()}.
+ */
+public class ColumnarEmitter implements Emitter {
+	private final OutputStream outputStream;
+	private int blockRows = 0x10000;
+	private int compressionLevel = Deflater.BEST_SPEED;
+	private int dictionaryLimit = 0x1000;
+	private CancellationToken cancellationToken = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
+
+	public ColumnarEmitter(final OutputStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
+	public ColumnarEmitter(final OutputSink sink) {
+		this(sink.getOutputStream());
+	}
+
+	/**
+	 * @see ColumnarWriter#setBlockRows(int)
+	 */
+	public void setBlockRows(final int blockRows) {
+		this.blockRows = blockRows;
+	}
+
+	/**
+	 * @see ColumnarWriter#setCompressionLevel(int)
+	 */
+	public void setCompressionLevel(final int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @see ColumnarWriter#setDictionaryLimit(int)
+	 */
+	public void setDictionaryLimit(final int dictionaryLimit) {
+		this.dictionaryLimit = dictionaryLimit;
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Reports {@link Stage#EMIT} for each binding, with a row out for each
+	 * detail binding. Writes to the output stream are counted and its flush
+	 * and close are reported as {@link Stage#FLUSH}.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
+	@Override
+	public void emit(final Stream<DataRowBinding> stream, final Table table) {
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final OutputStream outputStream = metered
+				? new MeteredOutputStream(this.outputStream, metricsListener)
+				: this.outputStream;
+		final List<Column> columns = table.getColumns();
+		final List<com.innoventsolutions.report.file.Column> fileColumns = getFileColumns(table,
+			columns);
+		if (fileColumns.isEmpty()) {
+			throw new IllegalArgumentException("The detail rows have no data components");
+		}
+		// the cells of each detail row depend only on the design
+		final List<Row> rows = table.getRows();
+		final Cell[][] rowCells = new Cell[rows.size()][];
+		for (int i = 0; i < rowCells.length; i++) {
+			rowCells[i] = getCells(rows.get(i), columns);
+		}
+		final ColumnarWriter writer = new ColumnarWriter(outputStream, fileColumns);
+		boolean complete = false;
+		try {
+			writer.setBlockRows(blockRows);
+			writer.setCompressionLevel(compressionLevel);
+			writer.setDictionaryLimit(dictionaryLimit);
+			final Iterator<DataRowBinding> iterator = stream.iterator();
+			while (iterator.hasNext()) {
+				final DataRowBinding dataRowBinding = iterator.next();
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				if (dataRowBinding.getLevel() != 0
+					|| dataRowBinding.getType() != DataRowBinding.Type.DETAIL) {
+					if (metered) {
+						metricsListener.rowsIn(Stage.EMIT, 1);
+					}
+					continue;
+				}
+				final long start = metered ? System.nanoTime() : 0L;
+				final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+				emitDetail(writer, dataRowBinding, rows, rowCells, fileColumns.size());
+				if (metered) {
+					StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+					metricsListener.rowsIn(Stage.EMIT, 1);
+					metricsListener.rowsOut(Stage.EMIT, 1);
+				}
+			}
+			complete = true;
+		}
+		finally {
+			try {
+				if (complete) {
+					writer.close();
+				}
+				else {
+					// no footer, so the partial file is not mistaken for a whole one
+					outputStream.close();
+				}
+			}
+			catch (final IOException e) {
+				if (complete) {
+					throw new RuntimeException("Failed to write columnar file", e);
+				}
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return the cells of a row by design column, null for hidden columns
+	 *         and those covered by a spanning cell
+	 */
+	private static Cell[] getCells(final Row row, final List<Column> columns) {
+		final Cell[] cells = new Cell[columns.size()];
+		final Iterator<Cell> cellIterator = row.getCells().iterator();
+		int spanning = 1;
+		for (int i = 0; i < cells.length; i++) {
+			if (columns.get(i).isHidden(null)) {
+				if (cellIterator.hasNext()) {
+					cellIterator.next(); // swallow the cell
+				}
+				continue;
+			}
+			if (spanning > 1) {
+				spanning--;
+				continue;
+			}
+			if (cellIterator.hasNext()) {
+				cells[i] = cellIterator.next();
+				spanning = cells[i].getColSpan();
+			}
+		}
+		return cells;
+	}
+
+	private static boolean isData(final ComponentKind kind) {
+		return kind == ComponentKind.TEXT || kind == ComponentKind.INTEGER
+			|| kind == ComponentKind.FLOAT || kind == ComponentKind.DATE;
+	}
+
+	private static List<com.innoventsolutions.report.file.Column> getFileColumns(
+			final Table table, final List<Column> columns) {
+		final String[] headings = new String[columns.size()];
+		final List<Row> headerRows = table.getHeaderRows();
+		if (!headerRows.isEmpty()) {
+			final Cell[] cells = getCells(headerRows.get(0), columns);
+			for (int i = 0; i < cells.length; i++) {
+				if (cells[i] == null) {
+					continue;
+				}
+				final StringBuilder sb = new StringBuilder();
+				for (final ReportComponent component : cells[i].getComponents()) {
+					if (component.getKind() == ComponentKind.LABEL) {
+						final String text = ((Label) component).getText();
+						if (text != null && !text.trim().isEmpty()) {
+							if (sb.length() > 0) {
+								sb.append(' ');
+							}
+							sb.append(text.trim());
+						}
+					}
+				}
+				if (sb.length() > 0) {
+					headings[i] = sb.toString();
+				}
+			}
+		}
+		final List<com.innoventsolutions.report.file.Column> fileColumns = new ArrayList<>();
+		final Set<String> names = new HashSet<>();
+		for (final Row row : table.getRows()) {
+			final Cell[] cells = getCells(row, columns);
+			for (int i = 0; i < cells.length; i++) {
+				if (cells[i] == null) {
+					continue;
+				}
+				for (final ReportComponent component : cells[i].getComponents()) {
+					final ComponentKind kind = component.getKind();
+					if (!isData(kind)) {
+						continue;
+					}
+					final String heading = headings[i] != null ? headings[i] : "column" + (i + 1);
+					String name = heading;
+					for (int suffix = 2; !names.add(name); suffix++) {
+						name = heading + "_" + suffix;
+					}
+					fileColumns.add(new com.innoventsolutions.report.file.Column(name,
+							getColumnType(kind)));
+				}
+			}
+		}
+		return fileColumns;
+	}
+
+	private static ColumnType getColumnType(final ComponentKind kind) {
+		switch (kind) {
+		case INTEGER:
+			return ColumnType.LONG;
+		case FLOAT:
+			return ColumnType.DOUBLE;
+		case DATE:
+			return ColumnType.DATE;
+		default:
+			return ColumnType.STRING;
+		}
+	}
+
+	private static void emitDetail(final ColumnarWriter writer,
+			final DataRowBinding dataRowBinding, final List<Row> rows, final Cell[][] rowCells,
+			final int fieldCount) {
+		final Object dataRow = dataRowBinding.getDataRow();
+		int field = 0;
+		for (int i = 0; i < rowCells.length; i++) {
+			final boolean rowHidden = rows.get(i).isHidden(dataRow);
+			for (final Cell cell : rowCells[i]) {
+				if (cell == null) {
+					continue;
+				}
+				for (final ReportComponent component : cell.getComponents()) {
+					final ComponentKind kind = component.getKind();
+					if (!isData(kind)) {
+						continue;
+					}
+					if (field == fieldCount) {
+						throw new IllegalStateException("The detail rows of the design changed");
+					}
+					if (!rowHidden && !component.isHidden(dataRow)) {
+						setValue(writer, field, kind, component, dataRow);
+					}
+					field++;
+				}
+			}
+		}
+		writer.endRow();
+	}
+
+	private static void setValue(final ColumnarWriter writer, final int field,
+			final ComponentKind kind, final ReportComponent component, final Object dataRow) {
+		switch (kind) {
+		case TEXT:
+			writer.setString(field, ((TextData) component).getValue(dataRow));
+			break;
+		case INTEGER:
+			writer.setLong(field, ((IntegerData) component).getValue(dataRow));
+			break;
+		case FLOAT:
+			writer.setDouble(field, ((FloatData) component).getValue(dataRow));
+			break;
+		case DATE: {
+			final Date value = ((DateData) component).getValue(dataRow);
+			writer.setDate(field, value);
+			break;
+		}
+		default:
+			break;
+		}
+	}
+}
@@ -0,0 +1,483 @@
+package com.innoventsolutions.report;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import com.innoventsolutions.report.design.Cell;
+import com.innoventsolutions.report.design.Column;
+import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.design.DateData;
+import com.innoventsolutions.report.design.FloatData;
+import com.innoventsolutions.report.design.Group;
+import com.innoventsolutions.report.design.IntegerData;
+import com.innoventsolutions.report.design.Label;
+import com.innoventsolutions.report.design.ReportComponent;
+import com.innoventsolutions.report.design.Row;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.design.TextData;
+import com.innoventsolutions.report.metrics.MeteredOutputStream;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+import com.innoventsolutions.report.metrics.StageClock;
+import com.innoventsolutions.report.output.OutputSink;
+import com.innoventsolutions.report.output.Utf8Output;
+
+/**
+ * Writes the report as delimited text for loading into other systems: comma
+ * separated by default, tab separated with {@link #setDelimiter(char)}. Each
+ * visible design row is one line and each visible column one field. The
+ * components of a cell are joined with a space, a cell that spans columns is
+ * followed by empty fields and styles are ignored. Fields are quoted as in
+ * RFC 4180 when they hold the delimiter, a quote or a line break.
+ * <p>
+ * By default only the table header rows and the detail rows are written, so
+ * the output is a heading line followed by the data. With
+ * {@link #setGroupRows(boolean)} the group and table headers and footers are
+ * written too and every line starts with a tag field telling them apart:
+ * D for detail rows, and H or F followed by the level for headers and
+ * footers, where level 1 is the innermost group and one more than the number
+ * of groups is the table.
+ * <p>
+ * Values are encoded straight into a byte buffer as UTF-8. Numbers without a
+ * format are written digit by digit and formats are parsed once per run.
+ */
+public class CsvEmitter implements Emitter {
+	private final OutputStream outputStream;
+	private char delimiter = ',';
+	private String lineSeparator = "\r\n";
+	private boolean groupRows = false;
+	private final Map<String, DecimalFormat> decimalFormats = new HashMap<>();
+	private final Map<String, DateFormat> dateFormats = new HashMap<>();
+	private final StringBuffer formatted = new StringBuffer();
+	// formatted is copied here once rather than read through its synchronized
+	// charAt
+	private final StringBuilder formattedText = new StringBuilder();
+	// the text of a cell with several components
+	private final StringBuilder cellText = new StringBuilder();
+	private final FieldPosition fieldPosition = new FieldPosition(0);
+	private Utf8Output out = null;
+	private CancellationToken cancellationToken = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
+
+	public CsvEmitter(final OutputStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
+	public CsvEmitter(final OutputSink sink) {
+		this(sink.getOutputStream());
+	}
+
+	/**
+	 * @param delimiter the field separator, ',' by default or '\t' for TSV.
+	 *            It must be ASCII and may not be a quote or a line break.
+	 */
+	public void setDelimiter(final char delimiter) {
+		if (delimiter >= 0x80 || delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+			throw new IllegalArgumentException("Invalid delimiter");
+		}
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * @param lineSeparator "\r\n" by default
+	 */
+	public void setLineSeparator(final String lineSeparator) {
+		this.lineSeparator = lineSeparator;
+	}
+
+	/**
+	 * @param groupRows true to write the group and table headers and footers
+	 *            as tagged lines
+	 */
+	public void setGroupRows(final boolean groupRows) {
+		this.groupRows = groupRows;
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Reports {@link Stage#EMIT} for each binding, with the lines written as
+	 * rows out. Writes to the output stream are counted and its flush and
+	 * close are reported as {@link Stage#FLUSH}.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
+	@Override
+	public void emit(final Stream<DataRowBinding> stream, final Table table) {
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final OutputStream outputStream = metered
+				? new MeteredOutputStream(this.outputStream, metricsListener)
+				: this.outputStream;
+		out = new Utf8Output(outputStream);
+		final List<Column> columns = table.getColumns();
+		final List<Group> groups = table.getGroups();
+		try {
+			final Iterator<DataRowBinding> iterator = stream.iterator();
+			while (iterator.hasNext()) {
+				final DataRowBinding dataRowBinding = iterator.next();
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				if (metered) {
+					final long start = System.nanoTime();
+					final long cpuStart = StageClock.cpuTime(metricsListener);
+					final int lineCount = emitBinding(dataRowBinding, table, columns, groups);
+					StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+					metricsListener.rowsIn(Stage.EMIT, 1);
+					metricsListener.rowsOut(Stage.EMIT, lineCount);
+				}
+				else {
+					emitBinding(dataRowBinding, table, columns, groups);
+				}
+			}
+			out.flushBuffer();
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to write CSV file", e);
+		}
+		finally {
+			out = null;
+			try {
+				outputStream.close();
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of lines written
+	 */
+	private int emitBinding(final DataRowBinding dataRowBinding, final Table table,
+			final List<Column> columns, final List<Group> groups) throws IOException {
+		final int level = dataRowBinding.getLevel();
+		final DataRowBinding.Type type = dataRowBinding.getType();
+		final List<Row> rows;
+		if (level == 0) {
+			switch (type) {
+			case DETAIL:
+				rows = table.getRows();
+				break;
+			default:
+				rows = Collections.emptyList();
+			}
+		}
+		else if (level == groups.size() + 1) {
+			switch (type) {
+			case HEADER:
+				rows = table.getHeaderRows();
+				break;
+			case FOOTER:
+				rows = groupRows ? table.getFooterRows() : Collections.<Row> emptyList();
+				break;
+			default:
+				rows = Collections.emptyList();
+			}
+		}
+		else if (groupRows) {
+			final Group group = groups.get(level - 1);
+			switch (type) {
+			case HEADER:
+				rows = group.getHeaderRows();
+				break;
+			case FOOTER:
+				rows = group.getFooterRows();
+				break;
+			default:
+				rows = Collections.emptyList();
+			}
+		}
+		else {
+			rows = Collections.emptyList();
+		}
+		int lineCount = 0;
+		for (final Row row : rows) {
+			if (row.isHidden(dataRowBinding.getDataRow())) {
+				continue;
+			}
+			emitRow(dataRowBinding, row, columns);
+			lineCount++;
+		}
+		return lineCount;
+	}
+
+	private void emitRow(final DataRowBinding dataRowBinding, final Row row,
+			final List<Column> columns) throws IOException {
+		boolean first = true;
+		if (groupRows) {
+			switch (dataRowBinding.getType()) {
+			case HEADER:
+				out.write('H');
+				out.write((long) dataRowBinding.getLevel());
+				break;
+			case FOOTER:
+				out.write('F');
+				out.write((long) dataRowBinding.getLevel());
+				break;
+			default:
+				out.write('D');
+			}
+			first = false;
+		}
+		final Iterator<Cell> cellIterator = row.getCells().iterator();
+		int spanning = 1;
+		for (final Column column : columns) {
+			if (column.isHidden(null)) {
+				if (cellIterator.hasNext()) {
+					cellIterator.next(); // swallow the cell
+				}
+				continue;
+			}
+			if (!first) {
+				out.write(delimiter);
+			}
+			first = false;
+			if (spanning > 1) {
+				// an empty field under the spanning cell
+				spanning--;
+				continue;
+			}
+			if (cellIterator.hasNext()) {
+				final Cell cell = cellIterator.next();
+				spanning = cell.getColSpan();
+				emitCell(dataRowBinding, cell);
+			}
+		}
+		out.write(lineSeparator);
+	}
+
+	private void emitCell(final DataRowBinding dataRowBinding, final Cell cell)
+			throws IOException {
+		final Object dataRow = dataRowBinding.getDataRow();
+		final List<ReportComponent> components = cell.getComponents();
+		if (components.size() == 1) {
+			final ReportComponent component = components.get(0);
+			if (!component.isHidden(dataRow)) {
+				writeComponent(component, dataRow);
+			}
+			return;
+		}
+		// the whole cell is one field, quoted once
+		cellText.setLength(0);
+		boolean first = true;
+		for (final ReportComponent component : components) {
+			if (component.isHidden(dataRow)) {
+				continue;
+			}
+			if (!first) {
+				cellText.append(' ');
+			}
+			first = false;
+			appendComponent(component, dataRow);
+		}
+		writeText(cellText);
+	}
+
+	private void writeComponent(final ReportComponent component, final Object dataRow)
+			throws IOException {
+		switch (component.getKind()) {
+		case LABEL:
+			writeText(((Label) component).getText());
+			break;
+		case TEXT:
+			writeText(((TextData) component).getValue(dataRow));
+			break;
+		case INTEGER: {
+			final IntegerData data = (IntegerData) component;
+			final long value = data.getValue(dataRow);
+			final String format = data.getFormat();
+			if (format == null) {
+				out.write(value);
+			}
+			else {
+				formatted.setLength(0);
+				getDecimalFormat(format).format(value, formatted, fieldPosition);
+				writeFormatted();
+			}
+			break;
+		}
+		case FLOAT: {
+			final FloatData data = (FloatData) component;
+			final double value = data.getValue(dataRow);
+			final String format = data.getFormat();
+			if (format == null) {
+				out.write(value);
+			}
+			else {
+				formatted.setLength(0);
+				getDecimalFormat(format).format(value, formatted, fieldPosition);
+				writeFormatted();
+			}
+			break;
+		}
+		case DATE: {
+			final DateData data = (DateData) component;
+			final Date value = data.getValue(dataRow);
+			final String format = data.getFormat();
+			if (value == null) {
+				break;
+			}
+			if (format == null) {
+				writeText(String.valueOf(value));
+			}
+			else {
+				formatted.setLength(0);
+				getDateFormat(format).format(value, formatted, fieldPosition);
+				writeFormatted();
+			}
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Append a component's value to the text of a cell with several
+	 * components, formatted as {@link #writeComponent(ReportComponent, Object)}
+	 * would write it.
+	 */
+	private void appendComponent(final ReportComponent component, final Object dataRow) {
+		switch (component.getKind()) {
+		case LABEL: {
+			final String text = ((Label) component).getText();
+			if (text != null) {
+				cellText.append(text);
+			}
+			break;
+		}
+		case TEXT: {
+			final String value = ((TextData) component).getValue(dataRow);
+			if (value != null) {
+				cellText.append(value);
+			}
+			break;
+		}
+		case INTEGER: {
+			final IntegerData data = (IntegerData) component;
+			final long value = data.getValue(dataRow);
+			final String format = data.getFormat();
+			if (format == null) {
+				cellText.append(value);
+			}
+			else {
+				formatted.setLength(0);
+				getDecimalFormat(format).format(value, formatted, fieldPosition);
+				cellText.append(formatted);
+			}
+			break;
+		}
+		case FLOAT: {
+			final FloatData data = (FloatData) component;
+			final double value = data.getValue(dataRow);
+			final String format = data.getFormat();
+			if (format == null) {
+				cellText.append(value);
+			}
+			else {
+				formatted.setLength(0);
+				getDecimalFormat(format).format(value, formatted, fieldPosition);
+				cellText.append(formatted);
+			}
+			break;
+		}
+		case DATE: {
+			final DateData data = (DateData) component;
+			final Date value = data.getValue(dataRow);
+			final String format = data.getFormat();
+			if (value == null) {
+				break;
+			}
+			if (format == null) {
+				cellText.append(value);
+			}
+			else {
+				formatted.setLength(0);
+				getDateFormat(format).format(value, formatted, fieldPosition);
+				cellText.append(formatted);
+			}
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	private void writeFormatted() throws IOException {
+		formattedText.setLength(0);
+		formattedText.append(formatted);
+		writeText(formattedText);
+	}
+
+	/**
+	 * Write a field, quoting it if it holds the delimiter, a quote or a line
+	 * break.
+	 */
+	private void writeText(final CharSequence text) throws IOException {
+		if (text == null) {
+			return;
+		}
+		final int length = text.length();
+		boolean quote = false;
+		for (int i = 0; i < length; i++) {
+			final char c = text.charAt(i);
+			if (c == delimiter || c == '"' || c == '\n' || c == '\r') {
+				quote = true;
+				break;
+			}
+		}
+		if (!quote) {
+			out.write(text, 0, length);
+			return;
+		}
+		out.write('"');
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			if (text.charAt(i) == '"') {
+				// write up to and including the quote, then the quote again
+				out.write(text, start, i + 1);
+				out.write('"');
+				start = i + 1;
+			}
+		}
+		out.write(text, start, length);
+		out.write('"');
+	}
+
+	private DecimalFormat getDecimalFormat(final String format) {
+		DecimalFormat decimalFormat = decimalFormats.get(format);
+		if (decimalFormat == null) {
+			decimalFormat = new DecimalFormat(format);
+			decimalFormats.put(format, decimalFormat);
+		}
+		return decimalFormat;
+	}
+
+	private DateFormat getDateFormat(final String format) {
+		DateFormat dateFormat = dateFormats.get(format);
+		if (dateFormat == null) {
+			dateFormat = new SimpleDateFormat(format);
+			dateFormats.put(format, dateFormat);
+		}
+		return dateFormat;
+	}
+}
@@ -4,7 +4,17 @@ import java.util.stream.Stream;
 
 import com.innoventsolutions.report.design.DataRowBinding;
 import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.metrics.Metered;
+import com.innoventsolutions.report.metrics.MetricsListener;
 
-public interface Emitter {
+public interface Emitter extends Cancellable, Metered {
 	void emit(Stream<DataRowBinding> stream, Table table);
+
+	@Override
+	default void setCancellationToken(final CancellationToken cancellationToken) {
+	}
+
+	@Override
+	default void setMetricsListener(final MetricsListener metricsListener) {
+	}
 }
@@ -1,22 +1,30 @@
 package com.innoventsolutions.report;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.DataFormat;
-import org.apache.poi.ss.usermodel.Font;
-import org.apache.poi.ss.usermodel.IndexedColors;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
@@ -33,246 +41,881 @@ import com.innoventsolutions.report.design.Label;
 import com.innoventsolutions.report.design.ReportComponent;
 import com.innoventsolutions.report.design.Table;
 import com.innoventsolutions.report.design.TextData;
+import com.innoventsolutions.report.metrics.MeteredOutputStream;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+import com.innoventsolutions.report.metrics.StageClock;
+import com.innoventsolutions.report.output.OutputSink;
+import com.innoventsolutions.report.output.ZipWriter;
+import com.innoventsolutions.report.spool.SpooledTable;
 
+/**
+ * Writes the report as an Excel workbook with POI.
+ * <p>
+ * A sheet holds at most {@link #MAX_ROWS} rows, so the report is split into
+ * parts: a new part is started before a binding whose rows would go past
+ * {@link #setMaxRows(int)}, and with {@link #setSplitAtGroups(boolean)} at
+ * every header of the outermost group as well. Each part after the first
+ * starts with the table header rows again unless
+ * {@link #setRepeatHeaderRows(boolean)} turns that off. The parts are the
+ * sheets of one workbook, named "Report", "Report (2)" and so on, or with
+ * {@link #setSplit(Split)} separate workbooks in a zip file.
+ * <p>
+ * POI workbooks can not be filled from several threads, but separate
+ * workbooks can: with {@link #setThreads(int)} each one is built on a worker
+ * thread while the stream moves on to the next. The bindings are captured
+ * with {@link SpooledTable} first, so the design is only called on the
+ * emitting thread.
+ */
 public class ExcelEmitter implements Emitter {
+	/**
+	 * The rows of an Excel sheet
+	 */
+	public static final int MAX_ROWS = 1048576;
+	private static final int MAX_SHEET_NAME = 31;
+	// POI's default font, 11 point Calibri
+	private static final float DEFAULT_FONT_SIZE = 11.0F;
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger(0);
+
+	/**
+	 * What the parts of a split report are
+	 */
+	public enum Split {
+		/**
+		 * Sheets of one workbook
+		 */
+		SHEETS,
+		/**
+		 * Workbooks with one sheet each, in a zip file
+		 */
+		WORKBOOKS
+	}
+
 	private final OutputStream outputStream;
-	private final Workbook workbook;
-	private final Sheet sheet;
-	private final DataFormat xlFormat;
+	private String sheetName = "Report";
+	private int maxRows = MAX_ROWS;
+	private boolean splitAtGroups = false;
+	private boolean repeatHeaderRows = true;
+	private Split split = Split.SHEETS;
+	private int threads = 1;
+	private int widthHeadSize = ColumnWidthEstimator.DEFAULT_HEAD_SIZE;
+	private int widthReservoirSize = ColumnWidthEstimator.DEFAULT_RESERVOIR_SIZE;
 	private List<Column> columns;
+	private CancellationToken cancellationToken = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
+	// where the current part stands
+	private int partRows = 0;
+	private boolean partHasBody = false;
+	private int partCount = 0;
+	private int workbookCount = 0;
 
 	public ExcelEmitter(final OutputStream outputStream) {
 		this.outputStream = outputStream;
-		workbook = new XSSFWorkbook();
-		sheet = workbook.createSheet("Report");
-		xlFormat = workbook.createDataFormat();
+	}
+
+	public ExcelEmitter(final OutputSink sink) {
+		this(sink.getOutputStream());
+	}
+
+	/**
+	 * @param sheetName the name of the sheets, "Report" by default, and of
+	 *            the workbooks in a zip file. At most 31 characters and none of
+	 *            []:*?/\
+	 */
+	public void setSheetName(final String sheetName) {
+		if (sheetName.isEmpty() || sheetName.length() > MAX_SHEET_NAME) {
+			throw new IllegalArgumentException(
+					"Sheet name must be 1 to " + MAX_SHEET_NAME + " characters");
+		}
+		for (int i = 0; i < sheetName.length(); i++) {
+			if ("[]:*?/\\".indexOf(sheetName.charAt(i)) >= 0) {
+				throw new IllegalArgumentException("Invalid character in sheet name " + sheetName);
+			}
+		}
+		this.sheetName = sheetName;
+	}
+
+	/**
+	 * @param maxRows the most rows in a part, {@link #MAX_ROWS} by default.
+	 *            Smaller parts are quicker to open.
+	 */
+	public void setMaxRows(final int maxRows) {
+		if (maxRows < 1 || maxRows > MAX_ROWS) {
+			throw new IllegalArgumentException("Max rows must be from 1 to " + MAX_ROWS);
+		}
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * @param splitAtGroups true to start a part at each header of the
+	 *            outermost group
+	 */
+	public void setSplitAtGroups(final boolean splitAtGroups) {
+		this.splitAtGroups = splitAtGroups;
+	}
+
+	/**
+	 * @param repeatHeaderRows false to write the table header rows in the
+	 *            first part only
+	 */
+	public void setRepeatHeaderRows(final boolean repeatHeaderRows) {
+		this.repeatHeaderRows = repeatHeaderRows;
+	}
+
+	/**
+	 * @param split {@link Split#SHEETS} by default
+	 */
+	public void setSplit(final Split split) {
+		this.split = split;
+	}
+
+	/**
+	 * @param threads the threads that build workbooks when they are split
+	 *            into a zip file, 1 by default. The sheets of one workbook
+	 *            are always built on the emitting thread.
+	 */
+	public void setThreads(final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Size the columns of each sheet from a sample of their values, which is
+	 * far cheaper than POI's autoSizeColumn.
+	 *
+	 * @param headSize the first values of each column that are measured, 100
+	 *            by default
+	 * @param reservoirSize the values sampled from the rest, 100 by default;
+	 *            0 for both to keep Excel's default widths
+	 */
+	public void setColumnWidthSamples(final int headSize, final int reservoirSize) {
+		if (headSize < 0 || reservoirSize < 0) {
+			throw new IllegalArgumentException("Sample sizes must not be negative");
+		}
+		this.widthHeadSize = headSize;
+		this.widthReservoirSize = reservoirSize;
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Reports {@link Stage#EMIT}, which includes writing the workbooks, and
+	 * {@link Stage#FLUSH} for closing the output stream. Workbooks built on
+	 * worker threads are not timed.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
 	}
 
 	@Override
 	public void emit(final Stream<DataRowBinding> stream, final Table table) {
+		columns = table.getColumns();
+		partRows = 0;
+		partHasBody = false;
+		partCount = 0;
+		workbookCount = 0;
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final OutputStream outputStream = metered
+				? new MeteredOutputStream(this.outputStream, metricsListener)
+				: this.outputStream;
+		try {
+			if (split == Split.SHEETS) {
+				emitSheets(stream, table, outputStream);
+			}
+			else if (threads == 1) {
+				emitWorkbooks(stream, table, outputStream);
+			}
+			else {
+				emitWorkbooksConcurrently(stream, table, outputStream);
+			}
+		}
+		finally {
+			try {
+				outputStream.close();
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void emitSheets(final Stream<DataRowBinding> stream, final Table table,
+			final OutputStream outputStream) {
+		final Workbook workbook = new XSSFWorkbook();
 		try {
-			final Font headerFont = workbook.createFont();
-			headerFont.setBold(true);
-			headerFont.setFontHeightInPoints((short) 14);
-			headerFont.setColor(IndexedColors.RED.getIndex());
-			final CellStyle headerCellStyle = workbook.createCellStyle();
-			headerCellStyle.setFont(headerFont);
-			columns = table.getColumns();
+			final Book book = new Book(workbook);
+			final MetricsListener metricsListener = this.metricsListener;
+			final boolean metered = metricsListener.isEnabled();
 			final List<Group> groups = table.getGroups();
-			final AtomicInteger rowNum = new AtomicInteger(0);
+			final SheetWriter[] sheet = { null };
+			final DataRowBinding[] tableHeader = { null };
 			stream.forEach(dataRowBinding -> {
-				final int level = dataRowBinding.getLevel();
-				final DataRowBinding.Type type = dataRowBinding.getType();
-				if (level == 0) {
-					final List<com.innoventsolutions.report.design.Row> rows;
-					switch (type) {
-					case DETAIL:
-						rows = table.getRows();
-						break;
-					default:
-						rows = Collections.emptyList();
-					}
-					for (final com.innoventsolutions.report.design.Row row : rows) {
-						if (!row.isHidden(dataRowBinding.getDataRow())) {
-							final Row xlRow = sheet.createRow(rowNum.getAndIncrement());
-							populateRow(xlRow, row, dataRowBinding);
-						}
-					}
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
 				}
-				else if (level == groups.size() + 1) {
-					final List<com.innoventsolutions.report.design.Row> rows;
-					switch (type) {
-					case HEADER:
-						rows = table.getHeaderRows();
-						break;
-					case FOOTER:
-						rows = table.getFooterRows();
-						break;
-					default:
-						rows = Collections.emptyList();
-					}
-					for (final com.innoventsolutions.report.design.Row row : rows) {
-						if (!row.isHidden(dataRowBinding.getDataRow())) {
-							final Row xlRow = sheet.createRow(rowNum.getAndIncrement());
-							populateRow(xlRow, row, dataRowBinding);
-						}
-					}
+				final long start = metered ? System.nanoTime() : 0L;
+				final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+				final List<com.innoventsolutions.report.design.Row> rows = getVisibleRows(
+					dataRowBinding, table, groups);
+				if (isTableHeader(dataRowBinding, groups)) {
+					tableHeader[0] = dataRowBinding;
 				}
-				else {
-					final Group group = groups.get(level - 1);
-					final List<com.innoventsolutions.report.design.Row> rows;
-					switch (type) {
-					case HEADER:
-						rows = group.getHeaderRows();
-						break;
-					case FOOTER:
-						rows = group.getFooterRows();
-						break;
-					default:
-						rows = Collections.emptyList();
-					}
-					for (final com.innoventsolutions.report.design.Row row : rows) {
-						if (!row.isHidden(dataRowBinding.getDataRow())) {
-							final Row xlRow = sheet.createRow(rowNum.getAndIncrement());
-							populateRow(xlRow, row, dataRowBinding);
-						}
+				if (sheet[0] == null || startsPart(dataRowBinding, groups, rows.size())) {
+					if (sheet[0] != null) {
+						sheet[0].finish();
 					}
+					nextPart();
+					sheet[0] = new SheetWriter(book, workbook.createSheet(getSheetName()));
+					repeatHeaderRows(sheet[0], tableHeader[0], table, groups);
+				}
+				sheet[0].addRows(rows, dataRowBinding);
+				addToPart(dataRowBinding, groups, rows.size());
+				if (metered) {
+					StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+					metricsListener.rowsIn(Stage.EMIT, 1);
+					metricsListener.rowsOut(Stage.EMIT, rows.size());
 				}
 			});
+			if (sheet[0] == null) {
+				nextPart();
+				workbook.createSheet(getSheetName());
+			}
+			else {
+				sheet[0].finish();
+			}
 			try {
+				final long start = metered ? System.nanoTime() : 0L;
+				final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+				workbook.write(outputStream);
+				if (metered) {
+					StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+				}
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+		finally {
+			try {
+				workbook.close();
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Build the workbooks one after the other, each written to the zip file
+	 * as soon as it is complete.
+	 */
+	private void emitWorkbooks(final Stream<DataRowBinding> stream, final Table table,
+			final OutputStream outputStream) {
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final List<Group> groups = table.getGroups();
+		final ZipWriter zip = new ZipWriter(outputStream);
+		zip.setLevel(Deflater.BEST_SPEED); // the workbooks are compressed already
+		final SheetWriter[] sheet = { null };
+		final DataRowBinding[] tableHeader = { null };
+		boolean complete = false;
+		try {
+			final Iterator<DataRowBinding> iterator = stream.iterator();
+			while (iterator.hasNext()) {
+				final DataRowBinding dataRowBinding = iterator.next();
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				final long start = metered ? System.nanoTime() : 0L;
+				final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+				final List<com.innoventsolutions.report.design.Row> rows = getVisibleRows(
+					dataRowBinding, table, groups);
+				if (isTableHeader(dataRowBinding, groups)) {
+					tableHeader[0] = dataRowBinding;
+				}
+				if (sheet[0] == null || startsPart(dataRowBinding, groups, rows.size())) {
+					if (sheet[0] != null) {
+						writeWorkbook(zip, sheet[0]);
+						sheet[0] = null;
+					}
+					nextPart();
+					sheet[0] = newWorkbook();
+					repeatHeaderRows(sheet[0], tableHeader[0], table, groups);
+				}
+				sheet[0].addRows(rows, dataRowBinding);
+				addToPart(dataRowBinding, groups, rows.size());
+				if (metered) {
+					StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+					metricsListener.rowsIn(Stage.EMIT, 1);
+					metricsListener.rowsOut(Stage.EMIT, rows.size());
+				}
+			}
+			if (sheet[0] == null) {
+				nextPart();
+				sheet[0] = newWorkbook();
+			}
+			writeWorkbook(zip, sheet[0]);
+			sheet[0] = null;
+			zip.close();
+			complete = true;
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to write workbooks", e);
+		}
+		finally {
+			if (sheet[0] != null) {
+				closeWorkbook(sheet[0].book.workbook);
+			}
+			if (!complete) {
 				try {
-					workbook.write(outputStream);
+					zip.abort();
 				}
 				catch (final IOException e) {
 					e.printStackTrace();
 				}
 			}
-			finally {
+		}
+	}
+
+	/**
+	 * Capture the bindings of each part and build its workbook on a worker
+	 * thread. At most one part per thread waits to be written, beyond that
+	 * the stream waits for the oldest.
+	 */
+	private void emitWorkbooksConcurrently(final Stream<DataRowBinding> stream,
+			final Table table, final OutputStream outputStream) {
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final SpooledTable spooledTable = new SpooledTable(table);
+		final List<Group> groups = spooledTable.getGroups();
+		final ZipWriter zip = new ZipWriter(outputStream);
+		zip.setLevel(Deflater.BEST_SPEED);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			final Thread thread = new Thread(runnable,
+					"report-excel-" + THREAD_COUNT.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		boolean complete = false;
+		try {
+			DataRowBinding tableHeader = null;
+			List<DataRowBinding> part = null;
+			final Iterator<DataRowBinding> iterator = stream.iterator();
+			while (iterator.hasNext()) {
+				final DataRowBinding original = iterator.next();
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				final long start = metered ? System.nanoTime() : 0L;
+				final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+				final DataRowBinding dataRowBinding = spooledTable.capture(original);
+				final int rowCount = getVisibleRows(dataRowBinding, spooledTable, groups).size();
+				if (isTableHeader(dataRowBinding, groups)) {
+					tableHeader = dataRowBinding;
+				}
+				if (part == null || startsPart(dataRowBinding, groups, rowCount)) {
+					if (part != null) {
+						submit(executor, pending, part, spooledTable, zip);
+					}
+					part = new ArrayList<>();
+					nextPart();
+					if (repeatHeaderRows && partCount > 1 && tableHeader != null) {
+						part.add(tableHeader);
+						partRows = getVisibleRows(tableHeader, spooledTable, groups).size();
+					}
+				}
+				part.add(dataRowBinding);
+				addToPart(dataRowBinding, groups, rowCount);
+				if (metered) {
+					StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+					metricsListener.rowsIn(Stage.EMIT, 1);
+					metricsListener.rowsOut(Stage.EMIT, rowCount);
+				}
+			}
+			if (part == null) {
+				nextPart();
+				part = Collections.emptyList();
+			}
+			submit(executor, pending, part, spooledTable, zip);
+			while (!pending.isEmpty()) {
+				writeNext(pending, zip);
+			}
+			zip.close();
+			complete = true;
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to write workbooks", e);
+		}
+		finally {
+			executor.shutdownNow();
+			if (!complete) {
 				try {
-					outputStream.close();
+					zip.abort();
 				}
 				catch (final IOException e) {
 					e.printStackTrace();
 				}
 			}
 		}
-		finally {
+	}
+
+	private void submit(final ExecutorService executor, final ArrayDeque<Future<byte[]>> pending,
+			final List<DataRowBinding> part, final Table table, final ZipWriter zip)
+			throws IOException {
+		final List<Group> groups = table.getGroups();
+		pending.add(executor.submit(() -> {
+			final SheetWriter sheet = newWorkbook();
 			try {
-				workbook.close();
+				for (final DataRowBinding dataRowBinding : part) {
+					sheet.addRows(getVisibleRows(dataRowBinding, table, groups), dataRowBinding);
+				}
+				sheet.finish();
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				sheet.book.workbook.write(bytes);
+				return bytes.toByteArray();
 			}
-			catch (final IOException e) {
-				e.printStackTrace();
+			finally {
+				closeWorkbook(sheet.book.workbook);
 			}
+		}));
+		while (pending.size() > threads) {
+			writeNext(pending, zip);
 		}
 	}
 
-	private void populateRow(final Row xlRow, final com.innoventsolutions.report.design.Row row,
-			final DataRowBinding dataRowBinding) {
-		final Iterator<com.innoventsolutions.report.design.Cell> cellIterator = row.getCells().iterator();
-		final AtomicInteger spanning = new AtomicInteger(1);
-		final AtomicInteger colNum = new AtomicInteger(0);
-		columns.forEach(column -> {
-			if (column.isHidden(null)) {
-				if (cellIterator.hasNext()) {
-					cellIterator.next(); // swallow the cell
+	private void writeNext(final ArrayDeque<Future<byte[]>> pending, final ZipWriter zip)
+			throws IOException {
+		final byte[] workbook;
+		try {
+			workbook = pending.remove().get();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ReportCancelledException();
+		}
+		catch (final ExecutionException e) {
+			throw new RuntimeException("Failed to build workbook", e.getCause());
+		}
+		final OutputStream entry = zip.putEntry(getWorkbookName());
+		entry.write(workbook);
+		entry.close();
+	}
+
+	/**
+	 * @return the name of the next workbook in the zip file
+	 */
+	private String getWorkbookName() {
+		return sheetName + "-" + ++workbookCount + ".xlsx";
+	}
+
+	private SheetWriter newWorkbook() {
+		final Workbook workbook = new XSSFWorkbook();
+		return new SheetWriter(new Book(workbook), workbook.createSheet(sheetName));
+	}
+
+	private void writeWorkbook(final ZipWriter zip, final SheetWriter sheet) throws IOException {
+		final Workbook workbook = sheet.book.workbook;
+		try {
+			sheet.finish();
+			final OutputStream entry = zip.putEntry(getWorkbookName());
+			workbook.write(entry);
+			entry.close();
+		}
+		finally {
+			closeWorkbook(workbook);
+		}
+	}
+
+	private static void closeWorkbook(final Workbook workbook) {
+		try {
+			workbook.close();
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the name of the current part's sheet
+	 */
+	private String getSheetName() {
+		if (partCount == 1) {
+			return sheetName;
+		}
+		final String suffix = " (" + partCount + ")";
+		return sheetName.substring(0, Math.min(sheetName.length(), MAX_SHEET_NAME - suffix.length()))
+			+ suffix;
+	}
+
+	private int getVisibleColumnCount() {
+		int count = 0;
+		for (final Column column : columns) {
+			if (!column.isHidden(null)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static boolean isTableHeader(final DataRowBinding dataRowBinding,
+			final List<Group> groups) {
+		return dataRowBinding.getLevel() == groups.size() + 1
+			&& dataRowBinding.getType() == DataRowBinding.Type.HEADER;
+	}
+
+	/**
+	 * @return true if the binding goes in a new part
+	 */
+	private boolean startsPart(final DataRowBinding dataRowBinding, final List<Group> groups,
+			final int rowCount) {
+		if (!partHasBody) {
+			// only the table header so far, splitting would leave it alone
+			return partRows > 0 && partRows + rowCount > maxRows;
+		}
+		if (splitAtGroups && !groups.isEmpty() && dataRowBinding.getLevel() == groups.size()
+			&& dataRowBinding.getType() == DataRowBinding.Type.HEADER) {
+			return true;
+		}
+		return partRows + rowCount > maxRows;
+	}
+
+	private void nextPart() {
+		partCount++;
+		partRows = 0;
+		partHasBody = false;
+	}
+
+	/**
+	 * Start every part but the first with the table header rows.
+	 */
+	private void repeatHeaderRows(final SheetWriter sheet, final DataRowBinding tableHeader,
+			final Table table, final List<Group> groups) {
+		if (repeatHeaderRows && tableHeader != null && partCount > 1) {
+			final List<com.innoventsolutions.report.design.Row> rows = getVisibleRows(tableHeader,
+				table, groups);
+			sheet.addRows(rows, tableHeader);
+			partRows = rows.size();
+		}
+	}
+
+	private void addToPart(final DataRowBinding dataRowBinding, final List<Group> groups,
+			final int rowCount) {
+		partRows += rowCount;
+		if (!isTableHeader(dataRowBinding, groups)) {
+			partHasBody = true;
+		}
+	}
+
+	private static List<com.innoventsolutions.report.design.Row> getVisibleRows(
+			final DataRowBinding dataRowBinding, final Table table, final List<Group> groups) {
+		final int level = dataRowBinding.getLevel();
+		final DataRowBinding.Type type = dataRowBinding.getType();
+		final List<com.innoventsolutions.report.design.Row> rows;
+		if (level == 0) {
+			switch (type) {
+			case DETAIL:
+				rows = table.getRows();
+				break;
+			default:
+				rows = Collections.emptyList();
+			}
+		}
+		else if (level == groups.size() + 1) {
+			switch (type) {
+			case HEADER:
+				rows = table.getHeaderRows();
+				break;
+			case FOOTER:
+				rows = table.getFooterRows();
+				break;
+			default:
+				rows = Collections.emptyList();
+			}
+		}
+		else {
+			final Group group = groups.get(level - 1);
+			switch (type) {
+			case HEADER:
+				rows = group.getHeaderRows();
+				break;
+			case FOOTER:
+				rows = group.getFooterRows();
+				break;
+			default:
+				rows = Collections.emptyList();
+			}
+		}
+		List<com.innoventsolutions.report.design.Row> visibleRows = rows;
+		for (int i = 0; i < rows.size(); i++) {
+			if (rows.get(i).isHidden(dataRowBinding.getDataRow())) {
+				if (visibleRows == rows) {
+					visibleRows = new ArrayList<>(rows.subList(0, i));
 				}
-				return;
 			}
-			if (spanning.get() > 1) {
-				spanning.decrementAndGet();
-				colNum.getAndIncrement();
+			else if (visibleRows != rows) {
+				visibleRows.add(rows.get(i));
+			}
+		}
+		return visibleRows;
+	}
+
+	/**
+	 * A workbook and the cell styles of its number and date formats, one per
+	 * format rather than one per cell
+	 */
+	private static final class Book {
+		final Workbook workbook;
+		final DataFormat xlFormat;
+		final Map<String, CellStyle> formatStyles = new HashMap<>();
+
+		Book(final Workbook workbook) {
+			this.workbook = workbook;
+			xlFormat = workbook.createDataFormat();
+		}
+
+		CellStyle getFormatStyle(final String format) {
+			CellStyle xlStyle = formatStyles.get(format);
+			if (xlStyle == null) {
+				xlStyle = workbook.createCellStyle();
+				xlStyle.setDataFormat(xlFormat.getFormat(format));
+				formatStyles.put(format, xlStyle);
+			}
+			return xlStyle;
+		}
+	}
+
+	/**
+	 * Fills one sheet
+	 */
+	private final class SheetWriter {
+		final Book book;
+		final Sheet sheet;
+		final ColumnWidthEstimator widths;
+		// formatters are not thread safe, so each sheet has its own
+		final Map<String, DecimalFormat> decimalFormats = new HashMap<>();
+		final Map<String, DateFormat> dateFormats = new HashMap<>();
+		int rowNum = 0;
+
+		SheetWriter(final Book book, final Sheet sheet) {
+			this.book = book;
+			this.sheet = sheet;
+			widths = widthHeadSize + widthReservoirSize > 0
+					? new ColumnWidthEstimator(getVisibleColumnCount(), widthHeadSize,
+							widthReservoirSize)
+					: null;
+		}
+
+		/**
+		 * Size the columns from the values sampled.
+		 */
+		void finish() {
+			if (widths == null) {
 				return;
 			}
-			if (cellIterator.hasNext()) {
-				final com.innoventsolutions.report.design.Cell cell = cellIterator.next();
-				final int colspan = cell.getColSpan();
-				spanning.set(colspan);
-				if (colspan > 1) {
-					final int rowNum = xlRow.getRowNum();
-					sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, colNum.get(),
-							colNum.get() + colspan - 1));
-				}
-				final List<ReportComponent> components = cell.getComponents();
-				if (components.size() == 1) {
-					final ReportComponent component = components.get(0);
-					final Cell xlCell = xlRow.createCell(colNum.getAndIncrement());
-					String format = null;
-					if (component instanceof Label) {
-						final Label label = (Label) component;
-						final String value = label.getText();
-						xlCell.setCellValue(value);
-					}
-					else if (component instanceof TextData) {
-						final TextData data = (TextData) component;
-						final String value = data.getValue(dataRowBinding.getDataRow());
-						if (value != null) {
-							xlCell.setCellValue(value);
-						}
-					}
-					else if (component instanceof IntegerData) {
-						final IntegerData data = (IntegerData) component;
-						final long value = data.getValue(dataRowBinding.getDataRow());
-						xlCell.setCellValue(value);
-						format = data.getFormat();
-					}
-					else if (component instanceof FloatData) {
-						final FloatData data = (FloatData) component;
-						final double value = data.getValue(dataRowBinding.getDataRow());
-						xlCell.setCellValue(value);
-						format = data.getFormat();
-					}
-					else if (component instanceof DateData) {
-						final DateData data = (DateData) component;
-						final Date value = data.getValue(dataRowBinding.getDataRow());
-						xlCell.setCellValue(value);
-						format = data.getFormat();
-					}
-					if (format != null) {
-						final CellStyle xlStyle = workbook.createCellStyle();
-						xlStyle.setDataFormat(xlFormat.getFormat(format));
-						xlCell.setCellStyle(xlStyle);
+			final float[] points = widths.getWidths();
+			for (int i = 0; i < points.length; i++) {
+				sheet.setColumnWidth(i,
+					ColumnWidthEstimator.toExcelWidth(points[i], DEFAULT_FONT_SIZE));
+			}
+		}
+
+		void addRows(final List<com.innoventsolutions.report.design.Row> rows,
+				final DataRowBinding dataRowBinding) {
+			for (final com.innoventsolutions.report.design.Row row : rows) {
+				final Row xlRow = sheet.createRow(rowNum++);
+				populateRow(xlRow, row, dataRowBinding);
+			}
+		}
+
+		private void populateRow(final Row xlRow, final com.innoventsolutions.report.design.Row row,
+				final DataRowBinding dataRowBinding) {
+			final Iterator<com.innoventsolutions.report.design.Cell> cellIterator = row.getCells().iterator();
+			final AtomicInteger spanning = new AtomicInteger(1);
+			final AtomicInteger colNum = new AtomicInteger(0);
+			columns.forEach(column -> {
+				if (column.isHidden(null)) {
+					if (cellIterator.hasNext()) {
+						cellIterator.next(); // swallow the cell
 					}
+					return;
 				}
-				else {
-					final StringBuilder sb = new StringBuilder();
-					for (final ReportComponent component : components) {
-						if (component.isHidden(dataRowBinding.getDataRow())) {
-							continue;
+				if (spanning.get() > 1) {
+					spanning.decrementAndGet();
+					colNum.getAndIncrement();
+					return;
+				}
+				if (cellIterator.hasNext()) {
+					final com.innoventsolutions.report.design.Cell cell = cellIterator.next();
+					final int colspan = cell.getColSpan();
+					spanning.set(colspan);
+					if (colspan > 1) {
+						final int rowNum = xlRow.getRowNum();
+						sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, colNum.get(),
+								colNum.get() + colspan - 1));
+					}
+					final int visibleColumn = colNum.get();
+					final boolean sampled = widths != null && colspan == 1
+						&& widths.sample(visibleColumn);
+					final List<ReportComponent> components = cell.getComponents();
+					if (components.size() == 1) {
+						final ReportComponent component = components.get(0);
+						if (sampled) {
+							final StringBuilder sb = new StringBuilder();
+							appendText(sb, component, dataRowBinding.getDataRow());
+							widths.add(visibleColumn, sb.toString(), null);
 						}
-						if (component instanceof Label) {
+						final Cell xlCell = xlRow.createCell(colNum.getAndIncrement());
+						String format = null;
+						switch (component.getKind()) {
+						case LABEL: {
 							final Label label = (Label) component;
-							final String text = label.getText();
-							sb.append(text);
+							final String value = label.getText();
+							xlCell.setCellValue(value);
+							break;
 						}
-						else if (component instanceof TextData) {
+						case TEXT: {
 							final TextData data = (TextData) component;
 							final String value = data.getValue(dataRowBinding.getDataRow());
 							if (value != null) {
-								sb.append(value);
+								xlCell.setCellValue(value);
 							}
+							break;
 						}
-						else if (component instanceof IntegerData) {
+						case INTEGER: {
 							final IntegerData data = (IntegerData) component;
 							final long value = data.getValue(dataRowBinding.getDataRow());
-							final String format = data.getFormat();
-							if (format != null) {
-								final DecimalFormat df = new DecimalFormat(format);
-								sb.append(df.format(value));
-							}
-							else {
-								sb.append(String.valueOf(value));
-							}
+							xlCell.setCellValue(value);
+							format = data.getFormat();
+							break;
 						}
-						else if (component instanceof FloatData) {
+						case FLOAT: {
 							final FloatData data = (FloatData) component;
 							final double value = data.getValue(dataRowBinding.getDataRow());
-							final String format = data.getFormat();
-							if (format != null) {
-								final DecimalFormat df = new DecimalFormat(format);
-								sb.append(df.format(value));
-							}
-							else {
-								sb.append(String.valueOf(value));
-							}
+							xlCell.setCellValue(value);
+							format = data.getFormat();
+							break;
 						}
-						else if (component instanceof DateData) {
+						case DATE: {
 							final DateData data = (DateData) component;
 							final Date value = data.getValue(dataRowBinding.getDataRow());
-							final String format = data.getFormat();
-							if (format != null) {
-								final DateFormat df = new SimpleDateFormat(format);
-								sb.append(df.format(value));
-							}
-							else {
-								sb.append(String.valueOf(value));
+							xlCell.setCellValue(value);
+							format = data.getFormat();
+							break;
+						}
+						default:
+							break;
+						}
+						if (format != null) {
+							xlCell.setCellStyle(book.getFormatStyle(format));
+						}
+					}
+					else {
+						final StringBuilder sb = new StringBuilder();
+						for (final ReportComponent component : components) {
+							if (component.isHidden(dataRowBinding.getDataRow())) {
+								continue;
 							}
+							appendText(sb, component, dataRowBinding.getDataRow());
+						}
+						if (sampled) {
+							widths.add(visibleColumn, sb.toString(), null);
 						}
+						xlRow.createCell(colNum.getAndIncrement()).setCellValue(sb.toString());
 					}
-					xlRow.createCell(colNum.getAndIncrement()).setCellValue(sb.toString());
+					return;
 				}
-				return;
+				colNum.getAndIncrement();
+			});
+		}
+
+		/**
+		 * Append a component's value as text, formatted as it is in a PDF.
+		 */
+		private void appendText(final StringBuilder sb, final ReportComponent component,
+				final Object dataRow) {
+			switch (component.getKind()) {
+			case LABEL: {
+				final Label label = (Label) component;
+				final String text = label.getText();
+				sb.append(text);
+				break;
 			}
-			colNum.getAndIncrement();
-		});
+			case TEXT: {
+				final TextData data = (TextData) component;
+				final String value = data.getValue(dataRow);
+				if (value != null) {
+					sb.append(value);
+				}
+				break;
+			}
+			case INTEGER: {
+				final IntegerData data = (IntegerData) component;
+				final long value = data.getValue(dataRow);
+				final String format = data.getFormat();
+				if (format != null) {
+					sb.append(getDecimalFormat(format).format(value));
+				}
+				else {
+					sb.append(String.valueOf(value));
+				}
+				break;
+			}
+			case FLOAT: {
+				final FloatData data = (FloatData) component;
+				final double value = data.getValue(dataRow);
+				final String format = data.getFormat();
+				if (format != null) {
+					sb.append(getDecimalFormat(format).format(value));
+				}
+				else {
+					sb.append(String.valueOf(value));
+				}
+				break;
+			}
+			case DATE: {
+				final DateData data = (DateData) component;
+				final Date value = data.getValue(dataRow);
+				if (value == null) {
+					break;
+				}
+				final String format = data.getFormat();
+				if (format != null) {
+					sb.append(getDateFormat(format).format(value));
+				}
+				else {
+					sb.append(String.valueOf(value));
+				}
+				break;
+			}
+			default:
+				break;
+			}
+		}
+
+		private DecimalFormat getDecimalFormat(final String format) {
+			DecimalFormat decimalFormat = decimalFormats.get(format);
+			if (decimalFormat == null) {
+				decimalFormat = new DecimalFormat(format);
+				decimalFormats.put(format, decimalFormat);
+			}
+			return decimalFormat;
+		}
+
+		private DateFormat getDateFormat(final String format) {
+			DateFormat dateFormat = dateFormats.get(format);
+			if (dateFormat == null) {
+				dateFormat = new SimpleDateFormat(format);
+				dateFormats.put(format, dateFormat);
+			}
+			return dateFormat;
+		}
 	}
 }
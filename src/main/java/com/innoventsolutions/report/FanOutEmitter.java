@@ -0,0 +1,269 @@
+package com.innoventsolutions.report;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.spool.SpooledTable;
+
+/**
+ * Drives several emitters from one pass over the binding stream, e.g. HTML,
+ * XLSX and PDF from a single query. Each emitter runs on its own thread and
+ * reads from a bounded queue; the calling thread captures each binding (see
+ * {@link SpooledTable#capture(DataRowBinding)}) and hands it to every queue,
+ * so the run takes as long as the slowest emitter rather than the sum.
+ * <p>
+ * Bindings are passed in batches to keep the queue handoff off the per-row
+ * path. A full queue blocks the producer. If an emitter fails the others are
+ * fed to the end and the failure is thrown when they finish; if the source
+ * stream fails every emitter's stream throws so no output is completed, and
+ * the source failure is thrown once they have all stopped.
+ */
+public class FanOutEmitter implements Emitter {
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger(0);
+	private static final DataRowBinding[] END = new DataRowBinding[0];
+	private static final DataRowBinding[] ABORT = new DataRowBinding[0];
+	private final List<Emitter> emitters;
+	private int queueCapacity = 16;
+	private int batchSize = 64;
+	private Executor executor = null;
+	private CancellationToken cancellationToken = null;
+	private volatile Throwable sourceFailure = null;
+
+	public FanOutEmitter(final Emitter... emitters) {
+		this(Arrays.asList(emitters));
+	}
+
+	public FanOutEmitter(final List<Emitter> emitters) {
+		if (emitters.isEmpty()) {
+			throw new IllegalArgumentException("At least one emitter is required");
+		}
+		this.emitters = new ArrayList<>(emitters);
+	}
+
+	/**
+	 * @param queueCapacity the number of batches each emitter may fall behind
+	 *            before the producer waits
+	 */
+	public void setQueueCapacity(final int queueCapacity) {
+		if (queueCapacity <= 0) {
+			throw new IllegalArgumentException("Queue capacity must be positive");
+		}
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void setBatchSize(final int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param executor runs the emitters, one task each. If not set every
+	 *            emitter gets a new daemon thread.
+	 */
+	public void setExecutor(final Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+		for (final Emitter emitter : emitters) {
+			emitter.setCancellationToken(cancellationToken);
+		}
+	}
+
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		for (final Emitter emitter : emitters) {
+			emitter.setMetricsListener(metricsListener);
+		}
+	}
+
+	private class Branch {
+		final BlockingQueue<DataRowBinding[]> queue = new ArrayBlockingQueue<>(queueCapacity);
+		final FutureTask<Void> task;
+
+		Branch(final Emitter emitter, final Table table) {
+			task = new FutureTask<>(() -> {
+				emitter.emit(getStream(queue), table);
+				return null;
+			});
+		}
+
+		void start() {
+			if (executor != null) {
+				executor.execute(task);
+			}
+			else {
+				final Thread thread = new Thread(task,
+						"report-fan-out-" + THREAD_COUNT.incrementAndGet());
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		/**
+		 * @return false if the emitter has stopped reading
+		 */
+		boolean put(final DataRowBinding[] batch) throws InterruptedException {
+			while (!task.isDone()) {
+				if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private Stream<DataRowBinding> getStream(final BlockingQueue<DataRowBinding[]> queue) {
+		final Spliterator<DataRowBinding> spliterator = new Spliterators.AbstractSpliterator<
+				DataRowBinding>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			private DataRowBinding[] batch = null;
+			private int index = 0;
+
+			@Override
+			public boolean tryAdvance(final Consumer<? super DataRowBinding> action) {
+				while (batch == null || index >= batch.length) {
+					try {
+						batch = queue.take();
+					}
+					catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new ReportCancelledException();
+					}
+					index = 0;
+					if (batch == END) {
+						return false;
+					}
+					if (batch == ABORT) {
+						if (sourceFailure instanceof ReportCancelledException) {
+							throw new ReportCancelledException();
+						}
+						throw new RuntimeException("Report source failed", sourceFailure);
+					}
+				}
+				action.accept(batch[index++]);
+				return true;
+			}
+		};
+		return StreamSupport.stream(spliterator, false);
+	}
+
+	@Override
+	public void emit(final Stream<DataRowBinding> stream, final Table table) {
+		final SpooledTable spooledTable = new SpooledTable(table);
+		final List<Branch> branches = new ArrayList<>();
+		for (final Emitter emitter : emitters) {
+			branches.add(new Branch(emitter, spooledTable));
+		}
+		sourceFailure = null;
+		for (final Branch branch : branches) {
+			branch.start();
+		}
+		try {
+			final DataRowBinding[] batch = new DataRowBinding[batchSize];
+			final int[] count = { 0 };
+			stream.forEach(binding -> {
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				batch[count[0]++] = spooledTable.capture(binding);
+				if (count[0] == batch.length) {
+					publish(branches, batch.clone());
+					count[0] = 0;
+				}
+			});
+			if (count[0] > 0) {
+				publish(branches, Arrays.copyOf(batch, count[0]));
+			}
+			publish(branches, END);
+		}
+		catch (final RuntimeException | Error e) {
+			sourceFailure = e;
+			for (final Branch branch : branches) {
+				// make room for the abort if the emitter is behind
+				branch.queue.clear();
+				branch.queue.offer(ABORT);
+			}
+			// the emitters throw once they read the abort
+			await(branches);
+			throw e;
+		}
+		final Throwable failure = await(branches);
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw new RuntimeException("Emitter failed", failure);
+		}
+	}
+
+	/**
+	 * Wait for every emitter to finish, even if interrupted, so none is left
+	 * running when emit returns.
+	 *
+	 * @return the first failure with the others suppressed, null if none
+	 */
+	private static Throwable await(final List<Branch> branches) {
+		Throwable failure = null;
+		boolean interrupted = false;
+		for (final Branch branch : branches) {
+			boolean done = false;
+			while (!done) {
+				try {
+					branch.task.get();
+					done = true;
+				}
+				catch (final InterruptedException e) {
+					interrupted = true;
+				}
+				catch (final ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+					else if (failure != e.getCause()) {
+						failure.addSuppressed(e.getCause());
+					}
+					done = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return failure;
+	}
+
+	private static void publish(final List<Branch> branches, final DataRowBinding[] batch) {
+		for (final Branch branch : branches) {
+			try {
+				branch.put(batch);
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ReportCancelledException();
+			}
+		}
+	}
+}
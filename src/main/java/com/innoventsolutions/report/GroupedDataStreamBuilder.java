@@ -1,13 +1,21 @@
 package com.innoventsolutions.report;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Stream;
 
 import com.innoventsolutions.data.model.AggregateDataRow;
 import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.metrics.Metered;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+import com.innoventsolutions.report.metrics.StageClock;
+
+public abstract class GroupedDataStreamBuilder<DataRow> implements Cancellable, Metered {
+	private CancellationToken cancellationToken = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
 
-public abstract class GroupedDataStreamBuilder<DataRow> {
 	private class RowHolder {
 		DataRow dataRow = null;
 	}
@@ -39,9 +47,65 @@ public abstract class GroupedDataStreamBuilder<DataRow> {
 		}
 	}
 
+	/**
+	 * The builder throws {@link ReportCancelledException} at the next row
+	 * after the token is cancelled.
+	 */
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Reports {@link Stage#SORT} and {@link Stage#GROUPING} with the rows in
+	 * and out of each and the group breaks. The sort time is the time between
+	 * the last row going into the sort and the first row coming out.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
 	public Stream<DataRow> sort(final Stream<DataRow> inputStream) {
-		final int levelCount = getLevelCount();
+		final CancellationToken cancellationToken = this.cancellationToken;
+		final MetricsListener metricsListener = this.metricsListener;
+		if (metricsListener.isEnabled()) {
+			final long[] lastInput = { 0L, 0L };
+			final Stream<DataRow> sortedStream = sortByLevels(inputStream.peek(dataRow -> {
+				metricsListener.rowsIn(Stage.SORT, 1);
+				lastInput[0] = System.nanoTime();
+				lastInput[1] = StageClock.cpuTime(metricsListener);
+			}), cancellationToken);
+			final boolean[] first = { true };
+			return sortedStream.peek(dataRow -> {
+				if (first[0]) {
+					first[0] = false;
+					StageClock.record(metricsListener, Stage.SORT, lastInput[0], lastInput[1]);
+				}
+				metricsListener.rowsOut(Stage.SORT, 1);
+			});
+		}
+		return sortByLevels(inputStream, cancellationToken);
+	}
+
+	private Stream<DataRow> sortByLevels(final Stream<DataRow> inputStream,
+			final CancellationToken cancellationToken) {
+		final Comparator<DataRow> comparator = getComparator();
 		return inputStream.sorted((o1, o2) -> {
+			if (cancellationToken != null) {
+				cancellationToken.throwIfCancelled();
+			}
+			return comparator.compare(o1, o2);
+		});
+	}
+
+	/**
+	 * @return the order {@link #sort(Stream)} puts the rows in, most general
+	 *         level first
+	 */
+	public Comparator<DataRow> getComparator() {
+		final int levelCount = getLevelCount();
+		return (o1, o2) -> {
 			for (int i = levelCount; i >= 1; i--) {
 				final int diff = compareLevel(o1, o2, i);
 				if (diff != 0) {
@@ -49,7 +113,7 @@ public abstract class GroupedDataStreamBuilder<DataRow> {
 				}
 			}
 			return 0;
-		});
+		};
 	}
 
 	/**
@@ -74,83 +138,114 @@ public abstract class GroupedDataStreamBuilder<DataRow> {
 			levelRows.add(createLevelRow(level));
 		}
 		final RowHolder previousRowHolder = new RowHolder();
+		final CancellationToken cancellationToken = this.cancellationToken;
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
 		// mark the end (with empty RowHolder) and then flatten the map to add aggregate rows
-		return Stream.concat(holderStream, Stream.of(new RowHolder())).flatMap(rowHolder -> {
-			final DataRow dataRow = rowHolder.dataRow;
-			final Stream.Builder<DataRowBinding> builder = Stream.builder();
-			final DataRow prevRow = previousRowHolder.dataRow;
-			// output the overall header
-			if (prevRow == null) {
-				builder.add(new DataRowBindingImpl(levelCount + 1, DataRowBinding.Type.HEADER,
-						levelRows.get(levelCount)));
+		final Stream<DataRowBinding> bindingStream = Stream.concat(holderStream,
+			Stream.of(new RowHolder())).flatMap(rowHolder -> {
+			if (cancellationToken != null) {
+				cancellationToken.throwIfCancelled();
 			}
-			// end marker - add all footers
-			if (dataRow == null) {
-				// if prevRow is null then we haven't seen any rows yet, so no footers
-				if (prevRow != null) {
-					// for footers, iterate from most detailed to most general
-					for (int level = 1; level <= levelCount + 1; level++) {
-						final AggregateDataRow<DataRow> levelRow = levelRows.get(level - 1);
-						levelRow.finish();
-						for (int parentLevel = level + 1; parentLevel <= levelCount
-							+ 1; parentLevel++) {
-							final AggregateDataRow<DataRow> parentLevelRow = levelRows.get(
-								parentLevel - 1);
-							parentLevelRow.accumulateLevel(levelRow, level);
-						}
-						builder.add(
-							new DataRowBindingImpl(level, DataRowBinding.Type.FOOTER, levelRow));
-					}
-				}
-				// output the overall footer
-				builder.add(new DataRowBindingImpl(levelCount + 1, DataRowBinding.Type.FOOTER,
-						levelRows.get(levelCount)));
-				return builder.build();
-			}
-			if (prevRow == null) {
-			}
-			// get the most general group level that has different key
-			// that and all more detailed levels will need header/footers
-			int breakLevel = 0;
-			for (int level = levelCount; level >= 1; level--) {
-				if (prevRow == null || compareLevel(prevRow, dataRow, level) != 0) {
-					breakLevel = level;
-					break;
+			if (metered) {
+				if (rowHolder.dataRow != null) {
+					metricsListener.rowsIn(Stage.GROUPING, 1);
 				}
+				final long start = System.nanoTime();
+				final long cpuStart = StageClock.cpuTime(metricsListener);
+				final Stream<DataRowBinding> bindings = group(rowHolder, previousRowHolder,
+					levelRows, levelCount, metricsListener);
+				StageClock.record(metricsListener, Stage.GROUPING, start, cpuStart);
+				return bindings;
 			}
+			return group(rowHolder, previousRowHolder, levelRows, levelCount, metricsListener);
+		});
+		if (metered) {
+			return bindingStream.peek(binding -> metricsListener.rowsOut(Stage.GROUPING, 1));
+		}
+		return bindingStream;
+	}
+
+	private Stream<DataRowBinding> group(final RowHolder rowHolder,
+			final RowHolder previousRowHolder, final List<AggregateDataRow<DataRow>> levelRows,
+			final int levelCount, final MetricsListener metricsListener) {
+		final DataRow dataRow = rowHolder.dataRow;
+		final Stream.Builder<DataRowBinding> builder = Stream.builder();
+		final DataRow prevRow = previousRowHolder.dataRow;
+		// output the overall header
+		if (prevRow == null) {
+			builder.add(new DataRowBindingImpl(levelCount + 1, DataRowBinding.Type.HEADER,
+					levelRows.get(levelCount)));
+		}
+		// end marker - add all footers
+		if (dataRow == null) {
 			// if prevRow is null then we haven't seen any rows yet, so no footers
 			if (prevRow != null) {
 				// for footers, iterate from most detailed to most general
-				for (int level = 1; level <= breakLevel; level++) {
+				for (int level = 1; level <= levelCount + 1; level++) {
 					final AggregateDataRow<DataRow> levelRow = levelRows.get(level - 1);
 					levelRow.finish();
-					for (int parentLevel = level + 1; parentLevel <= levelCount; parentLevel++) {
+					for (int parentLevel = level + 1; parentLevel <= levelCount
+						+ 1; parentLevel++) {
 						final AggregateDataRow<DataRow> parentLevelRow = levelRows.get(
 							parentLevel - 1);
 						parentLevelRow.accumulateLevel(levelRow, level);
 					}
 					builder.add(
 						new DataRowBindingImpl(level, DataRowBinding.Type.FOOTER, levelRow));
-					levelRows.set(level - 1, createLevelRow(level));
 				}
 			}
-			// for headers, iterate from most general to most detailed
+			else {
+				// no rows, so the overall footer goes right after the header
+				builder.add(new DataRowBindingImpl(levelCount + 1, DataRowBinding.Type.FOOTER,
+						levelRows.get(levelCount)));
+			}
+			return builder.build();
+		}
+		// get the most general group level that has different key
+		// that and all more detailed levels will need header/footers
+		int breakLevel = 0;
+		for (int level = levelCount; level >= 1; level--) {
+			if (prevRow == null || compareLevel(prevRow, dataRow, level) != 0) {
+				breakLevel = level;
+				break;
+			}
+		}
+		// if prevRow is null then we haven't seen any rows yet, so no footers
+		if (prevRow != null) {
 			if (breakLevel >= 1) {
-				for (int level = breakLevel; level >= 1; level--) {
-					builder.add(new DataRowBindingImpl(level, DataRowBinding.Type.HEADER,
-							levelRows.get(level - 1)));
+				metricsListener.groupBreak(breakLevel);
+			}
+			// for footers, iterate from most detailed to most general
+			for (int level = 1; level <= breakLevel; level++) {
+				final AggregateDataRow<DataRow> levelRow = levelRows.get(level - 1);
+				levelRow.finish();
+				for (int parentLevel = level + 1; parentLevel <= levelCount; parentLevel++) {
+					final AggregateDataRow<DataRow> parentLevelRow = levelRows.get(
+						parentLevel - 1);
+					parentLevelRow.accumulateLevel(levelRow, level);
 				}
+				builder.add(
+					new DataRowBindingImpl(level, DataRowBinding.Type.FOOTER, levelRow));
+				levelRows.set(level - 1, createLevelRow(level));
 			}
-			// add the detail row
-			builder.add(new DataRowBindingImpl(0, DataRowBinding.Type.DETAIL, rowHolder.dataRow));
-			// accumulate the detail row into all the level rows
-			for (int level = 1; level <= levelCount; level++) {
-				final AggregateDataRow<DataRow> row = levelRows.get(level - 1);
-				row.accumulate(dataRow);
+		}
+		// for headers, iterate from most general to most detailed
+		if (breakLevel >= 1) {
+			for (int level = breakLevel; level >= 1; level--) {
+				builder.add(new DataRowBindingImpl(level, DataRowBinding.Type.HEADER,
+						levelRows.get(level - 1)));
 			}
-			previousRowHolder.dataRow = dataRow;
-			return builder.build();
-		});
+		}
+		// add the detail row
+		builder.add(new DataRowBindingImpl(0, DataRowBinding.Type.DETAIL, rowHolder.dataRow));
+		// accumulate the detail row into all the level rows
+		for (int level = 1; level <= levelCount; level++) {
+			final AggregateDataRow<DataRow> row = levelRows.get(level - 1);
+			row.accumulate(dataRow);
+		}
+		previousRowHolder.dataRow = dataRow;
+		return builder.build();
 	}
 
 	protected abstract int getLevelCount();
@@ -4,15 +4,19 @@ import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
+import com.innoventsolutions.report.css.StyleSheet;
+import com.innoventsolutions.report.css.StyledTable;
 import com.innoventsolutions.report.design.Cell;
 import com.innoventsolutions.report.design.Column;
 import com.innoventsolutions.report.design.DataRowBinding;
@@ -25,12 +29,71 @@ import com.innoventsolutions.report.design.ReportComponent;
 import com.innoventsolutions.report.design.Row;
 import com.innoventsolutions.report.design.Table;
 import com.innoventsolutions.report.design.TextData;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+import com.innoventsolutions.report.metrics.StageClock;
+import com.innoventsolutions.report.output.OutputSink;
 
 public class HtmlEmitter implements Emitter {
 	private final PrintWriter writer;
+	private final boolean styleClasses;
+	private final Map<Map<String, String>, String> styleClassNames = new LinkedHashMap<>();
+	private final Map<String, Map<String, String>> classStyles = new HashMap<>();
+	private StyleSheet styleSheet = null;
+	private String styleClassPrefix = "rs";
+	private CancellationToken cancellationToken = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
 
 	public HtmlEmitter(final PrintWriter writer) {
+		this(writer, false);
+	}
+
+	/**
+	 * @param writer
+	 * @param styleClasses if true, every distinct style map found in the design
+	 *            is written once as a class in a style block ahead of the table
+	 *            and elements refer to it with a class attribute. Styles that
+	 *            only show up at run time (from highlight) are still written
+	 *            inline. The single class rules of the table's style sheet are
+	 *            written to the style block as they are, and only what they do
+	 *            not already give an element goes in a generated class.
+	 */
+	public HtmlEmitter(final PrintWriter writer, final boolean styleClasses) {
 		this.writer = writer;
+		this.styleClasses = styleClasses;
+	}
+
+	public HtmlEmitter(final OutputSink sink) {
+		this(sink.getWriter(), false);
+	}
+
+	public HtmlEmitter(final OutputSink sink, final boolean styleClasses) {
+		this(sink.getWriter(), styleClasses);
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Reports {@link Stage#EMIT} for each row written and
+	 * {@link Stage#STYLE_RESOLUTION} for building the style classes. Bytes are
+	 * counted by the {@link OutputSink}, not here.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
+	/**
+	 * Set the prefix of the generated class names. Use different prefixes if
+	 * more than one report is written to the same page.
+	 *
+	 * @param styleClassPrefix
+	 */
+	public void setStyleClassPrefix(final String styleClassPrefix) {
+		this.styleClassPrefix = styleClassPrefix;
 	}
 
 	private static abstract class Element {
@@ -54,6 +117,25 @@ public class HtmlEmitter implements Emitter {
 		}
 	}
 
+	private static class MeteredElement extends Element {
+		private final Element element;
+		private final MetricsListener metricsListener;
+
+		public MeteredElement(final Element element, final MetricsListener metricsListener) {
+			this.element = element;
+			this.metricsListener = metricsListener;
+		}
+
+		@Override
+		public void emit() {
+			final long start = System.nanoTime();
+			final long cpuStart = StageClock.cpuTime(metricsListener);
+			element.emit();
+			StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+			metricsListener.rowsOut(Stage.EMIT, 1);
+		}
+	}
+
 	private static abstract class Tag extends Element {
 		private final PrintWriter writer;
 		private final String name;
@@ -98,7 +180,7 @@ public class HtmlEmitter implements Emitter {
 
 	private Tag getLabelTag(final Label label) {
 		final Map<String, String> attributes = new HashMap<>();
-		attributes.put("style", getStylesString(label.getStyles()));
+		putStyleAttribute(attributes, label.getStyles(), label.getStyleClass());
 		return new Tag(writer, "span", attributes) {
 			@Override
 			public Stream<Element> getChildTags() {
@@ -114,7 +196,8 @@ public class HtmlEmitter implements Emitter {
 
 	private Element getDataTag(final DataRowBinding dataRowBinding, final TextData data) {
 		final Map<String, String> attributes = new HashMap<>();
-		attributes.put("style", getStylesString(data.highlight(dataRowBinding.getDataRow())));
+		putStyleAttribute(attributes, data.highlight(dataRowBinding.getDataRow()),
+			data.getStyleClass());
 		return new Tag(writer, "span", attributes) {
 			@Override
 			public Stream<Element> getChildTags() {
@@ -130,7 +213,8 @@ public class HtmlEmitter implements Emitter {
 
 	private Element getDataTag(final DataRowBinding dataRowBinding, final IntegerData data) {
 		final Map<String, String> attributes = new HashMap<>();
-		attributes.put("style", getStylesString(data.highlight(dataRowBinding.getDataRow())));
+		putStyleAttribute(attributes, data.highlight(dataRowBinding.getDataRow()),
+			data.getStyleClass());
 		return new Tag(writer, "span", attributes) {
 			@Override
 			public Stream<Element> getChildTags() {
@@ -152,7 +236,8 @@ public class HtmlEmitter implements Emitter {
 
 	private Element getDataTag(final DataRowBinding dataRowBinding, final FloatData data) {
 		final Map<String, String> attributes = new HashMap<>();
-		attributes.put("style", getStylesString(data.highlight(dataRowBinding.getDataRow())));
+		putStyleAttribute(attributes, data.highlight(dataRowBinding.getDataRow()),
+			data.getStyleClass());
 		return new Tag(writer, "span", attributes) {
 			@Override
 			public Stream<Element> getChildTags() {
@@ -174,7 +259,8 @@ public class HtmlEmitter implements Emitter {
 
 	private Element getDataTag(final DataRowBinding dataRowBinding, final DateData data) {
 		final Map<String, String> attributes = new HashMap<>();
-		attributes.put("style", getStylesString(data.highlight(dataRowBinding.getDataRow())));
+		putStyleAttribute(attributes, data.highlight(dataRowBinding.getDataRow()),
+			data.getStyleClass());
 		return new Tag(writer, "span", attributes) {
 			@Override
 			public Stream<Element> getChildTags() {
@@ -196,20 +282,19 @@ public class HtmlEmitter implements Emitter {
 
 	private Element getComponentTag(final DataRowBinding dataRowBinding,
 			final ReportComponent component) {
-		if (component instanceof Label) {
+		switch (component.getKind()) {
+		case LABEL:
 			return getLabelTag((Label) component);
-		}
-		if (component instanceof TextData) {
+		case TEXT:
 			return getDataTag(dataRowBinding, (TextData) component);
-		}
-		if (component instanceof IntegerData) {
+		case INTEGER:
 			return getDataTag(dataRowBinding, (IntegerData) component);
-		}
-		if (component instanceof FloatData) {
+		case FLOAT:
 			return getDataTag(dataRowBinding, (FloatData) component);
-		}
-		if (component instanceof DateData) {
+		case DATE:
 			return getDataTag(dataRowBinding, (DateData) component);
+		default:
+			break;
 		}
 		return new Comment(writer, "unknown component class");
 	}
@@ -228,12 +313,7 @@ public class HtmlEmitter implements Emitter {
 			final Column column, final boolean header) {
 		final Map<String, String> attributes = new HashMap<>();
 		if (cell != null) {
-			final Map<String, String> styles = new HashMap<>(cell.getStyles());
-			final String textAlign = column.getStyles().get("text-align");
-			if (textAlign != null && !styles.containsKey("text-align")) {
-				styles.put("text-align", textAlign);
-			}
-			attributes.put("style", getStylesString(styles));
+			putStyleAttribute(attributes, getCellStyles(cell, column), cell.getStyleClass());
 			final int colspan = cell.getColSpan();
 			if (colspan > 1) {
 				attributes.put("colspan", String.valueOf(colspan));
@@ -261,7 +341,7 @@ public class HtmlEmitter implements Emitter {
 			final List<Column> columns, final boolean header) {
 		final Iterator<Cell> cellIterator = row.getCells().iterator();
 		final Map<String, String> attributes = new HashMap<>();
-		attributes.put("style", getStylesString(row.getStyles()));
+		putStyleAttribute(attributes, row.getStyles(), row.getStyleClass());
 		return new Tag(writer, "tr", attributes) {
 			@Override
 			public Stream<Element> getChildTags() {
@@ -291,8 +371,10 @@ public class HtmlEmitter implements Emitter {
 	private Element getTableTag(final Stream<DataRowBinding> stream, final Table table) {
 		final List<Column> columns = table.getColumns();
 		final List<Group> groups = table.getGroups();
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
 		final Map<String, String> attributes = new HashMap<>();
-		attributes.put("style", getStylesString(table.getStyles()));
+		putStyleAttribute(attributes, table.getStyles(), table.getStyleClass());
 		return new Tag(writer, "table", attributes) {
 			@Override
 			public Stream<Element> getChildTags() {
@@ -302,7 +384,7 @@ public class HtmlEmitter implements Emitter {
 						continue;
 					}
 					final Map<String, String> attributes = new HashMap<>();
-					attributes.put("style", getStylesString(column.getStyles()));
+					putStyleAttribute(attributes, column.getStyles(), column.getStyleClass());
 					builder.add(new Tag(writer, "col", attributes) {
 						@Override
 						public Stream<Element> getChildTags() {
@@ -312,6 +394,12 @@ public class HtmlEmitter implements Emitter {
 				}
 				final Stream<Tag> columnsStream = builder.build();
 				final Stream<Element> rowsStream = stream.flatMap(dataRowBinding -> {
+					if (cancellationToken != null) {
+						cancellationToken.throwIfCancelled();
+					}
+					if (metered) {
+						metricsListener.rowsIn(Stage.EMIT, 1);
+					}
 					final Stream.Builder<Element> rowBuilder = Stream.builder();
 					final int level = dataRowBinding.getLevel();
 					final DataRowBinding.Type type = dataRowBinding.getType();
@@ -375,6 +463,10 @@ public class HtmlEmitter implements Emitter {
 							}
 						}
 					}
+					if (metered) {
+						return rowBuilder.build().map(
+							element -> new MeteredElement(element, metricsListener));
+					}
 					return rowBuilder.build();
 				});
 				return Stream.concat(columnsStream, rowsStream);
@@ -382,6 +474,159 @@ public class HtmlEmitter implements Emitter {
 		};
 	}
 
+	private static Map<String, String> getCellStyles(final Cell cell, final Column column) {
+		final Map<String, String> styles = new HashMap<>(cell.getStyles());
+		final String textAlign = column.getStyles().get("text-align");
+		if (textAlign != null && !styles.containsKey("text-align")) {
+			styles.put("text-align", textAlign);
+		}
+		return styles;
+	}
+
+	private void putStyleAttribute(final Map<String, String> attributes,
+			final Map<String, String> styles, final String styleClass) {
+		if (styleClasses) {
+			final Map<String, String> unclassedStyles = getUnclassedStyles(styles, styleClass);
+			String classNames = styleClass;
+			if (!unclassedStyles.isEmpty()) {
+				final String className = styleClassNames.get(unclassedStyles);
+				if (className == null) {
+					attributes.put("style", getStylesString(unclassedStyles));
+				}
+				else {
+					classNames = classNames == null ? className : classNames + " " + className;
+				}
+			}
+			if (classNames != null) {
+				attributes.put("class", classNames);
+			}
+			return;
+		}
+		if (styleClass != null) {
+			attributes.put("class", styleClass);
+		}
+		attributes.put("style", getStylesString(styles));
+	}
+
+	/**
+	 * @return the styles less what the style sheet's class rules already give
+	 *         an element of the given classes
+	 */
+	private Map<String, String> getUnclassedStyles(final Map<String, String> styles,
+			final String styleClass) {
+		if (styleSheet == null || styleClass == null) {
+			return styles;
+		}
+		Map<String, String> fromClasses = classStyles.get(styleClass);
+		if (fromClasses == null) {
+			fromClasses = styleSheet.getClassStyles(styleClass);
+			classStyles.put(styleClass, fromClasses);
+		}
+		if (fromClasses.isEmpty()) {
+			return styles;
+		}
+		final Map<String, String> unclassedStyles = new LinkedHashMap<>();
+		for (final Map.Entry<String, String> entry : styles.entrySet()) {
+			if (!entry.getValue().equals(fromClasses.get(entry.getKey()))) {
+				unclassedStyles.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return unclassedStyles;
+	}
+
+	private void addStyleClass(final Map<String, String> styles, final String styleClass) {
+		addStyleClass(getUnclassedStyles(styles, styleClass));
+	}
+
+	private void addStyleClass(final Map<String, String> styles) {
+		if (styles.isEmpty() || styleClassNames.containsKey(styles)) {
+			return;
+		}
+		styleClassNames.put(new HashMap<>(styles), styleClassPrefix + styleClassNames.size());
+	}
+
+	private void addRowStyleClasses(final Row row, final List<Column> columns) {
+		addStyleClass(row.getStyles(), row.getStyleClass());
+		final Iterator<Cell> cellIterator = row.getCells().iterator();
+		int spanning = 1;
+		for (final Column column : columns) {
+			if (column.isHidden(null)) {
+				if (cellIterator.hasNext()) {
+					cellIterator.next(); // swallow the cell
+				}
+				continue;
+			}
+			if (spanning > 1) {
+				spanning--;
+				continue;
+			}
+			if (!cellIterator.hasNext()) {
+				break;
+			}
+			final Cell cell = cellIterator.next();
+			spanning = cell.getColSpan();
+			addStyleClass(getCellStyles(cell, column), cell.getStyleClass());
+			for (final ReportComponent component : cell.getComponents()) {
+				addStyleClass(component.getStyles(), component.getStyleClass());
+			}
+		}
+	}
+
+	/**
+	 * Collect the static styles of the whole design into classes. Styles that
+	 * depend on the data row are not known until the row is emitted.
+	 *
+	 * @param table
+	 */
+	private void addStyleClasses(final Table table) {
+		final List<Column> columns = table.getColumns();
+		addStyleClass(table.getStyles(), table.getStyleClass());
+		for (final Column column : columns) {
+			if (!column.isHidden(null)) {
+				addStyleClass(column.getStyles(), column.getStyleClass());
+			}
+		}
+		final List<Row> rows = new ArrayList<>();
+		rows.addAll(table.getHeaderRows());
+		for (final Group group : table.getGroups()) {
+			rows.addAll(group.getHeaderRows());
+		}
+		rows.addAll(table.getRows());
+		for (final Group group : table.getGroups()) {
+			rows.addAll(group.getFooterRows());
+		}
+		rows.addAll(table.getFooterRows());
+		for (final Row row : rows) {
+			addRowStyleClasses(row, columns);
+		}
+	}
+
+	private void emitStyleClasses() {
+		final Map<String, Map<String, String>> classRules = styleSheet == null
+				? Collections.emptyMap()
+				: styleSheet.getClassRules();
+		if (styleClassNames.isEmpty() && classRules.isEmpty()) {
+			return;
+		}
+		writer.println("<style>");
+		// ahead of the generated classes, which must win where they differ
+		for (final Map.Entry<String, Map<String, String>> entry : classRules.entrySet()) {
+			writer.print(".");
+			writer.print(entry.getKey());
+			writer.print(" { ");
+			writer.print(getStylesString(entry.getValue()));
+			writer.println(" }");
+		}
+		for (final Map.Entry<Map<String, String>, String> entry : styleClassNames.entrySet()) {
+			writer.print(".");
+			writer.print(entry.getValue());
+			writer.print(" { ");
+			writer.print(getStylesString(entry.getKey()));
+			writer.println(" }");
+		}
+		writer.println("</style>");
+	}
+
 	private static String getStylesString(final Map<String, String> styles) {
 		final StringBuilder sb = new StringBuilder();
 		String sep = "";
@@ -396,7 +641,24 @@ public class HtmlEmitter implements Emitter {
 	}
 
 	@Override
-	public void emit(final Stream<DataRowBinding> stream, final Table table) {
+	public void emit(final Stream<DataRowBinding> stream, final Table design) {
+		final Table table = StyledTable.of(design);
+		styleSheet = table.getStyleSheet();
+		if (styleClasses) {
+			styleClassNames.clear();
+			classStyles.clear();
+			final MetricsListener metricsListener = this.metricsListener;
+			if (metricsListener.isEnabled()) {
+				final long start = System.nanoTime();
+				final long cpuStart = StageClock.cpuTime(metricsListener);
+				addStyleClasses(table);
+				StageClock.record(metricsListener, Stage.STYLE_RESOLUTION, start, cpuStart);
+			}
+			else {
+				addStyleClasses(table);
+			}
+			emitStyleClasses();
+		}
 		final Element tableTag = getTableTag(stream, table);
 		tableTag.emit();
 	}
@@ -0,0 +1,527 @@
+package com.innoventsolutions.report;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.innoventsolutions.report.design.Cell;
+import com.innoventsolutions.report.design.Column;
+import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.design.DateData;
+import com.innoventsolutions.report.design.FloatData;
+import com.innoventsolutions.report.design.Group;
+import com.innoventsolutions.report.design.IntegerData;
+import com.innoventsolutions.report.design.Label;
+import com.innoventsolutions.report.design.ReportComponent;
+import com.innoventsolutions.report.design.Row;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.design.TextData;
+import com.innoventsolutions.report.metrics.MeteredOutputStream;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+import com.innoventsolutions.report.metrics.StageClock;
+import com.innoventsolutions.report.output.OutputSink;
+import com.innoventsolutions.report.output.Utf8Output;
+
+/**
+ * Writes the report as JSON for programs to read. A design row is an array
+ * with an entry for each visible column: null if the cell is empty or
+ * covered by a spanning cell, the value if the cell has one visible
+ * component, or an array of the values if it has more. Labels and text are
+ * strings, integers and floats are numbers (NaN and infinities are null) and
+ * dates are ISO 8601 UTC timestamps. Number and date formats are ignored, as
+ * are styles.
+ * <p>
+ * {@link Layout#NDJSON}, the default, writes a line for each binding, with
+ * its level, its type and its visible rows:
+ *
+ * <pre>
+ * {"level":1,"type":"footer","rows":[["g0","Total",30]]}
+ * </pre>
+ *
+ * {@link Layout#NESTED} writes one document that is a tree of groups. The
+ * table and each group is an object with its level, its header rows, its
+ * children and its footer rows. The children of level 1 are detail rows and
+ * those of the other levels are groups:
+ *
+ * <pre>
+ * {"level":2,"header":[...],"groups":[{"level":1,"header":[...],"details":[...],"footer":[...]}],"footer":[...]}
+ * </pre>
+ *
+ * The output is written as the bindings arrive, and the stream is flushed
+ * every {@link #setFlushInterval(int)} bindings so a client can start on it
+ * before the report is finished. Writes go straight to the output stream
+ * when the buffer fills, so a client that reads slowly holds up the emitter
+ * and with it the query, rather than the output piling up in memory.
+ */
+public class JsonEmitter implements Emitter {
+	public enum Layout {
+		/**
+		 * A JSON object on a line for each binding
+		 */
+		NDJSON,
+		/**
+		 * A single JSON document with the groups nested
+		 */
+		NESTED
+	}
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private final OutputStream outputStream;
+	private Layout layout = Layout.NDJSON;
+	private int flushInterval = 1000;
+	private Utf8Output out = null;
+	/**
+	 * For the nested layout, whether the children of each open level have
+	 * had an entry yet
+	 */
+	private boolean[] hasChildren = null;
+	private int openLevel = 0;
+	private CancellationToken cancellationToken = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
+
+	public JsonEmitter(final OutputStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
+	/**
+	 * Turns on the sink's sync flush, so each interval flush gets through a
+	 * GZIP or DEFLATE compressor to the client.
+	 *
+	 * @param sink
+	 */
+	public JsonEmitter(final OutputSink sink) {
+		this(sink.getOutputStream());
+		sink.setSyncFlush(true);
+	}
+
+	public void setLayout(final Layout layout) {
+		this.layout = layout;
+	}
+
+	/**
+	 * @param flushInterval the number of bindings between flushes of the
+	 *            output stream, or 0 to write only when the buffer is full
+	 */
+	public void setFlushInterval(final int flushInterval) {
+		if (flushInterval < 0) {
+			throw new IllegalArgumentException("Flush interval cannot be negative");
+		}
+		this.flushInterval = flushInterval;
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Reports {@link Stage#EMIT} for each binding, with the design rows
+	 * written as rows out. Writes to the output stream are counted and its
+	 * flush and close are reported as {@link Stage#FLUSH}.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
+	@Override
+	public void emit(final Stream<DataRowBinding> stream, final Table table) {
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final OutputStream outputStream = metered
+				? new MeteredOutputStream(this.outputStream, metricsListener)
+				: this.outputStream;
+		out = new Utf8Output(outputStream);
+		final List<Column> columns = table.getColumns();
+		final List<Group> groups = table.getGroups();
+		hasChildren = new boolean[groups.size() + 2];
+		openLevel = groups.size() + 2;
+		try {
+			final Iterator<DataRowBinding> iterator = stream.iterator();
+			int unflushed = 0;
+			while (iterator.hasNext()) {
+				final DataRowBinding dataRowBinding = iterator.next();
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				final long start = metered ? System.nanoTime() : 0L;
+				final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+				final List<Row> rows = getRows(dataRowBinding, table, groups);
+				final int rowCount;
+				if (layout == Layout.NESTED) {
+					rowCount = emitNested(dataRowBinding, rows, columns, groups.size() + 1);
+				}
+				else {
+					rowCount = emitLine(dataRowBinding, rows, columns);
+				}
+				if (flushInterval > 0 && ++unflushed == flushInterval) {
+					out.flush();
+					unflushed = 0;
+				}
+				if (metered) {
+					StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+					metricsListener.rowsIn(Stage.EMIT, 1);
+					metricsListener.rowsOut(Stage.EMIT, rowCount);
+				}
+			}
+			out.flushBuffer();
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to write JSON", e);
+		}
+		finally {
+			out = null;
+			hasChildren = null;
+			try {
+				outputStream.close();
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static List<Row> getRows(final DataRowBinding dataRowBinding, final Table table,
+			final List<Group> groups) {
+		final int level = dataRowBinding.getLevel();
+		final DataRowBinding.Type type = dataRowBinding.getType();
+		if (level == 0) {
+			return type == DataRowBinding.Type.DETAIL ? table.getRows()
+					: Collections.<Row> emptyList();
+		}
+		if (level == groups.size() + 1) {
+			switch (type) {
+			case HEADER:
+				return table.getHeaderRows();
+			case FOOTER:
+				return table.getFooterRows();
+			default:
+				return Collections.emptyList();
+			}
+		}
+		final Group group = groups.get(level - 1);
+		switch (type) {
+		case HEADER:
+			return group.getHeaderRows();
+		case FOOTER:
+			return group.getFooterRows();
+		default:
+			return Collections.emptyList();
+		}
+	}
+
+	private int emitLine(final DataRowBinding dataRowBinding, final List<Row> rows,
+			final List<Column> columns) throws IOException {
+		out.write("{\"level\":");
+		out.write((long) dataRowBinding.getLevel());
+		out.write(",\"type\":\"");
+		switch (dataRowBinding.getType()) {
+		case HEADER:
+			out.write("header");
+			break;
+		case FOOTER:
+			out.write("footer");
+			break;
+		default:
+			out.write("detail");
+		}
+		out.write("\",\"rows\":");
+		final int rowCount = emitRows(dataRowBinding, rows, columns);
+		out.write("}\n");
+		return rowCount;
+	}
+
+	private int emitNested(final DataRowBinding dataRowBinding, final List<Row> rows,
+			final List<Column> columns, final int tableLevel) throws IOException {
+		final int level = dataRowBinding.getLevel();
+		switch (dataRowBinding.getType()) {
+		case HEADER: {
+			if (level != openLevel - 1) {
+				throw new IllegalStateException("Header at level " + level
+					+ " when level " + openLevel + " is open");
+			}
+			if (level < tableLevel) {
+				startChild(level + 1);
+			}
+			openLevel = level;
+			hasChildren[level] = false;
+			out.write("{\"level\":");
+			out.write((long) level);
+			out.write(",\"header\":");
+			final int rowCount = emitRows(dataRowBinding, rows, columns);
+			out.write(level == 1 ? ",\"details\":[" : ",\"groups\":[");
+			return rowCount;
+		}
+		case FOOTER: {
+			if (level != openLevel) {
+				throw new IllegalStateException("Footer at level " + level
+					+ " when level " + openLevel + " is open");
+			}
+			out.write("],\"footer\":");
+			final int rowCount = emitRows(dataRowBinding, rows, columns);
+			out.write('}');
+			openLevel = level + 1;
+			if (level == tableLevel) {
+				out.write('\n');
+			}
+			return rowCount;
+		}
+		default: {
+			if (openLevel != 1) {
+				throw new IllegalStateException("Detail when level " + openLevel + " is open");
+			}
+			int rowCount = 0;
+			for (final Row row : rows) {
+				if (row.isHidden(dataRowBinding.getDataRow())) {
+					continue;
+				}
+				startChild(1);
+				emitRow(dataRowBinding, row, columns);
+				rowCount++;
+			}
+			return rowCount;
+		}
+		}
+	}
+
+	private void startChild(final int parentLevel) throws IOException {
+		if (hasChildren[parentLevel]) {
+			out.write(',');
+		}
+		hasChildren[parentLevel] = true;
+	}
+
+	/**
+	 * Write the visible rows as an array.
+	 *
+	 * @return the number of rows written
+	 */
+	private int emitRows(final DataRowBinding dataRowBinding, final List<Row> rows,
+			final List<Column> columns) throws IOException {
+		out.write('[');
+		int rowCount = 0;
+		for (final Row row : rows) {
+			if (row.isHidden(dataRowBinding.getDataRow())) {
+				continue;
+			}
+			if (rowCount > 0) {
+				out.write(',');
+			}
+			emitRow(dataRowBinding, row, columns);
+			rowCount++;
+		}
+		out.write(']');
+		return rowCount;
+	}
+
+	private void emitRow(final DataRowBinding dataRowBinding, final Row row,
+			final List<Column> columns) throws IOException {
+		out.write('[');
+		final Iterator<Cell> cellIterator = row.getCells().iterator();
+		boolean first = true;
+		int spanning = 1;
+		for (final Column column : columns) {
+			if (column.isHidden(null)) {
+				if (cellIterator.hasNext()) {
+					cellIterator.next(); // swallow the cell
+				}
+				continue;
+			}
+			if (!first) {
+				out.write(',');
+			}
+			first = false;
+			if (spanning > 1) {
+				spanning--;
+				out.write("null");
+				continue;
+			}
+			if (cellIterator.hasNext()) {
+				final Cell cell = cellIterator.next();
+				spanning = cell.getColSpan();
+				emitCell(dataRowBinding, cell);
+			}
+			else {
+				out.write("null");
+			}
+		}
+		out.write(']');
+	}
+
+	private void emitCell(final DataRowBinding dataRowBinding, final Cell cell)
+			throws IOException {
+		final Object dataRow = dataRowBinding.getDataRow();
+		final List<ReportComponent> components = cell.getComponents();
+		ReportComponent single = null;
+		int count = 0;
+		for (final ReportComponent component : components) {
+			if (!component.isHidden(dataRow)) {
+				single = component;
+				count++;
+			}
+		}
+		if (count == 0) {
+			out.write("null");
+			return;
+		}
+		if (count == 1) {
+			emitValue(dataRow, single);
+			return;
+		}
+		out.write('[');
+		boolean first = true;
+		for (final ReportComponent component : components) {
+			if (component.isHidden(dataRow)) {
+				continue;
+			}
+			if (!first) {
+				out.write(',');
+			}
+			first = false;
+			emitValue(dataRow, component);
+		}
+		out.write(']');
+	}
+
+	private void emitValue(final Object dataRow, final ReportComponent component)
+			throws IOException {
+		switch (component.getKind()) {
+		case LABEL:
+			writeString(((Label) component).getText());
+			break;
+		case TEXT:
+			writeString(((TextData) component).getValue(dataRow));
+			break;
+		case INTEGER:
+			out.write(((IntegerData) component).getValue(dataRow));
+			break;
+		case FLOAT: {
+			final double value = ((FloatData) component).getValue(dataRow);
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				out.write("null");
+			}
+			else {
+				out.write(value);
+			}
+			break;
+		}
+		case DATE: {
+			final Date value = ((DateData) component).getValue(dataRow);
+			if (value == null) {
+				out.write("null");
+			}
+			else {
+				writeTimestamp(value.getTime());
+			}
+			break;
+		}
+		default:
+			out.write("null");
+		}
+	}
+
+	private void writeString(final String text) throws IOException {
+		if (text == null) {
+			out.write("null");
+			return;
+		}
+		out.write('"');
+		final int length = text.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = text.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') {
+				continue;
+			}
+			out.write(text, start, i);
+			start = i + 1;
+			out.write('\\');
+			switch (c) {
+			case '"':
+			case '\\':
+				out.write(c);
+				break;
+			case '\n':
+				out.write('n');
+				break;
+			case '\r':
+				out.write('r');
+				break;
+			case '\t':
+				out.write('t');
+				break;
+			case '\b':
+				out.write('b');
+				break;
+			case '\f':
+				out.write('f');
+				break;
+			default:
+				out.write("u00");
+				out.write(HEX_DIGITS[c >> 4]);
+				out.write(HEX_DIGITS[c & 0xF]);
+			}
+		}
+		out.write(text, start, length);
+		out.write('"');
+	}
+
+	/**
+	 * Write a time as "yyyy-MM-ddTHH:mm:ss.SSSZ" in UTC, working out the
+	 * calendar date from the day number rather than going through a
+	 * Calendar.
+	 */
+	private void writeTimestamp(final long millis) throws IOException {
+		final long days = Math.floorDiv(millis, 86400000L);
+		final long millisOfDay = Math.floorMod(millis, 86400000L);
+		// days since 0000-03-01, in 400 year eras of 146097 days
+		final long shifted = days + 719468L;
+		final long era = Math.floorDiv(shifted, 146097L);
+		final long dayOfEra = shifted - era * 146097L;
+		final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096)
+			/ 365;
+		final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		// months counted from March
+		final long shiftedMonth = (5 * dayOfYear + 2) / 153;
+		final long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		final long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+		final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		out.write('"');
+		if (year < 0) {
+			out.write('-');
+		}
+		else if (year > 9999) {
+			out.write('+');
+		}
+		writeDigits(Math.abs(year), 4);
+		out.write('-');
+		writeDigits(month, 2);
+		out.write('-');
+		writeDigits(day, 2);
+		out.write('T');
+		writeDigits(millisOfDay / 3600000L, 2);
+		out.write(':');
+		writeDigits(millisOfDay / 60000L % 60, 2);
+		out.write(':');
+		writeDigits(millisOfDay / 1000L % 60, 2);
+		out.write('.');
+		writeDigits(millisOfDay % 1000L, 3);
+		out.write("Z\"");
+	}
+
+	private void writeDigits(final long value, final int digits) throws IOException {
+		long limit = 10;
+		for (int i = 1; i < digits; i++) {
+			if (value < limit) {
+				out.write('0');
+			}
+			limit *= 10;
+		}
+		out.write(value);
+	}
+}
@@ -1,5 +1,6 @@
 package com.innoventsolutions.report;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
@@ -11,10 +12,10 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
-import com.innoventsolutions.report.css.CSS;
-import com.innoventsolutions.report.css.CSS.Style;
-import com.innoventsolutions.report.css.CSS.StyleMapHolder;
 import com.innoventsolutions.report.css.PdfApplier;
+import com.innoventsolutions.report.css.StyleResolver;
+import com.innoventsolutions.report.css.StyleVector;
+import com.innoventsolutions.report.css.StyledTable;
 import com.innoventsolutions.report.design.Column;
 import com.innoventsolutions.report.design.DataRowBinding;
 import com.innoventsolutions.report.design.DateData;
@@ -25,6 +26,11 @@ import com.innoventsolutions.report.design.Label;
 import com.innoventsolutions.report.design.ReportComponent;
 import com.innoventsolutions.report.design.Table;
 import com.innoventsolutions.report.design.TextData;
+import com.innoventsolutions.report.metrics.MeteredOutputStream;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+import com.innoventsolutions.report.metrics.StageClock;
+import com.innoventsolutions.report.output.OutputSink;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Element;
@@ -37,24 +43,73 @@ public class PdfEmitter implements Emitter {
 	private final OutputStream outputStream;
 	private PdfPTable pdfTable = null;
 	private List<Column> columns = null;
+	private CancellationToken cancellationToken = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
+	private int widthHeadSize = ColumnWidthEstimator.DEFAULT_HEAD_SIZE;
+	private int widthReservoirSize = ColumnWidthEstimator.DEFAULT_RESERVOIR_SIZE;
 
 	public PdfEmitter(final OutputStream outputStream) {
 		this.outputStream = outputStream;
 	}
 
-	private static void applyStyles(final Element element, final StyleMapHolder styleMapHolder) {
-		System.out.println("applyStyles " + styleMapHolder + " to " + element.getClass().getName()
-			+ " " + element);
-		final List<CSS.Style> styles = CSS.parseCss(styleMapHolder);
-		final CSS.Applier applier = new PdfApplier(element);
-		for (final Style style : styles) {
-			style.apply(applier);
+	public PdfEmitter(final OutputSink sink) {
+		this(sink.getOutputStream());
+	}
+
+	private void applyStyles(final Element element, final StyleVector styles) {
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final long start = metered ? System.nanoTime() : 0L;
+		final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+		styles.apply(new PdfApplier(element));
+		if (metered) {
+			StageClock.record(metricsListener, Stage.STYLE_RESOLUTION, start, cpuStart);
+		}
+	}
+
+	/**
+	 * Size the columns from a sample of their values instead of giving them
+	 * equal widths.
+	 *
+	 * @param headSize the first values of each column that are measured, 100
+	 *            by default
+	 * @param reservoirSize the values sampled from the rest, 100 by default;
+	 *            0 for both to keep equal widths
+	 */
+	public void setColumnWidthSamples(final int headSize, final int reservoirSize) {
+		if (headSize < 0 || reservoirSize < 0) {
+			throw new IllegalArgumentException("Sample sizes must not be negative");
 		}
+		this.widthHeadSize = headSize;
+		this.widthReservoirSize = reservoirSize;
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Reports {@link Stage#EMIT}, which includes laying out the table, and
+	 * {@link Stage#STYLE_RESOLUTION} within it for resolving and applying
+	 * styles. Each distinct style map of the design is parsed and cascaded
+	 * once per run. Writes to the output stream are counted and its flush and
+	 * close are reported as {@link Stage#FLUSH}.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
 	}
 
 	@Override
-	public void emit(final Stream<DataRowBinding> stream, final Table table) {
+	public void emit(final Stream<DataRowBinding> stream, final Table design) {
+		final Table table = StyledTable.of(design);
 		final Document document = new Document();
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final OutputStream outputStream = metered
+				? new MeteredOutputStream(this.outputStream, metricsListener)
+				: this.outputStream;
 		try {
 			PdfWriter.getInstance(document, outputStream);
 			document.setMargins(72.0F / 4.0F, 72.0F / 4.0F, 72.0F / 4.0F, 72.0F / 4.0F);
@@ -67,11 +122,22 @@ public class PdfEmitter implements Emitter {
 				}
 			}
 			pdfTable = new PdfPTable(colCount);
-			final StyleMapHolder tableStyleMapHolder = new StyleMapHolder(table.getStyles(), null);
-			applyStyles(pdfTable, tableStyleMapHolder);
+			final ColumnWidthEstimator widths = widthHeadSize + widthReservoirSize > 0
+					? new ColumnWidthEstimator(colCount, widthHeadSize, widthReservoirSize)
+					: null;
+			final StyleResolver styleResolver = new StyleResolver();
+			final StyleVector tableStyles = styleResolver.resolve(table.getStyles(),
+				StyleVector.DEFAULTS);
+			applyStyles(pdfTable, tableStyles);
 			pdfTable.setWidthPercentage(100.0F);
 			final List<Group> groups = table.getGroups();
 			stream.forEach(dataRowBinding -> {
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				final long start = metered ? System.nanoTime() : 0L;
+				final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+				int rowCount = 0;
 				final List<com.innoventsolutions.report.design.Row> rows;
 				final int level = dataRowBinding.getLevel();
 				final DataRowBinding.Type type = dataRowBinding.getType();
@@ -113,8 +179,10 @@ public class PdfEmitter implements Emitter {
 					if (row.isHidden(dataRowBinding.getDataRow())) {
 						continue;
 					}
+					rowCount++;
 					final Iterator<com.innoventsolutions.report.design.Cell> cellIterator = row.getCells().iterator();
 					final AtomicInteger spanning = new AtomicInteger(1);
+					final AtomicInteger colNum = new AtomicInteger(0);
 					columns.forEach(column -> {
 						if (column.isHidden(null)) {
 							if (cellIterator.hasNext()) {
@@ -122,44 +190,50 @@ public class PdfEmitter implements Emitter {
 							}
 							return;
 						}
+						final int visibleColumn = colNum.getAndIncrement();
 						if (spanning.get() > 1) {
 							spanning.decrementAndGet();
 							return;
 						}
-						final StyleMapHolder columnStyleMapHolder = new StyleMapHolder(
-								column.getStyles(), tableStyleMapHolder);
-						final StyleMapHolder rowStyleMapHolder = new StyleMapHolder(row.getStyles(),
-								columnStyleMapHolder);
+						final StyleVector columnStyles = styleResolver.resolve(column.getStyles(),
+							tableStyles);
+						final StyleVector rowStyles = styleResolver.resolve(row.getStyles(),
+							columnStyles);
 						if (cellIterator.hasNext()) {
 							final com.innoventsolutions.report.design.Cell cell = cellIterator.next();
 							final PdfPCell pdfCell = new PdfPCell();
-							final StyleMapHolder cellStyleMapHolder = new StyleMapHolder(
-									cell.getStyles(), rowStyleMapHolder);
-							applyStyles(pdfCell, cellStyleMapHolder);
+							final StyleVector cellStyles = styleResolver.resolve(cell.getStyles(),
+								rowStyles);
+							applyStyles(pdfCell, cellStyles);
 							final int colspan = cell.getColSpan();
 							spanning.set(colspan);
 							if (colspan > 1) {
 								pdfCell.setColspan(colspan);
 							}
+							final boolean sampled = widths != null && colspan == 1
+								&& widths.sample(visibleColumn);
 							final List<ReportComponent> components = cell.getComponents();
 							for (final ReportComponent component : components) {
 								if (component.isHidden(dataRowBinding.getDataRow())) {
 									continue;
 								}
 								Paragraph paragraph = null;
-								if (component instanceof Label) {
+								switch (component.getKind()) {
+								case LABEL: {
 									final Label label = (Label) component;
 									final String text = label.getText();
 									paragraph = new Paragraph(text);
+									break;
 								}
-								else if (component instanceof TextData) {
+								case TEXT: {
 									final TextData data = (TextData) component;
 									final String value = data.getValue(dataRowBinding.getDataRow());
 									if (value != null) {
 										paragraph = new Paragraph(value);
 									}
+									break;
 								}
-								else if (component instanceof IntegerData) {
+								case INTEGER: {
 									final IntegerData data = (IntegerData) component;
 									final long value = data.getValue(dataRowBinding.getDataRow());
 									final String format = data.getFormat();
@@ -172,8 +246,9 @@ public class PdfEmitter implements Emitter {
 										text = String.valueOf(value);
 									}
 									paragraph = new Paragraph(text);
+									break;
 								}
-								else if (component instanceof FloatData) {
+								case FLOAT: {
 									final FloatData data = (FloatData) component;
 									final double value = data.getValue(dataRowBinding.getDataRow());
 									final String format = data.getFormat();
@@ -186,8 +261,9 @@ public class PdfEmitter implements Emitter {
 										text = String.valueOf(value);
 									}
 									paragraph = new Paragraph(text);
+									break;
 								}
-								else if (component instanceof DateData) {
+								case DATE: {
 									final DateData data = (DateData) component;
 									final Date value = data.getValue(dataRowBinding.getDataRow());
 									final String format = data.getFormat();
@@ -201,12 +277,20 @@ public class PdfEmitter implements Emitter {
 									}
 									;
 									paragraph = new Paragraph(text);
+									break;
+								}
+								default:
+									break;
 								}
 								if (paragraph != null) {
-									final StyleMapHolder componentStyleMapHolder = new StyleMapHolder(
-											component.getStyles(), cellStyleMapHolder);
-									applyStyles(paragraph, componentStyleMapHolder);
+									final StyleVector componentStyles = styleResolver.resolve(
+										component.getStyles(), cellStyles);
+									applyStyles(paragraph, componentStyles);
 									pdfCell.addElement(paragraph);
+									if (sampled) {
+										widths.add(visibleColumn, paragraph.getContent(),
+											componentStyles);
+									}
 								}
 							}
 							pdfTable.addCell(pdfCell);
@@ -217,12 +301,36 @@ public class PdfEmitter implements Emitter {
 						}
 					});
 				}
+				if (metered) {
+					StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+					metricsListener.rowsIn(Stage.EMIT, 1);
+					metricsListener.rowsOut(Stage.EMIT, rowCount);
+				}
 			});
+			final long start = metered ? System.nanoTime() : 0L;
+			final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+			if (widths != null) {
+				pdfTable.setWidths(widths.getWidths());
+			}
 			document.add(pdfTable);
+			if (metered) {
+				StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+			}
 			document.close();
 		}
 		catch (final DocumentException e) {
 			throw new RuntimeException("Failed to generate PDF file", e);
 		}
+		finally {
+			if (document.isOpen()) {
+				// the run failed or was cancelled part way through
+				try {
+					outputStream.close();
+				}
+				catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,188 @@
+package com.innoventsolutions.report;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Reads a spliterator on a background thread into batches, so fetching the
+ * next rows from the database overlaps with grouping and emitting the
+ * previous ones. At most maxBatches full batches wait in the queue; a batch
+ * ends when it reaches its row count or its estimated size in bytes.
+ *
+ * @param <T>
+ */
+class PrefetchSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger(0);
+	private static final Object END = new Object();
+	private final Spliterator<T> source;
+	private final int batchRows;
+	private final long batchBytes;
+	private final ToLongFunction<T> sizeEstimator;
+	private final Consumer<Boolean> onStop;
+	private final CancellationToken cancellationToken;
+	private final BlockingQueue<Object> queue;
+	private volatile boolean closed = false;
+	private Thread thread = null;
+	private Object[] batch = null;
+	private int index = 0;
+
+	private static class Failure {
+		final Throwable cause;
+
+		Failure(final Throwable cause) {
+			this.cause = cause;
+		}
+	}
+
+	/**
+	 * @param source
+	 * @param maxBatches
+	 * @param batchRows
+	 * @param batchBytes
+	 * @param sizeEstimator
+	 * @param onStop called on the reading thread if it stops before the
+	 *            source is exhausted, with false if reading failed so the
+	 *            source's resources are not reused
+	 * @param cancellationToken also checked by the consumer, so rows already
+	 *            read ahead are not passed on after a cancel
+	 */
+	PrefetchSpliterator(final Spliterator<T> source, final int maxBatches, final int batchRows,
+			final long batchBytes, final ToLongFunction<T> sizeEstimator, final Consumer<Boolean> onStop,
+			final CancellationToken cancellationToken) {
+		super(Long.MAX_VALUE, Spliterator.NONNULL | Spliterator.ORDERED);
+		this.source = source;
+		this.batchRows = batchRows;
+		this.batchBytes = batchBytes;
+		this.sizeEstimator = sizeEstimator;
+		this.onStop = onStop;
+		this.cancellationToken = cancellationToken;
+		queue = new ArrayBlockingQueue<>(maxBatches);
+	}
+
+	void start() {
+		thread = new Thread(this::read,
+				"report-prefetch-" + THREAD_COUNT.incrementAndGet());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void read() {
+		final Object[] row = new Object[1];
+		final Consumer<T> receiver = dataRow -> row[0] = dataRow;
+		try {
+			Object[] rows = new Object[batchRows];
+			int count = 0;
+			long bytes = 0;
+			while (!closed) {
+				if (!source.tryAdvance(receiver)) {
+					if (count > 0 && !put(Arrays.copyOf(rows, count))) {
+						return;
+					}
+					put(END);
+					return;
+				}
+				@SuppressWarnings("unchecked")
+				final T dataRow = (T) row[0];
+				rows[count++] = dataRow;
+				bytes += sizeEstimator.applyAsLong(dataRow);
+				if (count == rows.length || bytes >= batchBytes) {
+					if (!put(count == rows.length ? rows : Arrays.copyOf(rows, count))) {
+						return;
+					}
+					rows = new Object[batchRows];
+					count = 0;
+					bytes = 0;
+				}
+			}
+			onStop.accept(true);
+		}
+		catch (final RuntimeException | Error e) {
+			onStop.accept(false);
+			put(new Failure(e));
+		}
+	}
+
+	/**
+	 * @return false if the consumer closed the stream
+	 */
+	private boolean put(final Object item) {
+		try {
+			while (!closed) {
+				if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		onStop.accept(true);
+		return false;
+	}
+
+	/**
+	 * Stop reading and wait for the reading thread, so the source's resources
+	 * have been released when this returns.
+	 */
+	void close() {
+		closed = true;
+		queue.clear();
+		if (thread == null || thread == Thread.currentThread()) {
+			return;
+		}
+		thread.interrupt();
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			}
+			catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean tryAdvance(final Consumer<? super T> action) {
+		if (cancellationToken != null) {
+			cancellationToken.throwIfCancelled();
+		}
+		while (batch == null || index >= batch.length) {
+			final Object item;
+			try {
+				item = queue.take();
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ReportCancelledException();
+			}
+			if (item == END) {
+				queue.offer(END);
+				return false;
+			}
+			if (item instanceof Failure) {
+				queue.offer(item);
+				final Throwable cause = ((Failure) item).cause;
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw (Error) cause;
+			}
+			batch = (Object[]) item;
+			index = 0;
+		}
+		action.accept((T) batch[index++]);
+		return true;
+	}
+}
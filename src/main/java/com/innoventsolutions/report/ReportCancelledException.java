@@ -0,0 +1,9 @@
+package com.innoventsolutions.report;
+
+public class ReportCancelledException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public ReportCancelledException() {
+		super("Report cancelled");
+	}
+}
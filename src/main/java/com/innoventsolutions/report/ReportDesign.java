@@ -0,0 +1,33 @@
+package com.innoventsolutions.report;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.innoventsolutions.report.design.Table;
+
+/**
+ * Everything {@link ReportRunner} needs from a report besides its query: the
+ * design, the grouping and how a result set row becomes a data row.
+ * Implementations are created by class name and need a public no-argument
+ * constructor.
+ *
+ * @param <DataRow>
+ */
+public interface ReportDesign<DataRow> {
+	Table getTable();
+
+	/**
+	 * @return a new builder for one run
+	 */
+	GroupedDataStreamBuilder<DataRow> createBuilder();
+
+	DataRow createDataRow(ResultSet resultSet) throws SQLException;
+
+	/**
+	 * @return false if the query does not return the rows in group order, so
+	 *         the builder has to sort them first
+	 */
+	default boolean isSorted() {
+		return true;
+	}
+}
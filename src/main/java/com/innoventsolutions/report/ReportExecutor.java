@@ -0,0 +1,217 @@
+package com.innoventsolutions.report;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs report jobs concurrently. A report spends most of its time blocked in
+ * the JDBC cursor and in output writes, so on a JDK with virtual threads
+ * every job gets its own virtual thread and the number of concurrent runs is
+ * limited by the data sources rather than by a thread pool. On older JDKs a
+ * cached pool of platform threads is used instead.
+ */
+public class ReportExecutor {
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final ScheduledExecutorService timer;
+	private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+
+	/**
+	 * The permits of a data source. Resized in place, so jobs that hold a
+	 * permit release it to the same semaphore they took it from.
+	 */
+	private static final class Limit extends Semaphore {
+		private static final long serialVersionUID = 1L;
+		private int limit;
+
+		Limit(final int limit) {
+			super(limit, true);
+			this.limit = limit;
+		}
+
+		synchronized void resize(final int newLimit) {
+			if (newLimit > limit) {
+				release(newLimit - limit);
+			}
+			else if (newLimit < limit) {
+				// may go negative until running jobs finish
+				reducePermits(limit - newLimit);
+			}
+			limit = newLimit;
+		}
+	}
+
+	private static class ReportRun extends FutureTask<Void> {
+		private final CancellationToken cancellationToken;
+		private volatile ScheduledFuture<?> deadline = null;
+
+		ReportRun(final Runnable runnable, final CancellationToken cancellationToken) {
+			super(runnable, null);
+			this.cancellationToken = cancellationToken;
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			// the token stops the statement and the stream, which an interrupt
+			// alone cannot do while the thread is blocked in the driver
+			cancellationToken.cancel();
+			return super.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		protected void done() {
+			final ScheduledFuture<?> deadline = this.deadline;
+			if (deadline != null) {
+				deadline.cancel(false);
+			}
+		}
+	}
+
+	public ReportExecutor() {
+		ExecutorService executor = newVirtualThreadExecutor();
+		virtualThreads = executor != null;
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(newThreadFactory("report-"));
+		}
+		this.executor = executor;
+		this.timer = Executors.newSingleThreadScheduledExecutor(newThreadFactory("report-timer-"));
+	}
+
+	/**
+	 * @param executor runs the jobs; it is shut down by {@link #shutdown()}
+	 */
+	public ReportExecutor(final ExecutorService executor) {
+		this.executor = executor;
+		this.virtualThreads = false;
+		this.timer = Executors.newSingleThreadScheduledExecutor(newThreadFactory("report-timer-"));
+	}
+
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		}
+		catch (final NoSuchMethodException e) {
+			// JDK without virtual threads
+			return null;
+		}
+		catch (final InvocationTargetException e) {
+			// virtual threads are a preview feature that has not been enabled
+			return null;
+		}
+		catch (final IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	private static ThreadFactory newThreadFactory(final String prefix) {
+		final AtomicInteger count = new AtomicInteger(0);
+		return runnable -> {
+			final Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * @return true if jobs run on virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Limit the number of jobs that run against a data source at the same
+	 * time. Jobs over the limit wait (without holding a platform thread when
+	 * virtual threads are available) until a running job finishes. The
+	 * limit may be changed while jobs run; lowering it makes new jobs wait
+	 * until enough running ones have finished.
+	 *
+	 * @param dataSource
+	 * @param limit
+	 */
+	public void setConcurrencyLimit(final String dataSource, final int limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		limits.compute(dataSource, (key, current) -> {
+			if (current == null) {
+				return new Limit(limit);
+			}
+			current.resize(limit);
+			return current;
+		});
+	}
+
+	/**
+	 * Start a job. Cancelling the returned future cancels the job's
+	 * {@link CancellationToken} and interrupts it; the job is cancelled the
+	 * same way when its timeout expires.
+	 *
+	 * @param job
+	 * @return a future that completes when the output has been emitted
+	 */
+	public <DataRow> Future<Void> submit(final ReportJob<DataRow> job) {
+		final String dataSource = job.getDataSource();
+		final Limit limit = dataSource == null ? null : limits.get(dataSource);
+		final CancellationToken cancellationToken = new CancellationToken();
+		final ReportRun run = new ReportRun(() -> {
+			if (limit == null) {
+				job.run(cancellationToken);
+				return;
+			}
+			try {
+				limit.acquire();
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted waiting for " + dataSource, e);
+			}
+			try {
+				job.run(cancellationToken);
+			}
+			finally {
+				limit.release();
+			}
+		}, cancellationToken);
+		final long timeoutMillis = job.getTimeoutMillis();
+		if (timeoutMillis > 0) {
+			run.deadline = timer.schedule(() -> run.cancel(true), timeoutMillis,
+				TimeUnit.MILLISECONDS);
+		}
+		executor.execute(run);
+		return run;
+	}
+
+	/**
+	 * Stop accepting jobs. Jobs already submitted run to completion.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		timer.shutdown();
+	}
+
+	/**
+	 * Cancel all running jobs.
+	 */
+	public void shutdownNow() {
+		executor.shutdownNow();
+		timer.shutdownNow();
+	}
+
+	public boolean awaitTermination(final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+}
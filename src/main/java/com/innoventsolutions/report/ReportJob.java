@@ -0,0 +1,117 @@
+package com.innoventsolutions.report;
+
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import com.innoventsolutions.data.model.Query;
+import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.metrics.Metered;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.output.OutputSink;
+
+/**
+ * One report run for a {@link ReportExecutor}: the query that supplies the
+ * rows, the builder that groups them, the design and a factory for the
+ * emitter that writes the output.
+ *
+ * @param <DataRow>
+ */
+public class ReportJob<DataRow> {
+	private final Query<DataRow> query;
+	private final GroupedDataStreamBuilder<DataRow> builder;
+	private final Table table;
+	private final Supplier<Emitter> emitterFactory;
+	private String dataSource = null;
+	private long timeoutMillis = 0;
+	private boolean sort = false;
+	private MetricsListener metricsListener = MetricsListener.NONE;
+
+	public ReportJob(final Query<DataRow> query, final GroupedDataStreamBuilder<DataRow> builder,
+			final Table table, final Supplier<Emitter> emitterFactory) {
+		if (query == null || builder == null || table == null || emitterFactory == null) {
+			throw new IllegalArgumentException(
+					"Query, builder, table and emitter factory are required");
+		}
+		this.query = query;
+		this.builder = builder;
+		this.table = table;
+		this.emitterFactory = emitterFactory;
+	}
+
+	/**
+	 * @param dataSource the name of the data source the query runs against.
+	 *            Jobs with the same name share the concurrency limit set with
+	 *            {@link ReportExecutor#setConcurrencyLimit(String, int)}.
+	 */
+	public void setDataSource(final String dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	public String getDataSource() {
+		return dataSource;
+	}
+
+	/**
+	 * @param timeoutMillis time after submission at which the job is
+	 *            cancelled, or 0 for no limit
+	 */
+	public void setTimeoutMillis(final long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * @param sort true if the rows must be sorted by the builder before
+	 *            grouping, false if the query already returns them in group
+	 *            order
+	 */
+	public void setSort(final boolean sort) {
+		this.sort = sort;
+	}
+
+	/**
+	 * @param metricsListener receives the measurements of the query, the
+	 *            builder and the emitter. Set it on the {@link OutputSink}
+	 *            separately to count the bytes written.
+	 */
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
+	void run(final CancellationToken cancellationToken) {
+		if (query instanceof Cancellable) {
+			((Cancellable) query).setCancellationToken(cancellationToken);
+		}
+		builder.setCancellationToken(cancellationToken);
+		final Emitter emitter = emitterFactory.get();
+		emitter.setCancellationToken(cancellationToken);
+		if (query instanceof Metered) {
+			((Metered) query).setMetricsListener(metricsListener);
+		}
+		builder.setMetricsListener(metricsListener);
+		emitter.setMetricsListener(metricsListener);
+		final boolean metered = metricsListener.isEnabled();
+		final long start = metered ? System.nanoTime() : 0L;
+		if (metered) {
+			metricsListener.runStarted();
+		}
+		try {
+			Stream<DataRow> rows = query.getStream();
+			if (sort) {
+				rows = builder.sort(rows);
+			}
+			try (final Stream<DataRowBinding> bindings = builder.build(rows)) {
+				emitter.emit(bindings, table);
+			}
+		}
+		finally {
+			if (metered) {
+				metricsListener.runFinished(System.nanoTime() - start);
+			}
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package com.innoventsolutions.report;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.innoventsolutions.report.output.Compression;
+import com.innoventsolutions.report.output.OutputSink;
+
+/**
+ * Runs one report from the command line:
+ *
+ * <pre>
+ * java -cp report-engine.jar:lib/*:driver.jar com.innoventsolutions.report.ReportRunner \
+ *     --url jdbc:... --query sales.sql --design com.example.SalesReport \
+ *     --format pdf --output sales.pdf
+ * </pre>
+ *
+ * The design class implements {@link ReportDesign}. The emitter for the
+ * format is loaded by name, so a run only loads the classes of the output
+ * library it writes with; an HTML report never touches iText or POI. Nothing
+ * is done in static initializers, which keeps the startup path the same from
+ * run to run so it can be dumped to and served from a class data sharing
+ * archive.
+ * <p>
+ * Diagnostics go to standard error. Exits with 0 on success, 1 if the report
+ * failed and 2 for bad arguments.
+ */
+public final class ReportRunner {
+	private static final String USAGE = "Usage: ReportRunner --url <jdbc url> --query <file>"
+		+ " --design <class> [--format html|pdf|xlsx|xlsx-direct|csv|tsv|json|ndjson|columnar] [--output <file>]"
+		+ " [--compression none|gzip|deflate|zstd|br] [--user <user>] [--password <password>]"
+		+ " [--set <name>=<value>]... [--arg <value>]...\n"
+		+ "The password may also be given in the REPORT_PASSWORD environment variable."
+		+ " The output goes to standard output if no file is given.";
+	private String url = null;
+	private String user = null;
+	private String password = null;
+	private String queryFile = null;
+	private String designClass = null;
+	private String format = "html";
+	private String outputFile = null;
+	private Compression compression = Compression.NONE;
+	private final Map<String, String> substitutions = new LinkedHashMap<>();
+	private final List<Object> arguments = new ArrayList<>();
+
+	private ReportRunner() {
+	}
+
+	public static void main(final String[] args) {
+		final ReportRunner runner = new ReportRunner();
+		try {
+			runner.parseArguments(args);
+		}
+		catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		// the engine reports its diagnostics on standard output, which may
+		// be where the report goes
+		final PrintStream stdout = System.out;
+		System.setOut(System.err);
+		try {
+			runner.run(stdout);
+		}
+		catch (final Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+		System.exit(0);
+	}
+
+	private void parseArguments(final String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			final String option = args[i];
+			if (option.equals("--help") || option.equals("-h")) {
+				throw new IllegalArgumentException("");
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			final String value = args[++i];
+			switch (option) {
+			case "--url":
+				url = value;
+				break;
+			case "--user":
+				user = value;
+				break;
+			case "--password":
+				password = value;
+				break;
+			case "--query":
+				queryFile = value;
+				break;
+			case "--design":
+				designClass = value;
+				break;
+			case "--format":
+				format = value.toLowerCase(Locale.ROOT);
+				getEmitterClassName(format);
+				break;
+			case "--output":
+				outputFile = value;
+				break;
+			case "--compression":
+				compression = getCompression(value);
+				break;
+			case "--set": {
+				final int equals = value.indexOf('=');
+				if (equals <= 0) {
+					throw new IllegalArgumentException("Expected name=value: " + value);
+				}
+				substitutions.put(value.substring(0, equals), value.substring(equals + 1));
+				break;
+			}
+			case "--arg":
+				arguments.add(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+		if (url == null || queryFile == null || designClass == null) {
+			throw new IllegalArgumentException("--url, --query and --design are required");
+		}
+		if (password == null) {
+			password = System.getenv("REPORT_PASSWORD");
+		}
+	}
+
+	private static Compression getCompression(final String name) {
+		for (final Compression compression : Compression.values()) {
+			if (compression.name().equalsIgnoreCase(name)
+				|| name.equalsIgnoreCase(compression.getContentEncoding())) {
+				return compression;
+			}
+		}
+		throw new IllegalArgumentException("Unknown compression " + name);
+	}
+
+	/**
+	 * @param format
+	 * @return the name of the emitter class, which must have a constructor
+	 *         taking an {@link OutputSink}
+	 */
+	private static String getEmitterClassName(final String format) {
+		switch (format) {
+		case "html":
+			return "com.innoventsolutions.report.HtmlEmitter";
+		case "pdf":
+			return "com.innoventsolutions.report.PdfEmitter";
+		case "xlsx":
+			return "com.innoventsolutions.report.ExcelEmitter";
+		case "xlsx-direct":
+			return "com.innoventsolutions.report.XlsxEmitter";
+		case "csv":
+		case "tsv":
+			return "com.innoventsolutions.report.CsvEmitter";
+		case "json":
+		case "ndjson":
+			return "com.innoventsolutions.report.JsonEmitter";
+		case "columnar":
+			return "com.innoventsolutions.report.ColumnarEmitter";
+		default:
+			throw new IllegalArgumentException("Unknown format " + format);
+		}
+	}
+
+	private static <T> T newInstance(final Class<T> type, final String className,
+			final Class<?>[] parameterTypes, final Object[] parameters) {
+		try {
+			final Class<?> clazz = Class.forName(className);
+			if (!type.isAssignableFrom(clazz)) {
+				throw new IllegalArgumentException(
+						className + " is not a " + type.getSimpleName());
+			}
+			return type.cast(clazz.getConstructor(parameterTypes).newInstance(parameters));
+		}
+		catch (final InvocationTargetException e) {
+			throw new RuntimeException("Failed to create " + className, e.getCause());
+		}
+		catch (final ReflectiveOperationException e) {
+			throw new RuntimeException("Failed to create " + className, e);
+		}
+	}
+
+	private Emitter createEmitter(final String className, final OutputSink sink) {
+		final Emitter emitter = newInstance(Emitter.class, className,
+			new Class<?>[] { OutputSink.class }, new Object[] { sink });
+		if (format.equals("tsv")) {
+			((CsvEmitter) emitter).setDelimiter('\t');
+		}
+		else if (format.equals("json")) {
+			((JsonEmitter) emitter).setLayout(JsonEmitter.Layout.NESTED);
+		}
+		return emitter;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void run(final OutputStream stdout) throws IOException, SQLException {
+		final ReportDesign<Object> design = newInstance(ReportDesign.class, designClass,
+			new Class<?>[0], new Object[0]);
+		final String queryText;
+		try (final InputStream inputStream = new FileInputStream(queryFile)) {
+			queryText = SqlQuery.getQuery(inputStream);
+		}
+		final SqlQuery<Object> query = new SqlQuery<Object>(queryText) {
+			@Override
+			protected Object createDataRow(final ResultSet resultSet) throws SQLException {
+				return design.createDataRow(resultSet);
+			}
+		};
+		if (!substitutions.isEmpty()) {
+			query.setSubstitutions(substitutions);
+		}
+		if (!arguments.isEmpty()) {
+			query.setArguments(arguments.toArray());
+		}
+		final String emitterClassName = getEmitterClassName(format);
+		try (final Connection connection = DriverManager.getConnection(url, user, password)) {
+			query.setConnection(connection);
+			final OutputSink sink = new OutputSink(
+					outputFile == null ? stdout : new FileOutputStream(outputFile), compression);
+			try {
+				final ReportJob<Object> job = new ReportJob<>(query, design.createBuilder(),
+						design.getTable(), () -> createEmitter(emitterClassName, sink));
+				job.setSort(!design.isSorted());
+				job.run(new CancellationToken());
+			}
+			finally {
+				sink.close();
+			}
+		}
+	}
+}
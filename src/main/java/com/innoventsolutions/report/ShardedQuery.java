@@ -0,0 +1,475 @@
+package com.innoventsolutions.report;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.sql.DataSource;
+
+import com.innoventsolutions.data.model.Query;
+import com.innoventsolutions.report.metrics.Metered;
+import com.innoventsolutions.report.metrics.MetricsListener;
+
+/**
+ * Splits a {@link SqlQuery} into shards that run at the same time, each on
+ * its own connection from a data source, and merges their rows into one
+ * stream.
+ * <p>
+ * The query text contains a substitution key (for example $SHARD) where the
+ * shard predicate goes, e.g. "select ... from orders where $SHARD order by
+ * region, id". {@link #modulo(String, int)} and
+ * {@link #ranges(String, long...)} build the predicates for the common cases.
+ * <p>
+ * With a comparator (usually {@link GroupedDataStreamBuilder#getComparator()})
+ * the shards must each return rows in that order and the result is an ordered
+ * merge that can go straight into the builder. Without one rows are passed on
+ * in whatever order the shards deliver them.
+ * <p>
+ * Close the stream if it is not read to the end: closing it, like a shard
+ * failure, cancels the shard queries still running and waits for them to
+ * release their connections.
+ * <p>
+ * All shards must run at once for the ordered merge to make progress, so the
+ * executor (a new daemon thread per shard by default) and the data source must
+ * allow as many concurrent tasks and connections as there are shards.
+ *
+ * @param <T>
+ */
+public class ShardedQuery<T> implements Query<T>, Cancellable, Metered {
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger(0);
+	private static final Object END = new Object();
+	private final Supplier<? extends SqlQuery<T>> queryFactory;
+	private final DataSource dataSource;
+	private final String shardKey;
+	private final List<String> shardPredicates;
+	private Map<String, String> substitutions = null;
+	private Object[] arguments = null;
+	private Comparator<? super T> comparator = null;
+	private Executor executor = null;
+	private int batchSize = 256;
+	private int queueCapacity = 4;
+	private CancellationToken cancellationToken = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
+
+	/**
+	 * @param queryFactory creates a query for each shard
+	 * @param dataSource supplies a connection for each shard
+	 * @param shardKey the substitution key replaced by the shard predicate
+	 * @param shardPredicates one SQL condition per shard
+	 */
+	public ShardedQuery(final Supplier<? extends SqlQuery<T>> queryFactory,
+			final DataSource dataSource, final String shardKey, final List<String> shardPredicates) {
+		if (shardPredicates.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard is required");
+		}
+		this.queryFactory = queryFactory;
+		this.dataSource = dataSource;
+		this.shardKey = shardKey;
+		this.shardPredicates = new ArrayList<>(shardPredicates);
+	}
+
+	/**
+	 * @return predicates "MOD(column, count) = i" for i from 0 to count - 1
+	 */
+	public static List<String> modulo(final String column, final int count) {
+		final List<String> predicates = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			predicates.add("MOD(" + column + ", " + count + ") = " + i);
+		}
+		return predicates;
+	}
+
+	/**
+	 * @param column
+	 * @param bounds ascending split points
+	 * @return predicates for the ranges below the first bound, between each
+	 *         pair of bounds and from the last bound up
+	 */
+	public static List<String> ranges(final String column, final long... bounds) {
+		final List<String> predicates = new ArrayList<>();
+		if (bounds.length == 0) {
+			predicates.add("1 = 1");
+			return predicates;
+		}
+		predicates.add(column + " < " + bounds[0]);
+		for (int i = 1; i < bounds.length; i++) {
+			predicates.add(column + " >= " + bounds[i - 1] + " AND " + column + " < " + bounds[i]);
+		}
+		predicates.add(column + " >= " + bounds[bounds.length - 1]);
+		return predicates;
+	}
+
+	public void setSubstitutions(final Map<String, String> substitutions) {
+		this.substitutions = substitutions;
+	}
+
+	public void setArguments(final Object[] arguments) {
+		this.arguments = arguments;
+	}
+
+	/**
+	 * @param comparator the order every shard returns its rows in, or null
+	 *            for an unordered merge
+	 */
+	public void setComparator(final Comparator<? super T> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * @param executor runs the shards; it must be able to run all of them at
+	 *            once
+	 */
+	public void setExecutor(final Executor executor) {
+		this.executor = executor;
+	}
+
+	public void setBatchSize(final int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param queueCapacity the number of batches a shard may read ahead
+	 */
+	public void setQueueCapacity(final int queueCapacity) {
+		if (queueCapacity <= 0) {
+			throw new IllegalArgumentException("Queue capacity must be positive");
+		}
+		this.queueCapacity = queueCapacity;
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Passed on to the shard queries, so their measurements add up.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
+	private static class Failure {
+		final String predicate;
+		final Throwable cause;
+
+		Failure(final String predicate, final Throwable cause) {
+			this.predicate = predicate;
+			this.cause = cause;
+		}
+	}
+
+	/**
+	 * The shards of one stream. Closing it cancels the shard queries and waits
+	 * until every shard has released its connection.
+	 */
+	private class Merge {
+		final AtomicBoolean closed = new AtomicBoolean(false);
+		final CancellationToken shardToken = new CancellationToken();
+		final Runnable cancelListener = shardToken::cancel;
+		final List<Shard> shards = new ArrayList<>();
+
+		Merge() {
+			if (cancellationToken != null) {
+				cancellationToken.addListener(cancelListener);
+			}
+		}
+
+		void close() {
+			if (!closed.compareAndSet(false, true)) {
+				return;
+			}
+			if (cancellationToken != null) {
+				cancellationToken.removeListener(cancelListener);
+			}
+			shardToken.cancel();
+			boolean interrupted = false;
+			for (final Shard shard : shards) {
+				interrupted |= shard.await();
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Reads one shard on its own thread into a queue of row batches.
+	 */
+	private class Shard implements Runnable {
+		private final String predicate;
+		private final BlockingQueue<Object> queue;
+		private final Merge merge;
+		private Object[] batch = null;
+		private int index = 0;
+		private boolean started = false; // guarded by this
+		private boolean finished = false; // guarded by this
+
+		Shard(final String predicate, final BlockingQueue<Object> queue, final Merge merge) {
+			this.predicate = predicate;
+			this.queue = queue;
+			this.merge = merge;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (merge.closed.get()) {
+					return;
+				}
+				started = true;
+			}
+			try {
+				read();
+			}
+			finally {
+				synchronized (this) {
+					finished = true;
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Wait until the shard has stopped, if it has started.
+		 *
+		 * @return true if the wait was interrupted
+		 */
+		synchronized boolean await() {
+			boolean interrupted = false;
+			while (started && !finished) {
+				try {
+					wait();
+				}
+				catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			return interrupted;
+		}
+
+		private void read() {
+			try (final Connection connection = dataSource.getConnection()) {
+				final SqlQuery<T> query = queryFactory.get();
+				final Map<String, String> shardSubstitutions = new HashMap<>();
+				if (substitutions != null) {
+					shardSubstitutions.putAll(substitutions);
+				}
+				shardSubstitutions.put(shardKey, predicate);
+				query.setConnection(connection);
+				query.setSubstitutions(shardSubstitutions);
+				query.setArguments(arguments);
+				query.setCancellationToken(merge.shardToken);
+				query.setMetricsListener(metricsListener);
+				try (final Stream<T> stream = query.getStream()) {
+					final Iterator<T> iterator = stream.iterator();
+					Object[] rows = new Object[batchSize];
+					int count = 0;
+					while (iterator.hasNext()) {
+						rows[count++] = iterator.next();
+						if (count == rows.length) {
+							if (!put(rows)) {
+								return;
+							}
+							rows = new Object[batchSize];
+							count = 0;
+						}
+					}
+					if (count > 0 && !put(Arrays.copyOf(rows, count))) {
+						return;
+					}
+					put(END);
+				}
+			}
+			catch (final SQLException | RuntimeException | Error e) {
+				put(new Failure(predicate, e));
+			}
+		}
+
+		/**
+		 * @return false if the merged stream was closed
+		 */
+		private boolean put(final Object item) {
+			try {
+				while (!merge.closed.get()) {
+					if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				}
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+
+		/**
+		 * Only used by the ordered merge, where each shard has its own queue.
+		 *
+		 * @return the next row or null at the end
+		 */
+		@SuppressWarnings("unchecked")
+		T next() {
+			while (batch == null || index >= batch.length) {
+				final Object item = take(queue, merge);
+				if (item == END) {
+					return null;
+				}
+				batch = (Object[]) item;
+				index = 0;
+			}
+			return (T) batch[index++];
+		}
+	}
+
+	private Object take(final BlockingQueue<Object> queue, final Merge merge) {
+		final Object item;
+		try {
+			item = queue.take();
+		}
+		catch (final InterruptedException e) {
+			merge.close();
+			Thread.currentThread().interrupt();
+			throw new ReportCancelledException();
+		}
+		if (item instanceof Failure) {
+			final Failure failure = (Failure) item;
+			merge.close();
+			if (cancellationToken != null) {
+				cancellationToken.throwIfCancelled();
+			}
+			if (failure.cause instanceof ReportCancelledException) {
+				throw (ReportCancelledException) failure.cause;
+			}
+			throw new RuntimeException("Shard " + failure.predicate + " failed", failure.cause);
+		}
+		return item;
+	}
+
+	private class Head {
+		final T row;
+		final Shard shard;
+
+		Head(final T row, final Shard shard) {
+			this.row = row;
+			this.shard = shard;
+		}
+	}
+
+	@Override
+	public Stream<T> getStream() {
+		if (cancellationToken != null) {
+			cancellationToken.throwIfCancelled();
+		}
+		final Merge merge = new Merge();
+		final BlockingQueue<Object> sharedQueue = comparator == null
+			? new ArrayBlockingQueue<>(queueCapacity * shardPredicates.size())
+			: null;
+		for (final String predicate : shardPredicates) {
+			merge.shards.add(new Shard(predicate,
+					sharedQueue != null ? sharedQueue : new ArrayBlockingQueue<>(queueCapacity),
+					merge));
+		}
+		for (final Shard shard : merge.shards) {
+			if (executor != null) {
+				executor.execute(shard);
+			}
+			else {
+				final Thread thread = new Thread(shard, "report-shard-" + THREAD_COUNT.incrementAndGet());
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		final Spliterator<T> spliterator = comparator == null
+			? unorderedSpliterator(sharedQueue, merge)
+			: orderedSpliterator(merge);
+		final Stream<T> stream = StreamSupport.stream(spliterator, false);
+		return stream.onClose(merge::close);
+	}
+
+	private Spliterator<T> unorderedSpliterator(final BlockingQueue<Object> queue,
+			final Merge merge) {
+		return new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.NONNULL) {
+			private int running = merge.shards.size();
+			private Object[] batch = null;
+			private int index = 0;
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public boolean tryAdvance(final Consumer<? super T> action) {
+				while (batch == null || index >= batch.length) {
+					if (running == 0) {
+						merge.close();
+						return false;
+					}
+					final Object item = take(queue, merge);
+					if (item == END) {
+						running--;
+						continue;
+					}
+					batch = (Object[]) item;
+					index = 0;
+				}
+				action.accept((T) batch[index++]);
+				return true;
+			}
+		};
+	}
+
+	private Spliterator<T> orderedSpliterator(final Merge merge) {
+		final List<Shard> shards = merge.shards;
+		final Comparator<? super T> comparator = this.comparator;
+		return new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+				Spliterator.NONNULL | Spliterator.ORDERED) {
+			private PriorityQueue<Head> heads = null;
+
+			@Override
+			public boolean tryAdvance(final Consumer<? super T> action) {
+				if (heads == null) {
+					heads = new PriorityQueue<>(shards.size(),
+							(h1, h2) -> comparator.compare(h1.row, h2.row));
+					for (final Shard shard : shards) {
+						final T row = shard.next();
+						if (row != null) {
+							heads.add(new Head(row, shard));
+						}
+					}
+				}
+				final Head head = heads.poll();
+				if (head == null) {
+					merge.close();
+					return false;
+				}
+				final T next = head.shard.next();
+				if (next != null) {
+					heads.add(new Head(next, head.shard));
+				}
+				action.accept(head.row);
+				return true;
+			}
+		};
+	}
+}
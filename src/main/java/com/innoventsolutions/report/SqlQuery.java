@@ -11,17 +11,29 @@ import java.sql.SQLException;
 import java.util.Map;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import com.innoventsolutions.data.model.Query;
+import com.innoventsolutions.report.metrics.Metered;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+import com.innoventsolutions.report.metrics.StageClock;
 
-public abstract class SqlQuery<T> implements Query<T> {
+public abstract class SqlQuery<T> implements Query<T>, Cancellable, Metered {
 	public Connection connection = null;
 	public Map<String, String> substitutions = null;
 	public Object[] arguments = null;
+	public CancellationToken cancellationToken = null;
+	public MetricsListener metricsListener = MetricsListener.NONE;
+	public StatementCache statementCache = null;
+	public int prefetchBatches = 0;
+	public int prefetchBatchRows = 1000;
+	public long prefetchBatchBytes = 1L << 20;
 	public final String query;
+	private SqlTemplate template = null;
 
 	public SqlQuery(final String query) {
 		this.query = query;
@@ -39,53 +51,263 @@ public abstract class SqlQuery<T> implements Query<T> {
 		this.arguments = arguments;
 	}
 
+	/**
+	 * @param statementCache keeps the prepared statement open after the
+	 *            stream is closed so the next run on the same connection
+	 *            reuses it, or null to close it
+	 */
+	public void setStatementCache(final StatementCache statementCache) {
+		this.statementCache = statementCache;
+	}
+
+	/**
+	 * Read the result set on a background thread, ahead of the consumer, so
+	 * the database fetch overlaps with grouping and emitting. The rows are
+	 * handed over in batches of up to batchRows rows or batchBytes bytes as
+	 * estimated by {@link #estimateSize(Object)}, and at most maxBatches
+	 * batches wait to be consumed.
+	 *
+	 * @param maxBatches the number of batches read ahead, or 0 to read on the
+	 *            consumer's thread
+	 * @param batchRows
+	 * @param batchBytes
+	 */
+	public void setPrefetch(final int maxBatches, final int batchRows, final long batchBytes) {
+		if (maxBatches < 0 || batchRows <= 0 || batchBytes <= 0) {
+			throw new IllegalArgumentException("Invalid prefetch settings");
+		}
+		this.prefetchBatches = maxBatches;
+		this.prefetchBatchRows = batchRows;
+		this.prefetchBatchBytes = batchBytes;
+	}
+
+	/**
+	 * Estimate the memory taken by a data row, to bound the prefetch batches.
+	 * Override for rows that are much larger or smaller than the default.
+	 *
+	 * @param dataRow
+	 * @return the size in bytes
+	 */
+	protected long estimateSize(final T dataRow) {
+		return 128;
+	}
+
+	/**
+	 * Cancelling the token cancels the statement on the database and makes
+	 * the stream throw {@link ReportCancelledException} at the next row.
+	 */
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Reports {@link Stage#QUERY_FETCH} (execution and cursor moves),
+	 * {@link Stage#CREATE_DATA_ROW} and the time to the first row.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
+	/**
+	 * @return the SQL that is prepared, i.e. the query with the substitutions
+	 *         applied
+	 */
+	public String getSubstitutedQuery() {
+		final Map<String, String> substitutions = this.substitutions;
+		if (substitutions == null || substitutions.isEmpty()) {
+			return query;
+		}
+		SqlTemplate template = this.template;
+		if (template == null || !template.getKeys().equals(substitutions.keySet())) {
+			template = SqlTemplate.compile(query, substitutions.keySet());
+			this.template = template;
+		}
+		return template.apply(substitutions);
+	}
+
 	@Override
 	public Stream<T> getStream() {
 		if (connection == null) {
 			throw new IllegalArgumentException("Connection may not be null");
 		}
-		String query = this.query;
-		if (substitutions != null) {
-			for (final String key : substitutions.keySet()) {
-				final String value = substitutions.get(key);
-				query = query.replace(key, value);
-			}
+		final String query = getSubstitutedQuery();
+		final CancellationToken cancellationToken = this.cancellationToken;
+		if (cancellationToken != null) {
+			cancellationToken.throwIfCancelled();
+		}
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final long queryStart = metered ? System.nanoTime() : 0L;
+		final Connection connection = this.connection;
+		final StatementCache statementCache = this.statementCache;
+		final PreparedStatement statement;
+		try {
+			statement = statementCache == null ? connection.prepareStatement(query)
+				: statementCache.checkOut(connection, query);
+		}
+		catch (final SQLException e) {
+			throw new RuntimeException("Failed to execute", e);
 		}
+		final Runnable cancelListener = () -> {
+			try {
+				statement.cancel();
+			}
+			catch (final SQLException e) {
+				e.printStackTrace();
+			}
+		};
+		final ResultSet resultSet;
 		try {
-			final PreparedStatement statement = connection.prepareStatement(query);
 			if (arguments != null) {
 				for (int i = 0; i < arguments.length; i++) {
 					final Object argument = arguments[i];
 					statement.setObject(i + 1, argument);
 				}
 			}
-			final ResultSet resultSet = statement.executeQuery();
-			final Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(
-					Long.MAX_VALUE, Spliterator.NONNULL | Spliterator.IMMUTABLE) {
-				@Override
-				public boolean tryAdvance(final Consumer<? super T> action) {
-					try {
-						if (!resultSet.next()) {
-							return false;
-						}
+			if (cancellationToken != null) {
+				cancellationToken.addListener(cancelListener);
+			}
+			final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+			resultSet = statement.executeQuery();
+			if (metered) {
+				StageClock.record(metricsListener, Stage.QUERY_FETCH, queryStart, cpuStart);
+			}
+		}
+		catch (final SQLException e) {
+			new Execution(connection, query, statement, null, statementCache, cancellationToken,
+					cancelListener).close(false);
+			if (cancellationToken != null) {
+				cancellationToken.throwIfCancelled();
+			}
+			throw new RuntimeException("Failed to execute", e);
+		}
+		final Execution execution = new Execution(connection, query, statement, resultSet,
+				statementCache, cancellationToken, cancelListener);
+		final Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+				Spliterator.NONNULL | Spliterator.IMMUTABLE) {
+			private boolean first = true;
+
+			@Override
+			public boolean tryAdvance(final Consumer<? super T> action) {
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				try {
+					final long start = metered ? System.nanoTime() : 0L;
+					final long cpuStart = metered ? StageClock.cpuTime(metricsListener) : 0L;
+					final boolean hasNext = resultSet.next();
+					if (metered) {
+						StageClock.record(metricsListener, Stage.QUERY_FETCH, start, cpuStart);
 					}
-					catch (final SQLException e) {
+					if (!hasNext) {
+						execution.close(true);
 						return false;
 					}
-					try {
-						action.accept(createDataRow(resultSet));
+				}
+				catch (final SQLException e) {
+					execution.close(false);
+					if (cancellationToken != null) {
+						cancellationToken.throwIfCancelled();
+					}
+					return false;
+				}
+				final T dataRow;
+				try {
+					if (metered) {
+						final long start = System.nanoTime();
+						final long cpuStart = StageClock.cpuTime(metricsListener);
+						dataRow = createDataRow(resultSet);
+						StageClock.record(metricsListener, Stage.CREATE_DATA_ROW, start, cpuStart);
+						metricsListener.rowsOut(Stage.QUERY_FETCH, 1);
+						metricsListener.rowsOut(Stage.CREATE_DATA_ROW, 1);
+						if (first) {
+							first = false;
+							metricsListener.firstRow(System.nanoTime() - queryStart);
+						}
 					}
-					catch (final SQLException e) {
-						return false;
+					else {
+						dataRow = createDataRow(resultSet);
 					}
-					return true;
 				}
-			};
-			final Stream<T> stream = StreamSupport.stream(spliterator, true);
-			return stream;
+				catch (final SQLException e) {
+					execution.close(false);
+					return false;
+				}
+				action.accept(dataRow);
+				return true;
+			}
+		};
+		if (prefetchBatches > 0) {
+			final PrefetchSpliterator<T> prefetcher = new PrefetchSpliterator<>(spliterator,
+					prefetchBatches, prefetchBatchRows, prefetchBatchBytes, this::estimateSize,
+					execution::close, cancellationToken);
+			prefetcher.start();
+			final Stream<T> stream = StreamSupport.stream(prefetcher, false);
+			return stream.onClose(prefetcher::close);
 		}
-		catch (final SQLException e) {
-			throw new RuntimeException("Failed to execute", e);
+		final Stream<T> stream = StreamSupport.stream(spliterator, true);
+		return stream.onClose(() -> execution.close(true));
+	}
+
+	/**
+	 * The resources of one run, released once by whichever of exhaustion,
+	 * failure or closing the stream comes first.
+	 */
+	private static final class Execution {
+		private final Connection connection;
+		private final String sql;
+		private final PreparedStatement statement;
+		private final ResultSet resultSet;
+		private final StatementCache statementCache;
+		private final CancellationToken cancellationToken;
+		private final Runnable cancelListener;
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+
+		Execution(final Connection connection, final String sql, final PreparedStatement statement,
+				final ResultSet resultSet, final StatementCache statementCache,
+				final CancellationToken cancellationToken, final Runnable cancelListener) {
+			this.connection = connection;
+			this.sql = sql;
+			this.statement = statement;
+			this.resultSet = resultSet;
+			this.statementCache = statementCache;
+			this.cancellationToken = cancellationToken;
+			this.cancelListener = cancelListener;
+		}
+
+		/**
+		 * @param reusable false if the statement failed
+		 */
+		void close(final boolean reusable) {
+			if (!closed.compareAndSet(false, true)) {
+				return;
+			}
+			if (cancellationToken != null) {
+				cancellationToken.removeListener(cancelListener);
+			}
+			boolean reuse = reusable && statementCache != null
+				&& (cancellationToken == null || !cancellationToken.isCancelled());
+			try {
+				if (resultSet != null) {
+					resultSet.close();
+				}
+			}
+			catch (final SQLException e) {
+				e.printStackTrace();
+				reuse = false;
+			}
+			if (reuse) {
+				statementCache.checkIn(connection, sql, statement);
+				return;
+			}
+			try {
+				statement.close();
+			}
+			catch (final SQLException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
@@ -0,0 +1,90 @@
+package com.innoventsolutions.report;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A query split into literal SQL and substitution slots, so substituting
+ * is one pass of appends instead of a String.replace per key.
+ * <p>
+ * The template is scanned once for the keys it is compiled with. Where keys
+ * overlap the longest one wins. Substituted values are not scanned again, so
+ * a value that happens to contain another key is left as it is.
+ */
+public final class SqlTemplate {
+	private final Set<String> keys;
+	private final String[] literals;
+	private final String[] slots;
+	private final int literalLength;
+
+	private SqlTemplate(final Set<String> keys, final List<String> literals,
+			final List<String> slots) {
+		this.keys = keys;
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.slots = slots.toArray(new String[slots.size()]);
+		int literalLength = 0;
+		for (final String literal : literals) {
+			literalLength += literal.length();
+		}
+		this.literalLength = literalLength;
+	}
+
+	/**
+	 * @param sql
+	 * @param keys the substitution keys
+	 * @return the template, with one more literal than slots
+	 */
+	public static SqlTemplate compile(final String sql, final Set<String> keys) {
+		final Set<String> keySet = Collections.unmodifiableSet(new HashSet<>(keys));
+		final List<String> literals = new ArrayList<>();
+		final List<String> slots = new ArrayList<>();
+		int start = 0;
+		int i = 0;
+		while (i < sql.length()) {
+			String match = null;
+			for (final String key : keySet) {
+				if (!key.isEmpty() && sql.startsWith(key, i)
+					&& (match == null || key.length() > match.length())) {
+					match = key;
+				}
+			}
+			if (match == null) {
+				i++;
+				continue;
+			}
+			literals.add(sql.substring(start, i));
+			slots.add(match);
+			i += match.length();
+			start = i;
+		}
+		literals.add(sql.substring(start));
+		return new SqlTemplate(keySet, literals, slots);
+	}
+
+	public Set<String> getKeys() {
+		return keys;
+	}
+
+	public String apply(final Map<String, String> substitutions) {
+		if (slots.length == 0) {
+			return literals[0];
+		}
+		final String[] values = new String[slots.length];
+		int length = literalLength;
+		for (int i = 0; i < slots.length; i++) {
+			values[i] = substitutions.get(slots[i]);
+			length += values[i] == null ? 4 : values[i].length();
+		}
+		final StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < slots.length; i++) {
+			sb.append(literals[i]);
+			sb.append(values[i]);
+		}
+		sb.append(literals[slots.length]);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,137 @@
+package com.innoventsolutions.report;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps prepared statements open between runs so a report that runs often
+ * with different arguments is planned once per connection. Share one cache
+ * between the {@link SqlQuery} instances that use the same connections.
+ * <p>
+ * A statement is taken out of the cache while a query uses it and put back
+ * when its stream is closed; a concurrent run of the same SQL on the same
+ * connection prepares its own. Statements of a run that failed or was
+ * cancelled are closed instead of put back. Call {@link #close(Connection)}
+ * before closing or returning a connection to a pool.
+ */
+public class StatementCache {
+	private final int maxStatements;
+	private final LinkedHashMap<Key, PreparedStatement> statements = new LinkedHashMap<>(16,
+			0.75F, true);
+
+	private static final class Key {
+		private final Connection connection;
+		private final String sql;
+
+		Key(final Connection connection, final String sql) {
+			this.connection = connection;
+			this.sql = sql;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(connection) * 31 + sql.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return connection == other.connection && sql.equals(other.sql);
+		}
+	}
+
+	/**
+	 * @param maxStatements the number of idle statements kept open over all
+	 *            connections
+	 */
+	public StatementCache(final int maxStatements) {
+		this.maxStatements = maxStatements;
+	}
+
+	PreparedStatement checkOut(final Connection connection, final String sql)
+			throws SQLException {
+		final PreparedStatement statement;
+		synchronized (this) {
+			statement = statements.remove(new Key(connection, sql));
+		}
+		if (statement != null && !statement.isClosed()) {
+			return statement;
+		}
+		return connection.prepareStatement(sql);
+	}
+
+	void checkIn(final Connection connection, final String sql, final PreparedStatement statement) {
+		final List<PreparedStatement> closing = new ArrayList<>();
+		try {
+			statement.clearParameters();
+			synchronized (this) {
+				final PreparedStatement previous = statements.put(new Key(connection, sql), statement);
+				if (previous != null) {
+					closing.add(previous);
+				}
+				final Iterator<PreparedStatement> iterator = statements.values().iterator();
+				while (statements.size() > maxStatements) {
+					closing.add(iterator.next());
+					iterator.remove();
+				}
+			}
+		}
+		catch (final SQLException e) {
+			closing.add(statement);
+		}
+		close(closing);
+	}
+
+	/**
+	 * Close the idle statements of the connection.
+	 *
+	 * @param connection
+	 */
+	public void close(final Connection connection) {
+		final List<PreparedStatement> closing = new ArrayList<>();
+		synchronized (this) {
+			final Iterator<Map.Entry<Key, PreparedStatement>> iterator = statements.entrySet()
+					.iterator();
+			while (iterator.hasNext()) {
+				final Map.Entry<Key, PreparedStatement> entry = iterator.next();
+				if (entry.getKey().connection == connection) {
+					closing.add(entry.getValue());
+					iterator.remove();
+				}
+			}
+		}
+		close(closing);
+	}
+
+	/**
+	 * Close all idle statements.
+	 */
+	public void close() {
+		final List<PreparedStatement> closing;
+		synchronized (this) {
+			closing = new ArrayList<>(statements.values());
+			statements.clear();
+		}
+		close(closing);
+	}
+
+	private static void close(final List<PreparedStatement> closing) {
+		for (final PreparedStatement statement : closing) {
+			try {
+				statement.close();
+			}
+			catch (final SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
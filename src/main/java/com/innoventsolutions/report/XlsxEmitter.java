@@ -0,0 +1,832 @@
+package com.innoventsolutions.report;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import com.innoventsolutions.report.css.CSS;
+import com.innoventsolutions.report.css.CssProperty;
+import com.innoventsolutions.report.css.StyleResolver;
+import com.innoventsolutions.report.css.StyleVector;
+import com.innoventsolutions.report.css.StyledTable;
+import com.innoventsolutions.report.design.Cell;
+import com.innoventsolutions.report.design.Column;
+import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.design.DateData;
+import com.innoventsolutions.report.design.FloatData;
+import com.innoventsolutions.report.design.Group;
+import com.innoventsolutions.report.design.IntegerData;
+import com.innoventsolutions.report.design.Label;
+import com.innoventsolutions.report.design.ReportComponent;
+import com.innoventsolutions.report.design.Row;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.design.TextData;
+import com.innoventsolutions.report.metrics.MeteredOutputStream;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+import com.innoventsolutions.report.metrics.StageClock;
+import com.innoventsolutions.report.output.OutputSink;
+import com.innoventsolutions.report.output.Utf8Output;
+import com.innoventsolutions.report.output.ZipWriter;
+
+/**
+ * Writes the report as an Excel workbook without POI. The parts of the
+ * package are written straight into the zip file and the sheet is streamed
+ * row by row as the bindings arrive, so memory does not grow with the report
+ * the way a POI workbook does. The rows and cells are the same as
+ * {@link ExcelEmitter}'s, with the styles of the design as cell formats.
+ * <p>
+ * Strings are written inline by default. With
+ * {@link #setSharedStringLimit(int)} repeated strings go in a shared strings
+ * table of at most that many entries, which makes the file smaller when the
+ * same values recur, and the rest are still written inline. The sheet may be
+ * compressed on several threads with {@link #setDeflateThreads(int)}.
+ * <p>
+ * The formats of the cells are collected as the sheet is written, including
+ * those of styles that only show up in some rows, and xl/styles.xml is
+ * written after the sheet. Dates are in the default time zone; those before
+ * March 1900, which Excel has no serial number for, are left empty.
+ * <p>
+ * The column widths have to come before the rows, so the first rows are held
+ * back until they have been measured, see {@link #setColumnWidthRows(int)}.
+ */
+public class XlsxEmitter implements Emitter {
+	/**
+	 * The rows of an Excel sheet
+	 */
+	public static final int MAX_ROWS = 1048576;
+	/**
+	 * The columns of an Excel sheet
+	 */
+	public static final int MAX_COLUMNS = 16384;
+	private static final String MAIN_NAMESPACE = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+	private static final String RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+	private static final long MILLIS_PER_DAY = 86400000L;
+	// 1970-01-01 in Excel's 1900 date system
+	private static final double EPOCH_SERIAL = 25569.0;
+	// 1900-03-01, the first day after Excel's phantom 29 February 1900
+	private static final double FIRST_SERIAL = 61.0;
+	private final OutputStream outputStream;
+	private String sheetName = "Report";
+	private int sharedStringLimit = 0;
+	private int deflateThreads = 1;
+	private int compressionLevel = Deflater.BEST_SPEED;
+	private int columnWidthRows = ColumnWidthEstimator.DEFAULT_HEAD_SIZE;
+	private CancellationToken cancellationToken = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
+	private final Map<String, DecimalFormat> decimalFormats = new HashMap<>();
+	private final Map<String, DateFormat> dateFormats = new HashMap<>();
+	private final StringBuffer formatted = new StringBuffer();
+	private final FieldPosition fieldPosition = new FieldPosition(0);
+	// state of a run
+	private Utf8Output out = null;
+	private StyleResolver styleResolver = null;
+	private XlsxStyles styles = null;
+	private StyleVector tableStyles = null;
+	private Map<String, Integer> sharedStrings = null;
+	private long sharedStringCount = 0;
+	private String[] columnNames = null;
+	private int rowNumber = 0;
+	private final StringBuilder mergeCells = new StringBuilder();
+	private int mergeCount = 0;
+	private TimeZone timeZone = null;
+	private ColumnWidthEstimator widths = null;
+
+	public XlsxEmitter(final OutputStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
+	public XlsxEmitter(final OutputSink sink) {
+		this(sink.getOutputStream());
+	}
+
+	/**
+	 * @param sheetName "Report" by default; at most 31 characters and none
+	 *            of []:*?/\
+	 */
+	public void setSheetName(final String sheetName) {
+		if (sheetName.isEmpty() || sheetName.length() > 31) {
+			throw new IllegalArgumentException("Sheet name must be 1 to 31 characters");
+		}
+		for (int i = 0; i < sheetName.length(); i++) {
+			if ("[]:*?/\\".indexOf(sheetName.charAt(i)) >= 0) {
+				throw new IllegalArgumentException("Invalid character in sheet name " + sheetName);
+			}
+		}
+		this.sheetName = sheetName;
+	}
+
+	/**
+	 * @param sharedStringLimit the most distinct strings to share, 0 (the
+	 *            default) to write them all inline
+	 */
+	public void setSharedStringLimit(final int sharedStringLimit) {
+		if (sharedStringLimit < 0) {
+			throw new IllegalArgumentException("Shared string limit must not be negative");
+		}
+		this.sharedStringLimit = sharedStringLimit;
+	}
+
+	/**
+	 * @param deflateThreads the threads that compress the sheet, 1 by
+	 *            default to compress it on the emitting thread
+	 */
+	public void setDeflateThreads(final int deflateThreads) {
+		if (deflateThreads < 1) {
+			throw new IllegalArgumentException("At least one deflate thread is needed");
+		}
+		this.deflateThreads = deflateThreads;
+	}
+
+	/**
+	 * @param compressionLevel a {@link Deflater} level,
+	 *            {@link Deflater#BEST_SPEED} by default
+	 */
+	public void setCompressionLevel(final int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @param columnWidthRows the first rows, held back until the sheet's
+	 *            column widths are estimated from them, 100 by default; 0 to
+	 *            keep Excel's default widths
+	 */
+	public void setColumnWidthRows(final int columnWidthRows) {
+		if (columnWidthRows < 0) {
+			throw new IllegalArgumentException("Column width rows must not be negative");
+		}
+		this.columnWidthRows = columnWidthRows;
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Reports {@link Stage#EMIT} for each binding, with the sheet rows
+	 * written as rows out. Writes to the output stream are counted and its
+	 * flush and close are reported as {@link Stage#FLUSH}.
+	 */
+	@Override
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
+	@Override
+	public void emit(final Stream<DataRowBinding> stream, final Table design) {
+		final Table table = StyledTable.of(design);
+		final MetricsListener metricsListener = this.metricsListener;
+		final boolean metered = metricsListener.isEnabled();
+		final OutputStream outputStream = metered
+				? new MeteredOutputStream(this.outputStream, metricsListener)
+				: this.outputStream;
+		final List<Column> columns = table.getColumns();
+		final List<Group> groups = table.getGroups();
+		final ZipWriter zip = new ZipWriter(outputStream);
+		boolean complete = false;
+		try {
+			zip.setLevel(compressionLevel);
+			columnNames = getColumnNames(columns);
+			styleResolver = new StyleResolver();
+			styles = new XlsxStyles();
+			tableStyles = styleResolver.resolve(table.getStyles(), StyleVector.DEFAULTS);
+			sharedStrings = sharedStringLimit > 0 ? new LinkedHashMap<>() : null;
+			sharedStringCount = 0;
+			rowNumber = 0;
+			mergeCells.setLength(0);
+			mergeCount = 0;
+			timeZone = TimeZone.getDefault();
+			writePackageParts(zip);
+			final OutputStream sheetStream = zip.putEntry("xl/worksheets/sheet1.xml",
+				deflateThreads);
+			final Utf8Output sheetOut = new Utf8Output(sheetStream);
+			sheetOut.write(XML_DECLARATION);
+			sheetOut.write("<worksheet xmlns=\"" + MAIN_NAMESPACE + "\" xmlns:r=\"" + RELATIONSHIPS
+				+ "\">");
+			ByteArrayOutputStream heldRows = null;
+			if (columnWidthRows > 0) {
+				int visibleCount = 0;
+				for (final String columnName : columnNames) {
+					if (columnName != null) {
+						visibleCount++;
+					}
+				}
+				widths = new ColumnWidthEstimator(visibleCount, columnWidthRows, 0);
+				heldRows = new ByteArrayOutputStream();
+				out = new Utf8Output(heldRows);
+			}
+			else {
+				sheetOut.write("<sheetData>");
+				out = sheetOut;
+			}
+			final Iterator<DataRowBinding> iterator = stream.iterator();
+			while (iterator.hasNext()) {
+				final DataRowBinding dataRowBinding = iterator.next();
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				if (metered) {
+					final long start = System.nanoTime();
+					final long cpuStart = StageClock.cpuTime(metricsListener);
+					final int rowCount = emitBinding(dataRowBinding, table, columns, groups);
+					StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+					metricsListener.rowsIn(Stage.EMIT, 1);
+					metricsListener.rowsOut(Stage.EMIT, rowCount);
+				}
+				else {
+					emitBinding(dataRowBinding, table, columns, groups);
+				}
+				if (heldRows != null && rowNumber >= columnWidthRows) {
+					writeHeldRows(heldRows, sheetOut, sheetStream);
+					heldRows = null;
+				}
+			}
+			if (heldRows != null) {
+				writeHeldRows(heldRows, sheetOut, sheetStream);
+			}
+			out.write("</sheetData>");
+			if (mergeCount > 0) {
+				out.write("<mergeCells count=\"");
+				out.write((long) mergeCount);
+				out.write("\">");
+				out.write(mergeCells);
+				out.write("</mergeCells>");
+			}
+			out.write("</worksheet>");
+			out.flushBuffer();
+			sheetStream.close();
+			if (sharedStrings != null) {
+				writeSharedStrings(zip);
+			}
+			out = new Utf8Output(zip.putEntry("xl/styles.xml"));
+			styles.write(out);
+			out.flushBuffer();
+			zip.close();
+			complete = true;
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to write XLSX file", e);
+		}
+		finally {
+			out = null;
+			styleResolver = null;
+			styles = null;
+			tableStyles = null;
+			widths = null;
+			sharedStrings = null;
+			mergeCells.setLength(0);
+			if (!complete) {
+				try {
+					zip.abort();
+				}
+				catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the column widths estimated from the rows held back, then the
+	 * rows, and carry on writing straight to the sheet.
+	 */
+	private void writeHeldRows(final ByteArrayOutputStream heldRows, final Utf8Output sheetOut,
+			final OutputStream sheetStream) throws IOException {
+		out.flushBuffer();
+		final float[] points = widths.getWidths();
+		final float fontSize = CSS.getFontSize(StyleVector.DEFAULTS.get(CssProperty.FONT_SIZE));
+		if (points.length > 0) {
+			sheetOut.write("<cols>");
+			for (int i = 0; i < points.length; i++) {
+				sheetOut.write("<col min=\"");
+				sheetOut.write((long) i + 1);
+				sheetOut.write("\" max=\"");
+				sheetOut.write((long) i + 1);
+				sheetOut.write("\" width=\"");
+				sheetOut.write(ColumnWidthEstimator.toExcelWidth(points[i], fontSize) / 256.0);
+				sheetOut.write("\" customWidth=\"1\"/>");
+			}
+			sheetOut.write("</cols>");
+		}
+		sheetOut.write("<sheetData>");
+		sheetOut.flushBuffer();
+		heldRows.writeTo(sheetStream);
+		widths = null;
+		out = sheetOut;
+	}
+
+	/**
+	 * @return the letters of each visible column, null for hidden ones
+	 */
+	private static String[] getColumnNames(final List<Column> columns) {
+		final String[] names = new String[columns.size()];
+		int position = 0;
+		for (int i = 0; i < names.length; i++) {
+			if (columns.get(i).isHidden(null)) {
+				continue;
+			}
+			if (position == MAX_COLUMNS) {
+				throw new IllegalArgumentException(
+						"The design has more than the " + MAX_COLUMNS + " columns of a sheet");
+			}
+			final StringBuilder sb = new StringBuilder();
+			for (int n = position + 1; n > 0; n = (n - 1) / 26) {
+				sb.insert(0, (char) ('A' + (n - 1) % 26));
+			}
+			names[i] = sb.toString();
+			position++;
+		}
+		return names;
+	}
+
+	private void writePackageParts(final ZipWriter zip) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(XML_DECLARATION);
+		sb.append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">");
+		sb.append("<Default Extension=\"rels\""
+			+ " ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>");
+		sb.append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>");
+		sb.append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/"
+			+ "vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>");
+		sb.append("<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/"
+			+ "vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+		sb.append("<Override PartName=\"/xl/styles.xml\" ContentType=\"application/"
+			+ "vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+		if (sharedStrings != null) {
+			sb.append("<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/"
+				+ "vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>");
+		}
+		sb.append("</Types>");
+		writePart(zip, "[Content_Types].xml", sb);
+		sb.setLength(0);
+		sb.append(XML_DECLARATION);
+		sb.append("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+		sb.append("<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS
+			+ "/officeDocument\" Target=\"xl/workbook.xml\"/>");
+		sb.append("</Relationships>");
+		writePart(zip, "_rels/.rels", sb);
+		sb.setLength(0);
+		sb.append(XML_DECLARATION);
+		sb.append("<workbook xmlns=\"" + MAIN_NAMESPACE + "\" xmlns:r=\"" + RELATIONSHIPS + "\">");
+		sb.append("<sheets><sheet name=\"");
+		XlsxStyles.appendXml(sb, sheetName);
+		sb.append("\" sheetId=\"1\" r:id=\"rId1\"/></sheets></workbook>");
+		writePart(zip, "xl/workbook.xml", sb);
+		sb.setLength(0);
+		sb.append(XML_DECLARATION);
+		sb.append("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+		sb.append("<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS
+			+ "/worksheet\" Target=\"worksheets/sheet1.xml\"/>");
+		sb.append("<Relationship Id=\"rId2\" Type=\"" + RELATIONSHIPS
+			+ "/styles\" Target=\"styles.xml\"/>");
+		if (sharedStrings != null) {
+			sb.append("<Relationship Id=\"rId3\" Type=\"" + RELATIONSHIPS
+				+ "/sharedStrings\" Target=\"sharedStrings.xml\"/>");
+		}
+		sb.append("</Relationships>");
+		writePart(zip, "xl/_rels/workbook.xml.rels", sb);
+	}
+
+	private static void writePart(final ZipWriter zip, final String name, final CharSequence xml)
+			throws IOException {
+		final Utf8Output part = new Utf8Output(zip.putEntry(name), 0x1000);
+		part.write(xml);
+		part.flushBuffer();
+	}
+
+	private void writeSharedStrings(final ZipWriter zip) throws IOException {
+		out = new Utf8Output(zip.putEntry("xl/sharedStrings.xml"));
+		out.write(XML_DECLARATION);
+		out.write("<sst xmlns=\"" + MAIN_NAMESPACE + "\" count=\"");
+		out.write(sharedStringCount);
+		out.write("\" uniqueCount=\"");
+		out.write((long) sharedStrings.size());
+		out.write("\">");
+		for (final String text : sharedStrings.keySet()) {
+			out.write("<si>");
+			writeTextElement(text);
+			out.write("</si>");
+		}
+		out.write("</sst>");
+		out.flushBuffer();
+	}
+
+	/**
+	 * @return the number of sheet rows written
+	 */
+	private int emitBinding(final DataRowBinding dataRowBinding, final Table table,
+			final List<Column> columns, final List<Group> groups) throws IOException {
+		final int level = dataRowBinding.getLevel();
+		final DataRowBinding.Type type = dataRowBinding.getType();
+		final List<Row> rows;
+		if (level == 0) {
+			switch (type) {
+			case DETAIL:
+				rows = table.getRows();
+				break;
+			default:
+				rows = Collections.emptyList();
+			}
+		}
+		else if (level == groups.size() + 1) {
+			switch (type) {
+			case HEADER:
+				rows = table.getHeaderRows();
+				break;
+			case FOOTER:
+				rows = table.getFooterRows();
+				break;
+			default:
+				rows = Collections.emptyList();
+			}
+		}
+		else {
+			final Group group = groups.get(level - 1);
+			switch (type) {
+			case HEADER:
+				rows = group.getHeaderRows();
+				break;
+			case FOOTER:
+				rows = group.getFooterRows();
+				break;
+			default:
+				rows = Collections.emptyList();
+			}
+		}
+		int rowCount = 0;
+		for (final Row row : rows) {
+			if (row.isHidden(dataRowBinding.getDataRow())) {
+				continue;
+			}
+			emitRow(dataRowBinding.getDataRow(), row, columns);
+			rowCount++;
+		}
+		return rowCount;
+	}
+
+	private void emitRow(final Object dataRow, final Row row, final List<Column> columns)
+			throws IOException {
+		if (rowNumber == MAX_ROWS) {
+			throw new IllegalStateException(
+					"The report has more than the " + MAX_ROWS + " rows of a sheet");
+		}
+		rowNumber++;
+		out.write("<row r=\"");
+		out.write((long) rowNumber);
+		out.write("\">");
+		final Iterator<Cell> cellIterator = row.getCells().iterator();
+		int spanning = 1;
+		int visibleColumn = -1;
+		for (int i = 0; i < columnNames.length; i++) {
+			if (columnNames[i] == null) {
+				if (cellIterator.hasNext()) {
+					cellIterator.next(); // swallow the cell
+				}
+				continue;
+			}
+			visibleColumn++;
+			if (spanning > 1) {
+				spanning--;
+				continue;
+			}
+			if (!cellIterator.hasNext()) {
+				continue;
+			}
+			final Cell cell = cellIterator.next();
+			final Column column = columns.get(i);
+			final StyleVector columnStyles = styleResolver.resolve(column.getStyles(),
+				tableStyles);
+			final StyleVector rowStyles = styleResolver.resolve(row.getStyles(), columnStyles);
+			final StyleVector cellStyles = styleResolver.resolve(cell.getStyles(), rowStyles);
+			spanning = cell.getColSpan();
+			if (spanning > 1) {
+				addMergeCell(i, spanning);
+			}
+			else if (widths != null && widths.sample(visibleColumn)) {
+				sampleCell(dataRow, cell, visibleColumn, cellStyles);
+			}
+			emitCell(dataRow, cell, columnNames[i], cellStyles);
+		}
+		out.write("</row>");
+	}
+
+	private void addMergeCell(final int column, final int colspan) {
+		// the last visible column the cell spans
+		int last = column;
+		for (int remaining = colspan - 1, i = column + 1; remaining > 0
+			&& i < columnNames.length; i++) {
+			if (columnNames[i] != null) {
+				last = i;
+				remaining--;
+			}
+		}
+		if (last == column) {
+			return;
+		}
+		mergeCells.append("<mergeCell ref=\"").append(columnNames[column]).append(rowNumber);
+		mergeCells.append(':').append(columnNames[last]).append(rowNumber).append("\"/>");
+		mergeCount++;
+	}
+
+	private void emitCell(final Object dataRow, final Cell cell, final String columnName,
+			final StyleVector cellStyles) throws IOException {
+		final List<ReportComponent> components = cell.getComponents();
+		if (components.size() != 1) {
+			final StringBuilder sb = new StringBuilder();
+			for (final ReportComponent component : components) {
+				if (!component.isHidden(dataRow)) {
+					appendValue(sb, component, dataRow);
+				}
+			}
+			writeString(columnName, styles.getStyle(cellStyles),
+				sb.length() == 0 ? null : sb.toString());
+			return;
+		}
+		final ReportComponent component = components.get(0);
+		final StyleVector componentStyles = styleResolver.resolve(component.getStyles(),
+			cellStyles);
+		if (component.isHidden(dataRow)) {
+			writeEmpty(columnName, styles.getStyle(componentStyles));
+			return;
+		}
+		switch (component.getKind()) {
+		case LABEL:
+			writeString(columnName, styles.getStyle(componentStyles),
+				((Label) component).getText());
+			break;
+		case TEXT:
+			writeString(columnName, styles.getStyle(componentStyles),
+				((TextData) component).getValue(dataRow));
+			break;
+		case INTEGER: {
+			final IntegerData data = (IntegerData) component;
+			final long value = data.getValue(dataRow);
+			startCell(columnName, styles.getNumberStyle(componentStyles, data.getFormat()), null);
+			out.write("<v>");
+			out.write(value);
+			out.write("</v></c>");
+			break;
+		}
+		case FLOAT: {
+			final FloatData data = (FloatData) component;
+			final double value = data.getValue(dataRow);
+			final int style = styles.getNumberStyle(componentStyles, data.getFormat());
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				startCell(columnName, style, "e");
+				out.write("<v>#NUM!</v></c>");
+			}
+			else {
+				startCell(columnName, style, null);
+				out.write("<v>");
+				out.write(value);
+				out.write("</v></c>");
+			}
+			break;
+		}
+		case DATE: {
+			final DateData data = (DateData) component;
+			final Date value = data.getValue(dataRow);
+			final int style = styles.getDateStyle(componentStyles, data.getFormat());
+			if (value == null) {
+				writeEmpty(columnName, style);
+				break;
+			}
+			final long time = value.getTime();
+			final double serial = (double) (time + timeZone.getOffset(time)) / MILLIS_PER_DAY
+				+ EPOCH_SERIAL;
+			if (serial < FIRST_SERIAL) {
+				writeEmpty(columnName, style);
+				break;
+			}
+			startCell(columnName, style, null);
+			out.write("<v>");
+			out.write(serial);
+			out.write("</v></c>");
+			break;
+		}
+		default:
+			writeEmpty(columnName, styles.getStyle(componentStyles));
+			break;
+		}
+	}
+
+	/**
+	 * Measure a cell's value as text for the column widths.
+	 */
+	private void sampleCell(final Object dataRow, final Cell cell, final int visibleColumn,
+			final StyleVector cellStyles) {
+		final List<ReportComponent> components = cell.getComponents();
+		final StringBuilder sb = new StringBuilder();
+		StyleVector styles = cellStyles;
+		if (components.size() == 1) {
+			styles = styleResolver.resolve(components.get(0).getStyles(), cellStyles);
+		}
+		for (final ReportComponent component : components) {
+			if (!component.isHidden(dataRow)) {
+				appendValue(sb, component, dataRow);
+			}
+		}
+		widths.add(visibleColumn, sb.toString(), styles);
+	}
+
+	/**
+	 * Append a component's value as text, formatted as it is in a PDF.
+	 */
+	private void appendValue(final StringBuilder sb, final ReportComponent component,
+			final Object dataRow) {
+		switch (component.getKind()) {
+		case LABEL: {
+			final String text = ((Label) component).getText();
+			if (text != null) {
+				sb.append(text);
+			}
+			break;
+		}
+		case TEXT: {
+			final String value = ((TextData) component).getValue(dataRow);
+			if (value != null) {
+				sb.append(value);
+			}
+			break;
+		}
+		case INTEGER: {
+			final IntegerData data = (IntegerData) component;
+			final long value = data.getValue(dataRow);
+			if (data.getFormat() == null) {
+				sb.append(value);
+			}
+			else {
+				formatted.setLength(0);
+				getDecimalFormat(data.getFormat()).format(value, formatted, fieldPosition);
+				sb.append(formatted);
+			}
+			break;
+		}
+		case FLOAT: {
+			final FloatData data = (FloatData) component;
+			final double value = data.getValue(dataRow);
+			if (data.getFormat() == null) {
+				sb.append(value);
+			}
+			else {
+				formatted.setLength(0);
+				getDecimalFormat(data.getFormat()).format(value, formatted, fieldPosition);
+				sb.append(formatted);
+			}
+			break;
+		}
+		case DATE: {
+			final DateData data = (DateData) component;
+			final Date value = data.getValue(dataRow);
+			if (value == null) {
+				break;
+			}
+			if (data.getFormat() == null) {
+				sb.append(value);
+			}
+			else {
+				formatted.setLength(0);
+				getDateFormat(data.getFormat()).format(value, formatted, fieldPosition);
+				sb.append(formatted);
+			}
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Write the start tag of a cell, up to its value.
+	 *
+	 * @param type the cell type attribute, null for a number
+	 */
+	private void startCell(final String columnName, final int style, final String type)
+			throws IOException {
+		out.write("<c r=\"");
+		out.write(columnName);
+		out.write((long) rowNumber);
+		if (style != 0) {
+			out.write("\" s=\"");
+			out.write((long) style);
+		}
+		if (type != null) {
+			out.write("\" t=\"");
+			out.write(type);
+		}
+		out.write("\">");
+	}
+
+	private void writeEmpty(final String columnName, final int style) throws IOException {
+		if (style == 0) {
+			return;
+		}
+		out.write("<c r=\"");
+		out.write(columnName);
+		out.write((long) rowNumber);
+		out.write("\" s=\"");
+		out.write((long) style);
+		out.write("\"/>");
+	}
+
+	private void writeString(final String columnName, final int style, final String text)
+			throws IOException {
+		if (text == null) {
+			writeEmpty(columnName, style);
+			return;
+		}
+		if (sharedStrings != null) {
+			Integer index = sharedStrings.get(text);
+			if (index == null && sharedStrings.size() < sharedStringLimit) {
+				index = sharedStrings.size();
+				sharedStrings.put(text, index);
+			}
+			if (index != null) {
+				startCell(columnName, style, "s");
+				out.write("<v>");
+				out.write((long) index);
+				out.write("</v></c>");
+				sharedStringCount++;
+				return;
+			}
+		}
+		startCell(columnName, style, "inlineStr");
+		out.write("<is>");
+		writeTextElement(text);
+		out.write("</is></c>");
+	}
+
+	/**
+	 * Write a t element, keeping leading and trailing spaces.
+	 */
+	private void writeTextElement(final String text) throws IOException {
+		final int length = text.length();
+		if (length > 0 && (Character.isWhitespace(text.charAt(0))
+			|| Character.isWhitespace(text.charAt(length - 1)))) {
+			out.write("<t xml:space=\"preserve\">");
+		}
+		else {
+			out.write("<t>");
+		}
+		final Utf8Output out = this.out;
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = text.charAt(i);
+			final String entity;
+			if (c == '<') {
+				entity = "&lt;";
+			}
+			else if (c == '>') {
+				entity = "&gt;";
+			}
+			else if (c == '&') {
+				entity = "&amp;";
+			}
+			else if (XlsxStyles.isXmlChar(c)) {
+				continue;
+			}
+			else {
+				entity = "";
+			}
+			out.write(text, start, i);
+			out.write(entity);
+			start = i + 1;
+		}
+		out.write(text, start, length);
+		out.write("</t>");
+	}
+
+	private DecimalFormat getDecimalFormat(final String format) {
+		DecimalFormat decimalFormat = decimalFormats.get(format);
+		if (decimalFormat == null) {
+			decimalFormat = new DecimalFormat(format);
+			decimalFormats.put(format, decimalFormat);
+		}
+		return decimalFormat;
+	}
+
+	private DateFormat getDateFormat(final String format) {
+		DateFormat dateFormat = dateFormats.get(format);
+		if (dateFormat == null) {
+			dateFormat = new SimpleDateFormat(format);
+			dateFormats.put(format, dateFormat);
+		}
+		return dateFormat;
+	}
+}
@@ -0,0 +1,547 @@
+package com.innoventsolutions.report;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.innoventsolutions.report.css.CSS;
+import com.innoventsolutions.report.css.CssValue;
+import com.innoventsolutions.report.css.StyleResolver;
+import com.innoventsolutions.report.css.StyleVector;
+import com.innoventsolutions.report.output.Utf8Output;
+
+/**
+ * The cell formats of a workbook written by {@link XlsxEmitter}. Each
+ * distinct pair of resolved styles and number format is one entry of the
+ * cellXfs table, which shares its font, fill, border and number format with
+ * the entries that have the same. Entry 0 is the default styles with the
+ * General format, so a cell that uses it needs no style attribute.
+ * <p>
+ * Lookups are by the identity of the vectors from the emitter's
+ * {@link StyleResolver}, so once a style has been seen a cell's format is one
+ * or two hash lookups. Padding is not written; text-align left is left to
+ * Excel's General alignment, which puts numbers on the right.
+ */
+final class XlsxStyles {
+	private static final String DEFAULT_DATE_FORMAT = "yyyy-mm-dd hh:mm:ss";
+	private static final int FIRST_CUSTOM_FORMAT = 164;
+	private final Map<String, Integer> numberFormats = new LinkedHashMap<>();
+	private final Map<String, Integer> fonts = new LinkedHashMap<>();
+	private final Map<String, Integer> fills = new LinkedHashMap<>();
+	private final Map<String, Integer> borders = new LinkedHashMap<>();
+	private final Map<String, Integer> cellFormats = new LinkedHashMap<>();
+	private final Map<StyleVector, Integer> plainStyles = new IdentityHashMap<>();
+	private final Map<StyleVector, Map<String, Integer>> numberStyles = new IdentityHashMap<>();
+	private final Map<StyleVector, Map<String, Integer>> dateStyles = new IdentityHashMap<>();
+
+	XlsxStyles() {
+		// Excel expects these two fills first
+		fills.put("<fill><patternFill patternType=\"none\"/></fill>", 0);
+		fills.put("<fill><patternFill patternType=\"gray125\"/></fill>", 1);
+		getCellFormat(StyleVector.DEFAULTS, 0);
+	}
+
+	/**
+	 * @return the cellXfs index for text and empty cells
+	 */
+	int getStyle(final StyleVector styles) {
+		Integer style = plainStyles.get(styles);
+		if (style == null) {
+			checkSize();
+			style = getCellFormat(styles, 0);
+			plainStyles.put(styles, style);
+		}
+		return style;
+	}
+
+	/**
+	 * @param decimalFormat a {@link java.text.DecimalFormat} pattern or null
+	 * @return the cellXfs index for a number
+	 */
+	int getNumberStyle(final StyleVector styles, final String decimalFormat) {
+		if (decimalFormat == null) {
+			return getStyle(styles);
+		}
+		Map<String, Integer> byFormat = numberStyles.get(styles);
+		if (byFormat == null) {
+			checkSize();
+			byFormat = new HashMap<>();
+			numberStyles.put(styles, byFormat);
+		}
+		Integer style = byFormat.get(decimalFormat);
+		if (style == null) {
+			style = getCellFormat(styles, getNumberFormatId(toExcelNumberFormat(decimalFormat)));
+			byFormat.put(decimalFormat, style);
+		}
+		return style;
+	}
+
+	/**
+	 * @param dateFormat a {@link java.text.SimpleDateFormat} pattern, or null
+	 *            for the date and time
+	 * @return the cellXfs index for a date
+	 */
+	int getDateStyle(final StyleVector styles, final String dateFormat) {
+		Map<String, Integer> byFormat = dateStyles.get(styles);
+		if (byFormat == null) {
+			checkSize();
+			byFormat = new HashMap<>();
+			dateStyles.put(styles, byFormat);
+		}
+		Integer style = byFormat.get(dateFormat);
+		if (style == null) {
+			style = getCellFormat(styles, getNumberFormatId(
+				dateFormat == null ? DEFAULT_DATE_FORMAT : toExcelDateFormat(dateFormat)));
+			byFormat.put(dateFormat, style);
+		}
+		return style;
+	}
+
+	/**
+	 * The resolver drops its vectors when it has seen too many style maps, so
+	 * these do the same rather than hold on to the old ones.
+	 */
+	private void checkSize() {
+		final int size = plainStyles.size() + numberStyles.size() + dateStyles.size();
+		if (size >= StyleResolver.MAX_STYLE_MAPS) {
+			plainStyles.clear();
+			numberStyles.clear();
+			dateStyles.clear();
+		}
+	}
+
+	private int getNumberFormatId(final String formatCode) {
+		Integer id = numberFormats.get(formatCode);
+		if (id == null) {
+			id = FIRST_CUSTOM_FORMAT + numberFormats.size();
+			numberFormats.put(formatCode, id);
+		}
+		return id;
+	}
+
+	private static int indexOf(final Map<String, Integer> table, final String xml) {
+		Integer index = table.get(xml);
+		if (index == null) {
+			index = table.size();
+			table.put(xml, index);
+		}
+		return index;
+	}
+
+	private int getCellFormat(final StyleVector styles, final int numberFormatId) {
+		final Applier applier = new Applier();
+		styles.apply(applier);
+		final int fontId = indexOf(fonts, applier.getFont());
+		final int fillId = indexOf(fills, applier.getFill());
+		final int borderId = indexOf(borders, applier.getBorder());
+		final StringBuilder sb = new StringBuilder();
+		sb.append("<xf numFmtId=\"").append(numberFormatId);
+		sb.append("\" fontId=\"").append(fontId);
+		sb.append("\" fillId=\"").append(fillId);
+		sb.append("\" borderId=\"").append(borderId).append("\" xfId=\"0\"");
+		if (numberFormatId != 0) {
+			sb.append(" applyNumberFormat=\"1\"");
+		}
+		if (fontId != 0) {
+			sb.append(" applyFont=\"1\"");
+		}
+		if (fillId != 0) {
+			sb.append(" applyFill=\"1\"");
+		}
+		if (borderId != 0) {
+			sb.append(" applyBorder=\"1\"");
+		}
+		if (applier.horizontal == null) {
+			sb.append("/>");
+		}
+		else {
+			sb.append(" applyAlignment=\"1\"><alignment horizontal=\"");
+			sb.append(applier.horizontal).append("\"/></xf>");
+		}
+		return indexOf(cellFormats, sb.toString());
+	}
+
+	/**
+	 * Write xl/styles.xml with every format handed out so far.
+	 */
+	void write(final Utf8Output out) throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+		out.write("<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">");
+		if (!numberFormats.isEmpty()) {
+			out.write("<numFmts count=\"");
+			out.write((long) numberFormats.size());
+			out.write("\">");
+			final StringBuilder sb = new StringBuilder();
+			for (final Map.Entry<String, Integer> entry : numberFormats.entrySet()) {
+				sb.setLength(0);
+				sb.append("<numFmt numFmtId=\"").append(entry.getValue()).append("\" formatCode=\"");
+				appendXml(sb, entry.getKey());
+				sb.append("\"/>");
+				out.write(sb);
+			}
+			out.write("</numFmts>");
+		}
+		writeTable(out, "fonts", fonts);
+		writeTable(out, "fills", fills);
+		writeTable(out, "borders", borders);
+		out.write("<cellStyleXfs count=\"1\">"
+			+ "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>");
+		writeTable(out, "cellXfs", cellFormats);
+		out.write("<cellStyles count=\"1\">"
+			+ "<cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>");
+		out.write("</styleSheet>");
+	}
+
+	private static void writeTable(final Utf8Output out, final String name,
+			final Map<String, Integer> table) throws IOException {
+		out.write('<');
+		out.write(name);
+		out.write(" count=\"");
+		out.write((long) table.size());
+		out.write("\">");
+		for (final String xml : table.keySet()) {
+			out.write(xml);
+		}
+		out.write("</");
+		out.write(name);
+		out.write('>');
+	}
+
+	/**
+	 * Append text escaped for an XML attribute or element, leaving out the
+	 * control characters XML does not allow.
+	 */
+	static void appendXml(final StringBuilder sb, final CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			switch (c) {
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '"':
+				sb.append("&quot;");
+				break;
+			default:
+				if (isXmlChar(c)) {
+					sb.append(c);
+				}
+			}
+		}
+	}
+
+	static boolean isXmlChar(final char c) {
+		return c >= 0x20 ? c < 0xFFFE : c == '\t' || c == '\n' || c == '\r';
+	}
+
+	private static void appendQuoted(final StringBuilder sb, final String text) {
+		if (text.isEmpty()) {
+			return;
+		}
+		sb.append('"').append(text.replace("\"", "")).append('"');
+	}
+
+	/**
+	 * @param pattern a {@link java.text.DecimalFormat} pattern
+	 * @return the Excel number format with the same digits, grouping and
+	 *         literal text
+	 */
+	static String toExcelNumberFormat(final String pattern) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < pattern.length(); i++) {
+			final char c = pattern.charAt(i);
+			if (c == '\'') {
+				int end = pattern.indexOf('\'', i + 1);
+				if (end < 0) {
+					end = pattern.length();
+				}
+				// '' is a quote
+				appendQuoted(sb, end == i + 1 ? "'" : pattern.substring(i + 1, end));
+				i = end;
+			}
+			else if (c == 'E') {
+				sb.append("E+");
+			}
+			else if ("0#.,%;-+ ()$:/".indexOf(c) >= 0) {
+				sb.append(c);
+			}
+			else {
+				appendQuoted(sb, String.valueOf(c));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param pattern a {@link java.text.SimpleDateFormat} pattern
+	 * @return the nearest Excel date format; time zones, eras and week
+	 *         numbers are left out
+	 */
+	static String toExcelDateFormat(final String pattern) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < pattern.length(); i++) {
+			final char c = pattern.charAt(i);
+			if (c == '\'') {
+				int end = pattern.indexOf('\'', i + 1);
+				if (end < 0) {
+					end = pattern.length();
+				}
+				appendQuoted(sb, end == i + 1 ? "'" : pattern.substring(i + 1, end));
+				i = end;
+				continue;
+			}
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z')) {
+				if (" -/:.,()".indexOf(c) >= 0) {
+					sb.append(c);
+				}
+				else {
+					appendQuoted(sb, String.valueOf(c));
+				}
+				continue;
+			}
+			int count = 1;
+			while (i + 1 < pattern.length() && pattern.charAt(i + 1) == c) {
+				count++;
+				i++;
+			}
+			switch (c) {
+			case 'y':
+			case 'u':
+				sb.append(count == 2 ? "yy" : "yyyy");
+				break;
+			case 'M':
+			case 'L':
+				sb.append(count == 1 ? "m" : count == 2 ? "mm" : count == 3 ? "mmm" : "mmmm");
+				break;
+			case 'd':
+				sb.append(count == 1 ? "d" : "dd");
+				break;
+			case 'E':
+				sb.append(count <= 3 ? "ddd" : "dddd");
+				break;
+			case 'H':
+			case 'k':
+			case 'h':
+			case 'K':
+				sb.append(count == 1 ? "h" : "hh");
+				break;
+			case 'm':
+				sb.append(count == 1 ? "m" : "mm");
+				break;
+			case 's':
+				sb.append(count == 1 ? "s" : "ss");
+				break;
+			case 'S':
+				sb.append("000", 0, Math.min(count, 3));
+				break;
+			case 'a':
+				sb.append("AM/PM");
+				break;
+			default:
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Collects the styles of a vector as the parts of a cell format.
+	 */
+	private static final class Applier implements CSS.Applier {
+		private boolean bold = false;
+		private boolean italic = false;
+		private float size = 12;
+		private int color = 0;
+		private String family = "helvetica";
+		private CssValue background = null;
+		private final String[] borderStyles = new String[4];
+		private final float[] borderWidths = new float[4];
+		private final int[] borderColors = new int[4];
+		String horizontal = null;
+
+		String getFont() {
+			final StringBuilder sb = new StringBuilder("<font>");
+			if (bold) {
+				sb.append("<b/>");
+			}
+			if (italic) {
+				sb.append("<i/>");
+			}
+			sb.append("<sz val=\"");
+			if (size == (int) size) {
+				sb.append((int) size);
+			}
+			else {
+				sb.append(size);
+			}
+			sb.append("\"/>");
+			appendColor(sb, "color", color);
+			sb.append("<name val=\"");
+			appendXml(sb, getFontName(family));
+			sb.append("\"/></font>");
+			return sb.toString();
+		}
+
+		private static String getFontName(final String family) {
+			switch (family.toLowerCase(Locale.ROOT)) {
+			case "helvetica":
+			case "arial":
+			case "sans-serif":
+				return "Arial";
+			case "times":
+			case "times-roman":
+			case "times new roman":
+			case "serif":
+				return "Times New Roman";
+			case "courier":
+			case "courier new":
+			case "monospace":
+				return "Courier New";
+			default:
+				return family;
+			}
+		}
+
+		private static void appendColor(final StringBuilder sb, final String element,
+				final int rgb) {
+			sb.append('<').append(element).append(" rgb=\"FF");
+			final String hex = Integer.toHexString(rgb | 0x1000000).toUpperCase(Locale.ROOT);
+			sb.append(hex, 1, 7).append("\"/>");
+		}
+
+		String getFill() {
+			if (background == null || background.getType() != CssValue.Type.COLOR) {
+				return "<fill><patternFill patternType=\"none\"/></fill>";
+			}
+			final StringBuilder sb = new StringBuilder("<fill><patternFill patternType=\"solid\">");
+			appendColor(sb, "fgColor", background.getRgb());
+			return sb.append("</patternFill></fill>").toString();
+		}
+
+		String getBorder() {
+			final StringBuilder sb = new StringBuilder("<border>");
+			// SpreadsheetML order, CSS.Side is top, right, bottom, left
+			appendBorder(sb, "left", CSS.Side.LEFT.ordinal());
+			appendBorder(sb, "right", CSS.Side.RIGHT.ordinal());
+			appendBorder(sb, "top", CSS.Side.TOP.ordinal());
+			appendBorder(sb, "bottom", CSS.Side.BOTTOM.ordinal());
+			return sb.append("<diagonal/></border>").toString();
+		}
+
+		private void appendBorder(final StringBuilder sb, final String name, final int side) {
+			final String style = getBorderStyle(borderStyles[side], borderWidths[side]);
+			sb.append('<').append(name);
+			if (style == null) {
+				sb.append("/>");
+				return;
+			}
+			sb.append(" style=\"").append(style).append("\">");
+			appendColor(sb, "color", borderColors[side]);
+			sb.append("</").append(name).append('>');
+		}
+
+		private static String getBorderStyle(final String cssStyle, final float width) {
+			if (cssStyle == null) {
+				return null;
+			}
+			switch (cssStyle.toLowerCase(Locale.ROOT)) {
+			case "none":
+			case "hidden":
+			case "initial":
+				return null;
+			case "dotted":
+				return "dotted";
+			case "dashed":
+				return width < 1.5F ? "dashed" : "mediumDashed";
+			case "double":
+				return "double";
+			default:
+				return width < 1.5F ? "thin" : width < 2.5F ? "medium" : "thick";
+			}
+		}
+
+		@Override
+		public void applyTextAlign(final CssValue cssValue) {
+			final String align = cssValue.getStringValue().toLowerCase(Locale.ROOT);
+			if (align.equals("right") || align.equals("center") || align.equals("justify")) {
+				horizontal = align;
+			}
+			else {
+				horizontal = null;
+			}
+		}
+
+		@Override
+		public void applyBackgroundColor(final CssValue cssValue) {
+			background = cssValue;
+		}
+
+		@Override
+		public void applyPadding(final CSS.Side side, final CssValue cssValue) {
+		}
+
+		@Override
+		public void applyBorderWidth(final CSS.Side side, final CssValue cssValue) {
+			if (cssValue.isLength()) {
+				borderWidths[side.ordinal()] = cssValue.toPoints(0F);
+			}
+			else if (cssValue.isIdent("thin")) {
+				borderWidths[side.ordinal()] = 0.75F;
+			}
+			else if (cssValue.isIdent("thick")) {
+				borderWidths[side.ordinal()] = 3.75F;
+			}
+			else {
+				borderWidths[side.ordinal()] = 2.25F;
+			}
+		}
+
+		@Override
+		public void applyBorderStyle(final CSS.Side side, final CssValue cssValue) {
+			borderStyles[side.ordinal()] = cssValue.getStringValue();
+		}
+
+		@Override
+		public void applyBorderColor(final CSS.Side side, final CssValue cssValue) {
+			borderColors[side.ordinal()] = cssValue.getRgb();
+		}
+
+		@Override
+		public void applyColor(final CssValue cssValue) {
+			color = cssValue.getRgb();
+		}
+
+		@Override
+		public void applyFontStyle(final CssValue cssValue) {
+			italic = cssValue.isIdent("italic") || cssValue.isIdent("oblique");
+		}
+
+		@Override
+		public void applyFontWeight(final CssValue cssValue) {
+			if (cssValue.isLength()) {
+				bold = cssValue.toPoints(0F) >= 600;
+			}
+			else {
+				bold = cssValue.isIdent("bold") || cssValue.isIdent("bolder");
+			}
+		}
+
+		@Override
+		public void applyFontSize(final CssValue cssValue) {
+			size = CSS.getFontSize(cssValue);
+		}
+
+		@Override
+		public void applyFontFamily(final CssValue cssValue) {
+			family = cssValue.getValues()[0].getStringValue();
+		}
+	}
+}
@@ -0,0 +1,454 @@
+package com.innoventsolutions.report.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.innoventsolutions.report.SqlQuery;
+import com.innoventsolutions.report.design.Table;
+
+/**
+ * Caches the output of report runs so repeated requests for the same report
+ * with the same parameters are answered without running the query.
+ *
+ * <pre>
+ * final ReportCache.Key key = ReportCache.Key.of(query, table, "html+gzip");
+ * cache.write(key, response.getOutputStream(), out -&gt; {
+ * 	final OutputSink sink = new OutputSink(out, Compression.GZIP);
+ * 	new HtmlEmitter(sink).emit(builder.build(query.getStream()), table);
+ * 	sink.close();
+ * });
+ * </pre>
+ *
+ * Entries are kept on the heap up to a byte budget and evicted by least
+ * recently or least frequently used. Evicted entries go to a directory on
+ * disk if one is set, up to its own byte budget. Entries expire after the
+ * time to live. Concurrent requests for a key that is not cached share a
+ * single run.
+ */
+public class ReportCache {
+	public enum EvictionPolicy {
+		LRU, LFU
+	}
+
+	/**
+	 * Renders a report into the given stream.
+	 */
+	public interface Renderer {
+		void render(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * What identifies a report run: the SQL after substitutions, the
+	 * arguments, the design (by identity) and the output format. The format
+	 * is any string the caller uses to tell outputs apart, including the
+	 * compression.
+	 */
+	public static final class Key {
+		private final String sql;
+		private final List<Object> arguments;
+		private final Table table;
+		private final String format;
+		private final int hashCode;
+
+		public Key(final String sql, final Object[] arguments, final Table table,
+				final String format) {
+			this.sql = sql;
+			this.arguments = arguments == null ? Collections.emptyList()
+				: Collections.unmodifiableList(Arrays.asList(arguments.clone()));
+			this.table = table;
+			this.format = format;
+			int hashCode = sql.hashCode();
+			hashCode = hashCode * 31 + this.arguments.hashCode();
+			hashCode = hashCode * 31 + System.identityHashCode(table);
+			hashCode = hashCode * 31 + (format == null ? 0 : format.hashCode());
+			this.hashCode = hashCode;
+		}
+
+		public static Key of(final SqlQuery<?> query, final Table table, final String format) {
+			return new Key(query.getSubstitutedQuery(), query.arguments, table, format);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return hashCode == other.hashCode && table == other.table && sql.equals(other.sql)
+				&& arguments.equals(other.arguments)
+				&& (format == null ? other.format == null : format.equals(other.format));
+		}
+
+		@Override
+		public String toString() {
+			return format + " " + sql + " " + arguments;
+		}
+	}
+
+	private static class Entry {
+		final byte[] bytes;
+		final long expiresAt;
+		long hits = 0;
+
+		Entry(final byte[] bytes, final long expiresAt) {
+			this.bytes = bytes;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static class DiskEntry {
+		final Path file;
+		final long size;
+		final long expiresAt;
+
+		DiskEntry(final Path file, final long size, final long expiresAt) {
+			this.file = file;
+			this.size = size;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final long maxHeapBytes;
+	private long ttlMillis = 0;
+	private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+	private Path diskDirectory = null;
+	private long maxDiskBytes = 0;
+	private final LinkedHashMap<Key, Entry> heap = new LinkedHashMap<>(16, 0.75F, true);
+	private long heapBytes = 0;
+	private final LinkedHashMap<Key, DiskEntry> disk = new LinkedHashMap<>(16, 0.75F, true);
+	private long diskBytes = 0;
+	private final ConcurrentMap<Key, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxHeapBytes the total size of the outputs kept on the heap
+	 */
+	public ReportCache(final long maxHeapBytes) {
+		this.maxHeapBytes = maxHeapBytes;
+	}
+
+	/**
+	 * @param ttlMillis time after which an entry is no longer used, or 0 to
+	 *            keep entries until they are evicted
+	 */
+	public void setTtlMillis(final long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	public void setEvictionPolicy(final EvictionPolicy evictionPolicy) {
+		this.evictionPolicy = evictionPolicy;
+	}
+
+	/**
+	 * Keep entries evicted from the heap in files in the directory.
+	 *
+	 * @param diskDirectory
+	 * @param maxDiskBytes the total size of the files
+	 */
+	public void setDiskTier(final Path diskDirectory, final long maxDiskBytes) {
+		this.diskDirectory = diskDirectory;
+		this.maxDiskBytes = maxDiskBytes;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Write the cached output for the key to the stream, rendering it first
+	 * if it is not cached.
+	 *
+	 * @param key
+	 * @param out
+	 * @param renderer
+	 * @throws IOException
+	 */
+	public void write(final Key key, final OutputStream out, final Renderer renderer)
+			throws IOException {
+		out.write(get(key, renderer));
+	}
+
+	/**
+	 * @param key
+	 * @param renderer called if the output is not cached and no other thread
+	 *            is already rendering it
+	 * @return the output
+	 */
+	public byte[] get(final Key key, final Renderer renderer) {
+		byte[] bytes = lookup(key);
+		if (bytes != null) {
+			hits.incrementAndGet();
+			return bytes;
+		}
+		final CompletableFuture<byte[]> future = new CompletableFuture<>();
+		final CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, future);
+		if (running != null) {
+			hits.incrementAndGet();
+			return join(running);
+		}
+		try {
+			// another thread may have finished the same key since the lookup
+			bytes = lookup(key);
+			if (bytes == null) {
+				misses.incrementAndGet();
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				renderer.render(out);
+				bytes = out.toByteArray();
+				put(key, bytes);
+			}
+			future.complete(bytes);
+			return bytes;
+		}
+		catch (final IOException e) {
+			future.completeExceptionally(e);
+			throw new RuntimeException("Failed to render report", e);
+		}
+		catch (final RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	private static byte[] join(final CompletableFuture<byte[]> future) {
+		try {
+			return future.join();
+		}
+		catch (final CompletionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException("Failed to render report", cause);
+		}
+	}
+
+	public void invalidate(final Key key) {
+		final DiskEntry diskEntry;
+		synchronized (heap) {
+			final Entry entry = heap.remove(key);
+			if (entry != null) {
+				heapBytes -= entry.bytes.length;
+			}
+		}
+		synchronized (disk) {
+			diskEntry = disk.remove(key);
+			if (diskEntry != null) {
+				diskBytes -= diskEntry.size;
+			}
+		}
+		delete(diskEntry);
+	}
+
+	public void clear() {
+		final List<DiskEntry> diskEntries;
+		synchronized (heap) {
+			heap.clear();
+			heapBytes = 0;
+		}
+		synchronized (disk) {
+			diskEntries = new ArrayList<>(disk.values());
+			disk.clear();
+			diskBytes = 0;
+		}
+		for (final DiskEntry diskEntry : diskEntries) {
+			delete(diskEntry);
+		}
+	}
+
+	private byte[] lookup(final Key key) {
+		final long now = System.currentTimeMillis();
+		synchronized (heap) {
+			final Entry entry = heap.get(key);
+			if (entry != null) {
+				if (entry.expiresAt == 0 || entry.expiresAt > now) {
+					entry.hits++;
+					return entry.bytes;
+				}
+				heap.remove(key);
+				heapBytes -= entry.bytes.length;
+			}
+		}
+		if (diskDirectory == null) {
+			return null;
+		}
+		final DiskEntry diskEntry;
+		synchronized (disk) {
+			diskEntry = disk.remove(key);
+			if (diskEntry != null) {
+				diskBytes -= diskEntry.size;
+			}
+		}
+		if (diskEntry == null) {
+			return null;
+		}
+		try {
+			if (diskEntry.expiresAt != 0 && diskEntry.expiresAt <= now) {
+				return null;
+			}
+			final byte[] bytes = Files.readAllBytes(diskEntry.file);
+			spill(store(key, new Entry(bytes, diskEntry.expiresAt)));
+			return bytes;
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		finally {
+			delete(diskEntry);
+		}
+	}
+
+	private void put(final Key key, final byte[] bytes) {
+		final long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0;
+		spill(store(key, new Entry(bytes, expiresAt)));
+	}
+
+	/**
+	 * @return the entries evicted to make room
+	 */
+	private Map<Key, Entry> store(final Key key, final Entry entry) {
+		final Map<Key, Entry> evicted = new LinkedHashMap<>();
+		synchronized (heap) {
+			if (entry.bytes.length > maxHeapBytes) {
+				evicted.put(key, entry);
+				return evicted;
+			}
+			final Entry previous = heap.put(key, entry);
+			if (previous != null) {
+				heapBytes -= previous.bytes.length;
+			}
+			heapBytes += entry.bytes.length;
+			while (heapBytes > maxHeapBytes) {
+				final Map.Entry<Key, Entry> victim = findVictim(key);
+				heap.remove(victim.getKey());
+				heapBytes -= victim.getValue().bytes.length;
+				evicted.put(victim.getKey(), victim.getValue());
+				evictions.incrementAndGet();
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * LFU scans all entries, which is fine for the few hundred outputs a byte
+	 * budget allows. Ties go to the least recently used. The entry being
+	 * stored is never the victim, or under LFU a new output with no hits
+	 * would be evicted as soon as it is put.
+	 *
+	 * @param stored the key being stored; it fits the budget alone, so there
+	 *            is always another entry while the heap is over budget
+	 */
+	private Map.Entry<Key, Entry> findVictim(final Key stored) {
+		Map.Entry<Key, Entry> victim = null;
+		for (final Map.Entry<Key, Entry> candidate : heap.entrySet()) {
+			if (candidate.getKey().equals(stored)) {
+				continue;
+			}
+			if (victim == null) {
+				victim = candidate;
+				if (evictionPolicy != EvictionPolicy.LFU) {
+					break;
+				}
+			}
+			else if (candidate.getValue().hits < victim.getValue().hits) {
+				victim = candidate;
+			}
+		}
+		return victim;
+	}
+
+	/**
+	 * Move evicted entries to the disk tier, outside the heap lock.
+	 */
+	private void spill(final Map<Key, Entry> evicted) {
+		if (diskDirectory == null || evicted.isEmpty()) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		for (final Map.Entry<Key, Entry> mapEntry : evicted.entrySet()) {
+			final Entry entry = mapEntry.getValue();
+			if (entry.bytes.length > maxDiskBytes
+				|| entry.expiresAt != 0 && entry.expiresAt <= now) {
+				continue;
+			}
+			final Path file;
+			try {
+				Files.createDirectories(diskDirectory);
+				file = Files.createTempFile(diskDirectory, "report", ".cache");
+				Files.write(file, entry.bytes);
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+			final List<DiskEntry> removed = new ArrayList<>();
+			synchronized (disk) {
+				final DiskEntry previous = disk.put(mapEntry.getKey(),
+					new DiskEntry(file, entry.bytes.length, entry.expiresAt));
+				if (previous != null) {
+					diskBytes -= previous.size;
+					removed.add(previous);
+				}
+				diskBytes += entry.bytes.length;
+				final Iterator<DiskEntry> iterator = disk.values().iterator();
+				while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+					final DiskEntry victim = iterator.next();
+					iterator.remove();
+					diskBytes -= victim.size;
+					removed.add(victim);
+				}
+			}
+			for (final DiskEntry diskEntry : removed) {
+				delete(diskEntry);
+			}
+		}
+	}
+
+	private static void delete(final DiskEntry diskEntry) {
+		if (diskEntry == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(diskEntry.file);
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package com.innoventsolutions.report.css;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses the CSS declarations of the design's style strings. Only what the
+ * appliers need is supported: lengths, percentages, numbers, colors (#rgb,
+ * #rrggbb, rgb() and the CSS 2 color names), identifiers, quoted strings and
+ * lists of them. Anything else is kept as an identifier holding its text, so
+ * an applier reports it as unrecognized.
+ */
+public class CssDeclarationParser {
+	private static final Map<String, Float> UNITS = new HashMap<>();
+	static {
+		UNITS.put("pt", Float.valueOf(1.0F));
+		UNITS.put("px", Float.valueOf(96.0F / 72.26999F));
+		UNITS.put("em", Float.valueOf(10.00002F));
+		UNITS.put("ex", Float.valueOf(4.30554F));
+		UNITS.put("mm", Float.valueOf(2.84526F));
+		UNITS.put("cm", Float.valueOf(28.45274F));
+		UNITS.put("pc", Float.valueOf(12F));
+		UNITS.put("in", Float.valueOf(72.26999F));
+	}
+	private static final Map<String, Integer> COLORS = new HashMap<>();
+	static {
+		COLORS.put("black", Integer.valueOf(0x000000));
+		COLORS.put("silver", Integer.valueOf(0xC0C0C0));
+		COLORS.put("gray", Integer.valueOf(0x808080));
+		COLORS.put("grey", Integer.valueOf(0x808080));
+		COLORS.put("white", Integer.valueOf(0xFFFFFF));
+		COLORS.put("maroon", Integer.valueOf(0x800000));
+		COLORS.put("red", Integer.valueOf(0xFF0000));
+		COLORS.put("purple", Integer.valueOf(0x800080));
+		COLORS.put("fuchsia", Integer.valueOf(0xFF00FF));
+		COLORS.put("green", Integer.valueOf(0x008000));
+		COLORS.put("lime", Integer.valueOf(0x00FF00));
+		COLORS.put("olive", Integer.valueOf(0x808000));
+		COLORS.put("yellow", Integer.valueOf(0xFFFF00));
+		COLORS.put("navy", Integer.valueOf(0x000080));
+		COLORS.put("blue", Integer.valueOf(0x0000FF));
+		COLORS.put("teal", Integer.valueOf(0x008080));
+		COLORS.put("aqua", Integer.valueOf(0x00FFFF));
+		COLORS.put("orange", Integer.valueOf(0xFFA500));
+	}
+
+	private CssDeclarationParser() {
+	}
+
+	/**
+	 * Split a declaration block such as "color: red; padding: 2pt 4pt" into
+	 * property names (in lower case) and value texts. Semicolons in quotes or
+	 * parentheses do not end a declaration; comments and !important are
+	 * dropped.
+	 *
+	 * @param string may be null
+	 * @return the declarations in the order they were given
+	 */
+	public static Map<String, String> parseDeclarations(final String string) {
+		final Map<String, String> map = new LinkedHashMap<>();
+		if (string == null) {
+			return map;
+		}
+		final int length = string.length();
+		int depth = 0;
+		char quote = 0;
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i <= length; i++) {
+			final char c = i < length ? string.charAt(i) : ';';
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+				else if (c == '\\' && i + 1 < length) {
+					sb.append(c);
+					i++;
+					sb.append(string.charAt(i));
+					continue;
+				}
+			}
+			else if (c == '"' || c == '\'') {
+				quote = c;
+			}
+			else if (c == '(') {
+				depth++;
+			}
+			else if (c == ')' && depth > 0) {
+				depth--;
+			}
+			else if (c == '/' && i + 1 < length && string.charAt(i + 1) == '*') {
+				final int end = string.indexOf("*/", i + 2);
+				i = end < 0 ? length - 1 : end + 1;
+				continue;
+			}
+			else if (c == ';' && depth == 0) {
+				addDeclaration(sb, map);
+				sb.setLength(0);
+				continue;
+			}
+			sb.append(c);
+		}
+		if (quote != 0) {
+			System.out.println("Unterminated style: " + string);
+		}
+		return map;
+	}
+
+	private static void addDeclaration(final StringBuilder sb, final Map<String, String> map) {
+		final String part = sb.toString().trim();
+		if (part.isEmpty()) {
+			return;
+		}
+		final int colon = part.indexOf(':');
+		final String name = colon < 0 ? "" : part.substring(0, colon).trim();
+		if (name.isEmpty() || !isName(name)) {
+			System.out.println("Invalid style pattern: " + part);
+			return;
+		}
+		String value = part.substring(colon + 1).trim();
+		final int important = value.toLowerCase(Locale.ROOT).lastIndexOf("!important");
+		if (important >= 0 && value.substring(important + 10).trim().isEmpty()) {
+			value = value.substring(0, important).trim();
+		}
+		map.put(name.toLowerCase(Locale.ROOT), value);
+	}
+
+	private static boolean isName(final String name) {
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (!(Character.isLetterOrDigit(c) || c == '-' || c == '_')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse one property value, e.g. "1pt solid #c0c0c0".
+	 *
+	 * @param string
+	 * @return a single value or a {@link CssValue.Type#LIST}
+	 */
+	public static CssValue parseValue(final String string) {
+		final String text = string.trim();
+		final List<CssValue> values = new ArrayList<>(4);
+		final int length = text.length();
+		int pos = 0;
+		while (pos < length) {
+			final char c = text.charAt(pos);
+			if (Character.isWhitespace(c) || c == ',') {
+				pos++;
+			}
+			else if (c == '/') {
+				// separates font-size from line-height in the font shorthand
+				values.add(CssValue.ident("/"));
+				pos++;
+			}
+			else if (c == '"' || c == '\'') {
+				pos = parseString(text, pos, values);
+			}
+			else if (c == '#') {
+				pos = parseHexColor(text, pos, values);
+			}
+			else if (isNumberStart(text, pos)) {
+				pos = parseNumber(text, pos, values);
+			}
+			else {
+				pos = parseIdent(text, pos, values);
+			}
+		}
+		if (values.isEmpty()) {
+			return CssValue.ident(text);
+		}
+		if (values.size() == 1) {
+			return values.get(0);
+		}
+		return CssValue.list(text, values.toArray(new CssValue[values.size()]));
+	}
+
+	private static boolean isNumberStart(final String text, final int pos) {
+		final char c = text.charAt(pos);
+		if (c >= '0' && c <= '9') {
+			return true;
+		}
+		if ((c == '-' || c == '+' || c == '.') && pos + 1 < text.length()) {
+			final char next = text.charAt(pos + 1);
+			return next >= '0' && next <= '9' || next == '.' && c != '.';
+		}
+		return false;
+	}
+
+	private static int parseString(final String text, final int start, final List<CssValue> values) {
+		final char quote = text.charAt(start);
+		final StringBuilder sb = new StringBuilder();
+		int pos = start + 1;
+		while (pos < text.length() && text.charAt(pos) != quote) {
+			char c = text.charAt(pos);
+			if (c == '\\' && pos + 1 < text.length()) {
+				pos++;
+				c = text.charAt(pos);
+			}
+			sb.append(c);
+			pos++;
+		}
+		final int end = Math.min(pos + 1, text.length());
+		values.add(CssValue.string(text.substring(start, end), sb.toString()));
+		return end;
+	}
+
+	private static int parseHexColor(final String text, final int start, final List<CssValue> values) {
+		int pos = start + 1;
+		while (pos < text.length() && Character.digit(text.charAt(pos), 16) >= 0) {
+			pos++;
+		}
+		final String hex = text.substring(start + 1, pos);
+		final String cssText = text.substring(start, pos);
+		if (hex.length() == 6) {
+			values.add(CssValue.color(cssText, Integer.parseInt(hex, 16)));
+		}
+		else if (hex.length() == 3) {
+			int rgb = 0;
+			for (int i = 0; i < 3; i++) {
+				final int digit = Character.digit(hex.charAt(i), 16);
+				rgb = (rgb << 8) | (digit << 4) | digit;
+			}
+			values.add(CssValue.color(cssText, rgb));
+		}
+		else {
+			System.out.println("Invalid color: " + cssText);
+			values.add(CssValue.ident(cssText));
+		}
+		return pos;
+	}
+
+	private static int parseNumber(final String text, final int start, final List<CssValue> values) {
+		int pos = start;
+		if (text.charAt(pos) == '-' || text.charAt(pos) == '+') {
+			pos++;
+		}
+		while (pos < text.length()) {
+			final char c = text.charAt(pos);
+			if (!(c >= '0' && c <= '9' || c == '.')) {
+				break;
+			}
+			pos++;
+		}
+		final float number;
+		try {
+			number = Float.parseFloat(text.substring(start, pos));
+		}
+		catch (final NumberFormatException e) {
+			return parseIdent(text, start, values);
+		}
+		final int unitStart = pos;
+		if (pos < text.length() && text.charAt(pos) == '%') {
+			pos++;
+			values.add(CssValue.percentage(text.substring(start, pos), number));
+			return pos;
+		}
+		while (pos < text.length() && Character.isLetter(text.charAt(pos))) {
+			pos++;
+		}
+		final String cssText = text.substring(start, pos);
+		if (unitStart == pos) {
+			values.add(CssValue.number(cssText, number));
+			return pos;
+		}
+		final Float factor = UNITS.get(text.substring(unitStart, pos).toLowerCase(Locale.ROOT));
+		if (factor == null) {
+			System.out.println("Unrecognized unit: " + cssText);
+			values.add(CssValue.ident(cssText));
+		}
+		else {
+			values.add(CssValue.length(cssText, number * factor.floatValue()));
+		}
+		return pos;
+	}
+
+	private static int parseIdent(final String text, final int start, final List<CssValue> values) {
+		int pos = start;
+		while (pos < text.length()) {
+			final char c = text.charAt(pos);
+			if (Character.isWhitespace(c) || c == ',' || c == '/' || c == '(') {
+				break;
+			}
+			pos++;
+		}
+		if (pos == start) {
+			// a stray character
+			pos++;
+		}
+		if (pos < text.length() && text.charAt(pos) == '(') {
+			final int close = text.indexOf(')', pos);
+			final int end = close < 0 ? text.length() : close + 1;
+			final String name = text.substring(start, pos).toLowerCase(Locale.ROOT);
+			final String cssText = text.substring(start, end);
+			if (name.equals("rgb") || name.equals("rgba")) {
+				values.add(parseRgb(cssText, text.substring(pos + 1, close < 0 ? end : close)));
+			}
+			else {
+				values.add(CssValue.ident(cssText));
+			}
+			return end;
+		}
+		final String ident = text.substring(start, pos);
+		final Integer rgb = COLORS.get(ident.toLowerCase(Locale.ROOT));
+		values.add(rgb == null ? CssValue.ident(ident) : CssValue.color(ident, rgb.intValue()));
+		return pos;
+	}
+
+	private static CssValue parseRgb(final String cssText, final String arguments) {
+		final String[] parts = arguments.split("[,\\s/]+");
+		int rgb = 0;
+		int count = 0;
+		for (final String part : parts) {
+			if (part.isEmpty()) {
+				continue;
+			}
+			if (count == 3) {
+				// alpha is not supported
+				break;
+			}
+			int component;
+			try {
+				if (part.endsWith("%")) {
+					component = Math.round(
+						Float.parseFloat(part.substring(0, part.length() - 1)) * 255F / 100F);
+				}
+				else {
+					component = Math.round(Float.parseFloat(part));
+				}
+			}
+			catch (final NumberFormatException e) {
+				System.out.println("Invalid color: " + cssText);
+				return CssValue.ident(cssText);
+			}
+			rgb = (rgb << 8) | Math.max(0, Math.min(255, component));
+			count++;
+		}
+		if (count != 3) {
+			System.out.println("Invalid color: " + cssText);
+			return CssValue.ident(cssText);
+		}
+		return CssValue.color(cssText, rgb);
+	}
+}
@@ -0,0 +1,74 @@
+package com.innoventsolutions.report.css;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The longhand properties the appliers understand. Each one is a slot of a
+ * {@link StyleVector}; shorthands such as "padding" or "border" are expanded
+ * into these when a style map is parsed.
+ */
+public enum CssProperty {
+	PADDING_TOP("padding-top", "0"),
+	PADDING_RIGHT("padding-right", "0"),
+	PADDING_BOTTOM("padding-bottom", "0"),
+	PADDING_LEFT("padding-left", "0"),
+	BORDER_TOP_WIDTH("border-top-width", "2pt"),
+	BORDER_RIGHT_WIDTH("border-right-width", "2pt"),
+	BORDER_BOTTOM_WIDTH("border-bottom-width", "2pt"),
+	BORDER_LEFT_WIDTH("border-left-width", "2pt"),
+	BORDER_TOP_STYLE("border-top-style", "none"),
+	BORDER_RIGHT_STYLE("border-right-style", "none"),
+	BORDER_BOTTOM_STYLE("border-bottom-style", "none"),
+	BORDER_LEFT_STYLE("border-left-style", "none"),
+	BORDER_TOP_COLOR("border-top-color", "#000000"),
+	BORDER_RIGHT_COLOR("border-right-color", "#000000"),
+	BORDER_BOTTOM_COLOR("border-bottom-color", "#000000"),
+	BORDER_LEFT_COLOR("border-left-color", "#000000"),
+	FONT_STYLE("font-style", "normal"),
+	FONT_WEIGHT("font-weight", "normal"),
+	FONT_SIZE("font-size", "medium"),
+	FONT_FAMILY("font-family", "helvetica"),
+	COLOR("color", "#000000"),
+	TEXT_ALIGN("text-align", "left"),
+	/**
+	 * Has no default, an element keeps its own background unless one is
+	 * given
+	 */
+	BACKGROUND_COLOR("background-color", null);
+
+	private static final Map<String, CssProperty> BY_NAME = new HashMap<>();
+	static {
+		for (final CssProperty property : values()) {
+			BY_NAME.put(property.cssName, property);
+		}
+	}
+	private final String cssName;
+	private final CssValue defaultValue;
+
+	private CssProperty(final String cssName, final String defaultValue) {
+		this.cssName = cssName;
+		this.defaultValue = defaultValue == null ? null
+			: CssDeclarationParser.parseValue(defaultValue);
+	}
+
+	public String getCssName() {
+		return cssName;
+	}
+
+	/**
+	 * @return the shared default value, or null if there is none
+	 */
+	public CssValue getDefaultValue() {
+		return defaultValue;
+	}
+
+	/**
+	 * @param cssName a longhand property name in lower case
+	 * @return the property, or null if it is not a longhand the appliers
+	 *         understand
+	 */
+	public static CssProperty forName(final String cssName) {
+		return BY_NAME.get(cssName);
+	}
+}
@@ -0,0 +1,152 @@
+package com.innoventsolutions.report.css;
+
+/**
+ * A parsed CSS property value. Lengths are converted to points when they are
+ * parsed and colors are packed into an RGB int, so applying a style does no
+ * further parsing. Values are immutable and may be shared.
+ */
+public final class CssValue {
+	public enum Type {
+		/**
+		 * An absolute or font relative length, in points
+		 */
+		LENGTH,
+		PERCENTAGE,
+		/**
+		 * A number without a unit, treated as points where a length is expected
+		 */
+		NUMBER,
+		/**
+		 * A hex, rgb() or named color
+		 */
+		COLOR,
+		IDENT,
+		STRING,
+		/**
+		 * Several space or comma separated values
+		 */
+		LIST
+	}
+
+	private final Type type;
+	private final String cssText;
+	private final String stringValue;
+	private final float number;
+	private final int rgb;
+	private final CssValue[] values;
+
+	private CssValue(final Type type, final String cssText, final String stringValue,
+			final float number, final int rgb, final CssValue[] values) {
+		this.type = type;
+		this.cssText = cssText;
+		this.stringValue = stringValue;
+		this.number = number;
+		this.rgb = rgb;
+		this.values = values;
+	}
+
+	static CssValue length(final String cssText, final float points) {
+		return new CssValue(Type.LENGTH, cssText, cssText, points, 0, null);
+	}
+
+	static CssValue percentage(final String cssText, final float percent) {
+		return new CssValue(Type.PERCENTAGE, cssText, cssText, percent, 0, null);
+	}
+
+	static CssValue number(final String cssText, final float number) {
+		return new CssValue(Type.NUMBER, cssText, cssText, number, 0, null);
+	}
+
+	static CssValue color(final String cssText, final int rgb) {
+		return new CssValue(Type.COLOR, cssText, cssText, 0F, rgb & 0xFFFFFF, null);
+	}
+
+	static CssValue ident(final String cssText) {
+		return new CssValue(Type.IDENT, cssText, cssText, 0F, 0, null);
+	}
+
+	static CssValue string(final String cssText, final String value) {
+		return new CssValue(Type.STRING, cssText, value, 0F, 0, null);
+	}
+
+	static CssValue list(final String cssText, final CssValue[] values) {
+		return new CssValue(Type.LIST, cssText, cssText, 0F, 0, values);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @param parentLength the length percentages are relative to
+	 * @return the value in points, or 0 if this is not a length
+	 */
+	public float toPoints(final float parentLength) {
+		switch (type) {
+		case LENGTH:
+		case NUMBER:
+			return number;
+		case PERCENTAGE:
+			return parentLength * number / 100.0F;
+		default:
+			System.out.println("expecting length: " + cssText);
+			return 0;
+		}
+	}
+
+	/**
+	 * @return true for lengths, percentages and numbers
+	 */
+	public boolean isLength() {
+		return type == Type.LENGTH || type == Type.PERCENTAGE || type == Type.NUMBER;
+	}
+
+	/**
+	 * @return the color as 0xRRGGBB, black if this is not a color
+	 */
+	public int getRgb() {
+		return rgb;
+	}
+
+	public int getRed() {
+		return rgb >>> 16;
+	}
+
+	public int getGreen() {
+		return (rgb >>> 8) & 0xFF;
+	}
+
+	public int getBlue() {
+		return rgb & 0xFF;
+	}
+
+	/**
+	 * @return the identifier, the string without quotes or the CSS text of
+	 *         any other value
+	 */
+	public String getStringValue() {
+		return stringValue;
+	}
+
+	/**
+	 * @return true if this is the given identifier, ignoring case
+	 */
+	public boolean isIdent(final String ident) {
+		return (type == Type.IDENT || type == Type.COLOR) && cssText.equalsIgnoreCase(ident);
+	}
+
+	/**
+	 * @return the items of a list, or this value alone
+	 */
+	public CssValue[] getValues() {
+		if (type == Type.LIST) {
+			return values.clone();
+		}
+		return new CssValue[] { this };
+	}
+
+	@Override
+	public String toString() {
+		return cssText;
+	}
+}
@@ -1,9 +1,5 @@
 package com.innoventsolutions.report.css;
 
-import org.w3c.dom.DOMException;
-import org.w3c.dom.css.CSSPrimitiveValue;
-import org.w3c.dom.css.RGBColor;
-
 import com.innoventsolutions.report.css.CSS.Side;
 import com.itextpdf.text.BaseColor;
 import com.itextpdf.text.Chunk;
@@ -14,7 +10,6 @@ import com.itextpdf.text.Phrase;
 import com.itextpdf.text.Rectangle;
 import com.itextpdf.text.pdf.PdfDiv;
 import com.itextpdf.text.pdf.PdfPCell;
-import com.steadystate.css.dom.CSSValueImpl;
 
 /**
  * Apply CSS styles to an iText PDF element.
@@ -29,8 +24,8 @@ public class PdfApplier implements CSS.Applier {
 	}
 
 	@Override
-	public void applyTextAlign(final CSSValueImpl cssValueImpl) {
-		final String styleString = cssValueImpl == null ? "left" : cssValueImpl.getStringValue(); // TODO left if ltr, right if rtl
+	public void applyTextAlign(final CssValue cssValue) {
+		final String styleString = cssValue == null ? "left" : cssValue.getStringValue(); // TODO left if ltr, right if rtl
 		int alignment;
 		if ("left".equalsIgnoreCase(styleString)) {
 			alignment = Element.ALIGN_LEFT;
@@ -50,79 +45,49 @@ public class PdfApplier implements CSS.Applier {
 			alignment = PdfPCell.ALIGN_LEFT;
 		}
 		if (element instanceof PdfPCell) {
-			System.out.println("Applying text-align: " + cssValueImpl + " to cell " + element);
 			final PdfPCell pdfCell = (PdfPCell) element;
 			pdfCell.setHorizontalAlignment(alignment);
 		}
 		else if (element instanceof Paragraph) {
-			System.out.println("Applying text-align: " + cssValueImpl + " to paragraph " + element);
 			final Paragraph paragraph = (Paragraph) element;
 			paragraph.setAlignment(alignment);
 		}
 	}
 
-	protected static BaseColor getColor(final CSSValueImpl cssValue) {
-		RGBColor rgbColor;
-		try {
-			rgbColor = cssValue.getRGBColorValue();
-		}
-		catch (final DOMException e) {
-			System.out.println("DOM Exception");
-			System.err.println("DOM Exception " + e + " on " + cssValue);
-			Thread.dumpStack();
-			return BaseColor.BLACK;
-		}
-		final int red = (int) CSS.getColor(rgbColor.getRed());
-		final int green = (int) CSS.getColor(rgbColor.getGreen());
-		final int blue = (int) CSS.getColor(rgbColor.getBlue());
-		try {
-			return new BaseColor(red, green, blue);
-		}
-		catch (final Exception e) {
+	protected static BaseColor getColor(final CssValue cssValue) {
+		if (cssValue.getType() != CssValue.Type.COLOR) {
 			System.out.println("Invalid color");
 			System.err.println("Invalid color: " + cssValue);
-			Thread.dumpStack();
 			return BaseColor.BLACK;
 		}
+		return new BaseColor(cssValue.getRed(), cssValue.getGreen(), cssValue.getBlue());
 	}
 
 	@Override
-	public void applyPadding(final CSS.Side side, final CSSValueImpl cssValueImpl) {
+	public void applyPadding(final CSS.Side side, final CssValue cssValue) {
 		if (element instanceof PdfPCell) {
-			System.out.println(
-				"Applying " + side + " padding: " + cssValueImpl + " to cell " + element);
 			final PdfPCell cell = (PdfPCell) element;
 			switch (side) {
 			case TOP:
-				cell.setPaddingTop(CSS.convertLength(cssValueImpl, 0F));
+				cell.setPaddingTop(cssValue.toPoints(0F));
 				break;
 			case RIGHT:
-				cell.setPaddingRight(CSS.convertLength(cssValueImpl, 0F));
+				cell.setPaddingRight(cssValue.toPoints(0F));
 				break;
 			case BOTTOM:
-				cell.setPaddingBottom(CSS.convertLength(cssValueImpl, 0F));
+				cell.setPaddingBottom(cssValue.toPoints(0F));
 				break;
 			case LEFT:
-				cell.setPaddingLeft(CSS.convertLength(cssValueImpl, 0F));
+				cell.setPaddingLeft(cssValue.toPoints(0F));
 				break;
 			}
 		}
 	}
 
 	@Override
-	public void applyBorder(final Side side, final CSSValueImpl cssValueImpl) {
-		final CSS.BorderInfo borderInfo = new CSS.BorderInfo(cssValueImpl);
-		applyBorderWidth(side, borderInfo.width);
-		applyBorderStyle(side, borderInfo.style);
-		applyBorderColor(side, borderInfo.color);
-	}
-
-	@Override
-	public void applyBorderWidth(final Side side, final CSSValueImpl cssValueImpl) {
-		final float specifiedValue = cssValueImpl == null ? 2 : CSS.convertLength(cssValueImpl, 0F); // TODO
+	public void applyBorderWidth(final Side side, final CssValue cssValue) {
+		final float specifiedValue = cssValue == null ? 2 : cssValue.toPoints(0F); // TODO
 		if (element instanceof Rectangle) {
-			System.out.println(
-				"Applying " + side + " border-width: " + cssValueImpl + " to " + element);
 			final Rectangle rectangle = (Rectangle) element;
 			switch (side) {
 			case TOP:
@@ -142,20 +107,18 @@ public class PdfApplier implements CSS.Applier {
 	}
 
 	@Override
-	public void applyBorderStyle(final Side side, final CSSValueImpl cssValueImpl) {
-		final String style = cssValueImpl == null ? "none" : cssValueImpl.getStringValue();
+	public void applyBorderStyle(final Side side, final CssValue cssValue) {
+		final String style = cssValue == null ? "none" : cssValue.getStringValue();
 		if (!"none".equalsIgnoreCase(style)) {
 			System.out.println("ignoring border style " + style);
 		}
 	}
 
 	@Override
-	public void applyBorderColor(final Side side, final CSSValueImpl cssValueImpl) {
-		final BaseColor specifiedValue = cssValueImpl == null ? BaseColor.BLACK
-			: getColor(cssValueImpl);
+	public void applyBorderColor(final Side side, final CssValue cssValue) {
+		final BaseColor specifiedValue = cssValue == null ? BaseColor.BLACK
+			: getColor(cssValue);
 		if (element instanceof Rectangle) {
-			System.out.println(
-				"Applying " + side + " border-color: " + cssValueImpl + " to " + element);
 			final Rectangle rectangle = (Rectangle) element;
 			switch (side) {
 			case TOP:
@@ -175,16 +138,14 @@ public class PdfApplier implements CSS.Applier {
 	}
 
 	@Override
-	public void applyColor(final CSSValueImpl cssValueImpl) {
+	public void applyColor(final CssValue cssValue) {
 		if (element instanceof Phrase) {
-			System.out.println("Applying color: " + cssValueImpl + " to phrase " + element);
 			final Phrase phrase = (Phrase) element;
-			phrase.getFont().setColor(getColor(cssValueImpl));
+			phrase.getFont().setColor(getColor(cssValue));
 		}
 		else if (element instanceof Chunk) {
-			System.out.println("Applying color: " + cssValueImpl + " to chunk " + element);
 			final Chunk chunk = (Chunk) element;
-			chunk.getFont().setColor(getColor(cssValueImpl));
+			chunk.getFont().setColor(getColor(cssValue));
 		}
 	}
 
@@ -206,15 +167,13 @@ public class PdfApplier implements CSS.Applier {
 	}
 
 	@Override
-	public void applyFontStyle(final CSSValueImpl cssValueImpl) {
-		final String styleString = cssValueImpl == null ? "normal" : cssValueImpl.getStringValue();
+	public void applyFontStyle(final CssValue cssValue) {
+		final String styleString = cssValue == null ? "normal" : cssValue.getStringValue();
 		if (element instanceof Phrase) {
-			System.out.println("Applying font-style: " + cssValueImpl + " to phrase " + element);
 			final Phrase phrase = (Phrase) element;
 			applyFontStyle(phrase.getFont(), styleString);
 		}
 		else if (element instanceof Chunk) {
-			System.out.println("Applying font-style: " + cssValueImpl + " to chunk " + element);
 			final Chunk chunk = (Chunk) element;
 			applyFontStyle(chunk.getFont(), styleString);
 		}
@@ -238,105 +197,59 @@ public class PdfApplier implements CSS.Applier {
 	}
 
 	@Override
-	public void applyFontWeight(final CSSValueImpl cssValueImpl) {
-		final String weightString = cssValueImpl == null ? "normal" : cssValueImpl.getStringValue();
+	public void applyFontWeight(final CssValue cssValue) {
+		final String weightString = cssValue == null ? "normal" : cssValue.getStringValue();
 		if (element instanceof Phrase) {
-			System.out.println("Applying font-weight: " + cssValueImpl + " to phrase " + element);
 			final Phrase phrase = (Phrase) element;
 			applyFontWeight(phrase.getFont(), weightString);
 		}
 		else if (element instanceof Chunk) {
-			System.out.println("Applying font-weight: " + cssValueImpl + " to chunk " + element);
 			final Chunk chunk = (Chunk) element;
 			applyFontWeight(chunk.getFont(), weightString);
 		}
 	}
 
 	@Override
-	public void applyFontSize(final CSSValueImpl cssValueImpl) {
-		final float size;
-		if (cssValueImpl.getPrimitiveType() == CSSPrimitiveValue.CSS_IDENT) {
-			final String sizeString = cssValueImpl.getStringValue();
-			if ("xx-small".equalsIgnoreCase(sizeString)) {
-				size = 6;
-			}
-			else if ("x-small".equalsIgnoreCase(sizeString)) {
-				size = 8;
-			}
-			else if ("small".equalsIgnoreCase(sizeString)) {
-				size = 10;
-			}
-			else if ("medium".equalsIgnoreCase(sizeString)) {
-				size = 12;
-			}
-			else if ("large".equalsIgnoreCase(sizeString)) {
-				size = 14;
-			}
-			else if ("x-large".equalsIgnoreCase(sizeString)) {
-				size = 16;
-			}
-			else if ("xx-large".equalsIgnoreCase(sizeString)) {
-				size = 18;
-			}
-			else if ("smaller".equalsIgnoreCase(sizeString)) {
-				size = 10;
-			}
-			else if ("larger".equalsIgnoreCase(sizeString)) {
-				size = 14;
-			}
-			else {
-				System.out.println("Unrecognize font size name: " + sizeString);
-				size = 10;
-			}
-		}
-		else {
-			size = CSS.convertLength(cssValueImpl, 0F); // TODO
-		}
+	public void applyFontSize(final CssValue cssValue) {
+		final float size = CSS.getFontSize(cssValue);
 		if (element instanceof Phrase) {
-			System.out.println("Applying font-size: " + cssValueImpl + " to chunk " + element);
 			final Phrase phrase = (Phrase) element;
 			phrase.getFont().setSize(size);
 		}
 		else if (element instanceof Chunk) {
-			System.out.println("Applying font-size: " + cssValueImpl + " to chunk " + element);
 			final Chunk chunk = (Chunk) element;
 			chunk.getFont().setSize(size);
 		}
 	}
 
 	@Override
-	public void applyFontFamily(final CSSValueImpl cssValueImpl) {
-		final String family = cssValueImpl == null ? "helvetica" : cssValueImpl.getStringValue();
+	public void applyFontFamily(final CssValue cssValue) {
+		// the first of a list of families
+		final String family = cssValue == null ? "helvetica"
+			: cssValue.getValues()[0].getStringValue();
 		if (element instanceof Phrase) {
-			System.out.println("Applying font-family: " + cssValueImpl + " to chunk " + element);
 			final Phrase phrase = (Phrase) element;
 			phrase.getFont().setFamily(family);
 		}
 		else if (element instanceof Chunk) {
-			System.out.println("Applying font-family: " + cssValueImpl + " to chunk " + element);
 			final Chunk chunk = (Chunk) element;
 			chunk.getFont().setFamily(family);
 		}
 	}
 
 	@Override
-	public void applyBackgroundColor(final CSSValueImpl cssValueImpl) {
+	public void applyBackgroundColor(final CssValue cssValue) {
 		if (element instanceof Chunk) {
-			System.out.println(
-				"Applying background-color: " + cssValueImpl + " to chunk " + element);
 			final Chunk chunk = (Chunk) element;
-			chunk.setBackground(getColor(cssValueImpl));
+			chunk.setBackground(getColor(cssValue));
 		}
 		else if (element instanceof Rectangle) {
-			System.out.println(
-				"Applying background-color: " + cssValueImpl + " to rectangle " + element);
 			final Rectangle rectangle = (Rectangle) element;
-			rectangle.setBackgroundColor(getColor(cssValueImpl));
+			rectangle.setBackgroundColor(getColor(cssValue));
 		}
 		else if (element instanceof PdfDiv) {
-			System.out.println("Applying background-color: " + cssValueImpl + " to div " + element);
 			final PdfDiv div = (PdfDiv) element;
-			div.setBackgroundColor(getColor(cssValueImpl));
+			div.setBackgroundColor(getColor(cssValue));
 		}
 	}
 }
@@ -0,0 +1,54 @@
+package com.innoventsolutions.report.css;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Resolves the styles of an emitter's elements, remembering each style map
+ * it has parsed and each cascade it has merged. A design has few distinct
+ * style maps, so after the first rows every lookup is a hit and resolving a
+ * style allocates nothing.
+ * <p>
+ * Style maps are identified by identity, so only the static styles of the
+ * design should be passed, not maps built per row. A design that builds its
+ * rows on every call still works, the caches are just dropped when they grow
+ * past {@link #MAX_STYLE_MAPS}. Not thread safe; an emitter creates one per
+ * run.
+ */
+public final class StyleResolver {
+	public static final int MAX_STYLE_MAPS = 1024;
+	private final Map<Map<String, String>, StyleVector> declared = new IdentityHashMap<>();
+	private final Map<StyleVector, Map<StyleVector, StyleVector>> cascaded = new IdentityHashMap<>();
+
+	/**
+	 * @param styles the declared styles of an element
+	 * @param parent the resolved styles of its container, or
+	 *            {@link StyleVector#DEFAULTS}
+	 * @return the resolved styles of the element
+	 */
+	public StyleVector resolve(final Map<String, String> styles, final StyleVector parent) {
+		if (styles == null || styles.isEmpty()) {
+			return parent;
+		}
+		StyleVector vector = declared.get(styles);
+		if (vector == null) {
+			if (declared.size() >= MAX_STYLE_MAPS) {
+				declared.clear();
+				cascaded.clear();
+			}
+			vector = StyleVector.parse(styles);
+			declared.put(styles, vector);
+		}
+		Map<StyleVector, StyleVector> byParent = cascaded.get(vector);
+		if (byParent == null) {
+			byParent = new IdentityHashMap<>();
+			cascaded.put(vector, byParent);
+		}
+		StyleVector resolved = byParent.get(parent);
+		if (resolved == null) {
+			resolved = vector.cascade(parent);
+			byParent.put(parent, resolved);
+		}
+		return resolved;
+	}
+}
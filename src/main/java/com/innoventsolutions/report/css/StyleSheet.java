@@ -0,0 +1,372 @@
+package com.innoventsolutions.report.css;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Style rules for a whole table, so a design can give its components classes
+ * instead of repeating the same inline styles on each of them.
+ *
+ * <pre>
+ * .amount { text-align: right }
+ * label:header { font-weight: bold; color: blue }
+ * integer:footer:level(1) { border-top: 1pt solid black }
+ * cell:column(2), cell:column(3) { text-align: right }
+ * </pre>
+ *
+ * A selector is a list of simple selectors with no combinators: an optional
+ * element type (table, column, row, cell, label, text, integer, float, date
+ * or *), any number of .class names and any of these pseudo-classes:
+ * <ul>
+ * <li>:header, :footer and :detail - the kind of rows the element is in</li>
+ * <li>:level(n) - the level of those rows: 0 for detail rows, 1 for the
+ * innermost group up to one more than the number of groups for the table
+ * header and footer</li>
+ * <li>:column(n) - the design column of a column, or of the cell a component
+ * is in, counting from 1 and including hidden columns</li>
+ * </ul>
+ * Rules are matched against a design once, by {@link StyledTable}. The
+ * declarations of all the rules that match an element are combined in order
+ * of specificity and then of appearance, and the element's own inline styles
+ * override them. As with inline styles, the result is inherited through the
+ * table, column, row, cell and component chain by the emitters that cascade.
+ */
+public final class StyleSheet {
+	/**
+	 * The kind of rows an element is in, for :header, :footer and :detail
+	 */
+	public enum Section {
+		HEADER, FOOTER, DETAIL
+	}
+
+	private static final class Selector {
+		String type = null;
+		final List<String> classes = new ArrayList<>();
+		Section section = null;
+		int level = -1;
+		int column = -1;
+
+		int getSpecificity() {
+			int count = classes.size();
+			if (section != null) {
+				count++;
+			}
+			if (level >= 0) {
+				count++;
+			}
+			if (column >= 0) {
+				count++;
+			}
+			return (count << 8) | (type == null ? 0 : 1);
+		}
+
+		boolean isClassOnly() {
+			return type == null && classes.size() == 1 && section == null && level < 0
+				&& column < 0;
+		}
+
+		boolean matches(final String type, final String[] classes, final Section section,
+				final int level, final int column) {
+			if (this.type != null && !this.type.equals(type)) {
+				return false;
+			}
+			if (this.section != null && this.section != section) {
+				return false;
+			}
+			if (this.level >= 0 && this.level != level) {
+				return false;
+			}
+			if (this.column >= 0 && this.column != column) {
+				return false;
+			}
+			for (final String name : this.classes) {
+				boolean found = false;
+				for (final String elementClass : classes) {
+					if (elementClass.equals(name)) {
+						found = true;
+						break;
+					}
+				}
+				if (!found) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class Rule {
+		final Selector selector;
+		final Map<String, String> declarations;
+		final int specificity;
+
+		Rule(final Selector selector, final Map<String, String> declarations) {
+			this.selector = selector;
+			this.declarations = declarations;
+			specificity = selector.getSpecificity();
+		}
+	}
+
+	private static final String[] NO_CLASSES = new String[0];
+	/**
+	 * In order of specificity, then of appearance
+	 */
+	private final List<Rule> rules;
+	private final Map<String, Map<String, String>> classRules;
+
+	private StyleSheet(final List<Rule> rules) {
+		final List<Rule> sorted = new ArrayList<>(rules);
+		// a stable sort keeps rules of equal specificity in order
+		sorted.sort((a, b) -> Integer.compare(a.specificity, b.specificity));
+		this.rules = sorted;
+		final Map<String, Map<String, String>> classRules = new LinkedHashMap<>();
+		for (final Rule rule : rules) {
+			if (rule.selector.isClassOnly()) {
+				final String name = rule.selector.classes.get(0);
+				Map<String, String> declarations = classRules.get(name);
+				if (declarations == null) {
+					declarations = new LinkedHashMap<>();
+					classRules.put(name, declarations);
+				}
+				putLast(declarations, rule.declarations);
+			}
+		}
+		this.classRules = Collections.unmodifiableMap(classRules);
+	}
+
+	/**
+	 * Parse the rules of a style sheet. Invalid selectors are reported and
+	 * their rules skipped.
+	 *
+	 * @param text
+	 * @return the style sheet
+	 */
+	public static StyleSheet parse(final String text) {
+		final List<Rule> rules = new ArrayList<>();
+		final String css = stripComments(text);
+		int pos = 0;
+		while (true) {
+			final int open = css.indexOf('{', pos);
+			if (open < 0) {
+				if (!css.substring(pos).trim().isEmpty()) {
+					System.out.println("Ignoring style sheet text: " + css.substring(pos).trim());
+				}
+				break;
+			}
+			final int close = css.indexOf('}', open);
+			final int end = close < 0 ? css.length() : close;
+			final String selectorText = css.substring(pos, open).trim();
+			final Map<String, String> declarations = CssDeclarationParser.parseDeclarations(
+				css.substring(open + 1, end));
+			for (final String part : selectorText.split(",")) {
+				final Selector selector = parseSelector(part.trim());
+				if (selector != null) {
+					rules.add(new Rule(selector, Collections.unmodifiableMap(declarations)));
+				}
+			}
+			if (close < 0) {
+				break;
+			}
+			pos = close + 1;
+		}
+		return new StyleSheet(rules);
+	}
+
+	private static String stripComments(final String text) {
+		final StringBuilder sb = new StringBuilder(text.length());
+		int pos = 0;
+		while (pos < text.length()) {
+			final int start = text.indexOf("/*", pos);
+			if (start < 0) {
+				sb.append(text, pos, text.length());
+				break;
+			}
+			sb.append(text, pos, start);
+			final int end = text.indexOf("*/", start + 2);
+			pos = end < 0 ? text.length() : end + 2;
+		}
+		return sb.toString();
+	}
+
+	private static Selector parseSelector(final String text) {
+		final Selector selector = new Selector();
+		final int length = text.length();
+		if (length == 0) {
+			System.out.println("Invalid selector: empty");
+			return null;
+		}
+		int pos = 0;
+		if (text.charAt(0) == '*') {
+			pos = 1;
+		}
+		else if (Character.isLetter(text.charAt(0))) {
+			pos = nameEnd(text, 0);
+			selector.type = text.substring(0, pos).toLowerCase(Locale.ROOT);
+			if (!StyledTable.isElementType(selector.type)) {
+				System.out.println("Invalid selector: unknown element " + text);
+				return null;
+			}
+		}
+		while (pos < length) {
+			final char c = text.charAt(pos);
+			final int nameStart = pos + 1;
+			final int nameEnd = nameEnd(text, nameStart);
+			if (nameEnd == nameStart) {
+				System.out.println("Invalid selector: " + text);
+				return null;
+			}
+			final String name = text.substring(nameStart, nameEnd);
+			pos = nameEnd;
+			if (c == '.') {
+				selector.classes.add(name);
+				continue;
+			}
+			if (c != ':') {
+				System.out.println("Invalid selector: " + text);
+				return null;
+			}
+			switch (name.toLowerCase(Locale.ROOT)) {
+			case "header":
+				selector.section = Section.HEADER;
+				break;
+			case "footer":
+				selector.section = Section.FOOTER;
+				break;
+			case "detail":
+				selector.section = Section.DETAIL;
+				break;
+			case "level":
+			case "column": {
+				final int close = text.indexOf(')', pos);
+				int argument = -1;
+				if (pos < length && text.charAt(pos) == '(' && close > pos) {
+					try {
+						argument = Integer.parseInt(text.substring(pos + 1, close).trim());
+					}
+					catch (final NumberFormatException e) {
+						argument = -1;
+					}
+				}
+				if (argument < 0) {
+					System.out.println("Invalid selector: " + text);
+					return null;
+				}
+				if (name.equalsIgnoreCase("level")) {
+					selector.level = argument;
+				}
+				else {
+					selector.column = argument;
+				}
+				pos = close + 1;
+				break;
+			}
+			default:
+				System.out.println("Invalid selector: unknown pseudo-class " + text);
+				return null;
+			}
+		}
+		return selector;
+	}
+
+	private static int nameEnd(final String text, final int start) {
+		int pos = start;
+		while (pos < text.length()) {
+			final char c = text.charAt(pos);
+			if (!(Character.isLetterOrDigit(c) || c == '-' || c == '_')) {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * @param styleClass space separated class names, may be null
+	 * @return the class names
+	 */
+	static String[] splitClasses(final String styleClass) {
+		if (styleClass == null) {
+			return NO_CLASSES;
+		}
+		final String trimmed = styleClass.trim();
+		return trimmed.isEmpty() ? NO_CLASSES : trimmed.split("\\s+");
+	}
+
+	/**
+	 * Combine the rules that match an element with its inline styles.
+	 *
+	 * @param type the element type, as used in selectors
+	 * @param classes the element's class names
+	 * @param section null for the table and columns
+	 * @param level -1 for the table and columns
+	 * @param column from 1, 0 for the table and rows
+	 * @param inline the element's own styles
+	 * @return the inline styles themselves if no rule matches
+	 */
+	Map<String, String> resolve(final String type, final String[] classes, final Section section,
+			final int level, final int column, final Map<String, String> inline) {
+		Map<String, String> styles = null;
+		for (final Rule rule : rules) {
+			if (rule.selector.matches(type, classes, section, level, column)) {
+				if (styles == null) {
+					styles = new LinkedHashMap<>();
+				}
+				putLast(styles, rule.declarations);
+			}
+		}
+		if (styles == null) {
+			return inline;
+		}
+		putLast(styles, inline);
+		return Collections.unmodifiableMap(styles);
+	}
+
+	/**
+	 * Add declarations after the ones already there, so a shorthand given
+	 * later overrides its longhands given earlier, as it would in CSS text.
+	 */
+	private static void putLast(final Map<String, String> styles,
+			final Map<String, String> declarations) {
+		for (final Map.Entry<String, String> entry : declarations.entrySet()) {
+			styles.remove(entry.getKey());
+			styles.put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * @return the declarations of the rules whose selector is a single class,
+	 *         by class name; these can be written to an HTML style block as
+	 *         they are
+	 */
+	public Map<String, Map<String, String>> getClassRules() {
+		return classRules;
+	}
+
+	/**
+	 * @param styleClass space separated class names, may be null
+	 * @return what the {@link #getClassRules()} give an element with these
+	 *         classes, in the order an HTML page would apply them
+	 */
+	public Map<String, String> getClassStyles(final String styleClass) {
+		final String[] classes = splitClasses(styleClass);
+		if (classes.length == 0) {
+			return Collections.emptyMap();
+		}
+		final Map<String, String> styles = new LinkedHashMap<>();
+		for (final Rule rule : rules) {
+			if (rule.selector.isClassOnly()) {
+				for (final String name : classes) {
+					if (name.equals(rule.selector.classes.get(0))) {
+						putLast(styles, rule.declarations);
+						break;
+					}
+				}
+			}
+		}
+		return styles;
+	}
+}
@@ -0,0 +1,304 @@
+package com.innoventsolutions.report.css;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.innoventsolutions.report.css.CSS.Side;
+
+/**
+ * The styles of an element as one slot per {@link CssProperty}. Shorthands
+ * are expanded into their longhand slots when a style map is parsed, so the
+ * cascade is a merge of two arrays and applying a vector is a switch over its
+ * slots. An empty slot is inherited from the parent.
+ * <p>
+ * Vectors are immutable and may be shared between threads.
+ */
+public final class StyleVector {
+	private static final CssProperty[] PROPERTIES = CssProperty.values();
+	/**
+	 * The root of every cascade: the default value of each property
+	 */
+	public static final StyleVector DEFAULTS;
+	static {
+		final CssValue[] values = new CssValue[PROPERTIES.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = PROPERTIES[i].getDefaultValue();
+		}
+		DEFAULTS = new StyleVector(values);
+	}
+	private static final Map<String, CssProperty[]> SHORTHANDS = new HashMap<>();
+	static {
+		SHORTHANDS.put("padding", new CssProperty[] { CssProperty.PADDING_TOP,
+			CssProperty.PADDING_RIGHT, CssProperty.PADDING_BOTTOM, CssProperty.PADDING_LEFT });
+		SHORTHANDS.put("border-width",
+			new CssProperty[] { CssProperty.BORDER_TOP_WIDTH, CssProperty.BORDER_RIGHT_WIDTH,
+				CssProperty.BORDER_BOTTOM_WIDTH, CssProperty.BORDER_LEFT_WIDTH });
+		SHORTHANDS.put("border-style",
+			new CssProperty[] { CssProperty.BORDER_TOP_STYLE, CssProperty.BORDER_RIGHT_STYLE,
+				CssProperty.BORDER_BOTTOM_STYLE, CssProperty.BORDER_LEFT_STYLE });
+		SHORTHANDS.put("border-color",
+			new CssProperty[] { CssProperty.BORDER_TOP_COLOR, CssProperty.BORDER_RIGHT_COLOR,
+				CssProperty.BORDER_BOTTOM_COLOR, CssProperty.BORDER_LEFT_COLOR });
+		SHORTHANDS.put("border-top", new CssProperty[] { CssProperty.BORDER_TOP_WIDTH,
+			CssProperty.BORDER_TOP_STYLE, CssProperty.BORDER_TOP_COLOR });
+		SHORTHANDS.put("border-right", new CssProperty[] { CssProperty.BORDER_RIGHT_WIDTH,
+			CssProperty.BORDER_RIGHT_STYLE, CssProperty.BORDER_RIGHT_COLOR });
+		SHORTHANDS.put("border-bottom", new CssProperty[] { CssProperty.BORDER_BOTTOM_WIDTH,
+			CssProperty.BORDER_BOTTOM_STYLE, CssProperty.BORDER_BOTTOM_COLOR });
+		SHORTHANDS.put("border-left", new CssProperty[] { CssProperty.BORDER_LEFT_WIDTH,
+			CssProperty.BORDER_LEFT_STYLE, CssProperty.BORDER_LEFT_COLOR });
+		// the widths, then the styles, then the colors of all four sides
+		final CssProperty[] border = new CssProperty[12];
+		System.arraycopy(SHORTHANDS.get("border-width"), 0, border, 0, 4);
+		System.arraycopy(SHORTHANDS.get("border-style"), 0, border, 4, 4);
+		System.arraycopy(SHORTHANDS.get("border-color"), 0, border, 8, 4);
+		SHORTHANDS.put("border", border);
+		SHORTHANDS.put("font", new CssProperty[] { CssProperty.FONT_STYLE,
+			CssProperty.FONT_WEIGHT, CssProperty.FONT_SIZE, CssProperty.FONT_FAMILY });
+	}
+	private final CssValue[] values;
+
+	private StyleVector(final CssValue[] values) {
+		this.values = values;
+	}
+
+	/**
+	 * Parse the declared styles of one element, without cascading.
+	 *
+	 * @param styles property names and value texts, as returned by
+	 *            {@link CssDeclarationParser#parseDeclarations(String)}
+	 * @return the declared values, with empty slots for the rest
+	 */
+	public static StyleVector parse(final Map<String, String> styles) {
+		final CssValue[] values = new CssValue[PROPERTIES.length];
+		if (styles != null) {
+			for (final Map.Entry<String, String> entry : styles.entrySet()) {
+				final String name = entry.getKey().toLowerCase();
+				final CssValue cssValue = CssDeclarationParser.parseValue(entry.getValue());
+				final boolean inherit = cssValue.isIdent("inherit");
+				final CssProperty property = CssProperty.forName(name);
+				if (property != null) {
+					values[property.ordinal()] = inherit ? null : cssValue;
+					continue;
+				}
+				final CssProperty[] targets = SHORTHANDS.get(name);
+				if (targets == null) {
+					System.out.println("Cannot handle " + name + " = " + cssValue);
+				}
+				else if (inherit) {
+					for (final CssProperty target : targets) {
+						values[target.ordinal()] = null;
+					}
+				}
+				else {
+					expand(name, cssValue, targets, values);
+				}
+			}
+		}
+		return new StyleVector(values);
+	}
+
+	private static void expand(final String name, final CssValue cssValue,
+			final CssProperty[] targets, final CssValue[] values) {
+		if (name.equals("font")) {
+			final CSS.FontInfo fontInfo = new CSS.FontInfo(cssValue);
+			values[CssProperty.FONT_STYLE.ordinal()] = fontInfo.style;
+			values[CssProperty.FONT_WEIGHT.ordinal()] = fontInfo.weight;
+			values[CssProperty.FONT_SIZE.ordinal()] = fontInfo.size;
+			values[CssProperty.FONT_FAMILY.ordinal()] = fontInfo.family;
+		}
+		else if (targets.length == 12 || targets.length == 3) {
+			// border or one side of it, the parts not given are reset
+			final CSS.BorderInfo borderInfo = new CSS.BorderInfo(cssValue);
+			final int sides = targets.length / 3;
+			for (int side = 0; side < sides; side++) {
+				set(targets[side], borderInfo.width, values);
+				set(targets[sides + side], borderInfo.style, values);
+				set(targets[2 * sides + side], borderInfo.color, values);
+			}
+		}
+		else {
+			// top, right, bottom and left, the missing ones copied from the opposite side
+			final CssValue[] boxValues = cssValue.getValues();
+			switch (boxValues.length) {
+			case 1:
+				values[targets[0].ordinal()] = boxValues[0];
+				values[targets[1].ordinal()] = boxValues[0];
+				values[targets[2].ordinal()] = boxValues[0];
+				values[targets[3].ordinal()] = boxValues[0];
+				break;
+			case 2:
+				values[targets[0].ordinal()] = boxValues[0];
+				values[targets[1].ordinal()] = boxValues[1];
+				values[targets[2].ordinal()] = boxValues[0];
+				values[targets[3].ordinal()] = boxValues[1];
+				break;
+			case 3:
+				values[targets[0].ordinal()] = boxValues[0];
+				values[targets[1].ordinal()] = boxValues[1];
+				values[targets[2].ordinal()] = boxValues[2];
+				values[targets[3].ordinal()] = boxValues[1];
+				break;
+			case 4:
+				values[targets[0].ordinal()] = boxValues[0];
+				values[targets[1].ordinal()] = boxValues[1];
+				values[targets[2].ordinal()] = boxValues[2];
+				values[targets[3].ordinal()] = boxValues[3];
+				break;
+			default:
+				System.out.println("Too many values for " + name);
+			}
+		}
+	}
+
+	private static void set(final CssProperty property, final CssValue cssValue,
+			final CssValue[] values) {
+		values[property.ordinal()] = cssValue == null ? property.getDefaultValue() : cssValue;
+	}
+
+	/**
+	 * @param parent the resolved styles of the container
+	 * @return the slots of this vector over those of the parent; the parent
+	 *         itself if this vector changes nothing
+	 */
+	public StyleVector cascade(final StyleVector parent) {
+		boolean changed = false;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null && values[i] != parent.values[i]) {
+				changed = true;
+				break;
+			}
+		}
+		if (!changed) {
+			return parent;
+		}
+		final CssValue[] merged = parent.values.clone();
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				merged[i] = values[i];
+			}
+		}
+		return new StyleVector(merged);
+	}
+
+	/**
+	 * @return the value, null if the slot is empty
+	 */
+	public CssValue get(final CssProperty property) {
+		return values[property.ordinal()];
+	}
+
+	/**
+	 * @return true if no slot is set
+	 */
+	public boolean isEmpty() {
+		for (final CssValue value : values) {
+			if (value != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Pass each set slot to the applier.
+	 */
+	public void apply(final CSS.Applier applier) {
+		for (int i = 0; i < values.length; i++) {
+			final CssValue value = values[i];
+			if (value == null) {
+				continue;
+			}
+			switch (PROPERTIES[i]) {
+			case PADDING_TOP:
+				applier.applyPadding(Side.TOP, value);
+				break;
+			case PADDING_RIGHT:
+				applier.applyPadding(Side.RIGHT, value);
+				break;
+			case PADDING_BOTTOM:
+				applier.applyPadding(Side.BOTTOM, value);
+				break;
+			case PADDING_LEFT:
+				applier.applyPadding(Side.LEFT, value);
+				break;
+			case BORDER_TOP_WIDTH:
+				applier.applyBorderWidth(Side.TOP, value);
+				break;
+			case BORDER_RIGHT_WIDTH:
+				applier.applyBorderWidth(Side.RIGHT, value);
+				break;
+			case BORDER_BOTTOM_WIDTH:
+				applier.applyBorderWidth(Side.BOTTOM, value);
+				break;
+			case BORDER_LEFT_WIDTH:
+				applier.applyBorderWidth(Side.LEFT, value);
+				break;
+			case BORDER_TOP_STYLE:
+				applier.applyBorderStyle(Side.TOP, value);
+				break;
+			case BORDER_RIGHT_STYLE:
+				applier.applyBorderStyle(Side.RIGHT, value);
+				break;
+			case BORDER_BOTTOM_STYLE:
+				applier.applyBorderStyle(Side.BOTTOM, value);
+				break;
+			case BORDER_LEFT_STYLE:
+				applier.applyBorderStyle(Side.LEFT, value);
+				break;
+			case BORDER_TOP_COLOR:
+				applier.applyBorderColor(Side.TOP, value);
+				break;
+			case BORDER_RIGHT_COLOR:
+				applier.applyBorderColor(Side.RIGHT, value);
+				break;
+			case BORDER_BOTTOM_COLOR:
+				applier.applyBorderColor(Side.BOTTOM, value);
+				break;
+			case BORDER_LEFT_COLOR:
+				applier.applyBorderColor(Side.LEFT, value);
+				break;
+			case FONT_STYLE:
+				applier.applyFontStyle(value);
+				break;
+			case FONT_WEIGHT:
+				applier.applyFontWeight(value);
+				break;
+			case FONT_SIZE:
+				applier.applyFontSize(value);
+				break;
+			case FONT_FAMILY:
+				applier.applyFontFamily(value);
+				break;
+			case COLOR:
+				applier.applyColor(value);
+				break;
+			case TEXT_ALIGN:
+				applier.applyTextAlign(value);
+				break;
+			case BACKGROUND_COLOR:
+				applier.applyBackgroundColor(value);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the set slots by longhand property name, in slot order
+	 */
+	public Map<String, CssValue> toMap() {
+		final Map<String, CssValue> map = new LinkedHashMap<>();
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				map.put(PROPERTIES[i].getCssName(), values[i]);
+			}
+		}
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return toMap().toString();
+	}
+}
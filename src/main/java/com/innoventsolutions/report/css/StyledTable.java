@@ -0,0 +1,513 @@
+package com.innoventsolutions.report.css;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.innoventsolutions.report.css.StyleSheet.Section;
+import com.innoventsolutions.report.design.Cell;
+import com.innoventsolutions.report.design.Column;
+import com.innoventsolutions.report.design.Component;
+import com.innoventsolutions.report.design.ComponentKind;
+import com.innoventsolutions.report.design.DateData;
+import com.innoventsolutions.report.design.FloatData;
+import com.innoventsolutions.report.design.Group;
+import com.innoventsolutions.report.design.IntegerData;
+import com.innoventsolutions.report.design.Label;
+import com.innoventsolutions.report.design.ReportComponent;
+import com.innoventsolutions.report.design.Row;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.design.TextData;
+
+/**
+ * A design with its {@link StyleSheet} applied. The rules are matched against
+ * every column, row, cell and component once, when this is created, and each
+ * element's getStyles() returns the result, so emitters see ordinary inline
+ * styles and do no matching per rendered cell. Everything else is passed to
+ * the original design.
+ * <p>
+ * The emitters that use styles call {@link #of(Table)} themselves; create
+ * one up front to share the work between runs of the same design.
+ */
+public class StyledTable implements Table {
+	private static final String[] ELEMENT_TYPES = { "table", "column", "row", "cell", "label",
+		"text", "integer", "float", "date" };
+	private final Table table;
+	private final StyleSheet styleSheet;
+	private final Map<String, String> styles;
+	private final List<Column> originalColumns;
+	private final List<Column> columns = new ArrayList<>();
+	private final List<Row> rows;
+	private final List<Row> headerRows;
+	private final List<Row> footerRows;
+	private final List<Group> groups = new ArrayList<>();
+
+	private StyledTable(final Table table) {
+		this.table = table;
+		styleSheet = table.getStyleSheet();
+		styles = styleSheet.resolve("table", StyleSheet.splitClasses(table.getStyleClass()), null,
+			-1, 0, table.getStyles());
+		originalColumns = table.getColumns();
+		for (int i = 0; i < originalColumns.size(); i++) {
+			final Column column = originalColumns.get(i);
+			columns.add(new StyledColumn(column, resolve("column", column, null, -1, i + 1)));
+		}
+		final List<Group> originalGroups = table.getGroups();
+		rows = styleRows(table.getRows(), Section.DETAIL, 0);
+		headerRows = styleRows(table.getHeaderRows(), Section.HEADER, originalGroups.size() + 1);
+		footerRows = styleRows(table.getFooterRows(), Section.FOOTER, originalGroups.size() + 1);
+		for (int i = 0; i < originalGroups.size(); i++) {
+			final Group group = originalGroups.get(i);
+			groups.add(new StyledGroup(styleRows(group.getHeaderRows(), Section.HEADER, i + 1),
+				styleRows(group.getFooterRows(), Section.FOOTER, i + 1)));
+		}
+	}
+
+	/**
+	 * @param table
+	 * @return the table with its style sheet applied, or the table itself if
+	 *         it has none or is already styled
+	 */
+	public static Table of(final Table table) {
+		if (table instanceof StyledTable || table.getStyleSheet() == null) {
+			return table;
+		}
+		return new StyledTable(table);
+	}
+
+	static boolean isElementType(final String type) {
+		for (final String elementType : ELEMENT_TYPES) {
+			if (elementType.equals(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Map<String, String> resolve(final String type, final Component component,
+			final Section section, final int level, final int column) {
+		return styleSheet.resolve(type, StyleSheet.splitClasses(component.getStyleClass()),
+			section, level, column, component.getStyles());
+	}
+
+	private List<Row> styleRows(final List<Row> rows, final Section section, final int level) {
+		final List<Row> styledRows = new ArrayList<>(rows.size());
+		for (final Row row : rows) {
+			final List<Cell> cells = row.getCells();
+			final int[] cellColumns = getCellColumns(cells);
+			final List<Cell> styledCells = new ArrayList<>(cells.size());
+			for (int i = 0; i < cells.size(); i++) {
+				final Cell cell = cells.get(i);
+				final int column = cellColumns[i];
+				final List<ReportComponent> components = new ArrayList<>();
+				for (final ReportComponent component : cell.getComponents()) {
+					final ComponentKind kind = component.getKind();
+					final Map<String, String> componentStyles = resolve(
+						kind.name().toLowerCase(Locale.ROOT), component, section, level, column);
+					components.add(createProxy(component, kind, componentStyles));
+				}
+				styledCells.add(new StyledCell(cell, resolve("cell", cell, section, level, column),
+						components));
+			}
+			styledRows.add(new StyledRow(row, resolve("row", row, section, level, 0), styledCells));
+		}
+		return Collections.unmodifiableList(styledRows);
+	}
+
+	/**
+	 * Pair cells with columns the way the emitters do: a hidden column
+	 * swallows a cell and a spanning cell covers the columns after it.
+	 *
+	 * @return the column of each cell from 1, 0 for cells past the last
+	 *         column
+	 */
+	private int[] getCellColumns(final List<Cell> cells) {
+		final int[] cellColumns = new int[cells.size()];
+		int cellIndex = 0;
+		int spanning = 1;
+		for (int c = 0; c < originalColumns.size() && cellIndex < cells.size(); c++) {
+			if (originalColumns.get(c).isHidden(null)) {
+				cellColumns[cellIndex++] = c + 1;
+				continue;
+			}
+			if (spanning > 1) {
+				spanning--;
+				continue;
+			}
+			spanning = cells.get(cellIndex).getColSpan();
+			cellColumns[cellIndex++] = c + 1;
+		}
+		return cellColumns;
+	}
+
+	private static ReportComponent createProxy(final ReportComponent component,
+			final ComponentKind kind, final Map<String, String> styles) {
+		switch (kind) {
+		case LABEL:
+			return new StyledLabel((Label) component, styles);
+		case TEXT:
+			return new StyledTextData((TextData) component, styles);
+		case INTEGER:
+			return new StyledIntegerData((IntegerData) component, styles);
+		case FLOAT:
+			return new StyledFloatData((FloatData) component, styles);
+		case DATE:
+			return new StyledDateData((DateData) component, styles);
+		default:
+			return new StyledComponent(component, styles);
+		}
+	}
+
+	/**
+	 * The design's highlight styles over the resolved ones. A highlight that
+	 * returns the design's own styles means no change.
+	 */
+	private static Map<String, String> highlight(final Component component,
+			final Map<String, String> styles, final Object dataRow) {
+		final Map<String, String> highlight = component.highlight(dataRow);
+		if (highlight == null || highlight == component.getStyles() || highlight == styles) {
+			return styles;
+		}
+		final Map<String, String> merged = new LinkedHashMap<>(styles);
+		for (final Map.Entry<String, String> entry : highlight.entrySet()) {
+			merged.remove(entry.getKey());
+			merged.put(entry.getKey(), entry.getValue());
+		}
+		return merged;
+	}
+
+	/**
+	 * @return the design this applies the style sheet to
+	 */
+	public Table getOriginal() {
+		return table;
+	}
+
+	/**
+	 * @return the applied style sheet, for emitters that write its class
+	 *         rules out
+	 */
+	@Override
+	public StyleSheet getStyleSheet() {
+		return styleSheet;
+	}
+
+	@Override
+	public List<Row> getRows() {
+		return rows;
+	}
+
+	@Override
+	public List<Column> getColumns() {
+		return columns;
+	}
+
+	@Override
+	public List<Group> getGroups() {
+		return groups;
+	}
+
+	@Override
+	public List<Row> getHeaderRows() {
+		return headerRows;
+	}
+
+	@Override
+	public List<Row> getFooterRows() {
+		return footerRows;
+	}
+
+	@Override
+	public Map<String, String> getStyles() {
+		return styles;
+	}
+
+	@Override
+	public String getStyleClass() {
+		return table.getStyleClass();
+	}
+
+	@Override
+	public boolean isHidden(final Object dataRow) {
+		return table.isHidden(dataRow);
+	}
+
+	private static class StyledGroup implements Group {
+		private final List<Row> headerRows;
+		private final List<Row> footerRows;
+
+		StyledGroup(final List<Row> headerRows, final List<Row> footerRows) {
+			this.headerRows = headerRows;
+			this.footerRows = footerRows;
+		}
+
+		@Override
+		public List<Row> getHeaderRows() {
+			return headerRows;
+		}
+
+		@Override
+		public List<Row> getFooterRows() {
+			return footerRows;
+		}
+	}
+
+	private static class StyledColumn implements Column {
+		private final Column column;
+		private final Map<String, String> styles;
+
+		StyledColumn(final Column column, final Map<String, String> styles) {
+			this.column = column;
+			this.styles = styles;
+		}
+
+		@Override
+		public Map<String, String> getStyles() {
+			return styles;
+		}
+
+		@Override
+		public String getStyleClass() {
+			return column.getStyleClass();
+		}
+
+		@Override
+		public boolean isHidden(final Object dataRow) {
+			return column.isHidden(dataRow);
+		}
+
+		@Override
+		public Map<String, String> highlight(final Object dataRow) {
+			return StyledTable.highlight(column, styles, dataRow);
+		}
+	}
+
+	private static class StyledRow implements Row {
+		private final Row row;
+		private final Map<String, String> styles;
+		private final List<Cell> cells;
+
+		StyledRow(final Row row, final Map<String, String> styles, final List<Cell> cells) {
+			this.row = row;
+			this.styles = styles;
+			this.cells = Collections.unmodifiableList(cells);
+		}
+
+		@Override
+		public List<Cell> getCells() {
+			return cells;
+		}
+
+		@Override
+		public Map<String, String> getStyles() {
+			return styles;
+		}
+
+		@Override
+		public String getStyleClass() {
+			return row.getStyleClass();
+		}
+
+		@Override
+		public boolean isHidden(final Object dataRow) {
+			return row.isHidden(dataRow);
+		}
+
+		@Override
+		public Map<String, String> highlight(final Object dataRow) {
+			return StyledTable.highlight(row, styles, dataRow);
+		}
+	}
+
+	private static class StyledCell implements Cell {
+		private final Cell cell;
+		private final Map<String, String> styles;
+		private final List<ReportComponent> components;
+
+		StyledCell(final Cell cell, final Map<String, String> styles,
+				final List<ReportComponent> components) {
+			this.cell = cell;
+			this.styles = styles;
+			this.components = Collections.unmodifiableList(components);
+		}
+
+		@Override
+		public List<ReportComponent> getComponents() {
+			return components;
+		}
+
+		@Override
+		public int getColSpan() {
+			return cell.getColSpan();
+		}
+
+		@Override
+		public Map<String, String> getStyles() {
+			return styles;
+		}
+
+		@Override
+		public String getStyleClass() {
+			return cell.getStyleClass();
+		}
+
+		@Override
+		public boolean isHidden(final Object dataRow) {
+			return cell.isHidden(dataRow);
+		}
+
+		@Override
+		public Map<String, String> highlight(final Object dataRow) {
+			return StyledTable.highlight(cell, styles, dataRow);
+		}
+	}
+
+	private static class StyledComponent implements ReportComponent {
+		private final ReportComponent component;
+		private final Map<String, String> styles;
+
+		StyledComponent(final ReportComponent component, final Map<String, String> styles) {
+			this.component = component;
+			this.styles = styles;
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.UNKNOWN;
+		}
+
+		@Override
+		public Map<String, String> getStyles() {
+			return styles;
+		}
+
+		@Override
+		public String getStyleClass() {
+			return component.getStyleClass();
+		}
+
+		@Override
+		public boolean isHidden(final Object dataRow) {
+			return component.isHidden(dataRow);
+		}
+
+		@Override
+		public Map<String, String> highlight(final Object dataRow) {
+			return StyledTable.highlight(component, styles, dataRow);
+		}
+	}
+
+	private static class StyledLabel extends StyledComponent implements Label {
+		private final Label label;
+
+		StyledLabel(final Label label, final Map<String, String> styles) {
+			super(label, styles);
+			this.label = label;
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.LABEL;
+		}
+
+		@Override
+		public String getText() {
+			return label.getText();
+		}
+	}
+
+	private static class StyledTextData extends StyledComponent implements TextData {
+		private final TextData data;
+
+		StyledTextData(final TextData data, final Map<String, String> styles) {
+			super(data, styles);
+			this.data = data;
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.TEXT;
+		}
+
+		@Override
+		public String getValue(final Object dataRow) {
+			return data.getValue(dataRow);
+		}
+	}
+
+	private static class StyledIntegerData extends StyledComponent implements IntegerData {
+		private final IntegerData data;
+
+		StyledIntegerData(final IntegerData data, final Map<String, String> styles) {
+			super(data, styles);
+			this.data = data;
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.INTEGER;
+		}
+
+		@Override
+		public long getValue(final Object dataRow) {
+			return data.getValue(dataRow);
+		}
+
+		@Override
+		public String getFormat() {
+			return data.getFormat();
+		}
+	}
+
+	private static class StyledFloatData extends StyledComponent implements FloatData {
+		private final FloatData data;
+
+		StyledFloatData(final FloatData data, final Map<String, String> styles) {
+			super(data, styles);
+			this.data = data;
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.FLOAT;
+		}
+
+		@Override
+		public double getValue(final Object dataRow) {
+			return data.getValue(dataRow);
+		}
+
+		@Override
+		public String getFormat() {
+			return data.getFormat();
+		}
+	}
+
+	private static class StyledDateData extends StyledComponent implements DateData {
+		private final DateData data;
+
+		StyledDateData(final DateData data, final Map<String, String> styles) {
+			super(data, styles);
+			this.data = data;
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.DATE;
+		}
+
+		@Override
+		public Date getValue(final Object dataRow) {
+			return data.getValue(dataRow);
+		}
+
+		@Override
+		public String getFormat() {
+			return data.getFormat();
+		}
+	}
+}
@@ -1,11 +1,19 @@
 package com.innoventsolutions.report.design;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
 
 public interface Component {
 	default Map<String, String> getStyles() {
-		return new HashMap<>();
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * @return space separated class names matched by the table's
+	 *         {@link com.innoventsolutions.report.css.StyleSheet}, or null
+	 */
+	default String getStyleClass() {
+		return null;
 	}
 
 	default boolean isHidden(final Object dataRow) {
@@ -0,0 +1,9 @@
+package com.innoventsolutions.report.design;
+
+/**
+ * The type of a {@link ReportComponent}, so emitters can switch on it instead
+ * of testing each cell with a chain of instanceof.
+ */
+public enum ComponentKind {
+	LABEL, TEXT, INTEGER, FLOAT, DATE, UNKNOWN
+}
@@ -6,4 +6,9 @@ public interface DateData extends ReportComponent {
 	Date getValue(Object dataRow);
 
 	String getFormat();
+
+	@Override
+	default ComponentKind getKind() {
+		return ComponentKind.DATE;
+	}
 }
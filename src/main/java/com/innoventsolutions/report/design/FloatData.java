@@ -4,4 +4,9 @@ public interface FloatData extends ReportComponent {
 	double getValue(Object dataRow);
 
 	String getFormat();
+
+	@Override
+	default ComponentKind getKind() {
+		return ComponentKind.FLOAT;
+	}
 }
@@ -4,4 +4,9 @@ public interface IntegerData extends ReportComponent {
 	long getValue(Object dataRow);
 
 	String getFormat();
+
+	@Override
+	default ComponentKind getKind() {
+		return ComponentKind.INTEGER;
+	}
 }
@@ -2,4 +2,9 @@ package com.innoventsolutions.report.design;
 
 public interface Label extends ReportComponent {
 	String getText();
+
+	@Override
+	default ComponentKind getKind() {
+		return ComponentKind.LABEL;
+	}
 }
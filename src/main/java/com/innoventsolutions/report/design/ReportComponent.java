@@ -1,4 +1,14 @@
 package com.innoventsolutions.report.design;
 
 public interface ReportComponent extends Component {
+	/**
+	 * Each kind of component's interface returns its constant, so the kind
+	 * is never worked out per cell.
+	 *
+	 * @return the component type, {@link ComponentKind#UNKNOWN} for anything
+	 *         that is not one of the standard components
+	 */
+	default ComponentKind getKind() {
+		return ComponentKind.UNKNOWN;
+	}
 }
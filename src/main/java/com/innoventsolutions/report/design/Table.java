@@ -2,10 +2,20 @@ package com.innoventsolutions.report.design;
 
 import java.util.List;
 
+import com.innoventsolutions.report.css.StyleSheet;
+
 public interface Table extends Grid {
 	List<Group> getGroups();
 
 	List<Row> getHeaderRows();
 
 	List<Row> getFooterRows();
+
+	/**
+	 * @return rules applied to the whole design by
+	 *         {@link com.innoventsolutions.report.css.StyledTable}, or null
+	 */
+	default StyleSheet getStyleSheet() {
+		return null;
+	}
 }
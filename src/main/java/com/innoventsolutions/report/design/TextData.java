@@ -2,4 +2,9 @@ package com.innoventsolutions.report.design;
 
 public interface TextData extends ReportComponent {
 	String getValue(Object dataRow);
+
+	@Override
+	default ComponentKind getKind() {
+		return ComponentKind.TEXT;
+	}
 }
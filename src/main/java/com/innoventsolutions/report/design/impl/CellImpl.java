@@ -8,6 +8,7 @@ import com.innoventsolutions.report.design.ReportComponent;
 
 public class CellImpl implements Cell {
 	private final List<ReportComponent> components;
+	private String styleClass = null;
 
 	public CellImpl(final ReportComponent... components) {
 		this.components = new ArrayList<>();
@@ -20,4 +21,13 @@ public class CellImpl implements Cell {
 	public List<ReportComponent> getComponents() {
 		return components;
 	}
+
+	public void setStyleClass(final String styleClass) {
+		this.styleClass = styleClass;
+	}
+
+	@Override
+	public String getStyleClass() {
+		return styleClass;
+	}
 }
@@ -8,6 +8,7 @@ import com.innoventsolutions.util.DesignUtil;
 public class ColumnImpl implements Column {
 	private final Map<String, String> styles;
 	private final boolean hidden;
+	private String styleClass = null;
 
 	public ColumnImpl(final String styles) {
 		this(styles, false);
@@ -27,4 +28,13 @@ public class ColumnImpl implements Column {
 	public boolean isHidden(final Object dataRow) {
 		return hidden;
 	}
+
+	public void setStyleClass(final String styleClass) {
+		this.styleClass = styleClass;
+	}
+
+	@Override
+	public String getStyleClass() {
+		return styleClass;
+	}
 }
@@ -0,0 +1,70 @@
+package com.innoventsolutions.report.design.impl;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.innoventsolutions.report.design.ComponentKind;
+import com.innoventsolutions.report.design.DateData;
+import com.innoventsolutions.util.AccessorCompiler;
+import com.innoventsolutions.util.DesignUtil;
+
+public class DateDataImpl implements DateData {
+	private final Function<Object, Date> accessor;
+	private final String format;
+	private final Map<String, String> styles;
+	private String styleClass = null;
+
+	/**
+	 * @param rowClass the class of the data rows
+	 * @param binding the field or getter, see {@link AccessorCompiler}
+	 */
+	public DateDataImpl(final Class<?> rowClass, final String binding) {
+		this(rowClass, binding, null, "");
+	}
+
+	public DateDataImpl(final Class<?> rowClass, final String binding, final String format) {
+		this(rowClass, binding, format, "");
+	}
+
+	public DateDataImpl(final Class<?> rowClass, final String binding, final String format,
+			final String styles) {
+		this(AccessorCompiler.compileDate(rowClass, binding), format, styles);
+	}
+
+	public DateDataImpl(final Function<Object, Date> accessor, final String format,
+			final String styles) {
+		this.accessor = accessor;
+		this.format = format;
+		this.styles = DesignUtil.parseStyles(styles);
+	}
+
+	@Override
+	public ComponentKind getKind() {
+		return ComponentKind.DATE;
+	}
+
+	@Override
+	public Map<String, String> getStyles() {
+		return styles;
+	}
+
+	@Override
+	public Date getValue(final Object dataRow) {
+		return accessor.apply(dataRow);
+	}
+
+	@Override
+	public String getFormat() {
+		return format;
+	}
+
+	public void setStyleClass(final String styleClass) {
+		this.styleClass = styleClass;
+	}
+
+	@Override
+	public String getStyleClass() {
+		return styleClass;
+	}
+}
@@ -0,0 +1,69 @@
+package com.innoventsolutions.report.design.impl;
+
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+import com.innoventsolutions.report.design.ComponentKind;
+import com.innoventsolutions.report.design.FloatData;
+import com.innoventsolutions.util.AccessorCompiler;
+import com.innoventsolutions.util.DesignUtil;
+
+public class FloatDataImpl implements FloatData {
+	private final ToDoubleFunction<Object> accessor;
+	private final String format;
+	private final Map<String, String> styles;
+	private String styleClass = null;
+
+	/**
+	 * @param rowClass the class of the data rows
+	 * @param binding the field or getter, see {@link AccessorCompiler}
+	 */
+	public FloatDataImpl(final Class<?> rowClass, final String binding) {
+		this(rowClass, binding, null, "");
+	}
+
+	public FloatDataImpl(final Class<?> rowClass, final String binding, final String format) {
+		this(rowClass, binding, format, "");
+	}
+
+	public FloatDataImpl(final Class<?> rowClass, final String binding, final String format,
+			final String styles) {
+		this(AccessorCompiler.compileFloat(rowClass, binding), format, styles);
+	}
+
+	public FloatDataImpl(final ToDoubleFunction<Object> accessor, final String format,
+			final String styles) {
+		this.accessor = accessor;
+		this.format = format;
+		this.styles = DesignUtil.parseStyles(styles);
+	}
+
+	@Override
+	public ComponentKind getKind() {
+		return ComponentKind.FLOAT;
+	}
+
+	@Override
+	public Map<String, String> getStyles() {
+		return styles;
+	}
+
+	@Override
+	public double getValue(final Object dataRow) {
+		return accessor.applyAsDouble(dataRow);
+	}
+
+	@Override
+	public String getFormat() {
+		return format;
+	}
+
+	public void setStyleClass(final String styleClass) {
+		this.styleClass = styleClass;
+	}
+
+	@Override
+	public String getStyleClass() {
+		return styleClass;
+	}
+}
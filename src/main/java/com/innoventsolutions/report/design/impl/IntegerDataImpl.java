@@ -0,0 +1,69 @@
+package com.innoventsolutions.report.design.impl;
+
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import com.innoventsolutions.report.design.ComponentKind;
+import com.innoventsolutions.report.design.IntegerData;
+import com.innoventsolutions.util.AccessorCompiler;
+import com.innoventsolutions.util.DesignUtil;
+
+public class IntegerDataImpl implements IntegerData {
+	private final ToLongFunction<Object> accessor;
+	private final String format;
+	private final Map<String, String> styles;
+	private String styleClass = null;
+
+	/**
+	 * @param rowClass the class of the data rows
+	 * @param binding the field or getter, see {@link AccessorCompiler}
+	 */
+	public IntegerDataImpl(final Class<?> rowClass, final String binding) {
+		this(rowClass, binding, null, "");
+	}
+
+	public IntegerDataImpl(final Class<?> rowClass, final String binding, final String format) {
+		this(rowClass, binding, format, "");
+	}
+
+	public IntegerDataImpl(final Class<?> rowClass, final String binding, final String format,
+			final String styles) {
+		this(AccessorCompiler.compileInteger(rowClass, binding), format, styles);
+	}
+
+	public IntegerDataImpl(final ToLongFunction<Object> accessor, final String format,
+			final String styles) {
+		this.accessor = accessor;
+		this.format = format;
+		this.styles = DesignUtil.parseStyles(styles);
+	}
+
+	@Override
+	public ComponentKind getKind() {
+		return ComponentKind.INTEGER;
+	}
+
+	@Override
+	public Map<String, String> getStyles() {
+		return styles;
+	}
+
+	@Override
+	public long getValue(final Object dataRow) {
+		return accessor.applyAsLong(dataRow);
+	}
+
+	@Override
+	public String getFormat() {
+		return format;
+	}
+
+	public void setStyleClass(final String styleClass) {
+		this.styleClass = styleClass;
+	}
+
+	@Override
+	public String getStyleClass() {
+		return styleClass;
+	}
+}
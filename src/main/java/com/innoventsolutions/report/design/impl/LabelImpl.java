@@ -2,12 +2,14 @@ package com.innoventsolutions.report.design.impl;
 
 import java.util.Map;
 
+import com.innoventsolutions.report.design.ComponentKind;
 import com.innoventsolutions.report.design.Label;
 import com.innoventsolutions.util.DesignUtil;
 
 public class LabelImpl implements Label {
 	private final String text;
 	private final Map<String, String> styles;
+	private String styleClass = null;
 
 	public LabelImpl(final String text) {
 		this(text, "");
@@ -18,6 +20,11 @@ public class LabelImpl implements Label {
 		this.styles = DesignUtil.parseStyles(styles);
 	}
 
+	@Override
+	public ComponentKind getKind() {
+		return ComponentKind.LABEL;
+	}
+
 	@Override
 	public Map<String, String> getStyles() {
 		return styles;
@@ -27,4 +34,13 @@ public class LabelImpl implements Label {
 	public String getText() {
 		return text;
 	}
+
+	public void setStyleClass(final String styleClass) {
+		this.styleClass = styleClass;
+	}
+
+	@Override
+	public String getStyleClass() {
+		return styleClass;
+	}
 }
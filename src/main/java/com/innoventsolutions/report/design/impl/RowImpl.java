@@ -10,6 +10,7 @@ import com.innoventsolutions.report.design.Row;
 
 public class RowImpl implements Row {
 	private final List<Cell> cells = new ArrayList<>();
+	private String styleClass = null;
 
 	public RowImpl(final Component... components) {
 		for (final Component component : components) {
@@ -26,4 +27,13 @@ public class RowImpl implements Row {
 	public List<Cell> getCells() {
 		return cells;
 	}
+
+	public void setStyleClass(final String styleClass) {
+		this.styleClass = styleClass;
+	}
+
+	@Override
+	public String getStyleClass() {
+		return styleClass;
+	}
 }
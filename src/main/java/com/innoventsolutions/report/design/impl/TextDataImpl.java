@@ -0,0 +1,56 @@
+package com.innoventsolutions.report.design.impl;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import com.innoventsolutions.report.design.ComponentKind;
+import com.innoventsolutions.report.design.TextData;
+import com.innoventsolutions.util.AccessorCompiler;
+import com.innoventsolutions.util.DesignUtil;
+
+public class TextDataImpl implements TextData {
+	private final Function<Object, String> accessor;
+	private final Map<String, String> styles;
+	private String styleClass = null;
+
+	/**
+	 * @param rowClass the class of the data rows
+	 * @param binding the field or getter, see {@link AccessorCompiler}
+	 */
+	public TextDataImpl(final Class<?> rowClass, final String binding) {
+		this(rowClass, binding, "");
+	}
+
+	public TextDataImpl(final Class<?> rowClass, final String binding, final String styles) {
+		this(AccessorCompiler.compileText(rowClass, binding), styles);
+	}
+
+	public TextDataImpl(final Function<Object, String> accessor, final String styles) {
+		this.accessor = accessor;
+		this.styles = DesignUtil.parseStyles(styles);
+	}
+
+	@Override
+	public ComponentKind getKind() {
+		return ComponentKind.TEXT;
+	}
+
+	@Override
+	public Map<String, String> getStyles() {
+		return styles;
+	}
+
+	@Override
+	public String getValue(final Object dataRow) {
+		return accessor.apply(dataRow);
+	}
+
+	public void setStyleClass(final String styleClass) {
+		this.styleClass = styleClass;
+	}
+
+	@Override
+	public String getStyleClass() {
+		return styleClass;
+	}
+}
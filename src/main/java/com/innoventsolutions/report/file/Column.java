@@ -0,0 +1,30 @@
+package com.innoventsolutions.report.file;
+
+/**
+ * The name and type of a column of a columnar file.
+ */
+public final class Column {
+	private final String name;
+	private final ColumnType type;
+
+	public Column(final String name, final ColumnType type) {
+		if (name == null || type == null) {
+			throw new IllegalArgumentException("Column name and type are required");
+		}
+		this.name = name;
+		this.type = type;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public ColumnType getType() {
+		return type;
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + type;
+	}
+}
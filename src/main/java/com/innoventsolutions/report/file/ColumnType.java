@@ -0,0 +1,23 @@
+package com.innoventsolutions.report.file;
+
+/**
+ * The value types of a columnar file.
+ */
+public enum ColumnType {
+	/**
+	 * 8 byte integers
+	 */
+	LONG,
+	/**
+	 * 8 byte floating point numbers
+	 */
+	DOUBLE,
+	/**
+	 * UTF-8 text
+	 */
+	STRING,
+	/**
+	 * Milliseconds since the epoch, stored like {@link #LONG}
+	 */
+	DATE
+}
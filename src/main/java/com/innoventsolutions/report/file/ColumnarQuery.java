@@ -0,0 +1,391 @@
+package com.innoventsolutions.report.file;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.innoventsolutions.data.model.Query;
+import com.innoventsolutions.report.Cancellable;
+import com.innoventsolutions.report.CancellationToken;
+
+/**
+ * Reads data rows from a file written by {@link ColumnarWriter}. Each block
+ * is memory mapped and rows are produced lazily from it, so the file may be
+ * much larger than the heap. Subclasses turn each {@link ColumnarRecord} into
+ * a data row.
+ * <p>
+ * A parallel stream splits the file at block boundaries and knows its exact
+ * size, unless ranges are set.
+ * <p>
+ * {@link #setRange(String, long, long)} limits the rows to those with a
+ * column value in a range. Blocks whose statistics show they have no such
+ * value are not mapped or read at all, so a query on a column the file is
+ * more or less sorted by only touches the blocks it needs.
+ *
+ * @param <T>
+ */
+public abstract class ColumnarQuery<T> implements Query<T>, Cancellable {
+	private static final ColumnType[] TYPES = ColumnType.values();
+	private final Path file;
+	private boolean parallel = false;
+	private final Map<String, Range> ranges = new LinkedHashMap<>();
+	private CancellationToken cancellationToken = null;
+
+	public ColumnarQuery(final Path file) {
+		this.file = file;
+	}
+
+	public void setParallel(final boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Only read rows with a value of a LONG or DATE column from min to max
+	 * inclusive. Replaces any range already set for the column.
+	 *
+	 * @param column the column name
+	 * @param min
+	 * @param max
+	 */
+	public void setRange(final String column, final long min, final long max) {
+		ranges.put(column, new Range(column, false, min, max, 0.0, 0.0));
+	}
+
+	/**
+	 * Only read rows with a value of a DOUBLE column from min to max
+	 * inclusive. Replaces any range already set for the column.
+	 *
+	 * @param column the column name
+	 * @param min
+	 * @param max
+	 */
+	public void setRange(final String column, final double min, final double max) {
+		ranges.put(column, new Range(column, true, 0L, 0L, min, max));
+	}
+
+	public void clearRanges() {
+		ranges.clear();
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	protected abstract T createDataRow(ColumnarRecord record);
+
+	private static final class Range {
+		final String column;
+		final boolean isDouble;
+		final long min;
+		final long max;
+		final double minDouble;
+		final double maxDouble;
+		int index = -1;
+
+		Range(final String column, final boolean isDouble, final long min, final long max,
+				final double minDouble, final double maxDouble) {
+			this.column = column;
+			this.isDouble = isDouble;
+			this.min = min;
+			this.max = max;
+			this.minDouble = minDouble;
+			this.maxDouble = maxDouble;
+		}
+
+		/**
+		 * @param statistics the statistics of a block from the footer, null
+		 *            if the file has none
+		 * @return false if the block has no value in the range
+		 */
+		boolean overlaps(final long[] statistics) {
+			if (statistics == null) {
+				return true;
+			}
+			if (statistics[index * 3] == 0L) {
+				// all null
+				return false;
+			}
+			final long blockMin = statistics[index * 3 + 1];
+			final long blockMax = statistics[index * 3 + 2];
+			if (isDouble) {
+				return Double.longBitsToDouble(blockMax) >= minDouble
+					&& Double.longBitsToDouble(blockMin) <= maxDouble;
+			}
+			return blockMax >= min && blockMin <= max;
+		}
+
+		boolean matches(final ColumnarRecord record) {
+			if (record.isNull(index)) {
+				return false;
+			}
+			if (isDouble) {
+				final double value = record.getDouble(index);
+				return value >= minDouble && value <= maxDouble;
+			}
+			final long value = record.getBits(index);
+			return value >= min && value <= max;
+		}
+	}
+
+	/**
+	 * The header and footer of the file.
+	 */
+	private static final class Layout {
+		int version;
+		List<Column> columns;
+		long[] blockOffsets;
+		int[] blockRows;
+		/**
+		 * For each block, the statistics flag, minimum and maximum of each
+		 * column, or null for a version 1 file
+		 */
+		long[][] blockStatistics;
+		long footerOffset;
+
+		long getRowCount() {
+			long count = 0L;
+			for (final int rows : blockRows) {
+				count += rows;
+			}
+			return count;
+		}
+	}
+
+	public List<Column> getColumns() {
+		return readLayout().columns;
+	}
+
+	public long getRowCount() {
+		return readLayout().getRowCount();
+	}
+
+	private Layout readLayout() {
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return readLayout(channel);
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to read " + file, e);
+		}
+	}
+
+	private Layout readLayout(final FileChannel channel) throws IOException {
+		final Layout layout = new Layout();
+		final long size = channel.size();
+		final ByteBuffer trailer = ByteBuffer.allocate(12);
+		if (size >= 24) {
+			channel.read(trailer, size - 12);
+		}
+		if (trailer.getInt(8) != ColumnarWriter.MAGIC) {
+			throw new IllegalStateException(file + " is not a complete columnar file");
+		}
+		layout.footerOffset = trailer.getLong(0);
+		// the streams are not closed, that would close the channel
+		channel.position(0L);
+		final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel)));
+		if (in.readInt() != ColumnarWriter.MAGIC) {
+			throw new IllegalStateException(file + " is not a columnar file");
+		}
+		final int version = in.readInt();
+		if (version < 1 || version > ColumnarWriter.VERSION) {
+			throw new IllegalStateException(file + " has unsupported version " + version);
+		}
+		layout.version = version;
+		final int columnCount = in.readInt();
+		final List<Column> columns = new ArrayList<>(columnCount);
+		for (int i = 0; i < columnCount; i++) {
+			final ColumnType type = TYPES[in.readUnsignedByte()];
+			final byte[] name = new byte[in.readInt()];
+			in.readFully(name);
+			columns.add(new Column(new String(name, StandardCharsets.UTF_8), type));
+		}
+		layout.columns = Collections.unmodifiableList(columns);
+		channel.position(layout.footerOffset);
+		final DataInputStream footer = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel)));
+		final int blockCount = footer.readInt();
+		layout.blockOffsets = new long[blockCount];
+		layout.blockRows = new int[blockCount];
+		layout.blockStatistics = new long[blockCount][];
+		for (int i = 0; i < blockCount; i++) {
+			layout.blockOffsets[i] = footer.readLong();
+			layout.blockRows[i] = footer.readInt();
+			if (version > 1) {
+				final long[] statistics = new long[columnCount * 3];
+				for (int column = 0; column < columnCount; column++) {
+					if (footer.readBoolean()) {
+						statistics[column * 3] = 1L;
+						statistics[column * 3 + 1] = footer.readLong();
+						statistics[column * 3 + 2] = footer.readLong();
+					}
+				}
+				layout.blockStatistics[i] = statistics;
+			}
+		}
+		return layout;
+	}
+
+	@Override
+	public Stream<T> getStream() {
+		if (cancellationToken != null) {
+			cancellationToken.throwIfCancelled();
+		}
+		final Layout layout;
+		final Range[] ranges = this.ranges.values().toArray(new Range[0]);
+		final List<ByteBuffer> blocks = new ArrayList<>();
+		final List<Integer> blockRows = new ArrayList<>();
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			layout = readLayout(channel);
+			for (int i = 0; i < ranges.length; i++) {
+				final Range range = ranges[i];
+				final Range resolved = new Range(range.column, range.isDouble, range.min, range.max,
+						range.minDouble, range.maxDouble);
+				resolved.index = indexOf(layout.columns, range);
+				ranges[i] = resolved;
+			}
+			final int count = layout.blockOffsets.length;
+			for (int i = 0; i < count; i++) {
+				boolean overlaps = true;
+				for (final Range range : ranges) {
+					overlaps &= range.overlaps(layout.blockStatistics[i]);
+				}
+				if (!overlaps) {
+					continue;
+				}
+				final long start = layout.blockOffsets[i];
+				final long end = i + 1 < count ? layout.blockOffsets[i + 1] : layout.footerOffset;
+				blocks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+				blockRows.add(Integer.valueOf(layout.blockRows[i]));
+			}
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to map " + file, e);
+		}
+		final int[] rows = new int[blockRows.size()];
+		final long[] firstRows = new long[rows.length + 1];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = blockRows.get(i).intValue();
+			firstRows[i + 1] = firstRows[i] + rows[i];
+		}
+		return StreamSupport.stream(new RowSpliterator(layout, blocks.toArray(new ByteBuffer[0]),
+			rows, firstRows, ranges, 0, 0, rows.length), parallel);
+	}
+
+	private static int indexOf(final List<Column> columns, final Range range) {
+		for (int i = 0; i < columns.size(); i++) {
+			final Column column = columns.get(i);
+			if (column.getName().equals(range.column)) {
+				final ColumnType type = column.getType();
+				if (range.isDouble ? type != ColumnType.DOUBLE
+						: type != ColumnType.LONG && type != ColumnType.DATE) {
+					throw new IllegalArgumentException("Column " + column
+						+ " cannot have a " + (range.isDouble ? "double" : "long") + " range");
+				}
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No column " + range.column);
+	}
+
+	private class RowSpliterator implements Spliterator<T> {
+		private final Layout layout;
+		private final ByteBuffer[] blocks;
+		private final int[] blockRows;
+		private final long[] firstRows;
+		private final Range[] ranges;
+		private final ColumnarRecord record;
+		private int block;
+		private int row;
+		private final int endBlock;
+		private int loadedBlock = -1;
+
+		RowSpliterator(final Layout layout, final ByteBuffer[] blocks, final int[] blockRows,
+				final long[] firstRows, final Range[] ranges, final int block, final int row,
+				final int endBlock) {
+			this.layout = layout;
+			this.blocks = blocks;
+			this.blockRows = blockRows;
+			this.firstRows = firstRows;
+			this.ranges = ranges;
+			this.block = block;
+			this.row = row;
+			this.endBlock = endBlock;
+			record = new ColumnarRecord(layout.columns, layout.version);
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super T> action) {
+			while (block < endBlock) {
+				if (row < blockRows[block]) {
+					if (cancellationToken != null) {
+						cancellationToken.throwIfCancelled();
+					}
+					if (loadedBlock != block) {
+						record.load(blocks[block], blockRows[block]);
+						loadedBlock = block;
+					}
+					record.setRow(row++);
+					if (matches()) {
+						action.accept(createDataRow(record));
+						return true;
+					}
+					continue;
+				}
+				block++;
+				row = 0;
+			}
+			return false;
+		}
+
+		private boolean matches() {
+			for (final Range range : ranges) {
+				if (!range.matches(record)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			final int middle = (block + endBlock) >>> 1;
+			if (middle <= block) {
+				return null;
+			}
+			final Spliterator<T> prefix = new RowSpliterator(layout, blocks, blockRows, firstRows,
+					ranges, block, row, middle);
+			block = middle;
+			row = 0;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return firstRows[endBlock] - firstRows[block] - row;
+		}
+
+		@Override
+		public int characteristics() {
+			if (ranges.length > 0) {
+				return Spliterator.ORDERED | Spliterator.NONNULL;
+			}
+			return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
+		}
+	}
+}
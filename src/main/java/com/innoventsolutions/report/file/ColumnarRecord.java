@@ -0,0 +1,269 @@
+package com.innoventsolutions.report.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The current row of a {@link ColumnarQuery}. Values are read straight from
+ * the mapped block, so only the pages of the columns actually read are
+ * loaded from disk. Compressed chunks are inflated once when their block is
+ * loaded and the entries of a dictionary encoded chunk are decoded once, the
+ * first time a row uses them.
+ * <p>
+ * The same instance is reused for every row of a stream, so
+ * {@link ColumnarQuery#createDataRow(ColumnarRecord)} must copy what it needs.
+ */
+public final class ColumnarRecord {
+	private final List<Column> columns;
+	private final int version;
+	private final ColumnType[] types;
+	private final ByteBuffer[] chunks;
+	private final byte[] encodings;
+	private final int[] nullOffsets;
+	private final int[] valueOffsets;
+	private final int[] indexOffsets;
+	private final byte[] indexWidths;
+	private final String[][] dictionaries;
+	private final byte[][] inflated;
+	private ByteBuffer block = null;
+	private int rowCount = 0;
+	private int row = 0;
+	private byte[] scratch = new byte[64];
+
+	ColumnarRecord(final List<Column> columns, final int version) {
+		this.columns = columns;
+		this.version = version;
+		types = new ColumnType[columns.size()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = columns.get(i).getType();
+		}
+		chunks = new ByteBuffer[types.length];
+		encodings = new byte[types.length];
+		nullOffsets = new int[types.length];
+		valueOffsets = new int[types.length];
+		indexOffsets = new int[types.length];
+		indexWidths = new byte[types.length];
+		dictionaries = new String[types.length][];
+		inflated = new byte[types.length][];
+	}
+
+	/**
+	 * Finds the chunks of a block.
+	 */
+	void load(final ByteBuffer block, final int rowCount) {
+		this.block = block;
+		this.rowCount = rowCount;
+		int position = 0;
+		for (int i = 0; i < types.length; i++) {
+			final int length = block.getInt(position);
+			int offset = position + 4;
+			final byte encoding = block.get(offset);
+			ByteBuffer chunk = block;
+			if (version == 1) {
+				offset += 1;
+			}
+			else {
+				final byte compression = block.get(offset + 1);
+				if (compression == ColumnarWriter.DEFLATE) {
+					chunk = inflate(i, offset + 6, length - 6, block.getInt(offset + 2));
+					offset = 0;
+				}
+				else if (compression == ColumnarWriter.UNCOMPRESSED) {
+					offset += 2;
+				}
+				else {
+					throw new IllegalStateException("Unknown compression " + compression
+						+ " of column " + columns.get(i));
+				}
+			}
+			chunks[i] = chunk;
+			encodings[i] = encoding;
+			if (chunk.get(offset) != 0) {
+				nullOffsets[i] = offset + 1;
+				offset += 1 + ((rowCount + 7) >>> 3);
+			}
+			else {
+				nullOffsets[i] = -1;
+				offset += 1;
+			}
+			valueOffsets[i] = offset;
+			if (encoding == ColumnarWriter.DICTIONARY && types[i] == ColumnType.STRING) {
+				final int count = chunk.getInt(offset);
+				final int data = offset + 4 + ((count + 1) << 2);
+				final int end = data + chunk.getInt(offset + 4 + (count << 2));
+				indexWidths[i] = chunk.get(end);
+				indexOffsets[i] = end + 1;
+				if (dictionaries[i] == null || dictionaries[i].length < count) {
+					dictionaries[i] = new String[count];
+				}
+				else {
+					Arrays.fill(dictionaries[i], null);
+				}
+			}
+			else if (encoding != ColumnarWriter.PLAIN) {
+				throw new IllegalStateException("Unknown encoding " + encoding + " of column "
+					+ columns.get(i));
+			}
+			position += 4 + length;
+		}
+	}
+
+	private ByteBuffer inflate(final int column, final int offset, final int length,
+			final int inflatedLength) {
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		final ByteBuffer compressed = block.duplicate();
+		compressed.position(offset);
+		compressed.get(scratch, 0, length);
+		if (inflated[column] == null || inflated[column].length < inflatedLength) {
+			inflated[column] = new byte[inflatedLength];
+		}
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(scratch, 0, length);
+			int count = 0;
+			while (count < inflatedLength && !inflater.finished()) {
+				final int inflatedCount = inflater.inflate(inflated[column], count,
+					inflatedLength - count);
+				if (inflatedCount == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				count += inflatedCount;
+			}
+			if (count != inflatedLength) {
+				throw new IllegalStateException("Truncated chunk of column " + columns.get(column));
+			}
+		}
+		catch (final DataFormatException e) {
+			throw new RuntimeException("Failed to inflate column " + columns.get(column), e);
+		}
+		finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(inflated[column], 0, inflatedLength);
+	}
+
+	void setRow(final int row) {
+		this.row = row;
+	}
+
+	public List<Column> getColumns() {
+		return columns;
+	}
+
+	public int getColumnCount() {
+		return types.length;
+	}
+
+	/**
+	 * @return the index of the named column
+	 * @throws IllegalArgumentException if there is no such column
+	 */
+	public int getColumnIndex(final String name) {
+		for (int i = 0; i < types.length; i++) {
+			if (columns.get(i).getName().equals(name)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No column " + name);
+	}
+
+	public boolean isNull(final int column) {
+		final int offset = nullOffsets[column];
+		return offset >= 0 && (chunks[column].get(offset + (row >>> 3)) & (1 << (row & 7))) != 0;
+	}
+
+	private void check(final int column, final ColumnType type) {
+		if (types[column] != type) {
+			throw new IllegalArgumentException("Column " + columns.get(column) + " does not hold " + type);
+		}
+	}
+
+	/**
+	 * @return the value, 0 if it is null
+	 */
+	public long getLong(final int column) {
+		check(column, ColumnType.LONG);
+		return chunks[column].getLong(valueOffsets[column] + (row << 3));
+	}
+
+	/**
+	 * @return the 8 bytes of a number or date column, 0 if it is null
+	 */
+	long getBits(final int column) {
+		return chunks[column].getLong(valueOffsets[column] + (row << 3));
+	}
+
+	/**
+	 * @return the value, 0 if it is null
+	 */
+	public double getDouble(final int column) {
+		check(column, ColumnType.DOUBLE);
+		return chunks[column].getDouble(valueOffsets[column] + (row << 3));
+	}
+
+	/**
+	 * @return the value or null
+	 */
+	public Date getDate(final int column) {
+		check(column, ColumnType.DATE);
+		if (isNull(column)) {
+			return null;
+		}
+		return new Date(chunks[column].getLong(valueOffsets[column] + (row << 3)));
+	}
+
+	/**
+	 * @return the value or null
+	 */
+	public String getString(final int column) {
+		check(column, ColumnType.STRING);
+		if (isNull(column)) {
+			return null;
+		}
+		final ByteBuffer chunk = chunks[column];
+		if (encodings[column] == ColumnarWriter.DICTIONARY) {
+			final int index;
+			switch (indexWidths[column]) {
+			case 1:
+				index = chunk.get(indexOffsets[column] + row) & 0xFF;
+				break;
+			case 2:
+				index = chunk.getShort(indexOffsets[column] + (row << 1)) & 0xFFFF;
+				break;
+			default:
+				index = chunk.getInt(indexOffsets[column] + (row << 2));
+			}
+			final String[] dictionary = dictionaries[column];
+			String value = dictionary[index];
+			if (value == null) {
+				final int offsets = valueOffsets[column] + 4;
+				final int count = chunk.getInt(valueOffsets[column]);
+				value = decode(chunk, offsets + ((count + 1) << 2), chunk.getInt(offsets + (index << 2)),
+					chunk.getInt(offsets + ((index + 1) << 2)));
+				dictionary[index] = value;
+			}
+			return value;
+		}
+		final int offsets = valueOffsets[column];
+		return decode(chunk, offsets + ((rowCount + 1) << 2), chunk.getInt(offsets + (row << 2)),
+			chunk.getInt(offsets + ((row + 1) << 2)));
+	}
+
+	private String decode(final ByteBuffer chunk, final int data, final int start, final int end) {
+		final int length = end - start;
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			scratch[i] = chunk.get(data + start + i);
+		}
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+}
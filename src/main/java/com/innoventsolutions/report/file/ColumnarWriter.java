@@ -0,0 +1,514 @@
+package com.innoventsolutions.report.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a columnar file for {@link ColumnarQuery}. Values are set column by
+ * column and each row is finished with {@link #endRow()}.
+ *
+ * <pre>
+ * try (final ColumnarWriter writer = new ColumnarWriter(path, columns)) {
+ * 	for (final Order order : orders) {
+ * 		writer.setString(0, order.getRegion());
+ * 		writer.setLong(1, order.getQuantity());
+ * 		writer.setDouble(2, order.getPrice());
+ * 		writer.endRow();
+ * 	}
+ * }
+ * </pre>
+ *
+ * The file layout, all numbers big-endian:
+ * <ul>
+ * <li>magic "RCOL", version (int), column count (int) and for each column its
+ * type (byte) and name (int length and UTF-8)</li>
+ * <li>blocks of up to {@link #setBlockRows(int) blockRows} rows. A block holds
+ * one chunk per column: chunk length (int), encoding (byte), compression
+ * (byte) and, if compressed, the uncompressed length (int) followed by the
+ * payload deflated. The payload is a null flag (byte) followed by a null
+ * bitmap if set, then the values. Plain values are 8 bytes each for numbers
+ * and dates, or row count + 1 offsets (int) and the UTF-8 bytes for strings.
+ * Dictionary encoded strings are the entry count (int), entry count + 1
+ * offsets (int) and the UTF-8 bytes of the entries, the width of an index
+ * (byte: 1, 2 or 4) and an index for each row.</li>
+ * <li>the block count (int) and for each block its offset (long), its row
+ * count (int) and for each column a statistics flag (byte) followed by the
+ * minimum and maximum (long, raw bits for doubles) of its values if set;
+ * then the offset of this footer (long) and the magic again</li>
+ * </ul>
+ * Unset values are null. Statistics are kept for the number and date columns
+ * of blocks with at least one value, so readers can skip blocks, see
+ * {@link ColumnarQuery#setRange(String, long, long)}. String chunks with few
+ * distinct values are dictionary encoded. Chunks are deflated when that makes
+ * them smaller, see {@link #setCompressionLevel(int)}.
+ * <p>
+ * Version 1 files had no compression byte and no statistics and are still
+ * read.
+ */
+public class ColumnarWriter implements Closeable {
+	static final int MAGIC = 0x52434F4C;
+	static final int VERSION = 2;
+	static final byte PLAIN = 0;
+	static final byte DICTIONARY = 1;
+	static final byte UNCOMPRESSED = 0;
+	static final byte DEFLATE = 1;
+	/**
+	 * Lets the chunk be deflated without copying it.
+	 */
+	private static final class ChunkBuffer extends ByteArrayOutputStream {
+		ChunkBuffer() {
+			super(0x10000);
+		}
+
+		byte[] getBuffer() {
+			return buf;
+		}
+	}
+
+	private final List<Column> columns;
+	private final DataOutputStream out;
+	private final ChunkBuffer chunkBytes = new ChunkBuffer();
+	private final DataOutputStream chunk = new DataOutputStream(chunkBytes);
+	private final List<long[]> blocks = new ArrayList<>();
+	/**
+	 * For each block, the statistics flag, minimum and maximum of each column
+	 */
+	private final List<long[]> blockStatistics = new ArrayList<>();
+	private final Map<String, Integer> dictionary = new HashMap<>();
+	private byte[] deflated = new byte[0x10000];
+	private int blockRows = 0x10000;
+	private int compressionLevel = Deflater.BEST_SPEED;
+	private int dictionaryLimit = 0x1000;
+	private long[][] longs;
+	private String[][] strings;
+	private boolean[][] nulls;
+	private int rowCount = 0;
+	private long position = 0L;
+	private long totalRows = 0L;
+	private boolean closed = false;
+
+	public ColumnarWriter(final Path file, final List<Column> columns) {
+		this(openFile(file), columns);
+	}
+
+	/**
+	 * @param outputStream where the file is written, closed by
+	 *            {@link #close()}
+	 * @param columns
+	 */
+	public ColumnarWriter(final OutputStream outputStream, final List<Column> columns) {
+		if (columns.isEmpty()) {
+			throw new IllegalArgumentException("At least one column is required");
+		}
+		this.columns = new ArrayList<>(columns);
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(outputStream, 0x10000));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(columns.size());
+			position = 12;
+			for (final Column column : columns) {
+				final byte[] name = column.getName().getBytes(StandardCharsets.UTF_8);
+				out.writeByte(column.getType().ordinal());
+				out.writeInt(name.length);
+				out.write(name);
+				position += 5 + name.length;
+			}
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to write columnar header", e);
+		}
+	}
+
+	private static OutputStream openFile(final Path file) {
+		try {
+			return Files.newOutputStream(file);
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to create " + file, e);
+		}
+	}
+
+	/**
+	 * @param blockRows the number of rows per block, set before the first row
+	 */
+	public void setBlockRows(final int blockRows) {
+		if (blockRows <= 0) {
+			throw new IllegalArgumentException("Block rows must be positive");
+		}
+		if (longs != null) {
+			throw new IllegalStateException("Rows already written");
+		}
+		this.blockRows = blockRows;
+	}
+
+	/**
+	 * @param compressionLevel the {@link Deflater} level for chunks,
+	 *            {@link Deflater#BEST_SPEED} by default, or
+	 *            {@link Deflater#NO_COMPRESSION} to write them as they are
+	 */
+	public void setCompressionLevel(final int compressionLevel) {
+		if (compressionLevel < Deflater.NO_COMPRESSION
+			|| compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+		}
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @param dictionaryLimit the most distinct values a string chunk may have
+	 *            to be dictionary encoded, 0 to never encode them
+	 */
+	public void setDictionaryLimit(final int dictionaryLimit) {
+		if (dictionaryLimit < 0) {
+			throw new IllegalArgumentException("Dictionary limit cannot be negative");
+		}
+		this.dictionaryLimit = dictionaryLimit;
+	}
+
+	public List<Column> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return the number of rows finished so far
+	 */
+	public long getRowCount() {
+		return totalRows;
+	}
+
+	private void allocate() {
+		final int count = columns.size();
+		longs = new long[count][];
+		strings = new String[count][];
+		nulls = new boolean[count][];
+		for (int i = 0; i < count; i++) {
+			if (columns.get(i).getType() == ColumnType.STRING) {
+				strings[i] = new String[blockRows];
+			}
+			else {
+				longs[i] = new long[blockRows];
+			}
+			nulls[i] = new boolean[blockRows];
+			Arrays.fill(nulls[i], true);
+		}
+	}
+
+	private void check(final int column, final ColumnType type) {
+		if (closed) {
+			throw new IllegalStateException("Writer is closed");
+		}
+		if (longs == null) {
+			allocate();
+		}
+		final ColumnType columnType = columns.get(column).getType();
+		if (columnType != type) {
+			throw new IllegalArgumentException("Column " + columns.get(column) + " does not hold " + type);
+		}
+	}
+
+	public void setLong(final int column, final long value) {
+		check(column, ColumnType.LONG);
+		longs[column][rowCount] = value;
+		nulls[column][rowCount] = false;
+	}
+
+	public void setDouble(final int column, final double value) {
+		check(column, ColumnType.DOUBLE);
+		longs[column][rowCount] = Double.doubleToRawLongBits(value);
+		nulls[column][rowCount] = false;
+	}
+
+	public void setString(final int column, final String value) {
+		check(column, ColumnType.STRING);
+		strings[column][rowCount] = value;
+		nulls[column][rowCount] = value == null;
+	}
+
+	public void setDate(final int column, final Date value) {
+		check(column, ColumnType.DATE);
+		if (value != null) {
+			longs[column][rowCount] = value.getTime();
+		}
+		nulls[column][rowCount] = value == null;
+	}
+
+	public void setNull(final int column) {
+		check(column, columns.get(column).getType());
+		nulls[column][rowCount] = true;
+	}
+
+	public void endRow() {
+		if (closed) {
+			throw new IllegalStateException("Writer is closed");
+		}
+		if (longs == null) {
+			allocate();
+		}
+		rowCount++;
+		totalRows++;
+		if (rowCount == blockRows) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() {
+		try {
+			blocks.add(new long[] { position, rowCount });
+			final long[] statistics = new long[columns.size() * 3];
+			blockStatistics.add(statistics);
+			for (int i = 0; i < columns.size(); i++) {
+				chunkBytes.reset();
+				final byte encoding = writeChunk(i, statistics);
+				final int length = chunkBytes.size();
+				final int compressedLength = deflate();
+				if (compressedLength > 0) {
+					out.writeInt(6 + compressedLength);
+					out.writeByte(encoding);
+					out.writeByte(DEFLATE);
+					out.writeInt(length);
+					out.write(deflated, 0, compressedLength);
+					position += 10 + compressedLength;
+				}
+				else {
+					out.writeInt(2 + length);
+					out.writeByte(encoding);
+					out.writeByte(UNCOMPRESSED);
+					chunkBytes.writeTo(out);
+					position += 6 + length;
+				}
+				Arrays.fill(nulls[i], 0, rowCount, true);
+				if (strings[i] != null) {
+					Arrays.fill(strings[i], 0, rowCount, null);
+				}
+			}
+			rowCount = 0;
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to write columnar block", e);
+		}
+	}
+
+	/**
+	 * Deflate the chunk into {@link #deflated}.
+	 *
+	 * @return the compressed length, or 0 if it is not worth compressing
+	 */
+	private int deflate() {
+		final int length = chunkBytes.size();
+		if (compressionLevel == Deflater.NO_COMPRESSION || length < 64) {
+			return 0;
+		}
+		// anything that does not save an eighth is not worth inflating
+		final int limit = length - (length >>> 3);
+		if (deflated.length < limit) {
+			deflated = new byte[Math.max(limit, deflated.length * 2)];
+		}
+		final Deflater deflater = new Deflater(compressionLevel);
+		try {
+			deflater.setInput(chunkBytes.getBuffer(), 0, length);
+			deflater.finish();
+			int compressedLength = 0;
+			while (!deflater.finished() && compressedLength < limit) {
+				compressedLength += deflater.deflate(deflated, compressedLength,
+					limit - compressedLength);
+			}
+			return deflater.finished() ? compressedLength : 0;
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Write the payload of a chunk and record its statistics.
+	 *
+	 * @return the encoding
+	 */
+	private byte writeChunk(final int column, final long[] statistics) throws IOException {
+		final boolean[] columnNulls = nulls[column];
+		boolean hasNulls = false;
+		for (int row = 0; row < rowCount && !hasNulls; row++) {
+			hasNulls = columnNulls[row];
+		}
+		chunk.writeBoolean(hasNulls);
+		if (hasNulls) {
+			final byte[] bitmap = new byte[(rowCount + 7) >>> 3];
+			for (int row = 0; row < rowCount; row++) {
+				if (columnNulls[row]) {
+					bitmap[row >>> 3] |= 1 << (row & 7);
+				}
+			}
+			chunk.write(bitmap);
+		}
+		if (strings[column] == null) {
+			final ColumnType type = columns.get(column).getType();
+			final long[] values = longs[column];
+			boolean found = false;
+			long min = 0L;
+			long max = 0L;
+			double minDouble = 0.0;
+			double maxDouble = 0.0;
+			for (int row = 0; row < rowCount; row++) {
+				if (columnNulls[row]) {
+					chunk.writeLong(0L);
+					continue;
+				}
+				final long value = values[row];
+				chunk.writeLong(value);
+				if (type == ColumnType.DOUBLE) {
+					final double d = Double.longBitsToDouble(value);
+					if (Double.isNaN(d)) {
+						continue;
+					}
+					if (!found || d < minDouble) {
+						minDouble = d;
+					}
+					if (!found || d > maxDouble) {
+						maxDouble = d;
+					}
+				}
+				else {
+					if (!found || value < min) {
+						min = value;
+					}
+					if (!found || value > max) {
+						max = value;
+					}
+				}
+				found = true;
+			}
+			if (found) {
+				statistics[column * 3] = 1L;
+				statistics[column * 3 + 1] = type == ColumnType.DOUBLE
+						? Double.doubleToRawLongBits(minDouble)
+						: min;
+				statistics[column * 3 + 2] = type == ColumnType.DOUBLE
+						? Double.doubleToRawLongBits(maxDouble)
+						: max;
+			}
+			return PLAIN;
+		}
+		final String[] values = strings[column];
+		if (writeDictionary(values)) {
+			return DICTIONARY;
+		}
+		final byte[][] utf8 = new byte[rowCount][];
+		int offset = 0;
+		chunk.writeInt(0);
+		for (int row = 0; row < rowCount; row++) {
+			utf8[row] = values[row] == null ? new byte[0] : values[row].getBytes(StandardCharsets.UTF_8);
+			offset += utf8[row].length;
+			chunk.writeInt(offset);
+		}
+		for (int row = 0; row < rowCount; row++) {
+			chunk.write(utf8[row]);
+		}
+		return PLAIN;
+	}
+
+	/**
+	 * Write the values as a dictionary and an index for each row if there are
+	 * few enough distinct values for that to pay.
+	 *
+	 * @return false if nothing was written
+	 */
+	private boolean writeDictionary(final String[] values) throws IOException {
+		final int limit = Math.min(dictionaryLimit, rowCount >>> 1);
+		dictionary.clear();
+		final int[] indexes = new int[rowCount];
+		final List<String> entries = new ArrayList<>();
+		for (int row = 0; row < rowCount; row++) {
+			final String value = values[row] == null ? "" : values[row];
+			Integer index = dictionary.get(value);
+			if (index == null) {
+				if (entries.size() == limit) {
+					return false;
+				}
+				index = Integer.valueOf(entries.size());
+				dictionary.put(value, index);
+				entries.add(value);
+			}
+			indexes[row] = index.intValue();
+		}
+		final byte[][] utf8 = new byte[entries.size()][];
+		chunk.writeInt(entries.size());
+		int offset = 0;
+		chunk.writeInt(0);
+		for (int i = 0; i < utf8.length; i++) {
+			utf8[i] = entries.get(i).getBytes(StandardCharsets.UTF_8);
+			offset += utf8[i].length;
+			chunk.writeInt(offset);
+		}
+		for (final byte[] entry : utf8) {
+			chunk.write(entry);
+		}
+		final int width = entries.size() <= 0x100 ? 1 : entries.size() <= 0x10000 ? 2 : 4;
+		chunk.writeByte(width);
+		for (int row = 0; row < rowCount; row++) {
+			switch (width) {
+			case 1:
+				chunk.writeByte(indexes[row]);
+				break;
+			case 2:
+				chunk.writeShort(indexes[row]);
+				break;
+			default:
+				chunk.writeInt(indexes[row]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the last block and the footer.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (rowCount > 0) {
+				writeBlock();
+			}
+			closed = true;
+			final long footer = position;
+			out.writeInt(blocks.size());
+			for (int i = 0; i < blocks.size(); i++) {
+				final long[] block = blocks.get(i);
+				out.writeLong(block[0]);
+				out.writeInt((int) block[1]);
+				final long[] statistics = blockStatistics.get(i);
+				for (int column = 0; column < columns.size(); column++) {
+					final boolean found = statistics[column * 3] != 0L;
+					out.writeBoolean(found);
+					if (found) {
+						out.writeLong(statistics[column * 3 + 1]);
+						out.writeLong(statistics[column * 3 + 2]);
+					}
+				}
+			}
+			out.writeLong(footer);
+			out.writeInt(MAGIC);
+		}
+		finally {
+			closed = true;
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package com.innoventsolutions.report.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.innoventsolutions.data.model.Query;
+import com.innoventsolutions.report.Cancellable;
+import com.innoventsolutions.report.CancellationToken;
+
+/**
+ * Reads data rows from a CSV or TSV file through memory mapped segments, so
+ * extracts far larger than the heap can be reported. Subclasses turn each
+ * {@link CsvRecord} into a data row, the way {@link
+ * com.innoventsolutions.report.SqlQuery} subclasses turn a result set row.
+ *
+ * <pre>
+ * final CsvQuery&lt;Order&gt; query = new CsvQuery&lt;Order&gt;(path) {
+ * 	&#64;Override
+ * 	protected Order createDataRow(final CsvRecord record) {
+ * 		return new Order(record.getString(0), record.getLong(1), record.getDouble(2));
+ * 	}
+ * };
+ * query.setHeader(true);
+ * </pre>
+ *
+ * Fields follow RFC 4180: a field in quotes may contain delimiters, line
+ * breaks and doubled quotes. Lines end with LF or CRLF and blank lines are
+ * skipped. The charset must encode the delimiter, quote and line break as
+ * single bytes, as UTF-8 and the ISO-8859 charsets do.
+ * <p>
+ * A parallel stream splits the file at line breaks, so it may only be used
+ * when no quoted field contains a line break.
+ *
+ * @param <T>
+ */
+public abstract class CsvQuery<T> implements Query<T>, Cancellable {
+	public static final long SEGMENT_SIZE = 1L << 30;
+	private final Path file;
+	private byte delimiter = ',';
+	private byte quote = '"';
+	private Charset charset = StandardCharsets.UTF_8;
+	private boolean header = false;
+	private boolean parallel = false;
+	private int maxRecordLength = 1 << 20;
+	private long minSplitSize = 1L << 20;
+	private CancellationToken cancellationToken = null;
+
+	public CsvQuery(final Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @param delimiter ',' by default, '\t' for TSV
+	 */
+	public void setDelimiter(final char delimiter) {
+		this.delimiter = toByte(delimiter);
+	}
+
+	public void setQuote(final char quote) {
+		this.quote = toByte(quote);
+	}
+
+	private static byte toByte(final char c) {
+		if (c >= 0x80 || c == '\n' || c == '\r') {
+			throw new IllegalArgumentException("Not usable as a separator: " + (int) c);
+		}
+		return (byte) c;
+	}
+
+	public void setCharset(final Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * @param header true if the first record holds the column names and is
+	 *            not data
+	 */
+	public void setHeader(final boolean header) {
+		this.header = header;
+	}
+
+	/**
+	 * @param parallel true to return a parallel stream; see the class comment
+	 */
+	public void setParallel(final boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Segments overlap by this many bytes so a record that starts near the
+	 * end of one can be read whole. A longer record that crosses a segment
+	 * boundary fails the stream. A segment and its overlap must fit in one
+	 * mapping, so the length is at most Integer.MAX_VALUE - SEGMENT_SIZE.
+	 */
+	public void setMaxRecordLength(final int maxRecordLength) {
+		if (maxRecordLength <= 0) {
+			throw new IllegalArgumentException("Maximum record length must be positive");
+		}
+		if (maxRecordLength > Integer.MAX_VALUE - SEGMENT_SIZE) {
+			throw new IllegalArgumentException(
+					"Maximum record length may not exceed " + (Integer.MAX_VALUE - SEGMENT_SIZE));
+		}
+		this.maxRecordLength = maxRecordLength;
+	}
+
+	/**
+	 * @param minSplitSize parallel streams do not split ranges smaller than
+	 *            this many bytes
+	 */
+	public void setMinSplitSize(final long minSplitSize) {
+		this.minSplitSize = Math.max(1L, minSplitSize);
+	}
+
+	@Override
+	public void setCancellationToken(final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	protected abstract T createDataRow(CsvRecord record);
+
+	/**
+	 * @return the fields of the first record, or an empty list for an empty
+	 *         file
+	 */
+	public List<String> getHeader() {
+		final List<String> names = new ArrayList<>();
+		final ByteBuffer[] segments = map();
+		if (segments.length > 0) {
+			final CsvRecord record = newRecord();
+			parse(record, segments, 0L);
+			for (int i = 0; i < record.getFieldCount(); i++) {
+				names.add(record.getString(i));
+			}
+		}
+		return names;
+	}
+
+	private CsvRecord newRecord() {
+		return new CsvRecord(delimiter, quote, charset);
+	}
+
+	private ByteBuffer[] map() {
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			final ByteBuffer[] segments = new ByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				final long start = i * SEGMENT_SIZE;
+				final long end = Math.min(size, start + SEGMENT_SIZE + maxRecordLength);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			}
+			return segments;
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to map " + file, e);
+		}
+	}
+
+	/**
+	 * Parse the record that starts at position.
+	 *
+	 * @return the position of the next record
+	 */
+	private long parse(final CsvRecord record, final ByteBuffer[] segments, final long position) {
+		final int index = (int) (position / SEGMENT_SIZE);
+		final ByteBuffer segment = segments[index];
+		final long segmentStart = index * SEGMENT_SIZE;
+		// the overlap of a segment may reach the end of the file
+		final boolean lastSegment = isAtEnd(segments, segmentStart + segment.limit());
+		final int next = record.parse(segment, (int) (position - segmentStart), segment.limit(),
+			lastSegment, position);
+		if (next < 0) {
+			throw new IllegalStateException("Record at offset " + position
+				+ " is longer than the maximum record length " + maxRecordLength);
+		}
+		return segmentStart + next;
+	}
+
+	private static boolean isAtEnd(final ByteBuffer[] segments, final long position) {
+		final int last = segments.length - 1;
+		return position >= last * SEGMENT_SIZE + segments[last].limit();
+	}
+
+	@Override
+	public Stream<T> getStream() {
+		if (cancellationToken != null) {
+			cancellationToken.throwIfCancelled();
+		}
+		final ByteBuffer[] segments = map();
+		if (segments.length == 0) {
+			return Stream.empty();
+		}
+		final long size = (segments.length - 1) * SEGMENT_SIZE + segments[segments.length - 1].limit();
+		final long start = header ? parse(newRecord(), segments, 0L) : 0L;
+		return StreamSupport.stream(new RecordSpliterator(segments, start, size), parallel);
+	}
+
+	private class RecordSpliterator implements Spliterator<T> {
+		private final ByteBuffer[] segments;
+		private final CsvRecord record = newRecord();
+		private long position;
+		private final long end;
+
+		RecordSpliterator(final ByteBuffer[] segments, final long position, final long end) {
+			this.segments = segments;
+			this.position = position;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super T> action) {
+			while (position < end) {
+				if (cancellationToken != null) {
+					cancellationToken.throwIfCancelled();
+				}
+				position = parse(record, segments, position);
+				if (!record.isBlank()) {
+					action.accept(createDataRow(record));
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			if (end - position < minSplitSize * 2) {
+				return null;
+			}
+			final long split = nextLine(position + (end - position) / 2);
+			if (split <= position || split >= end) {
+				return null;
+			}
+			final Spliterator<T> prefix = new RecordSpliterator(segments, position, split);
+			position = split;
+			return prefix;
+		}
+
+		/**
+		 * @return the start of the first line after position, or end
+		 */
+		private long nextLine(final long position) {
+			final int index = (int) (position / SEGMENT_SIZE);
+			final ByteBuffer segment = segments[index];
+			final long segmentStart = index * SEGMENT_SIZE;
+			for (int i = (int) (position - segmentStart); i < segment.limit(); i++) {
+				if (segment.get(i) == '\n') {
+					return segmentStart + i + 1;
+				}
+			}
+			return end;
+		}
+
+		@Override
+		public long estimateSize() {
+			// in bytes, not records
+			return end - position;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package com.innoventsolutions.report.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * One record of a {@link CsvQuery}. The fields are slices of the mapped file;
+ * nothing is copied until a value is asked for, and numbers are parsed from
+ * the bytes without creating a string.
+ * <p>
+ * The same instance is reused for every record of a stream, so
+ * {@link CsvQuery#createDataRow(CsvRecord)} must copy what it needs.
+ */
+public final class CsvRecord {
+	private final byte delimiter;
+	private final byte quote;
+	private final Charset charset;
+	private ByteBuffer buffer = null;
+	private long offset = 0L;
+	private int count = 0;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private boolean[] quoted = new boolean[16];
+	private byte[] scratch = new byte[64];
+
+	CsvRecord(final byte delimiter, final byte quote, final Charset charset) {
+		this.delimiter = delimiter;
+		this.quote = quote;
+		this.charset = charset;
+	}
+
+	/**
+	 * Reads the record starting at position in the buffer.
+	 *
+	 * @param fileOffset the offset of position in the file, for messages
+	 * @return the position after the record and its line break, or -1 if the
+	 *         record does not end before limit and more data follows
+	 */
+	int parse(final ByteBuffer buffer, final int position, final int limit, final boolean lastSegment,
+			final long fileOffset) {
+		this.buffer = buffer;
+		this.offset = fileOffset;
+		count = 0;
+		int pos = position;
+		while (true) {
+			if (count == starts.length) {
+				final int length = count * 2;
+				starts = Arrays.copyOf(starts, length);
+				ends = Arrays.copyOf(ends, length);
+				quoted = Arrays.copyOf(quoted, length);
+			}
+			final int start = pos;
+			int end;
+			if (pos < limit && buffer.get(pos) == quote) {
+				pos++;
+				while (true) {
+					if (pos >= limit) {
+						if (!lastSegment) {
+							return -1;
+						}
+						throw new IllegalStateException("Unterminated quoted field at offset " + fileOffset);
+					}
+					if (buffer.get(pos) == quote) {
+						if (pos + 1 < limit && buffer.get(pos + 1) == quote) {
+							pos += 2;
+							continue;
+						}
+						if (pos + 1 >= limit && !lastSegment) {
+							return -1;
+						}
+						break;
+					}
+					pos++;
+				}
+				pos++;
+				end = pos;
+				quoted[count] = true;
+				if (pos < limit && buffer.get(pos) == '\r') {
+					pos++;
+				}
+			}
+			else {
+				while (pos < limit) {
+					final byte b = buffer.get(pos);
+					if (b == delimiter || b == '\n') {
+						break;
+					}
+					pos++;
+				}
+				end = pos;
+				quoted[count] = false;
+			}
+			if (pos >= limit) {
+				if (!lastSegment) {
+					return -1;
+				}
+				starts[count] = start;
+				ends[count] = trimReturn(start, end);
+				count++;
+				return pos;
+			}
+			final byte b = buffer.get(pos);
+			if (b == delimiter) {
+				starts[count] = start;
+				ends[count] = end;
+				count++;
+				pos++;
+			}
+			else if (b == '\n') {
+				starts[count] = start;
+				ends[count] = trimReturn(start, end);
+				count++;
+				return pos + 1;
+			}
+			else {
+				throw new IllegalStateException("Unexpected character after quoted field at offset "
+					+ fileOffset);
+			}
+		}
+	}
+
+	private int trimReturn(final int start, final int end) {
+		return end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+	}
+
+	/**
+	 * @return the offset of the record in the file
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return true for an empty line
+	 */
+	boolean isBlank() {
+		return count == 1 && !quoted[0] && ends[0] == starts[0];
+	}
+
+	public int getFieldCount() {
+		return count;
+	}
+
+	private void check(final int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Field " + index + " of " + count + " at offset " + offset);
+		}
+	}
+
+	/**
+	 * @return true if the field has no characters (quoted or not)
+	 */
+	public boolean isEmpty(final int index) {
+		check(index);
+		return ends[index] - starts[index] == (quoted[index] ? 2 : 0);
+	}
+
+	public String getString(final int index) {
+		check(index);
+		if (!quoted[index]) {
+			return decode(starts[index], ends[index]);
+		}
+		final int start = starts[index] + 1;
+		final int end = ends[index] - 1;
+		int length = 0;
+		ensureScratch(end - start);
+		for (int pos = start; pos < end; pos++) {
+			final byte b = buffer.get(pos);
+			scratch[length++] = b;
+			if (b == quote) {
+				// an escaped quote is written twice
+				pos++;
+			}
+		}
+		return new String(scratch, 0, length, charset);
+	}
+
+	private String decode(final int start, final int end) {
+		final int length = end - start;
+		ensureScratch(length);
+		for (int i = 0; i < length; i++) {
+			scratch[i] = buffer.get(start + i);
+		}
+		return new String(scratch, 0, length, charset);
+	}
+
+	private void ensureScratch(final int length) {
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+	}
+
+	/**
+	 * @return the field as a decimal integer, parsed in place
+	 * @throws NumberFormatException if the field is empty or not an integer
+	 */
+	public long getLong(final int index) {
+		check(index);
+		int pos = starts[index];
+		int end = ends[index];
+		if (quoted[index]) {
+			pos++;
+			end--;
+		}
+		if (pos == end) {
+			throw new NumberFormatException("Empty field " + index + " at offset " + offset);
+		}
+		final boolean negative = buffer.get(pos) == '-';
+		if (negative || buffer.get(pos) == '+') {
+			pos++;
+		}
+		if (pos == end || end - pos > 19) {
+			return Long.parseLong(getString(index));
+		}
+		long value = 0L;
+		for (; pos < end; pos++) {
+			final int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Field " + index + " at offset " + offset
+					+ " is not an integer: " + getString(index));
+			}
+			value = value * 10 - digit;
+			if (value > 0) {
+				// overflowed, let the JDK report it
+				return Long.parseLong(getString(index));
+			}
+		}
+		if (negative) {
+			return value;
+		}
+		if (value == Long.MIN_VALUE) {
+			return Long.parseLong(getString(index));
+		}
+		return -value;
+	}
+
+	public int getInt(final int index) {
+		final long value = getLong(index);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Field " + index + " at offset " + offset
+				+ " is out of integer range: " + value);
+		}
+		return (int) value;
+	}
+
+	public double getDouble(final int index) {
+		return Double.parseDouble(getString(index));
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append((char) delimiter);
+			}
+			sb.append(getString(i));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,8 @@
+package com.innoventsolutions.report.metrics;
+
+/**
+ * A stage of a report run that reports to a {@link MetricsListener}.
+ */
+public interface Metered {
+	void setMetricsListener(MetricsListener metricsListener);
+}
@@ -0,0 +1,50 @@
+package com.innoventsolutions.report.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to the target and times flush and close as the
+ * {@link Stage#FLUSH} stage.
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+	private final MetricsListener metricsListener;
+
+	public MeteredOutputStream(final OutputStream out, final MetricsListener metricsListener) {
+		super(out);
+		this.metricsListener = metricsListener;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		out.write(b);
+		metricsListener.bytesWritten(1);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		out.write(b, off, len);
+		metricsListener.bytesWritten(len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		final long start = System.nanoTime();
+		final long cpuStart = StageClock.cpuTime(metricsListener);
+		out.flush();
+		StageClock.record(metricsListener, Stage.FLUSH, start, cpuStart);
+	}
+
+	@Override
+	public void close() throws IOException {
+		final long start = System.nanoTime();
+		final long cpuStart = StageClock.cpuTime(metricsListener);
+		try {
+			out.close();
+		}
+		finally {
+			StageClock.record(metricsListener, Stage.FLUSH, start, cpuStart);
+		}
+	}
+}
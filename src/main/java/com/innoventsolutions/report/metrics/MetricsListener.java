@@ -0,0 +1,69 @@
+package com.innoventsolutions.report.metrics;
+
+/**
+ * Receives the measurements of a report run. All methods have empty defaults
+ * so a listener only implements what it needs. Listeners may be called from
+ * several threads at once.
+ * <p>
+ * The stages check {@link #isEnabled()} once per run, so {@link #NONE} costs
+ * a single branch per row.
+ */
+public interface MetricsListener {
+	MetricsListener NONE = new MetricsListener() {
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+	};
+
+	default boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Reading the thread CPU time costs far more than reading the clock, so
+	 * it is only measured when a listener asks for it.
+	 *
+	 * @return true to receive CPU times in {@link #stageTime}
+	 */
+	default boolean isCpuTimeEnabled() {
+		return false;
+	}
+
+	default void runStarted() {
+	}
+
+	default void runFinished(final long elapsedNanos) {
+	}
+
+	/**
+	 * @param elapsedNanos time from the start of the query to the first data
+	 *            row
+	 */
+	default void firstRow(final long elapsedNanos) {
+	}
+
+	/**
+	 * @param stage
+	 * @param elapsedNanos
+	 * @param cpuNanos CPU time of the current thread, or -1 if CPU time is not
+	 *            enabled
+	 */
+	default void stageTime(final Stage stage, final long elapsedNanos, final long cpuNanos) {
+	}
+
+	default void rowsIn(final Stage stage, final long count) {
+	}
+
+	default void rowsOut(final Stage stage, final long count) {
+	}
+
+	/**
+	 * @param level the most general level that broke
+	 */
+	default void groupBreak(final int level) {
+	}
+
+	default void bytesWritten(final long count) {
+	}
+}
@@ -0,0 +1,215 @@
+package com.innoventsolutions.report.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A listener that adds up the measurements of any number of runs. Use one
+ * instance per run to look at a single report or share one to get totals for
+ * the node; {@link #register(String)} publishes it through JMX.
+ */
+public class ReportMetrics implements MetricsListener, ReportMetricsMXBean {
+	private static final Stage[] STAGES = Stage.values();
+	private final boolean cpuTimeEnabled;
+	private final LongAdder runsStarted = new LongAdder();
+	private final LongAdder runsFinished = new LongAdder();
+	private final LongAdder runNanos = new LongAdder();
+	private final LongAdder firstRowCount = new LongAdder();
+	private final LongAdder firstRowNanos = new LongAdder();
+	private final LongAdder groupBreaks = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder[] stageNanos = newAdders();
+	private final LongAdder[] stageCpuNanos = newAdders();
+	private final LongAdder[] stageRowsIn = newAdders();
+	private final LongAdder[] stageRowsOut = newAdders();
+
+	public ReportMetrics() {
+		this(false);
+	}
+
+	/**
+	 * @param cpuTimeEnabled true to measure the CPU time of every stage, which
+	 *            adds noticeable overhead per row
+	 */
+	public ReportMetrics(final boolean cpuTimeEnabled) {
+		this.cpuTimeEnabled = cpuTimeEnabled;
+	}
+
+	private static LongAdder[] newAdders() {
+		final LongAdder[] adders = new LongAdder[STAGES.length];
+		for (int i = 0; i < adders.length; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * Register with the platform MBean server as
+	 * com.innoventsolutions.report:type=ReportMetrics,name=<i>name</i>.
+	 *
+	 * @param name
+	 * @return the object name
+	 */
+	public ObjectName register(final String name) {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			final ObjectName objectName = new ObjectName(
+					"com.innoventsolutions.report:type=ReportMetrics,name=" + ObjectName.quote(name));
+			server.registerMBean(this, objectName);
+			return objectName;
+		}
+		catch (final JMException e) {
+			throw new RuntimeException("Failed to register metrics " + name, e);
+		}
+	}
+
+	@Override
+	public boolean isCpuTimeEnabled() {
+		return cpuTimeEnabled;
+	}
+
+	@Override
+	public void runStarted() {
+		runsStarted.increment();
+	}
+
+	@Override
+	public void runFinished(final long elapsedNanos) {
+		runsFinished.increment();
+		runNanos.add(elapsedNanos);
+	}
+
+	@Override
+	public void firstRow(final long elapsedNanos) {
+		firstRowCount.increment();
+		firstRowNanos.add(elapsedNanos);
+	}
+
+	@Override
+	public void stageTime(final Stage stage, final long elapsedNanos, final long cpuNanos) {
+		stageNanos[stage.ordinal()].add(elapsedNanos);
+		if (cpuNanos >= 0) {
+			stageCpuNanos[stage.ordinal()].add(cpuNanos);
+		}
+	}
+
+	@Override
+	public void rowsIn(final Stage stage, final long count) {
+		stageRowsIn[stage.ordinal()].add(count);
+	}
+
+	@Override
+	public void rowsOut(final Stage stage, final long count) {
+		stageRowsOut[stage.ordinal()].add(count);
+	}
+
+	@Override
+	public void groupBreak(final int level) {
+		groupBreaks.increment();
+	}
+
+	@Override
+	public void bytesWritten(final long count) {
+		bytesWritten.add(count);
+	}
+
+	@Override
+	public long getRunsStarted() {
+		return runsStarted.sum();
+	}
+
+	@Override
+	public long getRunsFinished() {
+		return runsFinished.sum();
+	}
+
+	@Override
+	public long getTotalRunTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(runNanos.sum());
+	}
+
+	@Override
+	public double getAverageTimeToFirstRowMillis() {
+		final long count = firstRowCount.sum();
+		if (count == 0) {
+			return 0;
+		}
+		return firstRowNanos.sum() / 1000000.0 / count;
+	}
+
+	@Override
+	public long getGroupBreaks() {
+		return groupBreaks.sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	private static Map<String, Long> toMap(final LongAdder[] adders, final boolean nanos) {
+		final Map<String, Long> map = new LinkedHashMap<>();
+		for (final Stage stage : STAGES) {
+			final long sum = adders[stage.ordinal()].sum();
+			map.put(stage.name(), Long.valueOf(nanos ? TimeUnit.NANOSECONDS.toMillis(sum) : sum));
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getStageTimeMillis() {
+		return toMap(stageNanos, true);
+	}
+
+	@Override
+	public Map<String, Long> getStageCpuTimeMillis() {
+		return toMap(stageCpuNanos, true);
+	}
+
+	@Override
+	public Map<String, Long> getStageRowsIn() {
+		return toMap(stageRowsIn, false);
+	}
+
+	@Override
+	public Map<String, Long> getStageRowsOut() {
+		return toMap(stageRowsOut, false);
+	}
+
+	@Override
+	public void reset() {
+		runsStarted.reset();
+		runsFinished.reset();
+		runNanos.reset();
+		firstRowCount.reset();
+		firstRowNanos.reset();
+		groupBreaks.reset();
+		bytesWritten.reset();
+		for (int i = 0; i < STAGES.length; i++) {
+			stageNanos[i].reset();
+			stageCpuNanos[i].reset();
+			stageRowsIn[i].reset();
+			stageRowsOut[i].reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("runs=").append(getRunsFinished());
+		sb.append(" firstRowMillis=").append(getAverageTimeToFirstRowMillis());
+		sb.append(" groupBreaks=").append(getGroupBreaks());
+		sb.append(" bytes=").append(getBytesWritten());
+		sb.append(" timeMillis=").append(getStageTimeMillis());
+		sb.append(" rowsIn=").append(getStageRowsIn());
+		sb.append(" rowsOut=").append(getStageRowsOut());
+		return sb.toString();
+	}
+}
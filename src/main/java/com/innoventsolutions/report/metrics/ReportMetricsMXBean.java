@@ -0,0 +1,31 @@
+package com.innoventsolutions.report.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ReportMetrics}. Stage maps are keyed by {@link Stage}
+ * name.
+ */
+public interface ReportMetricsMXBean {
+	long getRunsStarted();
+
+	long getRunsFinished();
+
+	long getTotalRunTimeMillis();
+
+	double getAverageTimeToFirstRowMillis();
+
+	long getGroupBreaks();
+
+	long getBytesWritten();
+
+	Map<String, Long> getStageTimeMillis();
+
+	Map<String, Long> getStageCpuTimeMillis();
+
+	Map<String, Long> getStageRowsIn();
+
+	Map<String, Long> getStageRowsOut();
+
+	void reset();
+}
@@ -0,0 +1,35 @@
+package com.innoventsolutions.report.metrics;
+
+/**
+ * The stages of a report run that are timed and counted.
+ */
+public enum Stage {
+	/**
+	 * Executing the query and moving the cursor
+	 */
+	QUERY_FETCH,
+	/**
+	 * Turning the current result set row into a data row
+	 */
+	CREATE_DATA_ROW,
+	/**
+	 * Sorting the data rows into group order
+	 */
+	SORT,
+	/**
+	 * Detecting group breaks, aggregating and producing the bindings
+	 */
+	GROUPING,
+	/**
+	 * Resolving the CSS of the design into output styles
+	 */
+	STYLE_RESOLUTION,
+	/**
+	 * Rendering the bindings into the output format
+	 */
+	EMIT,
+	/**
+	 * Writing buffered output to the target
+	 */
+	FLUSH
+}
@@ -0,0 +1,39 @@
+package com.innoventsolutions.report.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Helpers for timing a stage.
+ *
+ * <pre>
+ * final long start = System.nanoTime();
+ * final long cpuStart = StageClock.cpuTime(metricsListener);
+ * ...
+ * StageClock.record(metricsListener, Stage.EMIT, start, cpuStart);
+ * </pre>
+ */
+public class StageClock {
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+	private StageClock() {
+	}
+
+	/**
+	 * @return the CPU time of the current thread or -1 if the listener does
+	 *         not want CPU times
+	 */
+	public static long cpuTime(final MetricsListener metricsListener) {
+		if (!metricsListener.isCpuTimeEnabled()) {
+			return -1;
+		}
+		return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+	}
+
+	public static void record(final MetricsListener metricsListener, final Stage stage,
+			final long start, final long cpuStart) {
+		final long elapsed = System.nanoTime() - start;
+		final long cpu = cpuStart < 0 ? -1 : THREAD_MX_BEAN.getCurrentThreadCpuTime() - cpuStart;
+		metricsListener.stageTime(stage, elapsed, cpu);
+	}
+}
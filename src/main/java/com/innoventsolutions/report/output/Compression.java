@@ -0,0 +1,22 @@
+package com.innoventsolutions.report.output;
+
+/**
+ * Compression formats supported by {@link OutputSink}.
+ */
+public enum Compression {
+	NONE(null), GZIP("gzip"), DEFLATE("deflate"), ZSTD("zstd"), BROTLI("br");
+
+	private final String contentEncoding;
+
+	private Compression(final String contentEncoding) {
+		this.contentEncoding = contentEncoding;
+	}
+
+	/**
+	 * @return the HTTP Content-Encoding token for this format or null if the
+	 *         output is not compressed
+	 */
+	public String getContentEncoding() {
+		return contentEncoding;
+	}
+}
@@ -0,0 +1,278 @@
+package com.innoventsolutions.report.output;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.innoventsolutions.report.metrics.MeteredOutputStream;
+import com.innoventsolutions.report.metrics.MetricsListener;
+import com.innoventsolutions.report.metrics.Stage;
+
+/**
+ * The destination of an emitter. Wraps the caller's output stream with
+ * optional streaming compression so the emitted bytes are compressed as they
+ * are written rather than copied and compressed afterwards.
+ * <p>
+ * Nothing is queued: every write goes through the buffer and the compressor
+ * straight to the target stream, so a slow consumer (e.g. an HTTP client)
+ * blocks the emitter instead of letting output pile up in memory. Flushing
+ * the stream does not flush the compressor unless {@link #setSyncFlush(boolean)}
+ * is on.
+ * <p>
+ * ZSTD and BROTLI are looked up on the class path at run time. For ZSTD the
+ * pure Java aircompressor stream is preferred over zstd-jni. If neither
+ * library is present an {@link IllegalStateException} is thrown when the
+ * stream is opened.
+ */
+public class OutputSink {
+	public static final int DEFAULT_BUFFER_SIZE = 0x10000;
+	private static final String[] ZSTD_STREAM_CLASSES = {
+			"io.airlift.compress.zstd.ZstdOutputStream", "com.github.luben.zstd.ZstdOutputStream" };
+	private static final String[] BROTLI_STREAM_CLASSES = {
+			"com.aayushatharva.brotli4j.encoder.BrotliOutputStream" };
+	private final OutputStream target;
+	private Compression compression = Compression.NONE;
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private Charset charset = StandardCharsets.UTF_8;
+	private boolean syncFlush = false;
+	private OutputStream outputStream = null;
+	private PrintWriter writer = null;
+	private MetricsListener metricsListener = MetricsListener.NONE;
+
+	public OutputSink(final OutputStream target) {
+		if (target == null) {
+			throw new IllegalArgumentException("Target may not be null");
+		}
+		this.target = target;
+	}
+
+	public OutputSink(final OutputStream target, final Compression compression) {
+		this(target);
+		setCompression(compression);
+	}
+
+	public void setCompression(final Compression compression) {
+		checkNotOpen();
+		this.compression = compression == null ? Compression.NONE : compression;
+	}
+
+	/**
+	 * @param level compression level. For GZIP and DEFLATE this is the
+	 *            {@link Deflater} level from 0 to 9 (or -1 for the default).
+	 *            For ZSTD and BROTLI it is passed through when the library
+	 *            accepts a level.
+	 */
+	public void setLevel(final int level) {
+		checkNotOpen();
+		this.level = level;
+	}
+
+	/**
+	 * @param bufferSize size of the buffer in front of the compressor and of
+	 *            the compressor's output buffer
+	 */
+	public void setBufferSize(final int bufferSize) {
+		checkNotOpen();
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		this.bufferSize = bufferSize;
+	}
+
+	public void setCharset(final Charset charset) {
+		checkNotOpen();
+		this.charset = charset;
+	}
+
+	/**
+	 * Make flushing the stream sync flush a GZIP or DEFLATE compressor, so
+	 * everything written so far reaches the target, e.g. for NDJSON streamed
+	 * to a client. Off by default, since emitters that flush often would lose
+	 * much of the compression. Unlike the other settings this may be changed
+	 * after the sink is opened.
+	 *
+	 * @param syncFlush
+	 */
+	public void setSyncFlush(final boolean syncFlush) {
+		this.syncFlush = syncFlush;
+	}
+
+	/**
+	 * Count the bytes that reach the target (after compression) and report
+	 * the target's flush and close as {@link Stage#FLUSH}. Must be set before
+	 * the sink is opened, which for most emitters is when they are
+	 * constructed.
+	 *
+	 * @param metricsListener
+	 */
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		checkNotOpen();
+		this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * @return the value for the HTTP Content-Encoding header or null if the
+	 *         output is not compressed
+	 */
+	public String getContentEncoding() {
+		return compression.getContentEncoding();
+	}
+
+	private void checkNotOpen() {
+		if (outputStream != null) {
+			throw new IllegalStateException("Sink is already open");
+		}
+	}
+
+	/**
+	 * @return the stream emitters write to. Closing it finishes the
+	 *         compressed data and closes the target.
+	 */
+	public OutputStream getOutputStream() {
+		if (outputStream == null) {
+			try {
+				final OutputStream target = metricsListener.isEnabled()
+						? new MeteredOutputStream(this.target, metricsListener)
+						: this.target;
+				outputStream = new BufferedOutputStream(openCompressedStream(target), bufferSize);
+			}
+			catch (final IOException e) {
+				throw new RuntimeException("Failed to open output", e);
+			}
+		}
+		return outputStream;
+	}
+
+	/**
+	 * @return a writer over {@link #getOutputStream()} using the sink's
+	 *         charset
+	 */
+	public PrintWriter getWriter() {
+		if (writer == null) {
+			writer = new PrintWriter(
+					new BufferedWriter(new OutputStreamWriter(getOutputStream(), charset), bufferSize));
+		}
+		return writer;
+	}
+
+	/**
+	 * Finish the compressed data and close the target.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+		}
+		else if (outputStream != null) {
+			outputStream.close();
+		}
+		else {
+			target.close();
+		}
+	}
+
+	private OutputStream openCompressedStream(final OutputStream target) throws IOException {
+		switch (compression) {
+		case GZIP:
+			// created sync flushing, but flush() only sync flushes when asked to
+			return new GZIPOutputStream(target, bufferSize, true) {
+				{
+					def.setLevel(level);
+				}
+
+				@Override
+				public void flush() throws IOException {
+					if (syncFlush) {
+						super.flush();
+					}
+					else {
+						out.flush();
+					}
+				}
+			};
+		case DEFLATE:
+			return new DeflaterOutputStream(target, new Deflater(level), bufferSize, true) {
+				@Override
+				public void flush() throws IOException {
+					if (syncFlush) {
+						super.flush();
+					}
+					else {
+						out.flush();
+					}
+				}
+
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						def.end();
+					}
+				}
+			};
+		case ZSTD:
+			return openLibraryStream(ZSTD_STREAM_CLASSES, target);
+		case BROTLI:
+			return openLibraryStream(BROTLI_STREAM_CLASSES, target);
+		default:
+			return target;
+		}
+	}
+
+	private OutputStream openLibraryStream(final String[] classNames, final OutputStream target)
+			throws IOException {
+		for (final String className : classNames) {
+			final Class<?> streamClass;
+			try {
+				streamClass = Class.forName(className);
+			}
+			catch (final ClassNotFoundException e) {
+				continue;
+			}
+			try {
+				if (level != Deflater.DEFAULT_COMPRESSION) {
+					try {
+						final Constructor<?> constructor = streamClass.getConstructor(
+							OutputStream.class, int.class);
+						return (OutputStream) constructor.newInstance(target,
+							Integer.valueOf(level));
+					}
+					catch (final NoSuchMethodException e) {
+						// fall through to the default level
+					}
+				}
+				final Constructor<?> constructor = streamClass.getConstructor(OutputStream.class);
+				return (OutputStream) constructor.newInstance(target);
+			}
+			catch (final InvocationTargetException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new RuntimeException("Failed to create " + className, e.getCause());
+			}
+			catch (final ReflectiveOperationException e) {
+				throw new RuntimeException("Failed to create " + className, e);
+			}
+		}
+		throw new IllegalStateException(
+				"No " + compression + " library found on the class path");
+	}
+}
@@ -0,0 +1,236 @@
+package com.innoventsolutions.report.output;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses to raw deflate data, without a zlib or gzip wrapper, on several
+ * threads. The input is cut into blocks that are compressed independently,
+ * each primed with the last 32K of the block before it so the result is
+ * nearly as small as a single deflater's, and the compressed blocks are
+ * written in order. Every block but the last ends with a sync flush, which
+ * leaves it on a byte boundary, so together they are one deflate stream.
+ * <p>
+ * At most two blocks per thread are in flight; a write waits for the oldest
+ * one beyond that. {@link #finish()} ends the deflate data without closing
+ * the underlying stream. The threads are stopped by {@link #finish()} or
+ * {@link #close()}, whichever comes first. Not thread safe.
+ */
+public class ParallelDeflaterOutputStream extends OutputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger(0);
+	private final OutputStream outputStream;
+	private final int level;
+	private final int blockSize;
+	private final int maxPending;
+	private final ExecutorService executor;
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+	private byte[] block;
+	private int count = 0;
+	// the last block handed to a worker, the dictionary of the next one
+	private byte[] previous = null;
+	private boolean finished = false;
+
+	/**
+	 * @param outputStream receives the compressed data
+	 * @param level a {@link Deflater} compression level
+	 * @param threads the number of worker threads
+	 */
+	public ParallelDeflaterOutputStream(final OutputStream outputStream, final int level,
+			final int threads) {
+		this(outputStream, level, threads, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param outputStream receives the compressed data
+	 * @param level a {@link Deflater} compression level
+	 * @param threads the number of worker threads
+	 * @param blockSize the bytes compressed by one task, at least 64K
+	 */
+	public ParallelDeflaterOutputStream(final OutputStream outputStream, final int level,
+			final int threads, final int blockSize) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed");
+		}
+		if (blockSize < 2 * DICTIONARY_SIZE) {
+			throw new IllegalArgumentException("Block size must be at least " + 2 * DICTIONARY_SIZE);
+		}
+		this.outputStream = outputStream;
+		this.level = level;
+		this.blockSize = blockSize;
+		this.maxPending = threads * 2;
+		block = new byte[blockSize];
+		executor = Executors.newFixedThreadPool(threads, runnable -> {
+			final Thread thread = new Thread(runnable,
+					"report-deflate-" + THREAD_COUNT.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (finished) {
+			throw new IOException("Stream is finished");
+		}
+		if (count == blockSize) {
+			submit(false);
+		}
+		block[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (finished) {
+			throw new IOException("Stream is finished");
+		}
+		int offset = off;
+		int remaining = len;
+		while (remaining > 0) {
+			if (count == blockSize) {
+				submit(false);
+			}
+			final int length = Math.min(remaining, blockSize - count);
+			System.arraycopy(b, offset, block, count, length);
+			count += length;
+			offset += length;
+			remaining -= length;
+		}
+	}
+
+	/**
+	 * Compresses what is left, writes all the compressed blocks and stops the
+	 * threads. The underlying stream is left open.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		try {
+			submit(true);
+			while (!pending.isEmpty()) {
+				writeNext();
+			}
+		}
+		finally {
+			finished = true;
+			stop();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		}
+		finally {
+			outputStream.close();
+		}
+	}
+
+	/**
+	 * Stops the threads without writing what is left.
+	 */
+	void abort() {
+		finished = true;
+		stop();
+	}
+
+	private void stop() {
+		executor.shutdownNow();
+		pending.clear();
+		Deflater deflater;
+		while ((deflater = deflaters.poll()) != null) {
+			deflater.end();
+		}
+	}
+
+	private void submit(final boolean last) throws IOException {
+		final byte[] input = block;
+		final int length = count;
+		final byte[] dictionary = previous;
+		pending.add(executor.submit(() -> compress(input, length, dictionary, last)));
+		previous = input;
+		block = last ? null : new byte[blockSize];
+		count = 0;
+		while (pending.size() > maxPending) {
+			writeNext();
+		}
+	}
+
+	private void writeNext() throws IOException {
+		final byte[] compressed;
+		try {
+			compressed = pending.remove().get();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		}
+		catch (final ExecutionException e) {
+			throw new IOException("Failed to compress", e.getCause());
+		}
+		outputStream.write(compressed);
+	}
+
+	private byte[] compress(final byte[] input, final int length, final byte[] dictionary,
+			final boolean last) {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level, true);
+		}
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE,
+					DICTIONARY_SIZE);
+			}
+			deflater.setInput(input, 0, length);
+			if (last) {
+				deflater.finish();
+			}
+			byte[] output = new byte[length + (length >>> 3) + 64];
+			int outputLength = 0;
+			while (true) {
+				if (outputLength == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+				final int space = output.length - outputLength;
+				if (last) {
+					outputLength += deflater.deflate(output, outputLength, space);
+					if (deflater.finished()) {
+						break;
+					}
+				}
+				else {
+					final int deflated = deflater.deflate(output, outputLength, space,
+						Deflater.SYNC_FLUSH);
+					outputLength += deflated;
+					// the flush is complete once it leaves space unused
+					if (deflated < space) {
+						break;
+					}
+				}
+			}
+			return Arrays.copyOf(output, outputLength);
+		}
+		finally {
+			deflater.reset();
+			deflaters.add(deflater);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package com.innoventsolutions.report.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A byte buffer that text is encoded into as UTF-8 and that is written to a
+ * stream when it fills up. Emitters of plain text formats use it in place of
+ * a Writer so a value goes from its chars, or from its long, straight to
+ * bytes. ASCII text is copied a char at a time with no encoder in the way.
+ * <p>
+ * Unpaired surrogates are written as '?'. Not thread safe.
+ */
+public final class Utf8Output {
+	private static final int MIN_BUFFER_SIZE = 32;
+	private final OutputStream outputStream;
+	private final byte[] buffer;
+	private int count = 0;
+
+	public Utf8Output(final OutputStream outputStream) {
+		this(outputStream, OutputSink.DEFAULT_BUFFER_SIZE);
+	}
+
+	public Utf8Output(final OutputStream outputStream, final int bufferSize) {
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE);
+		}
+		this.outputStream = outputStream;
+		buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * @param b a byte, for ASCII the char itself
+	 * @throws IOException
+	 */
+	public void write(final int b) throws IOException {
+		if (count == buffer.length) {
+			flushBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	public void write(final CharSequence text) throws IOException {
+		write(text, 0, text.length());
+	}
+
+	/**
+	 * @param text
+	 * @param start index of the first char to write
+	 * @param end index after the last char to write
+	 * @throws IOException
+	 */
+	public void write(final CharSequence text, final int start, final int end) throws IOException {
+		final byte[] buffer = this.buffer;
+		int i = start;
+		while (i < end) {
+			if (buffer.length - count < 4) {
+				flushBuffer();
+			}
+			// copy as much of the ASCII run as fits
+			final int limit = Math.min(end, i + buffer.length - count);
+			int pos = count;
+			char c = 0;
+			while (i < limit && (c = text.charAt(i)) < 0x80) {
+				buffer[pos++] = (byte) c;
+				i++;
+			}
+			count = pos;
+			if (i == limit || buffer.length - pos < 4) {
+				continue;
+			}
+			i++;
+			if (c < 0x800) {
+				buffer[pos++] = (byte) (0xC0 | (c >> 6));
+				buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i < end
+				&& Character.isLowSurrogate(text.charAt(i))) {
+				final int codePoint = Character.toCodePoint(c, text.charAt(i++));
+				buffer[pos++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+			}
+			else if (Character.isSurrogate(c)) {
+				buffer[pos++] = '?';
+			}
+			else {
+				buffer[pos++] = (byte) (0xE0 | (c >> 12));
+				buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			count = pos;
+		}
+	}
+
+	/**
+	 * Write the decimal digits of a number without making a String of it.
+	 *
+	 * @param value
+	 * @throws IOException
+	 */
+	public void write(final long value) throws IOException {
+		// 19 digits and a sign
+		if (count + 20 > buffer.length) {
+			flushBuffer();
+		}
+		if (value == Long.MIN_VALUE) {
+			write("-9223372036854775808");
+			return;
+		}
+		long remaining = value;
+		if (remaining < 0) {
+			buffer[count++] = '-';
+			remaining = -remaining;
+		}
+		int digits = 1;
+		for (long power = 10; digits < 19 && remaining >= power; power *= 10) {
+			digits++;
+		}
+		int pos = count + digits;
+		count = pos;
+		do {
+			buffer[--pos] = (byte) ('0' + (int) (remaining % 10));
+			remaining /= 10;
+		}
+		while (remaining != 0);
+	}
+
+	/**
+	 * Write a double the way {@link Double#toString(double)} would, without
+	 * the String for whole numbers below 10^7, which is most amounts.
+	 *
+	 * @param value
+	 * @throws IOException
+	 */
+	public void write(final double value) throws IOException {
+		final long whole = (long) value;
+		if (whole == value && Math.abs(value) < 1.0E7
+			&& (whole != 0 || Double.doubleToRawLongBits(value) == 0L)) {
+			write(whole);
+			write('.');
+			write('0');
+		}
+		else {
+			write(Double.toString(value));
+		}
+	}
+
+	/**
+	 * Write the buffered bytes to the stream without flushing the stream.
+	 *
+	 * @throws IOException
+	 */
+	public void flushBuffer() throws IOException {
+		if (count > 0) {
+			outputStream.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	public void flush() throws IOException {
+		flushBuffer();
+		outputStream.flush();
+	}
+
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		}
+		finally {
+			outputStream.close();
+		}
+	}
+}
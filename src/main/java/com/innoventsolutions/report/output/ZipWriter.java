@@ -0,0 +1,325 @@
+package com.innoventsolutions.report.output;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip file one deflated entry at a time as its data is produced,
+ * without seeking back: the CRC and sizes of an entry follow its data in a
+ * data descriptor and are repeated in the central directory. An entry's data
+ * may be compressed on several threads with
+ * {@link ParallelDeflaterOutputStream}, which {@link java.util.zip.ZipOutputStream}
+ * has no way to take.
+ * <p>
+ * Entries and the whole file are limited to 4GB, there is no Zip64. Not
+ * thread safe.
+ */
+public final class ZipWriter implements Closeable {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int DATA_DESCRIPTOR = 0x08074b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_DIRECTORY = 0x06054b50;
+	private static final int VERSION = 20;
+	// sizes in a data descriptor, names in UTF-8
+	private static final int FLAGS = 0x0808;
+	private static final int DEFLATED = 8;
+	private static final long MAX_SIZE = 0xFFFFFFFFL;
+	private final PositionStream outputStream;
+	private final List<Entry> entries = new ArrayList<>();
+	private final byte[] header = new byte[46];
+	private final int dosTime;
+	private final int dosDate;
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	private EntryStream entryStream = null;
+	private boolean closed = false;
+
+	private static final class Entry {
+		final byte[] name;
+		final long offset;
+		long crc = 0;
+		long compressedSize = 0;
+		long size = 0;
+
+		Entry(final byte[] name, final long offset) {
+			this.name = name;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Counts the bytes written and leaves the stream open on close, so an
+	 * entry's deflater can be closed without closing the file.
+	 */
+	private static final class PositionStream extends FilterOutputStream {
+		long position = 0;
+
+		PositionStream(final OutputStream outputStream) {
+			super(outputStream);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			position++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			position += len;
+		}
+
+		@Override
+		public void close() {
+			// the file is closed by ZipWriter.close()
+		}
+
+		void closeFile() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * The data of the current entry; closing it ends the entry.
+	 */
+	private final class EntryStream extends OutputStream {
+		private final Entry entry;
+		private final OutputStream deflaterStream;
+		// null when the data is deflated on several threads
+		private final Deflater deflater;
+		private final CRC32 crc = new CRC32();
+		private final long start;
+		private long size = 0;
+		private boolean entryClosed = false;
+
+		EntryStream(final Entry entry, final int threads) {
+			this.entry = entry;
+			this.start = outputStream.position;
+			if (threads > 1) {
+				deflater = null;
+				deflaterStream = new ParallelDeflaterOutputStream(outputStream, level, threads);
+			}
+			else {
+				deflater = new Deflater(level, true);
+				deflaterStream = new DeflaterOutputStream(outputStream, deflater, 0x2000);
+			}
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			deflaterStream.write(b);
+			crc.update(b);
+			size++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			deflaterStream.write(b, off, len);
+			crc.update(b, off, len);
+			size += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (entryClosed) {
+				return;
+			}
+			entryClosed = true;
+			entryStream = null;
+			if (deflater != null) {
+				try {
+					((DeflaterOutputStream) deflaterStream).finish();
+				}
+				finally {
+					// the deflater was passed in, so the stream does not end it
+					deflater.end();
+				}
+			}
+			else {
+				((ParallelDeflaterOutputStream) deflaterStream).finish();
+			}
+			entry.crc = crc.getValue();
+			entry.size = size;
+			entry.compressedSize = outputStream.position - start;
+			if (size > MAX_SIZE || entry.compressedSize > MAX_SIZE) {
+				throw new IOException(
+						"Entry " + new String(entry.name, StandardCharsets.UTF_8) + " is over 4GB");
+			}
+			putInt(0, DATA_DESCRIPTOR);
+			putInt(4, (int) entry.crc);
+			putInt(8, (int) entry.compressedSize);
+			putInt(12, (int) entry.size);
+			outputStream.write(header, 0, 16);
+		}
+
+		/**
+		 * Stops the deflater threads of an entry that will not be finished.
+		 */
+		void abort() {
+			entryClosed = true;
+			entryStream = null;
+			if (deflater != null) {
+				deflater.end();
+			}
+			else {
+				((ParallelDeflaterOutputStream) deflaterStream).abort();
+			}
+		}
+	}
+
+	public ZipWriter(final OutputStream outputStream) {
+		this.outputStream = new PositionStream(outputStream);
+		final Calendar calendar = Calendar.getInstance();
+		dosTime = (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5)
+			| (calendar.get(Calendar.SECOND) >> 1);
+		dosDate = ((calendar.get(Calendar.YEAR) - 1980) << 9)
+			| ((calendar.get(Calendar.MONTH) + 1) << 5) | calendar.get(Calendar.DAY_OF_MONTH);
+	}
+
+	/**
+	 * @param level a {@link Deflater} compression level for the entries that
+	 *            follow, {@link Deflater#DEFAULT_COMPRESSION} by default
+	 */
+	public void setLevel(final int level) {
+		this.level = level;
+	}
+
+	/**
+	 * Starts an entry deflated on the calling thread.
+	 *
+	 * @see #putEntry(String, int)
+	 */
+	public OutputStream putEntry(final String name) throws IOException {
+		return putEntry(name, 1);
+	}
+
+	/**
+	 * Starts an entry, ending the current one if it is still open.
+	 *
+	 * @param name the path of the entry, with '/' separators
+	 * @param threads more than 1 to deflate the data on that many threads,
+	 *            which pays off for entries of several megabytes
+	 * @return the stream for the entry's data; closing it ends the entry
+	 * @throws IOException
+	 */
+	public OutputStream putEntry(final String name, final int threads) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("The zip file is closed");
+		}
+		if (entryStream != null) {
+			entryStream.close();
+		}
+		final Entry entry = new Entry(name.getBytes(StandardCharsets.UTF_8),
+				outputStream.position);
+		if (entry.offset > MAX_SIZE) {
+			throw new IOException("Zip file is over 4GB");
+		}
+		putInt(0, LOCAL_HEADER);
+		putShort(4, VERSION);
+		putShort(6, FLAGS);
+		putShort(8, DEFLATED);
+		putShort(10, dosTime);
+		putShort(12, dosDate);
+		putInt(14, 0); // crc, compressed size and size are in the descriptor
+		putInt(18, 0);
+		putInt(22, 0);
+		putShort(26, entry.name.length);
+		putShort(28, 0);
+		outputStream.write(header, 0, 30);
+		outputStream.write(entry.name);
+		entries.add(entry);
+		entryStream = new EntryStream(entry, threads);
+		return entryStream;
+	}
+
+	/**
+	 * Ends the current entry if it is still open, writes the central
+	 * directory and closes the stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (entryStream != null) {
+				entryStream.close();
+			}
+			final long directoryOffset = outputStream.position;
+			for (final Entry entry : entries) {
+				putInt(0, CENTRAL_HEADER);
+				putShort(4, VERSION);
+				putShort(6, VERSION);
+				putShort(8, FLAGS);
+				putShort(10, DEFLATED);
+				putShort(12, dosTime);
+				putShort(14, dosDate);
+				putInt(16, (int) entry.crc);
+				putInt(20, (int) entry.compressedSize);
+				putInt(24, (int) entry.size);
+				putShort(28, entry.name.length);
+				putShort(30, 0); // extra field
+				putShort(32, 0); // comment
+				putShort(34, 0); // disk
+				putShort(36, 0); // internal attributes
+				putInt(38, 0); // external attributes
+				putInt(42, (int) entry.offset);
+				outputStream.write(header, 0, 46);
+				outputStream.write(entry.name);
+			}
+			final long directorySize = outputStream.position - directoryOffset;
+			if (directoryOffset > MAX_SIZE || entries.size() > 0xFFFF) {
+				throw new IOException("Zip file is over 4GB or has too many entries");
+			}
+			putInt(0, END_OF_DIRECTORY);
+			putShort(4, 0);
+			putShort(6, 0);
+			putShort(8, entries.size());
+			putShort(10, entries.size());
+			putInt(12, (int) directorySize);
+			putInt(16, (int) directoryOffset);
+			putShort(20, 0);
+			outputStream.write(header, 0, 22);
+			outputStream.flush();
+		}
+		finally {
+			closed = true;
+			outputStream.closeFile();
+		}
+	}
+
+	/**
+	 * Closes the stream without finishing the file, after a failure.
+	 */
+	public void abort() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (entryStream != null) {
+			entryStream.abort();
+		}
+		outputStream.closeFile();
+	}
+
+	private void putShort(final int offset, final int value) {
+		header[offset] = (byte) value;
+		header[offset + 1] = (byte) (value >>> 8);
+	}
+
+	private void putInt(final int offset, final int value) {
+		header[offset] = (byte) value;
+		header[offset + 1] = (byte) (value >>> 8);
+		header[offset + 2] = (byte) (value >>> 16);
+		header[offset + 3] = (byte) (value >>> 24);
+	}
+}
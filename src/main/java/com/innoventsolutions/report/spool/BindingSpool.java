@@ -0,0 +1,442 @@
+package com.innoventsolutions.report.spool;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.innoventsolutions.report.Emitter;
+import com.innoventsolutions.report.design.ComponentKind;
+import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.spool.SpooledTable.Layout;
+import com.innoventsolutions.report.spool.SpooledTable.SpooledBinding;
+
+/**
+ * Captures a grouped binding stream once into a file and replays it into any
+ * number of emitters, so producing several formats runs the query and the
+ * grouping only once.
+ *
+ * <pre>
+ * try (final BindingSpool spool = new BindingSpool(table)) {
+ * 	spool.write(builder.build(query.getStream()));
+ * 	spool.replay(new HtmlEmitter(htmlSink));
+ * 	spool.replay(new ExcelEmitter(xlsxSink));
+ * }
+ * </pre>
+ *
+ * The file is a sequence of records, one per binding:
+ * <ul>
+ * <li>record length (int, not counting itself)</li>
+ * <li>binding type (byte) and level (varint)</li>
+ * <li>a hidden flag (byte) for each row of the rows list the binding uses</li>
+ * <li>for each component of the visible rows: flags (hidden, highlight
+ * styles, null), the highlight styles if they differ from the design, then
+ * the value - UTF-8 text, zigzag varint integer, 8 byte float or zigzag varint
+ * date millis</li>
+ * </ul>
+ * The layout of a record comes from the design (see {@link SpooledTable}) so
+ * no names or type tags are stored. The file is read through memory mapped
+ * segments of at most {@link #SEGMENT_SIZE} bytes; records never cross a
+ * segment. Replays do not share any state, so they may run concurrently.
+ */
+public class BindingSpool implements Closeable {
+	public static final long SEGMENT_SIZE = 1L << 30;
+	private static final DataRowBinding.Type[] TYPES = DataRowBinding.Type.values();
+	private final SpooledTable table;
+	private final Path file;
+	private final boolean temporary;
+	private final List<Long> segmentStarts = new ArrayList<>();
+	private MappedByteBuffer[] segments = null;
+	private long size = 0;
+	private long recordCount = 0;
+
+	/**
+	 * Spool to a temporary file that is deleted by {@link #close()}.
+	 *
+	 * @param table
+	 */
+	public BindingSpool(final Table table) {
+		this(table, createTempFile(), true);
+	}
+
+	public BindingSpool(final Table table, final Path file) {
+		this(table, file, false);
+	}
+
+	private BindingSpool(final Table table, final Path file, final boolean temporary) {
+		this.table = table instanceof SpooledTable ? (SpooledTable) table : new SpooledTable(table);
+		this.file = file;
+		this.temporary = temporary;
+	}
+
+	private static Path createTempFile() {
+		try {
+			return Files.createTempFile("report", ".spool");
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to create spool file", e);
+		}
+	}
+
+	/**
+	 * @return the design to pass to emitters along with {@link #replay()}
+	 */
+	public SpooledTable getTable() {
+		return table;
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return the size of the spool file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Consume the binding stream into the spool file. May only be called once.
+	 *
+	 * @param stream bindings of the original design
+	 */
+	public void write(final Stream<DataRowBinding> stream) {
+		if (segments != null) {
+			throw new IllegalStateException("Spool already written");
+		}
+		boolean written = false;
+		try {
+			writeSegments(stream);
+			written = true;
+		}
+		finally {
+			if (!written) {
+				// leave the spool as if write had not been called
+				segmentStarts.clear();
+				segments = null;
+				size = 0;
+				recordCount = 0;
+			}
+		}
+	}
+
+	private void writeSegments(final Stream<DataRowBinding> stream) {
+		final RecordBuffer buffer = new RecordBuffer();
+		segmentStarts.add(Long.valueOf(0L));
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel),
+						0x10000)) {
+			final long[] segmentStart = { 0L };
+			stream.forEach(binding -> {
+				buffer.clear();
+				encode(table.capture(binding), buffer);
+				final int length = buffer.position();
+				if (size - segmentStart[0] + length > SEGMENT_SIZE) {
+					segmentStart[0] = size;
+					segmentStarts.add(Long.valueOf(size));
+				}
+				try {
+					buffer.writeTo(out);
+				}
+				catch (final IOException e) {
+					throw new RuntimeException("Failed to write spool file", e);
+				}
+				size += length;
+				recordCount++;
+			});
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to write spool file", e);
+		}
+		segmentStarts.add(Long.valueOf(size));
+		segments = new MappedByteBuffer[segmentStarts.size() - 1];
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			for (int i = 0; i < segments.length; i++) {
+				final long start = segmentStarts.get(i).longValue();
+				final long end = segmentStarts.get(i + 1).longValue();
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			}
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Failed to map spool file", e);
+		}
+	}
+
+	/**
+	 * @return a new stream of the spooled bindings, to be emitted with
+	 *         {@link #getTable()}
+	 */
+	public Stream<DataRowBinding> replay() {
+		final MappedByteBuffer[] segments = getSegments();
+		final int characteristics = Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED
+			| Spliterator.IMMUTABLE;
+		final Spliterator<DataRowBinding> spliterator = new Spliterators.AbstractSpliterator<
+				DataRowBinding>(recordCount, characteristics) {
+			private int segmentIndex = 0;
+			private ByteBuffer buffer = null;
+
+			@Override
+			public boolean tryAdvance(final Consumer<? super DataRowBinding> action) {
+				while (buffer == null || !buffer.hasRemaining()) {
+					if (segmentIndex >= segments.length) {
+						return false;
+					}
+					buffer = segments[segmentIndex++].duplicate();
+				}
+				action.accept(decode(buffer));
+				return true;
+			}
+		};
+		return StreamSupport.stream(spliterator, false);
+	}
+
+	MappedByteBuffer[] getSegments() {
+		if (segments == null) {
+			throw new IllegalStateException("Spool not written");
+		}
+		return segments;
+	}
+
+	/**
+	 * Emit the spooled bindings.
+	 *
+	 * @param emitter
+	 */
+	public void replay(final Emitter emitter) {
+		emitter.emit(replay(), table);
+	}
+
+	/**
+	 * Delete the file if it is temporary. The mapped segments are released
+	 * when they are garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		segments = null;
+		if (temporary) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	SpooledBinding decode(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		final int end = buffer.position() + length;
+		final DataRowBinding.Type type = TYPES[buffer.get()];
+		final int level = (int) readVarLong(buffer);
+		final Layout layout = table.getLayout(level, type);
+		final SpooledRow spooledRow = new SpooledRow(layout.rows.size(), layout.slotCount);
+		for (int r = 0; r < spooledRow.rowHidden.length; r++) {
+			spooledRow.rowHidden[r] = buffer.get() != 0;
+		}
+		for (int r = 0; r < spooledRow.rowHidden.length; r++) {
+			if (spooledRow.rowHidden[r]) {
+				continue;
+			}
+			for (int slot = layout.firstSlots[r]; slot < layout.firstSlots[r + 1]; slot++) {
+				final byte flags = buffer.get();
+				spooledRow.flags[slot] = flags;
+				if ((flags & SpooledRow.HIDDEN) != 0) {
+					continue;
+				}
+				if ((flags & SpooledRow.STYLES) != 0) {
+					final int count = (int) readVarLong(buffer);
+					final Map<String, String> styles = new HashMap<>();
+					for (int i = 0; i < count; i++) {
+						final String name = readString(buffer);
+						styles.put(name, readString(buffer));
+					}
+					spooledRow.styles[slot] = styles;
+				}
+				if ((flags & SpooledRow.NULL) != 0) {
+					continue;
+				}
+				switch (layout.kinds[slot]) {
+				case TEXT:
+					spooledRow.texts[slot] = readString(buffer);
+					break;
+				case INTEGER:
+				case DATE:
+					spooledRow.values[slot] = readZigZag(buffer);
+					break;
+				case FLOAT:
+					spooledRow.values[slot] = buffer.getLong();
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		buffer.position(end);
+		return new SpooledBinding(level, type, spooledRow);
+	}
+
+	void encode(final DataRowBinding binding, final RecordBuffer buffer) {
+		final SpooledRow spooledRow = (SpooledRow) binding.getDataRow();
+		final Layout layout = table.getLayout(binding.getLevel(), binding.getType());
+		buffer.writeInt(0);
+		buffer.write(binding.getType().ordinal());
+		buffer.writeVarLong(binding.getLevel());
+		for (int r = 0; r < spooledRow.rowHidden.length; r++) {
+			buffer.write(spooledRow.rowHidden[r] ? 1 : 0);
+		}
+		for (int r = 0; r < spooledRow.rowHidden.length; r++) {
+			if (spooledRow.rowHidden[r]) {
+				continue;
+			}
+			for (int slot = layout.firstSlots[r]; slot < layout.firstSlots[r + 1]; slot++) {
+				final byte flags = spooledRow.flags[slot];
+				buffer.write(flags);
+				if ((flags & SpooledRow.HIDDEN) != 0) {
+					continue;
+				}
+				if ((flags & SpooledRow.STYLES) != 0) {
+					final Map<String, String> styles = spooledRow.styles[slot];
+					buffer.writeVarLong(styles.size());
+					for (final Map.Entry<String, String> entry : styles.entrySet()) {
+						buffer.writeString(entry.getKey());
+						buffer.writeString(entry.getValue());
+					}
+				}
+				if ((flags & SpooledRow.NULL) != 0) {
+					continue;
+				}
+				final ComponentKind kind = layout.kinds[slot];
+				switch (kind) {
+				case TEXT:
+					buffer.writeString(spooledRow.texts[slot]);
+					break;
+				case INTEGER:
+				case DATE:
+					buffer.writeZigZag(spooledRow.values[slot]);
+					break;
+				case FLOAT:
+					buffer.writeLong(spooledRow.values[slot]);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		buffer.patchInt(0, buffer.position() - 4);
+	}
+
+	static long readVarLong(final ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private static long readZigZag(final ByteBuffer buffer) {
+		final long value = readVarLong(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		final int length = (int) readVarLong(buffer);
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A growable byte array for encoding one record.
+	 */
+	static final class RecordBuffer {
+		private byte[] bytes = new byte[256];
+		private int position = 0;
+
+		void clear() {
+			position = 0;
+		}
+
+		int position() {
+			return position;
+		}
+
+		private void ensure(final int count) {
+			if (position + count > bytes.length) {
+				final byte[] newBytes = new byte[Math.max(bytes.length * 2, position + count)];
+				System.arraycopy(bytes, 0, newBytes, 0, position);
+				bytes = newBytes;
+			}
+		}
+
+		void write(final int b) {
+			ensure(1);
+			bytes[position++] = (byte) b;
+		}
+
+		void writeInt(final int value) {
+			ensure(4);
+			patchInt(position, value);
+			position += 4;
+		}
+
+		void patchInt(final int offset, final int value) {
+			bytes[offset] = (byte) (value >>> 24);
+			bytes[offset + 1] = (byte) (value >>> 16);
+			bytes[offset + 2] = (byte) (value >>> 8);
+			bytes[offset + 3] = (byte) value;
+		}
+
+		void writeLong(final long value) {
+			ensure(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				bytes[position++] = (byte) (value >>> shift);
+			}
+		}
+
+		void writeVarLong(final long longValue) {
+			ensure(10);
+			long value = longValue;
+			while ((value & ~0x7FL) != 0) {
+				bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[position++] = (byte) value;
+		}
+
+		void writeZigZag(final long value) {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		void writeString(final String value) {
+			final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(utf8.length);
+			ensure(utf8.length);
+			System.arraycopy(utf8, 0, bytes, position, utf8.length);
+			position += utf8.length;
+		}
+
+		void writeTo(final OutputStream out) throws IOException {
+			out.write(bytes, 0, position);
+		}
+	}
+}
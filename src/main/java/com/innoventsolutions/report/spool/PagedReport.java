@@ -0,0 +1,256 @@
+package com.innoventsolutions.report.spool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.innoventsolutions.report.Emitter;
+import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.design.Table;
+
+/**
+ * Splits a spooled report into pages of a fixed number of detail rows, so a
+ * viewer can render any page without running the query or replaying the
+ * bindings before it.
+ *
+ * <pre>
+ * final PagedReport report = PagedReport.spool(table, builder.build(query.getStream()), 50);
+ * ...
+ * report.renderPage(page, new HtmlEmitter(sink));
+ * </pre>
+ *
+ * One pass over the spool file (reading only the type and level of each
+ * record) finds where each page starts and which group headers are open
+ * there. A page is replayed as those headers followed by its own bindings, so
+ * rendering it takes time in proportion to the page size and the group
+ * depth. Footers that close groups right after the last detail row of a page
+ * stay on that page.
+ * <p>
+ * The index is never changed after it is built, so pages may be rendered
+ * concurrently.
+ */
+public class PagedReport implements Closeable {
+	private static final DataRowBinding.Type[] TYPES = DataRowBinding.Type.values();
+	private static final long[] NO_HEADERS = new long[0];
+	private final BindingSpool spool;
+	private final boolean ownsSpool;
+	private final int pageSize;
+	/**
+	 * The position of the first record of each page, as segment index in the
+	 * high and offset in the low 32 bits
+	 */
+	private final long[] pageStarts;
+	/**
+	 * The positions of the headers open at the start of each page, most
+	 * general first
+	 */
+	private final long[][] pageHeaders;
+	private final long detailCount;
+
+	/**
+	 * @param spool a written spool
+	 * @param pageSize the number of detail rows per page
+	 */
+	public PagedReport(final BindingSpool spool, final int pageSize) {
+		this(spool, pageSize, false);
+	}
+
+	private PagedReport(final BindingSpool spool, final int pageSize, final boolean ownsSpool) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size must be positive");
+		}
+		this.spool = spool;
+		this.pageSize = pageSize;
+		this.ownsSpool = ownsSpool;
+		final List<Long> starts = new ArrayList<>();
+		final List<long[]> headers = new ArrayList<>();
+		long[] open = new long[8];
+		Arrays.fill(open, -1L);
+		long details = 0L;
+		int pageDetails = 0;
+		starts.add(Long.valueOf(0L));
+		headers.add(NO_HEADERS);
+		final MappedByteBuffer[] segments = spool.getSegments();
+		for (int segmentIndex = 0; segmentIndex < segments.length; segmentIndex++) {
+			final ByteBuffer buffer = segments[segmentIndex].duplicate();
+			while (buffer.hasRemaining()) {
+				final int start = buffer.position();
+				final int length = buffer.getInt();
+				final DataRowBinding.Type type = TYPES[buffer.get()];
+				final int level = (int) BindingSpool.readVarLong(buffer);
+				buffer.position(start + 4 + length);
+				final long position = ((long) segmentIndex << 32) | start;
+				if (pageDetails == pageSize && type != DataRowBinding.Type.FOOTER) {
+					starts.add(Long.valueOf(position));
+					headers.add(openHeaders(open));
+					pageDetails = 0;
+				}
+				if (level >= open.length) {
+					final int oldLength = open.length;
+					open = Arrays.copyOf(open, Math.max(level + 1, oldLength * 2));
+					Arrays.fill(open, oldLength, open.length, -1L);
+				}
+				switch (type) {
+				case HEADER:
+					open[level] = position;
+					break;
+				case FOOTER:
+					open[level] = -1L;
+					break;
+				case DETAIL:
+					details++;
+					pageDetails++;
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		pageStarts = new long[starts.size()];
+		for (int i = 0; i < pageStarts.length; i++) {
+			pageStarts[i] = starts.get(i).longValue();
+		}
+		pageHeaders = headers.toArray(new long[headers.size()][]);
+		detailCount = details;
+	}
+
+	private static long[] openHeaders(final long[] open) {
+		int count = 0;
+		for (final long position : open) {
+			if (position >= 0) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return NO_HEADERS;
+		}
+		final long[] headers = new long[count];
+		int index = 0;
+		for (int level = open.length - 1; level >= 0; level--) {
+			if (open[level] >= 0) {
+				headers[index++] = open[level];
+			}
+		}
+		return headers;
+	}
+
+	/**
+	 * Spool the bindings to a temporary file, which {@link #close()} deletes,
+	 * and index it.
+	 */
+	public static PagedReport spool(final Table table, final Stream<DataRowBinding> bindings,
+			final int pageSize) {
+		final BindingSpool spool = new BindingSpool(table);
+		try {
+			spool.write(bindings);
+			return new PagedReport(spool, pageSize, true);
+		}
+		catch (final RuntimeException | Error e) {
+			try {
+				spool.close();
+			}
+			catch (final IOException closeException) {
+				e.addSuppressed(closeException);
+			}
+			throw e;
+		}
+	}
+
+	public int getPageCount() {
+		return pageStarts.length;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public long getDetailCount() {
+		return detailCount;
+	}
+
+	/**
+	 * @return the design to pass to emitters along with {@link #getPage(int)}
+	 */
+	public SpooledTable getTable() {
+		return spool.getTable();
+	}
+
+	/**
+	 * @param page from 0
+	 * @return the headers of the groups open at the start of the page, then
+	 *         the bindings of the page
+	 */
+	public Stream<DataRowBinding> getPage(final int page) {
+		if (page < 0 || page >= pageStarts.length) {
+			throw new IndexOutOfBoundsException("Page " + page + " of " + pageStarts.length);
+		}
+		final MappedByteBuffer[] segments = spool.getSegments();
+		final long[] headers = pageHeaders[page];
+		final long end = page + 1 < pageStarts.length ? pageStarts[page + 1] : Long.MAX_VALUE;
+		final Spliterator<DataRowBinding> spliterator = new Spliterators.AbstractSpliterator<
+				DataRowBinding>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			private int headerIndex = 0;
+			private int segmentIndex = (int) (pageStarts[page] >>> 32);
+			private ByteBuffer buffer = null;
+
+			@Override
+			public boolean tryAdvance(final Consumer<? super DataRowBinding> action) {
+				if (headerIndex < headers.length) {
+					action.accept(decode(segments, headers[headerIndex++]));
+					return true;
+				}
+				if (buffer == null) {
+					buffer = segments[segmentIndex].duplicate();
+					buffer.position((int) pageStarts[page]);
+				}
+				while (!buffer.hasRemaining()) {
+					if (++segmentIndex >= segments.length) {
+						return false;
+					}
+					buffer = segments[segmentIndex].duplicate();
+				}
+				if ((((long) segmentIndex << 32) | buffer.position()) >= end) {
+					return false;
+				}
+				action.accept(spool.decode(buffer));
+				return true;
+			}
+		};
+		return StreamSupport.stream(spliterator, false);
+	}
+
+	private DataRowBinding decode(final MappedByteBuffer[] segments, final long position) {
+		final ByteBuffer buffer = segments[(int) (position >>> 32)].duplicate();
+		buffer.position((int) position);
+		return spool.decode(buffer);
+	}
+
+	/**
+	 * Emit one page.
+	 *
+	 * @param page from 0
+	 * @param emitter
+	 */
+	public void renderPage(final int page, final Emitter emitter) {
+		emitter.emit(getPage(page), spool.getTable());
+	}
+
+	/**
+	 * Close the spool if it was created by {@link #spool(Table, Stream, int)}.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (ownsSpool) {
+			spool.close();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.innoventsolutions.report.spool;
+
+import java.util.Map;
+
+/**
+ * The captured values of one binding: which rows and components were hidden,
+ * the highlight styles that differ from the design and the value of each
+ * data component. This is what the spooled design's components read instead
+ * of the original data row.
+ */
+final class SpooledRow {
+	static final byte HIDDEN = 1;
+	static final byte STYLES = 2;
+	static final byte NULL = 4;
+	final boolean[] rowHidden;
+	final byte[] flags;
+	final Map<String, String>[] styles;
+	final long[] values;
+	final String[] texts;
+
+	SpooledRow(final int rowCount, final int slotCount) {
+		rowHidden = new boolean[rowCount];
+		flags = new byte[slotCount];
+		styles = newStyles(slotCount);
+		values = new long[slotCount];
+		texts = new String[slotCount];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, String>[] newStyles(final int slotCount) {
+		return (Map<String, String>[]) new Map<?, ?>[slotCount];
+	}
+
+	boolean isHidden(final int slot) {
+		return (flags[slot] & HIDDEN) != 0;
+	}
+
+	boolean isNull(final int slot) {
+		return (flags[slot] & NULL) != 0;
+	}
+}
@@ -0,0 +1,515 @@
+package com.innoventsolutions.report.spool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.innoventsolutions.report.css.StyledTable;
+import com.innoventsolutions.report.design.Cell;
+import com.innoventsolutions.report.design.Column;
+import com.innoventsolutions.report.design.ComponentKind;
+import com.innoventsolutions.report.design.DataRowBinding;
+import com.innoventsolutions.report.design.DateData;
+import com.innoventsolutions.report.design.FloatData;
+import com.innoventsolutions.report.design.Group;
+import com.innoventsolutions.report.design.IntegerData;
+import com.innoventsolutions.report.design.Label;
+import com.innoventsolutions.report.design.ReportComponent;
+import com.innoventsolutions.report.design.Row;
+import com.innoventsolutions.report.design.Table;
+import com.innoventsolutions.report.design.TextData;
+
+/**
+ * A copy of a design whose rows and components read captured values instead
+ * of calling the original design with the data row. Bindings made with
+ * {@link #capture(DataRowBinding)} hold everything an emitter asks the design
+ * for, so they can be emitted later, more than once and from other threads,
+ * after the original data rows (including the reused group aggregate rows)
+ * have moved on.
+ * <p>
+ * Each rows list of the design (detail, table header and footer, group
+ * headers and footers) is given a layout that numbers its components, and a
+ * captured binding has one slot per component of the list that applies to
+ * it.
+ * <p>
+ * A design's style sheet is applied (see {@link StyledTable}) before it is
+ * copied, so the copy has no style sheet of its own.
+ */
+public class SpooledTable implements Table {
+	private static final Layout EMPTY_LAYOUT = new Layout(Collections.emptyList());
+	private final Table table;
+	private final Table styledTable;
+	private final Layout detailLayout;
+	private final Layout headerLayout;
+	private final Layout footerLayout;
+	private final List<Layout> groupHeaderLayouts = new ArrayList<>();
+	private final List<Layout> groupFooterLayouts = new ArrayList<>();
+	private final List<Group> groups = new ArrayList<>();
+
+	public SpooledTable(final Table table) {
+		this.table = table;
+		styledTable = StyledTable.of(table);
+		detailLayout = new Layout(styledTable.getRows());
+		headerLayout = new Layout(styledTable.getHeaderRows());
+		footerLayout = new Layout(styledTable.getFooterRows());
+		for (final Group group : styledTable.getGroups()) {
+			final Layout header = new Layout(group.getHeaderRows());
+			final Layout footer = new Layout(group.getFooterRows());
+			groupHeaderLayouts.add(header);
+			groupFooterLayouts.add(footer);
+			groups.add(new SpooledGroup(header.proxyRows, footer.proxyRows));
+		}
+	}
+
+	/**
+	 * @return the design this is a copy of
+	 */
+	public Table getOriginal() {
+		return table;
+	}
+
+	/**
+	 * Evaluate everything the emitters would ask the original design about
+	 * the binding's data row.
+	 *
+	 * @param binding a binding of the original design
+	 * @return a binding of this design that no longer refers to the data row
+	 */
+	public DataRowBinding capture(final DataRowBinding binding) {
+		final int level = binding.getLevel();
+		final DataRowBinding.Type type = binding.getType();
+		final Layout layout = getLayout(level, type);
+		final Object dataRow = binding.getDataRow();
+		final SpooledRow spooledRow = new SpooledRow(layout.rows.size(), layout.slotCount);
+		for (int r = 0; r < layout.rows.size(); r++) {
+			if (layout.rows.get(r).isHidden(dataRow)) {
+				spooledRow.rowHidden[r] = true;
+				continue;
+			}
+			for (int slot = layout.firstSlots[r]; slot < layout.firstSlots[r + 1]; slot++) {
+				capture(layout.components[slot], layout.kinds[slot], dataRow, spooledRow, slot);
+			}
+		}
+		return new SpooledBinding(level, type, spooledRow);
+	}
+
+	private static void capture(final ReportComponent component, final ComponentKind kind,
+			final Object dataRow, final SpooledRow spooledRow, final int slot) {
+		if (component.isHidden(dataRow)) {
+			spooledRow.flags[slot] = SpooledRow.HIDDEN;
+			return;
+		}
+		byte flags = 0;
+		switch (kind) {
+		case TEXT: {
+			final String value = ((TextData) component).getValue(dataRow);
+			if (value == null) {
+				flags |= SpooledRow.NULL;
+			}
+			spooledRow.texts[slot] = value;
+			break;
+		}
+		case INTEGER:
+			spooledRow.values[slot] = ((IntegerData) component).getValue(dataRow);
+			break;
+		case FLOAT:
+			spooledRow.values[slot] = Double.doubleToRawLongBits(
+				((FloatData) component).getValue(dataRow));
+			break;
+		case DATE: {
+			final Date value = ((DateData) component).getValue(dataRow);
+			if (value == null) {
+				flags |= SpooledRow.NULL;
+			}
+			else {
+				spooledRow.values[slot] = value.getTime();
+			}
+			break;
+		}
+		default:
+			spooledRow.flags[slot] = flags;
+			return;
+		}
+		final Map<String, String> styles = component.highlight(dataRow);
+		if (styles != null && !styles.equals(component.getStyles())) {
+			flags |= SpooledRow.STYLES;
+			spooledRow.styles[slot] = styles;
+		}
+		spooledRow.flags[slot] = flags;
+	}
+
+	Layout getLayout(final int level, final DataRowBinding.Type type) {
+		if (level == 0) {
+			return type == DataRowBinding.Type.DETAIL ? detailLayout : EMPTY_LAYOUT;
+		}
+		final boolean tableLevel = level == groups.size() + 1;
+		switch (type) {
+		case HEADER:
+			return tableLevel ? headerLayout : groupHeaderLayouts.get(level - 1);
+		case FOOTER:
+			return tableLevel ? footerLayout : groupFooterLayouts.get(level - 1);
+		default:
+			return EMPTY_LAYOUT;
+		}
+	}
+
+	@Override
+	public List<Row> getRows() {
+		return detailLayout.proxyRows;
+	}
+
+	@Override
+	public List<Column> getColumns() {
+		return styledTable.getColumns();
+	}
+
+	@Override
+	public List<Group> getGroups() {
+		return groups;
+	}
+
+	@Override
+	public List<Row> getHeaderRows() {
+		return headerLayout.proxyRows;
+	}
+
+	@Override
+	public List<Row> getFooterRows() {
+		return footerLayout.proxyRows;
+	}
+
+	@Override
+	public Map<String, String> getStyles() {
+		return styledTable.getStyles();
+	}
+
+	@Override
+	public String getStyleClass() {
+		return table.getStyleClass();
+	}
+
+	/**
+	 * The slot numbering of one rows list.
+	 */
+	static final class Layout {
+		final List<Row> rows;
+		final List<Row> proxyRows = new ArrayList<>();
+		final int[] firstSlots;
+		final ReportComponent[] components;
+		final ComponentKind[] kinds;
+		final int slotCount;
+
+		Layout(final List<Row> rows) {
+			this.rows = rows;
+			firstSlots = new int[rows.size() + 1];
+			final List<ReportComponent> components = new ArrayList<>();
+			for (int r = 0; r < rows.size(); r++) {
+				firstSlots[r] = components.size();
+				final Row row = rows.get(r);
+				final List<Cell> cells = new ArrayList<>();
+				for (final Cell cell : row.getCells()) {
+					final List<ReportComponent> proxies = new ArrayList<>();
+					for (final ReportComponent component : cell.getComponents()) {
+						proxies.add(createProxy(component, component.getKind(), components.size()));
+						components.add(component);
+					}
+					cells.add(new SpooledCell(cell, proxies));
+				}
+				proxyRows.add(new SpooledRowProxy(row, r, cells));
+			}
+			firstSlots[rows.size()] = components.size();
+			this.components = components.toArray(new ReportComponent[components.size()]);
+			kinds = new ComponentKind[this.components.length];
+			for (int slot = 0; slot < kinds.length; slot++) {
+				kinds[slot] = this.components[slot].getKind();
+			}
+			slotCount = this.components.length;
+		}
+	}
+
+	private static ReportComponent createProxy(final ReportComponent component,
+			final ComponentKind kind, final int slot) {
+		switch (kind) {
+		case LABEL:
+			return new SpooledLabel((Label) component, slot);
+		case TEXT:
+			return new SpooledTextData(component, slot);
+		case INTEGER:
+			return new SpooledIntegerData((IntegerData) component, slot);
+		case FLOAT:
+			return new SpooledFloatData((FloatData) component, slot);
+		case DATE:
+			return new SpooledDateData((DateData) component, slot);
+		default:
+			return new SpooledComponent(component, slot);
+		}
+	}
+
+	static final class SpooledBinding implements DataRowBinding {
+		private final int level;
+		private final Type type;
+		final SpooledRow spooledRow;
+
+		SpooledBinding(final int level, final Type type, final SpooledRow spooledRow) {
+			this.level = level;
+			this.type = type;
+			this.spooledRow = spooledRow;
+		}
+
+		@Override
+		public int getLevel() {
+			return level;
+		}
+
+		@Override
+		public Type getType() {
+			return type;
+		}
+
+		@Override
+		public Object getDataRow() {
+			return spooledRow;
+		}
+	}
+
+	private static class SpooledGroup implements Group {
+		private final List<Row> headerRows;
+		private final List<Row> footerRows;
+
+		SpooledGroup(final List<Row> headerRows, final List<Row> footerRows) {
+			this.headerRows = headerRows;
+			this.footerRows = footerRows;
+		}
+
+		@Override
+		public List<Row> getHeaderRows() {
+			return headerRows;
+		}
+
+		@Override
+		public List<Row> getFooterRows() {
+			return footerRows;
+		}
+	}
+
+	private static class SpooledRowProxy implements Row {
+		private final Row row;
+		private final int index;
+		private final List<Cell> cells;
+
+		SpooledRowProxy(final Row row, final int index, final List<Cell> cells) {
+			this.row = row;
+			this.index = index;
+			this.cells = cells;
+		}
+
+		@Override
+		public List<Cell> getCells() {
+			return cells;
+		}
+
+		@Override
+		public Map<String, String> getStyles() {
+			return row.getStyles();
+		}
+
+		@Override
+		public String getStyleClass() {
+			return row.getStyleClass();
+		}
+
+		@Override
+		public boolean isHidden(final Object dataRow) {
+			return ((SpooledRow) dataRow).rowHidden[index];
+		}
+
+		@Override
+		public Map<String, String> highlight(final Object dataRow) {
+			return row.getStyles();
+		}
+	}
+
+	private static class SpooledCell implements Cell {
+		private final Cell cell;
+		private final List<ReportComponent> components;
+
+		SpooledCell(final Cell cell, final List<ReportComponent> components) {
+			this.cell = cell;
+			this.components = components;
+		}
+
+		@Override
+		public List<ReportComponent> getComponents() {
+			return components;
+		}
+
+		@Override
+		public int getColSpan() {
+			return cell.getColSpan();
+		}
+
+		@Override
+		public Map<String, String> getStyles() {
+			return cell.getStyles();
+		}
+
+		@Override
+		public String getStyleClass() {
+			return cell.getStyleClass();
+		}
+
+		@Override
+		public Map<String, String> highlight(final Object dataRow) {
+			return cell.getStyles();
+		}
+	}
+
+	private static class SpooledComponent implements ReportComponent {
+		private final ReportComponent component;
+		protected final int slot;
+
+		SpooledComponent(final ReportComponent component, final int slot) {
+			this.component = component;
+			this.slot = slot;
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.UNKNOWN;
+		}
+
+		@Override
+		public Map<String, String> getStyles() {
+			return component.getStyles();
+		}
+
+		@Override
+		public String getStyleClass() {
+			return component.getStyleClass();
+		}
+
+		@Override
+		public boolean isHidden(final Object dataRow) {
+			return ((SpooledRow) dataRow).isHidden(slot);
+		}
+
+		@Override
+		public Map<String, String> highlight(final Object dataRow) {
+			final Map<String, String> styles = ((SpooledRow) dataRow).styles[slot];
+			return styles == null ? component.getStyles() : styles;
+		}
+	}
+
+	private static class SpooledLabel extends SpooledComponent implements Label {
+		private final Label label;
+
+		SpooledLabel(final Label label, final int slot) {
+			super(label, slot);
+			this.label = label;
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.LABEL;
+		}
+
+		@Override
+		public String getText() {
+			return label.getText();
+		}
+	}
+
+	private static class SpooledTextData extends SpooledComponent implements TextData {
+		SpooledTextData(final ReportComponent component, final int slot) {
+			super(component, slot);
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.TEXT;
+		}
+
+		@Override
+		public String getValue(final Object dataRow) {
+			return ((SpooledRow) dataRow).texts[slot];
+		}
+	}
+
+	private static class SpooledIntegerData extends SpooledComponent implements IntegerData {
+		private final String format;
+
+		SpooledIntegerData(final IntegerData data, final int slot) {
+			super(data, slot);
+			format = data.getFormat();
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.INTEGER;
+		}
+
+		@Override
+		public long getValue(final Object dataRow) {
+			return ((SpooledRow) dataRow).values[slot];
+		}
+
+		@Override
+		public String getFormat() {
+			return format;
+		}
+	}
+
+	private static class SpooledFloatData extends SpooledComponent implements FloatData {
+		private final String format;
+
+		SpooledFloatData(final FloatData data, final int slot) {
+			super(data, slot);
+			format = data.getFormat();
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.FLOAT;
+		}
+
+		@Override
+		public double getValue(final Object dataRow) {
+			return Double.longBitsToDouble(((SpooledRow) dataRow).values[slot]);
+		}
+
+		@Override
+		public String getFormat() {
+			return format;
+		}
+	}
+
+	private static class SpooledDateData extends SpooledComponent implements DateData {
+		private final String format;
+
+		SpooledDateData(final DateData data, final int slot) {
+			super(data, slot);
+			format = data.getFormat();
+		}
+
+		@Override
+		public ComponentKind getKind() {
+			return ComponentKind.DATE;
+		}
+
+		@Override
+		public Date getValue(final Object dataRow) {
+			final SpooledRow spooledRow = (SpooledRow) dataRow;
+			if (spooledRow.isNull(slot)) {
+				return null;
+			}
+			return new Date(spooledRow.values[slot]);
+		}
+
+		@Override
+		public String getFormat() {
+			return format;
+		}
+	}
+}
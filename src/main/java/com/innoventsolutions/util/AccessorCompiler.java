@@ -0,0 +1,332 @@
+package com.innoventsolutions.util;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Builds accessors that read a value out of a data row given the name of a
+ * field or getter, so a design can say "amount" instead of supplying a lambda
+ * that casts the row on every call.
+ * <p>
+ * A binding is one of
+ * <ul>
+ * <li>"field: <i>name</i>" - the named field, which may be private</li>
+ * <li>"getter: <i>name</i>" - the named no-argument method</li>
+ * <li>"<i>name</i>" - getName(), isName() or name(), then the field</li>
+ * </ul>
+ * Public getters of classes visible to this library are compiled with
+ * {@link LambdaMetafactory} into a class that calls the getter directly.
+ * Fields, non-public getters and getters whose type needs converting go
+ * through a {@link MethodHandle}. Accessors are cached per row class.
+ */
+public class AccessorCompiler {
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final ClassValue<ConcurrentMap<String, Object>> CACHE =
+			new ClassValue<ConcurrentMap<String, Object>>() {
+				@Override
+				protected ConcurrentMap<String, Object> computeValue(final Class<?> type) {
+					return new ConcurrentHashMap<>();
+				}
+			};
+
+	private AccessorCompiler() {
+	}
+
+	@SuppressWarnings("unchecked")
+	public static Function<Object, String> compileText(final Class<?> rowClass,
+			final String binding) {
+		return (Function<Object, String>) CACHE.get(rowClass).computeIfAbsent("text:" + binding,
+			key -> {
+				final Member member = resolve(rowClass, binding);
+				final Class<?> type = getType(member);
+				if (type == String.class) {
+					final Object accessor = metafactory(rowClass, member, Function.class, "apply",
+						MethodType.methodType(Object.class, Object.class));
+					if (accessor != null) {
+						return accessor;
+					}
+				}
+				final MethodHandle handle = getHandle(member, Object.class);
+				return (Function<Object, String>) dataRow -> {
+					final Object value = invoke(handle, dataRow, binding);
+					return value == null ? null : value.toString();
+				};
+			});
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ToLongFunction<Object> compileInteger(final Class<?> rowClass,
+			final String binding) {
+		return (ToLongFunction<Object>) CACHE.get(rowClass).computeIfAbsent("integer:" + binding,
+			key -> {
+				final Member member = resolve(rowClass, binding);
+				final Class<?> type = getType(member);
+				if (type == long.class || type == int.class || type == short.class
+					|| type == byte.class || type == char.class) {
+					final Object accessor = metafactory(rowClass, member, ToLongFunction.class,
+						"applyAsLong", MethodType.methodType(long.class, Object.class));
+					if (accessor != null) {
+						return accessor;
+					}
+					final MethodHandle handle = getHandle(member, long.class);
+					return (ToLongFunction<Object>) dataRow -> {
+						try {
+							return (long) handle.invokeExact(dataRow);
+						}
+						catch (final Throwable e) {
+							throw new RuntimeException("Failed to read " + binding, e);
+						}
+					};
+				}
+				checkType(Number.class, type, binding);
+				final MethodHandle handle = getHandle(member, Object.class);
+				return (ToLongFunction<Object>) dataRow -> {
+					final Number value = (Number) invoke(handle, dataRow, binding);
+					return value == null ? 0L : value.longValue();
+				};
+			});
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ToDoubleFunction<Object> compileFloat(final Class<?> rowClass,
+			final String binding) {
+		return (ToDoubleFunction<Object>) CACHE.get(rowClass).computeIfAbsent("float:" + binding,
+			key -> {
+				final Member member = resolve(rowClass, binding);
+				final Class<?> type = getType(member);
+				if (type.isPrimitive() && type != boolean.class && type != void.class) {
+					final Object accessor = metafactory(rowClass, member, ToDoubleFunction.class,
+						"applyAsDouble", MethodType.methodType(double.class, Object.class));
+					if (accessor != null) {
+						return accessor;
+					}
+					final MethodHandle handle = getHandle(member, double.class);
+					return (ToDoubleFunction<Object>) dataRow -> {
+						try {
+							return (double) handle.invokeExact(dataRow);
+						}
+						catch (final Throwable e) {
+							throw new RuntimeException("Failed to read " + binding, e);
+						}
+					};
+				}
+				checkType(Number.class, type, binding);
+				final MethodHandle handle = getHandle(member, Object.class);
+				return (ToDoubleFunction<Object>) dataRow -> {
+					final Number value = (Number) invoke(handle, dataRow, binding);
+					return value == null ? 0.0 : value.doubleValue();
+				};
+			});
+	}
+
+	@SuppressWarnings("unchecked")
+	public static Function<Object, Date> compileDate(final Class<?> rowClass,
+			final String binding) {
+		return (Function<Object, Date>) CACHE.get(rowClass).computeIfAbsent("date:" + binding,
+			key -> {
+				final Member member = resolve(rowClass, binding);
+				final Class<?> type = getType(member);
+				checkType(Date.class, type, binding);
+				final Object accessor = metafactory(rowClass, member, Function.class, "apply",
+					MethodType.methodType(Object.class, Object.class));
+				if (accessor != null) {
+					return accessor;
+				}
+				final MethodHandle handle = getHandle(member, Object.class);
+				return (Function<Object, Date>) dataRow -> (Date) invoke(handle, dataRow, binding);
+			});
+	}
+
+	private static Object invoke(final MethodHandle handle, final Object dataRow,
+			final String binding) {
+		try {
+			return handle.invokeExact(dataRow);
+		}
+		catch (final Throwable e) {
+			throw new RuntimeException("Failed to read " + binding, e);
+		}
+	}
+
+	private static void checkType(final Class<?> expected, final Class<?> type,
+			final String binding) {
+		if (!expected.isAssignableFrom(type)) {
+			throw new IllegalArgumentException(
+					"Binding " + binding + " is a " + type.getName() + ", not a " + expected.getName());
+		}
+	}
+
+	private static Class<?> getType(final Member member) {
+		if (member instanceof Method) {
+			return ((Method) member).getReturnType();
+		}
+		return ((Field) member).getType();
+	}
+
+	/**
+	 * @return the member the binding refers to
+	 */
+	static Member resolve(final Class<?> rowClass, final String binding) {
+		final String spec = binding.trim();
+		final int colon = spec.indexOf(':');
+		if (colon >= 0) {
+			final String kind = spec.substring(0, colon).trim();
+			final String name = spec.substring(colon + 1).trim();
+			final Member member;
+			if ("field".equals(kind)) {
+				member = findField(rowClass, name);
+			}
+			else if ("getter".equals(kind)) {
+				member = findGetter(rowClass, name);
+			}
+			else {
+				throw new IllegalArgumentException("Unknown binding kind " + kind + " in " + binding);
+			}
+			if (member == null) {
+				throw new IllegalArgumentException(
+						"No " + kind + " " + name + " in " + rowClass.getName());
+			}
+			return member;
+		}
+		if (spec.isEmpty()) {
+			throw new IllegalArgumentException("Empty binding");
+		}
+		final String capitalized = Character.toUpperCase(spec.charAt(0)) + spec.substring(1);
+		Member member = findGetter(rowClass, "get" + capitalized);
+		if (member == null) {
+			member = findGetter(rowClass, "is" + capitalized);
+		}
+		if (member == null) {
+			member = findGetter(rowClass, spec);
+		}
+		if (member == null) {
+			member = findField(rowClass, spec);
+		}
+		if (member == null) {
+			throw new IllegalArgumentException(
+					"No getter or field " + spec + " in " + rowClass.getName());
+		}
+		return member;
+	}
+
+	private static Method findGetter(final Class<?> rowClass, final String name) {
+		try {
+			final Method method = rowClass.getMethod(name);
+			if (method.getReturnType() != void.class) {
+				return method;
+			}
+		}
+		catch (final NoSuchMethodException e) {
+			// look for a non-public one
+		}
+		for (Class<?> c = rowClass; c != null; c = c.getSuperclass()) {
+			try {
+				final Method method = c.getDeclaredMethod(name);
+				if (method.getReturnType() != void.class && !Modifier.isStatic(method.getModifiers())) {
+					return method;
+				}
+			}
+			catch (final NoSuchMethodException e) {
+				// try the superclass
+			}
+		}
+		return null;
+	}
+
+	private static Field findField(final Class<?> rowClass, final String name) {
+		for (Class<?> c = rowClass; c != null; c = c.getSuperclass()) {
+			try {
+				final Field field = c.getDeclaredField(name);
+				if (!Modifier.isStatic(field.getModifiers())) {
+					return field;
+				}
+			}
+			catch (final NoSuchFieldException e) {
+				// try the superclass
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return a handle of type (Object)returnType
+	 */
+	private static MethodHandle getHandle(final Member member, final Class<?> returnType) {
+		try {
+			final MethodHandle handle;
+			if (member instanceof Method) {
+				final Method method = (Method) member;
+				method.setAccessible(true);
+				handle = LOOKUP.unreflect(method);
+			}
+			else {
+				final Field field = (Field) member;
+				field.setAccessible(true);
+				handle = LOOKUP.unreflectGetter(field);
+			}
+			return handle.asType(MethodType.methodType(returnType, Object.class));
+		}
+		catch (final ReflectiveOperationException | RuntimeException e) {
+			throw new IllegalArgumentException("Cannot access " + member, e);
+		}
+	}
+
+	/**
+	 * Spin a class implementing the functional interface by calling the
+	 * getter directly.
+	 *
+	 * @return the accessor or null if the member cannot be compiled this way
+	 */
+	private static Object metafactory(final Class<?> rowClass, final Member member,
+			final Class<?> interfaceClass, final String methodName, final MethodType erasedType) {
+		if (!(member instanceof Method)) {
+			return null;
+		}
+		final Method method = (Method) member;
+		if (!Modifier.isPublic(method.getModifiers())
+			|| !Modifier.isPublic(method.getDeclaringClass().getModifiers())
+			|| !isVisible(method.getDeclaringClass())
+			|| !isVisible(method.getReturnType())) {
+			return null;
+		}
+		try {
+			final MethodHandle getter = LOOKUP.unreflect(method);
+			final MethodType instantiatedType = MethodType.methodType(
+				erasedType.returnType().isPrimitive() ? erasedType.returnType() : method.getReturnType(),
+				method.getDeclaringClass());
+			return LambdaMetafactory.metafactory(LOOKUP, methodName,
+				MethodType.methodType(interfaceClass), erasedType, getter, instantiatedType)
+				.getTarget().invoke();
+		}
+		catch (final Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The generated class links against the row class through this library's
+	 * class loader, so the row class has to be reachable from it.
+	 */
+	private static boolean isVisible(final Class<?> type) {
+		if (type.isPrimitive()) {
+			return true;
+		}
+		try {
+			return Class.forName(type.getName(), false, AccessorCompiler.class.getClassLoader()) == type;
+		}
+		catch (final ClassNotFoundException e) {
+			return false;
+		}
+	}
+}